@@ -0,0 +1,83 @@
+package bench;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The page numbers a benchmark thread visits, drawn from an access
+ * distribution over a range of pages and replayed in a loop, so drawing the
+ * next page costs an array read:
+ * <ul>
+ * <li>uniform: every page equally likely
+ * <li>zipfian: Zipf with s = 0.99, the ranks dealt to the pages at random
+ * <li>sequential: the pages in order, wrapping around, each thread starting at
+ * its own place
+ * </ul>
+ */
+final class Access {
+
+	/** LENGTH: the pages drawn per thread, a power of 2. */
+	private static final int LENGTH = 1 << 16;
+
+	private final int[] pages;
+	private int next;
+
+	/**
+	 * Draw the pages first .. first + count - 1 from the named distribution.
+	 */
+	Access(String distribution, int first, int count, long seed) {
+		Random rand = new Random(seed);
+		pages = new int[LENGTH];
+		switch (distribution) {
+		case "uniform":
+			for (int i = 0; i < LENGTH; i++) {
+				pages[i] = first + rand.nextInt(count);
+			}
+			break;
+		case "zipfian":
+			zipfian(rand, first, count);
+			break;
+		case "sequential":
+			int start = rand.nextInt(count);
+			for (int i = 0; i < LENGTH; i++) {
+				pages[i] = first + (start + i) % count;
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown distribution: " + distribution);
+		}
+	}
+
+	/**
+	 * Returns the next page number.
+	 */
+	int next() {
+		int page = pages[next];
+		next = (next + 1) & (LENGTH - 1);
+		return page;
+	}
+
+	private void zipfian(Random rand, int first, int count) {
+		double[] cdf = new double[count];
+		double sum = 0;
+		for (int i = 0; i < count; i++) {
+			sum += 1 / Math.pow(i + 1, 0.99);
+			cdf[i] = sum;
+		}
+		int[] pageOfRank = new int[count];
+		// the same ranks for every thread, so they share the hot pages
+		Random deal = new Random(count);
+		for (int i = 0; i < count; i++) {
+			int j = deal.nextInt(i + 1);
+			pageOfRank[i] = pageOfRank[j];
+			pageOfRank[j] = i;
+		}
+		for (int i = 0; i < LENGTH; i++) {
+			int rank = Arrays.binarySearch(cdf, rand.nextDouble() * sum);
+			if (rank < 0) {
+				rank = Math.min(-rank - 1, count - 1);
+			}
+			pages[i] = first + pageOfRank[rank];
+		}
+	}
+}
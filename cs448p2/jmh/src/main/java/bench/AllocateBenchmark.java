@@ -0,0 +1,63 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import global.Minibase;
+import global.PageId;
+
+/**
+ * DiskMgr.allocate_page of a run of runSize pages and deallocate_page of it,
+ * in databases of several sizes. Nine tenths of each database is allocated,
+ * with every eighth page of it freed again, so the space map holds many
+ * one-page holes besides the free tail.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AllocateBenchmark {
+
+	@Param({ "1024", "16384", "262144" })
+	public int numPages;
+
+	@Param({ "1", "16" })
+	public int runSize;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Throwable {
+		Storage.open(numPages, 16, "LRU");
+		int used = numPages / 10 * 9;
+		int first = Minibase.DiskManager.allocate_page(used).pid;
+		for (int i = 0; i < used; i += 8) {
+			Minibase.DiskManager.deallocate_page(new PageId(first + i));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Throwable {
+		Storage.close();
+	}
+
+	@Benchmark
+	public PageId allocatePage() throws Throwable {
+		PageId pid = Minibase.DiskManager.allocate_page(runSize);
+		Minibase.DiskManager.deallocate_page(pid, runSize);
+		return pid;
+	}
+}
@@ -0,0 +1,122 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The regression gate: compares two CSV result files of StorageBenchmarks,
+ * a baseline and a new run, benchmark by benchmark (the same method, thread
+ * count and parameters), and exits with status 1 if any got slower by more
+ * than the tolerance, 10% unless given, beyond the two runs' error margins.
+ * Throughput that drops is slower; for the other modes, time that rises is.
+ * Benchmarks in only one of the files are listed but do not fail the gate.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar bench.CompareResults baseline.csv current.csv [tolerance %]
+ * </pre>
+ */
+public class CompareResults {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("usage: CompareResults baseline.csv current.csv [tolerance %]");
+			System.exit(2);
+		}
+		Map<String, double[]> baseline = read(args[0]);
+		Map<String, double[]> current = read(args[1]);
+		double tolerance = args.length > 2 ? Double.parseDouble(args[2]) / 100 : 0.10;
+
+		int regressions = 0;
+		for (Map.Entry<String, double[]> e : current.entrySet()) {
+			double[] now = e.getValue();
+			double[] before = baseline.get(e.getKey());
+			if (before == null) {
+				System.out.printf("new        %s%n", e.getKey());
+				continue;
+			}
+			boolean higherIsBetter = now[2] > 0;
+			double change = (now[0] - before[0]) / before[0];
+			double slack = (now[1] + before[1]) / before[0];
+			double loss = higherIsBetter ? -change : change;
+			boolean regressed = loss > tolerance + slack;
+			if (regressed) {
+				regressions++;
+			}
+			System.out.printf("%-10s %+7.1f%%  %s%n", regressed ? "REGRESSED" : "ok", 100 * change, e.getKey());
+		}
+		for (String key : baseline.keySet()) {
+			if (!current.containsKey(key)) {
+				System.out.printf("missing    %s%n", key);
+			}
+		}
+		if (regressions > 0) {
+			System.out.println(regressions + " benchmarks regressed by more than " + 100 * tolerance + "%");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Returns each benchmark of a JMH CSV result file, by method, mode, threads
+	 * and parameters, as its score, its error and 1 if higher scores are
+	 * better, -1 if not.
+	 */
+	private static Map<String, double[]> read(String file) throws IOException {
+		List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+		List<String> header = fields(lines.get(0));
+		int mode = header.indexOf("Mode");
+		int threads = header.indexOf("Threads");
+		int score = header.indexOf("Score");
+		int error = header.indexOf("Score Error (99.9%)");
+		Map<String, double[]> results = new LinkedHashMap<String, double[]>();
+		for (String line : lines.subList(1, lines.size())) {
+			if (line.isEmpty()) {
+				continue;
+			}
+			List<String> row = fields(line);
+			StringBuilder key = new StringBuilder(row.get(0)).append(' ').append(row.get(mode)).append(" t=")
+					.append(row.get(threads));
+			for (int i = error + 2; i < row.size(); i++) {
+				if (!row.get(i).isEmpty()) {
+					key.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(row.get(i));
+				}
+			}
+			double err = row.get(error).equals("NaN") ? 0 : Double.parseDouble(row.get(error));
+			results.put(key.toString(), new double[] { Double.parseDouble(row.get(score)), err,
+					row.get(mode).equals("thrpt") ? 1 : -1 });
+		}
+		return results;
+	}
+
+	/**
+	 * Split a CSV line, with JMH's quoting.
+	 */
+	private static List<String> fields(String line) {
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append('"');
+					i++;
+				} else {
+					quoted = !quoted;
+				}
+			} else if (c == ',' && !quoted) {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+}
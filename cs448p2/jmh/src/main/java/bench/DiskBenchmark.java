@@ -0,0 +1,81 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import global.Convert;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+/**
+ * DiskMgr.read_page and write_page of single pages, past the buffer pool,
+ * with the file backend. The reads and writes mostly reach the OS page cache,
+ * not the device.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DiskBenchmark {
+
+	@Param({ "16384" })
+	public int numPages;
+
+	@Param({ "uniform", "zipfian", "sequential" })
+	public String distribution;
+
+	int first;
+	final AtomicLong seeds = new AtomicLong();
+
+	@Setup(Level.Trial)
+	public void setUp() throws Throwable {
+		Storage.open(numPages + 64, 16, "LRU");
+		first = Storage.fill(numPages);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Throwable {
+		Storage.close();
+	}
+
+	@State(Scope.Thread)
+	public static class Pages {
+		Access pages;
+		final Page page = new Page();
+
+		@Setup(Level.Trial)
+		public void setUp(DiskBenchmark b) {
+			pages = new Access(b.distribution, b.first, b.numPages, b.seeds.incrementAndGet());
+		}
+	}
+
+	@Benchmark
+	public int readPage(Pages p) throws Throwable {
+		Minibase.DiskManager.read_page(new PageId(p.pages.next()), p.page);
+		return Convert.getIntValue(0, p.page.getpage());
+	}
+
+	@Benchmark
+	public void writePage(Pages p) throws Throwable {
+		int pageno = p.pages.next();
+		Convert.setIntValue(pageno, 0, p.page.getpage());
+		Minibase.DiskManager.write_page(new PageId(pageno), p.page);
+	}
+}
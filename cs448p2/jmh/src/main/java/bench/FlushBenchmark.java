@@ -0,0 +1,70 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bufmgr.BufMgr;
+import global.Page;
+import global.PageId;
+
+/**
+ * BufMgr.flushAllPages of a pool three quarters of whose frames hold dirty
+ * pages; the rest are left for the database's own pages and the pins of other
+ * threads. Each operation first dirties the pages again, with a pin and an
+ * unpin each, all hits; that costs little beside the writes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FlushBenchmark {
+
+	@Param({ "64", "1024" })
+	public int poolPages;
+
+	BufMgr bm;
+	int first;
+	int dirty;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Throwable {
+		bm = Storage.open(poolPages + 64, poolPages, "LRU");
+		dirty = poolPages / 4 * 3;
+		first = Storage.fill(dirty);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Throwable {
+		Storage.close();
+	}
+
+	@State(Scope.Thread)
+	public static class Frame {
+		final Page page = new Page();
+	}
+
+	@Benchmark
+	public void flushAllPages(Frame f) throws Throwable {
+		for (int i = 0; i < dirty; i++) {
+			PageId pid = new PageId(first + i);
+			bm.pinPage(pid, f.page, false);
+			bm.unpinPage(pid, true);
+		}
+		bm.flushAllPages();
+	}
+}
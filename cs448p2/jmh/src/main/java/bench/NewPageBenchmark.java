@@ -0,0 +1,70 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bufmgr.BufMgr;
+import global.Page;
+import global.PageId;
+
+/**
+ * BufMgr.newPage of one page, unpinPage and freePage: allocating a page on
+ * disk, pinning it into the pool and giving both back. The pool is full of
+ * other pages, so the pin evicts one.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NewPageBenchmark {
+
+	@Param({ "64", "1024" })
+	public int poolPages;
+
+	BufMgr bm;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Throwable {
+		bm = Storage.open(4 * poolPages + 1024, poolPages, "LRU");
+		int first = Storage.fill(2 * poolPages);
+		Page page = new Page();
+		for (int i = 0; i < 2 * poolPages; i++) {
+			PageId pid = new PageId(first + i);
+			bm.pinPage(pid, page, false);
+			bm.unpinPage(pid, false);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Throwable {
+		Storage.close();
+	}
+
+	@State(Scope.Thread)
+	public static class Frame {
+		final Page page = new Page();
+	}
+
+	@Benchmark
+	public PageId newFreePage(Frame f) throws Throwable {
+		PageId pid = bm.newPage(f.page, 1);
+		bm.unpinPage(pid, false);
+		bm.freePage(pid);
+		return pid;
+	}
+}
@@ -0,0 +1,106 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bufmgr.BufMgr;
+import bufmgr.PageReader;
+import global.Convert;
+import global.Page;
+import global.PageId;
+
+/**
+ * BufMgr.pinPage followed by unpinPage. pinHit draws its pages from half as
+ * many pages as the pool has frames, so after the warm-up every pin is a hit;
+ * pinMiss draws them from eight times as many, so most pins read their page,
+ * all of them for sequential, and the pages they evict are clean. readHit
+ * reads the same first int of the same pages as pinHit, with
+ * BufMgr.readOptimistic instead of a pin.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PinBenchmark {
+
+	@Param({ "64", "1024" })
+	public int poolPages;
+
+	@Param({ "uniform", "zipfian", "sequential" })
+	public String distribution;
+
+	@Param({ "LRU" })
+	public String policy;
+
+	/** FIRST_INT: the page's first int, as Convert.getIntValue reads it. */
+	static final PageReader<Integer> FIRST_INT = b -> (b[0] << 24) | (b[1] & 0xff) << 16 | (b[2] & 0xff) << 8
+			| (b[3] & 0xff);
+
+	BufMgr bm;
+	int first;
+	final AtomicLong seeds = new AtomicLong();
+
+	@Setup(Level.Trial)
+	public void setUp() throws Throwable {
+		bm = Storage.open(8 * poolPages + 64, poolPages, policy);
+		first = Storage.fill(8 * poolPages);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Throwable {
+		Storage.close();
+	}
+
+	@State(Scope.Thread)
+	public static class Pages {
+		Access hot;
+		Access all;
+		final Page page = new Page();
+
+		@Setup(Level.Trial)
+		public void setUp(PinBenchmark b) {
+			long seed = b.seeds.incrementAndGet();
+			hot = new Access(b.distribution, b.first, b.poolPages / 2, seed);
+			all = new Access(b.distribution, b.first, 8 * b.poolPages, seed);
+		}
+	}
+
+	@Benchmark
+	public int pinHit(Pages p) throws Throwable {
+		return pin(p.hot.next(), p.page);
+	}
+
+	@Benchmark
+	public int pinMiss(Pages p) throws Throwable {
+		return pin(p.all.next(), p.page);
+	}
+
+	@Benchmark
+	public int readHit(Pages p) throws Throwable {
+		return bm.readOptimistic(new PageId(p.hot.next()), FIRST_INT);
+	}
+
+	private int pin(int pageno, Page page) throws Throwable {
+		PageId pid = new PageId(pageno);
+		bm.pinPage(pid, page, false);
+		int value = Convert.getIntValue(0, page.getpage());
+		bm.unpinPage(pid, false);
+		return value;
+	}
+}
@@ -0,0 +1,58 @@
+package bench;
+
+import java.io.File;
+
+import bufmgr.BufMgr;
+import diskmgr.DiskMgr;
+import global.Convert;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+/**
+ * Sets up the Minibase the benchmarks run against: a database in the
+ * temporary directory, named after the benchmark JVM so forks never share one,
+ * and a buffer manager. Minibase keeps them in static fields, so each fork
+ * runs one benchmark at a time.
+ */
+final class Storage implements GlobalConst {
+
+	private Storage() {
+	}
+
+	/**
+	 * Create a database of numPages pages behind a pool of poolPages frames.
+	 *
+	 * @return the buffer manager
+	 */
+	static BufMgr open(int numPages, int poolPages, String policy) throws Throwable {
+		String dbpath = System.getProperty("java.io.tmpdir") + File.separator + "minibase-jmh-"
+				+ ProcessHandle.current().pid();
+		BufMgr bm = new BufMgr(poolPages, 0, policy);
+		Minibase.BufferManager = bm;
+		Minibase.DiskManager = new DiskMgr();
+		Minibase.DiskManager.openDB(dbpath, numPages, DiskMgr.IO_FILE, PAGE_SIZE);
+		return bm;
+	}
+
+	/**
+	 * Allocate count pages and write each one's page number into it, so a pin
+	 * can check it got the right page.
+	 *
+	 * @return the first page
+	 */
+	static int fill(int count) throws Throwable {
+		int first = Minibase.DiskManager.allocate_page(count).pid;
+		Page data = new Page();
+		for (int i = 0; i < count; i++) {
+			Convert.setIntValue(first + i, 0, data.getpage());
+			Minibase.DiskManager.write_page(new PageId(first + i), data);
+		}
+		return first;
+	}
+
+	static void close() throws Throwable {
+		Minibase.DiskManager.DBDestroy();
+	}
+}
@@ -0,0 +1,51 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the storage benchmarks once for each thread count, 1, 2 and 4 unless
+ * -t names one, and writes the results of all the runs to one file, CSV by
+ * default, for CompareResults. Takes JMH's command line, so
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar:../lib/bufmgrAssign.jar bench.StorageBenchmarks -rff current.csv PinBenchmark
+ * </pre>
+ *
+ * runs only the pin benchmarks.
+ */
+public class StorageBenchmarks {
+
+	private static final int[] THREADS = { 1, 2, 4 };
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		if (cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListProfilers() || cmd.shouldListResultFormats()) {
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+		int[] threads = cmd.getThreads().hasValue() ? new int[] { cmd.getThreads().get() } : THREADS;
+		ResultFormatType format = cmd.getResultFormat().orElse(ResultFormatType.CSV);
+		String file = cmd.getResult().orElse("jmh-result." + format.name().toLowerCase());
+
+		List<RunResult> results = new ArrayList<RunResult>();
+		for (int n : threads) {
+			// each run's own result file is replaced by the one written below
+			Options options = new OptionsBuilder().parent(cmd).threads(n).result(file + ".run").build();
+			Collection<RunResult> run = new Runner(options).run();
+			results.addAll(run);
+		}
+		new java.io.File(file + ".run").delete();
+		ResultFormatFactory.getInstance(format, file).writeOut(results);
+		System.out.println("Results of " + results.size() + " benchmarks written to " + file);
+	}
+}
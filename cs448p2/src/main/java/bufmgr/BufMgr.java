@@ -1,11 +1,32 @@
 package bufmgr;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.Map;
-import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
 
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import diskmgr.DiskMgr;
 import diskmgr.DiskMgrException;
+import diskmgr.IOStats;
+import global.GlobalConst;
 import global.Minibase;
 import global.Page;
 import global.PageId;
@@ -17,8 +38,16 @@ import global.PageId;
  * for this purpose is called the buffer pool. This is just an array of Page
  * objects. The buffer manager is used by access methods, heap files, and
  * relational operators to read, write, allocate, and de-allocate pages.
+ * <p>
+ * Any number of threads may use the buffer manager at once. The page table is
+ * split into latched stripes; pin counts are atomic; a page that is being read
+ * in is marked loading in its frame, and threads that want it wait on the
+ * frame instead of reading it again. The replacer is not thread-safe, so it is
+ * kept behind poolLatch, and threads tell it about pins and unpins through a
+ * queue of frame events that whoever holds the latch drains, so a pin never
+ * waits for the latch.
  */
-public class BufMgr {
+public class BufMgr implements GlobalConst {
 
     // INSTANCE VARIABLES
     // Some of these are accessed during the test cases
@@ -26,30 +55,148 @@ public class BufMgr {
 	// You may add additional ones as you need to
 
     /** bufPool: the buffer pool. An array of Page objects */
-	private Page[] bufPool = null;
+	private volatile Page[] bufPool = null;
 
     /** frmDescr: An arracy of FrameDescriptor objects, holding information about the contents of each frame. */
-    private FrameDescriptor[] frmDescr = null;
+    private volatile FrameDescriptor[] frmDescr = null;
 
     /** numOfFrames: the number of frames used for the maximum capacity of the buffer pool */
-    private int numOfFrames = -1;
+    private volatile int numOfFrames = -1;
 
-	/** replacementPolicy: will be set to FIFO when the constructor is called. */
+	/** replacementPolicy: the name of the replacement policy the constructor was given. */
     private static String replacementPolicy = "";
 
     /** map: Hash table to track which frame in the buffer a page is in <Key: PageID, Value: Frame> */
-    private HashMap<Integer, Integer> pageMap = null;
+    private StripedPageTable pageMap = null;
 	//
 
-    /** fifo: queue for FIFO page replacement. All unpinned pages will be stored here, with the first element being
-     * the pageID that was unpinned the longest time ago */
-	private Queue<Integer> fifo = null;
+	// END OF REQUIRED INSTANCE VARIABLES
+
+	/** CLAIMED: marks a frame number returned by pinOrClaim for a page the caller must read in. */
+	private static final int CLAIMED = 1 << 30;
 
-	private boolean isBfrEmpty = true; // used to check if bufpool is empty or not
+	/** READ_AHEAD: marks a frame number returned by pinResident for the first pin of a page read ahead. */
+	private static final int READ_AHEAD = 1 << 29;
 
-	private int next = 0; // keep track of fifo queue pointer
+	/** FRAME: the bits of a frame number returned by pinResident or pinOrClaim that hold the frame. */
+	private static final int FRAME = READ_AHEAD - 1;
 
-	// END OF REQUIRED INSTANCE VARIABLES
+	/** LOADING: returned by pinResident when the page is being read in by another thread. */
+	private static final int LOADING = -2;
+
+	/** ELSEWHERE: returned by pinOrClaim when another of the named pools holds the page. */
+	private static final int ELSEWHERE = -3;
+
+	/**
+	 * event bits: the frame is queued in changed; it was pinned since the
+	 * replacer last heard of it; its page was read ahead and is now used for
+	 * the first time
+	 */
+	private static final int QUEUED = 1;
+	private static final int PINNED = 2;
+	private static final int FIRST_USE = 4;
+
+	/**
+	 * poolLatch: guards the replacer, the free frames, told and candidate.
+	 * Nothing blocks while it is held, and page table latches are never taken
+	 * while it is held.
+	 */
+	private final SpinLatch poolLatch = new SpinLatch();
+
+	/** replacer: the replacement policy, it picks the victim among the unpinned frames */
+	private Replacer replacer = null;
+
+	/** freeFrames: a stack of the empty frames, handed out before any page is evicted */
+	private int[] freeFrames = null;
+	private int numFree = 0;
+
+	/** told: the page the replacer thinks a frame holds, or -1; candidate: the replacer holds the frame as a candidate */
+	private int[] told = null;
+	private boolean[] candidate = null;
+
+	/** frameEvents: the queue of frame events the replacer has not heard of yet, replaced when resize outgrows it */
+	private volatile FrameEvents frameEvents = null;
+
+	/**
+	 * frameLimit: frames at or past it are being retired by resize; they are
+	 * not handed out again, and a page is not read into them.
+	 */
+	private volatile int frameLimit;
+
+	/**
+	 * claims: frames chosen and not yet entered in the page table, counted by
+	 * the parity of the claimEpoch (guarded by poolLatch) they were chosen in.
+	 * A shrink starts a new epoch and waits for the claims of the one before,
+	 * so no thread still holds a frame chosen before the limit went down.
+	 */
+	private final AtomicInteger[] claims = { new AtomicInteger(), new AtomicInteger() };
+	private int claimEpoch = 0;
+
+	/** writeBacks: async writes of evicted dirty pages that may still be in flight, oldest first */
+	private ArrayDeque<CompletableFuture<Void>> writeBacks = new ArrayDeque<CompletableFuture<Void>>();
+
+	/** MAX_WRITE_RUN: most pages written back with one DiskMgr call */
+	private static final int MAX_WRITE_RUN = 64;
+
+	/** MAX_WARM_RUN: most pages of a warm-restart snapshot read with one DiskMgr call */
+	private static final int MAX_WARM_RUN = 64;
+
+	/** SNAPSHOT_SUFFIX: added to the database name for the file saveSnapshot writes */
+	public static final String SNAPSHOT_SUFFIX = ".warm";
+
+	/** numDirty: the number of frames with their dirty bit set; dirtyLimit: how many the cleaner lets there be */
+	private final AtomicInteger numDirty = new AtomicInteger();
+	private volatile int dirtyLimit;
+	private volatile double dirtyRatio;
+
+	/** cleaner: writes dirty pages in the background once there are more than dirtyLimit */
+	private final PageCleaner cleaner = new PageCleaner(this::cleanPass);
+
+	/** readAhead: finds sequential streams of pins, or null if there is no read-ahead */
+	private ReadAhead readAhead = null;
+
+	/** arena: the off-heap page cache behind the pool, or null if there is none */
+	private OffHeapArena arena = null;
+
+	/** numPrefetched: frames holding a page read ahead and not pinned since; prefetchLimit: how many there may be */
+	private final AtomicInteger numPrefetched = new AtomicInteger();
+	private volatile int prefetchLimit = 0;
+	private final int lookAheadSize;
+
+	/** PIN_SAMPLE: one in this many pins of an unpinned frame is timed for the pin duration histogram, a power of 2 */
+	private static final int PIN_SAMPLE = 64;
+
+	/** OPTIMISTIC_TRIES: how many times readOptimistic reads a page without a pin before it pins it */
+	private static final int OPTIMISTIC_TRIES = 4;
+
+	/** ACCESS_SAMPLE: one in this many reads by readOptimistic is told to the replacer as a use, a power of 2 */
+	private static final int ACCESS_SAMPLE = 16;
+
+	/** stats: hit, miss, eviction and write-back counters, published over JMX */
+	private final PoolStats stats;
+
+	/** DEFAULT_POOL: the name of the pool a BufMgr is to the pools added to it */
+	public static final String DEFAULT_POOL = "default";
+
+	/** poolName: the name of this pool; pools: the named pools, or null if none were added */
+	private final String poolName;
+	private volatile BufferPools pools = null;
+
+	/** router: the BufMgr this pool is the default or a named pool of, or null if it has no pools */
+	private volatile BufMgr router = null;
+
+	/**
+	 * routeLatches: of the BufMgr the pools were added to, the latches a pool
+	 * takes for a page while it makes sure no other pool holds the page and
+	 * enters it in its page table
+	 */
+	private Object[] routeLatches = null;
+
+	/** ROUTE_LATCHES: the number of routeLatches, a power of two */
+	private static final int ROUTE_LATCHES = 64;
+
+	/** trace: the recorder of pins, unpins, new and freed pages, or null while none is recording */
+	private volatile TraceRecorder trace = null;
 
 	/**
 	 * Resets a FrameDescriptor to the default values with no pageID
@@ -62,30 +209,68 @@ public class BufMgr {
 	 * Resets a FrameDescriptor to the default values with the given pageID
 	 */
 	protected void resetFrameDescriptor(int frameId, int pageno) {
+		frmDescr[frameId].changed();
 		frmDescr[frameId].pageno = pageno;
 		frmDescr[frameId].pinCount = 0;
-		frmDescr[frameId].dirtyBit = false;
+		markClean(frameId);
+		if (frmDescr[frameId].clearPrefetched()) {
+			numPrefetched.decrementAndGet();
+			stats.readAheadUnused.increment();
+		}
 	}
 
 	/**
 	 * Create the BufMgr object. Allocate pages (frames) for the buffer pool in main
 	 * memory and make the buffer manage aware that the replacement policy is
-	 * specified by replacerArg (e.g., LH, Clock, LRU, MRU, LIRS, etc.).
+	 * specified by replacerArg: FIFO, LRU, Clock, LRU-K or 2Q (see
+	 * Replacer.create).
 	 *
 	 * @param numbufs
 	 *            number of buffers in the buffer pool
 	 * @param lookAheadSize
-	 *            number of pages to be looked ahead - can be ignored for this assignment
+	 *            number of pages to read ahead of a sequential scan, 0 for none
 	 * @param replacementPolicy
 	 *            Name of the replacement policy
+	 * @throws IllegalArgumentException if the policy is unknown
 	 */
 	public BufMgr(int numbufs, int lookAheadSize, String replacementPolicy) {
-		// we ignore replacementPolicy as there is only one policy implemented in the
-		// system
+		this(numbufs, lookAheadSize, replacementPolicy, defaultOffHeapBytes());
+	}
+
+	/**
+	 * Create the BufMgr object with an off-heap page cache behind the buffer
+	 * pool. Pages evicted from the pool are kept in up to offHeapBytes of
+	 * memory outside the Java heap, and a miss in the pool is served from
+	 * there before the disk is read, so a small pool on the heap can sit in
+	 * front of a cache of several GB that costs the garbage collector nothing.
+	 * The JVM's direct memory limit (-XX:MaxDirectMemorySize) must allow for
+	 * it.
+	 *
+	 * @param numbufs
+	 *            number of buffers in the buffer pool
+	 * @param lookAheadSize
+	 *            number of pages to read ahead of a sequential scan, 0 for none
+	 * @param replacementPolicy
+	 *            Name of the replacement policy
+	 * @param offHeapBytes
+	 *            bytes of off-heap memory for pages, 0 for none
+	 * @throws IllegalArgumentException if the policy is unknown
+	 */
+	public BufMgr(int numbufs, int lookAheadSize, String replacementPolicy, long offHeapBytes) {
+		this(numbufs, lookAheadSize, replacementPolicy, offHeapBytes, DEFAULT_POOL);
+	}
+
+	private BufMgr(int numbufs, int lookAheadSize, String replacementPolicy, long offHeapBytes, String poolName) {
+		this.poolName = poolName;
 		numOfFrames = numbufs;
 		bufPool = new Page[numOfFrames];
 		frmDescr = new FrameDescriptor[numOfFrames];
-		fifo = new LinkedList<Integer>();
+		replacer = Replacer.create(replacementPolicy, numOfFrames);
+		freeFrames = new int[numOfFrames];
+		told = new int[numOfFrames];
+		candidate = new boolean[numOfFrames];
+		frameEvents = new FrameEvents(numOfFrames);
+		frameLimit = numOfFrames;
 		this.replacementPolicy = replacementPolicy;
 		for (int i = 0; i < numOfFrames; i++) {
 			bufPool[i] = new Page();
@@ -94,9 +279,267 @@ public class BufMgr {
 			frmDescr[i].pageno = -1;
 			frmDescr[i].dirtyBit = false;
 			resetFrameDescriptor(i, -1);
-			fifo.add(i);
+			told[i] = INVALID_PAGEID;
+			// frame 0 on top, so the empty frames are handed out in order
+			freeFrames[numOfFrames - 1 - i] = i;
+		}
+		numFree = numOfFrames;
+		pageMap = new StripedPageTable(numOfFrames);
+		this.lookAheadSize = lookAheadSize;
+		if (lookAheadSize > 0) {
+			readAhead = new ReadAhead(lookAheadSize);
+		}
+		setDirtyRatio(defaultDirtyRatio());
+		if (offHeapBytes > 0) {
+			arena = new OffHeapArena(offHeapBytes);
+		}
+		stats = new PoolStats(this);
+		registerStats();
+	}
+
+	/**
+	 * Publish the statistics over JMX as minibase:type=BufMgr, or
+	 * minibase:type=BufMgr,pool="name" for a named pool, taking the name over
+	 * from the buffer manager created before. Monitoring is optional, so a
+	 * failure leaves the statistics unpublished.
+	 */
+	private void registerStats() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(DEFAULT_POOL.equals(poolName) ? "minibase:type=BufMgr"
+					: "minibase:type=BufMgr,pool=" + ObjectName.quote(poolName));
+			try {
+				server.registerMBean(stats, name);
+			} catch (InstanceAlreadyExistsException e) {
+				server.unregisterMBean(name);
+				server.registerMBean(stats, name);
+			}
+		} catch (JMException | SecurityException e) {
+			// not published
+		}
+	}
+
+	/**
+	 * The off-heap cache size of a buffer manager created without one: none,
+	 * unless the "minibase.offheap" system property gives a size, in bytes or
+	 * with a k, m or g suffix.
+	 */
+	private static long defaultOffHeapBytes() {
+		String size = System.getProperty("minibase.offheap", "0").trim().toLowerCase();
+		int shift = size.endsWith("k") ? 10 : size.endsWith("m") ? 20 : size.endsWith("g") ? 30 : 0;
+		if (shift != 0) {
+			size = size.substring(0, size.length() - 1);
+		}
+		return Long.parseLong(size) << shift;
+	}
+
+	/**
+	 * The dirty ratio of a new buffer manager: 1, which keeps the page cleaner
+	 * off, unless the "minibase.dirtyratio" system property sets another.
+	 */
+	private static double defaultDirtyRatio() {
+		return Double.parseDouble(System.getProperty("minibase.dirtyratio", "1"));
+	}
+
+	/**
+	 * Set the share of the buffer pool that may be dirty before the page
+	 * cleaner starts. Once more than ratio * numbufs frames are dirty, a
+	 * background thread writes out the dirty unpinned pages the replacer would
+	 * evict first, until half that many are left, so a miss usually finds a
+	 * clean victim and does not queue a write behind it. The pages are written
+	 * in page order, every run of adjacent pages with one DiskMgr call. A ratio
+	 * of 1 turns the cleaner off.
+	 *
+	 * @param ratio
+	 *            the dirty ratio, 0 to 1
+	 * @throws IllegalArgumentException if ratio is not between 0 and 1
+	 */
+	public void setDirtyRatio(double ratio) {
+		if (!(ratio >= 0 && ratio <= 1)) {
+			throw new IllegalArgumentException("Dirty ratio must be between 0 and 1: " + ratio);
+		}
+		dirtyRatio = ratio;
+		setLimits();
+	}
+
+	/**
+	 * Size dirtyLimit and prefetchLimit to the number of frames.
+	 */
+	private void setLimits() {
+		int n = numOfFrames;
+		dirtyLimit = dirtyRatio == 1 ? n : (int) (dirtyRatio * n);
+		if (readAhead != null) {
+			prefetchLimit = Math.max(1, Math.min(2 * lookAheadSize, n / 4));
+		}
+	}
+
+	/**
+	 * Change the number of frames while the pool is in use. Growing adds empty
+	 * frames. Shrinking retires the frames from newFrames up: their pages are
+	 * evicted as by the replacer, dirty ones written back, and each frame
+	 * still pinned is waited for until it is unpinned; meanwhile the rest of
+	 * the pool keeps working, and no page is read into a frame being retired.
+	 * The per-frame arrays only grow, so a pool shrunk and grown again reuses
+	 * them. Only this pool is resized; named pools are resized through
+	 * getPool.
+	 *
+	 * @param newFrames
+	 *            the new number of frames
+	 * @throws IllegalArgumentException if newFrames is not positive
+	 * @throws DiskMgrException if a dirty page could not be written back; the
+	 *             frames not retired yet stay in the pool until resize is called
+	 *             again
+	 */
+	public synchronized void resize(int newFrames) throws DiskMgrException {
+		if (newFrames <= 0) {
+			throw new IllegalArgumentException("A buffer pool needs at least one frame: " + newFrames);
+		}
+		// finish a shrink that a failed write stopped
+		retireFrames(frameLimit);
+		int oldFrames = numOfFrames;
+		if (newFrames > oldFrames) {
+			Page[] pages = bufPool;
+			FrameDescriptor[] descs = frmDescr;
+			int capacity = descs.length;
+			if (newFrames > capacity) {
+				// the slots are never replaced, so copies of them stay good
+				pages = Arrays.copyOf(pages, newFrames);
+				descs = Arrays.copyOf(descs, newFrames);
+				for (int i = capacity; i < newFrames; i++) {
+					pages[i] = new Page();
+					descs[i] = new FrameDescriptor();
+				}
+			}
+			poolLatch.lock();
+			try {
+				drainEvents();
+				if (newFrames > capacity) {
+					told = Arrays.copyOf(told, newFrames);
+					Arrays.fill(told, capacity, newFrames, INVALID_PAGEID);
+					candidate = Arrays.copyOf(candidate, newFrames);
+					freeFrames = Arrays.copyOf(freeFrames, newFrames);
+					bufPool = pages;
+					frmDescr = descs;
+					replaceFrameEvents(newFrames);
+				}
+				replacer.resize(newFrames);
+				// the lowest new frame on top, so they are handed out in order
+				for (int i = newFrames - 1; i >= oldFrames; i--) {
+					freeFrames[numFree++] = i;
+				}
+				frameLimit = newFrames;
+				numOfFrames = newFrames;
+				setLimits();
+			} finally {
+				poolLatch.unlock();
+			}
+		} else if (newFrames < oldFrames) {
+			int stale;
+			poolLatch.lock();
+			try {
+				frameLimit = newFrames;
+				drainEvents();
+				// take the retiring frames off the free frames
+				int kept = 0;
+				for (int i = 0; i < numFree; i++) {
+					if (freeFrames[i] < newFrames) {
+						freeFrames[kept++] = freeFrames[i];
+					}
+				}
+				numFree = kept;
+				stale = claimEpoch++;
+			} finally {
+				poolLatch.unlock();
+			}
+			// a frame chosen before the limit went down may still get a page; once
+			// those claims are done, no page goes into a retiring frame
+			while (claims[stale & 1].get() != 0) {
+				Thread.yield();
+			}
+			retireFrames(newFrames);
+		}
+	}
+
+	/**
+	 * Retire the frames from limit up to numOfFrames, as the second half of a
+	 * shrink, and leave numOfFrames at limit. frameLimit is limit already.
+	 */
+	private void retireFrames(int limit) throws DiskMgrException {
+		int oldFrames = numOfFrames;
+		if (limit >= oldFrames) {
+			return;
+		}
+		for (int i = limit; i < oldFrames; i++) {
+			retireFrame(i);
+		}
+		poolLatch.lock();
+		try {
+			drainEvents();
+			replacer.resize(limit);
+			numOfFrames = limit;
+			setLimits();
+		} finally {
+			poolLatch.unlock();
+		}
+		// the retired frames' buffers go to the garbage collector; framePage
+		// gives a frame a new one if it is used again
+		for (int i = limit; i < oldFrames; i++) {
+			bufPool[i].setpage(new byte[0]);
+		}
+	}
+
+	/**
+	 * Empty a frame past frameLimit: wait for its page to be read in and
+	 * unpinned, then evict it. The frame is not handed out again while
+	 * frameLimit is below it, and nobody holds a claim on it from before, so
+	 * once it is empty it stays empty.
+	 */
+	private void retireFrame(int frameId) throws DiskMgrException {
+		FrameDescriptor frame = frmDescr[frameId];
+		while (true) {
+			int pageno = frame.pageno;
+			if (pageno == INVALID_PAGEID && frame.claimedIn < 0) {
+				break;
+			}
+			if (pageno == INVALID_PAGEID) {
+				// evicted by a thread that chose it as a victim, and about to let it go
+				Thread.yield();
+				continue;
+			}
+			if (frame.loading) {
+				awaitLoad(frameId, pageno);
+				continue;
+			}
+			if (frame.pinCount > 0) {
+				// pins are short; whoever holds this one is not held up
+				LockSupport.parkNanos(1000000);
+				continue;
+			}
+			poolLatch.lock();
+			try {
+				// the replacer must not choose it meanwhile
+				drainEvents();
+				if (told[frameId] != INVALID_PAGEID) {
+					replacer.freed(frameId);
+					told[frameId] = INVALID_PAGEID;
+					candidate[frameId] = false;
+				}
+			} finally {
+				poolLatch.unlock();
+			}
+			boolean evicted;
+			try {
+				evicted = evictFrame(frameId);
+			} catch (DiskMgrException e) {
+				reconcileLocked(frameId);
+				throw e;
+			}
+			if (!evicted) {
+				// pinned again; the replacer hears of it as usual
+				reconcileLocked(frameId);
+			}
 		}
-		pageMap = new HashMap<Integer, Integer>();
+		reconcileLocked(frameId);
 	}
 
 	/**
@@ -119,81 +562,973 @@ public class BufMgr {
 	public void pinPage(PageId pageno, Page page, boolean emptyPage)
 			throws BufferPoolExceededException, DiskMgrException {
 		// YOUR CODE HERE
+		BufMgr pool = poolOf(pageno);
+		while (!pool.pinHere(pageno, page)) {
+			// another pool read the page in meanwhile
+			pool = router.poolOf(pageno);
+		}
+		traced(TraceRecorder.PIN, pageno.pid);
+	}
 
-		//check if page is in bufpool, aka pageMap which is a hashtable
-		Integer key = pageMap.get(pageno.pid);
-		if (key != null) {
-			//increment pin count and return ptr to this page -> use setpage
-			FrameDescriptor frame = frmDescr[key];
-			frame.pinCount++;
-			page.setPage(bufPool[key]);
-		}
-		else {
-			// page not in pool, find a frame from fifo queue, and also a new page p
-			Page p = new Page();
-			if (!isBfrEmpty) {
-				//get the head of the queue if it is not null else throw error
-				int idx = -1;
-				Integer front = fifo.poll();
-				if (front != null) {
-					idx = pageMap.get(front);
-					if (frmDescr[idx].pinCount > 0) {
-						throw new BufferPoolExceededException("Queue has no head");
-					}
+	/**
+	 * Pin page pageno in this pool, as pinPage does.
+	 *
+	 * @return false, with nothing pinned, if another of the named pools holds
+	 *         the page
+	 */
+	private boolean pinHere(PageId pageno, Page page) throws BufferPoolExceededException, DiskMgrException {
+		//check if page is in bufpool, aka pageMap which is a hashtable; if it
+		// isn't we get an empty frame for it and read the page from disk,
+		// straight into the frame's own buffer
+		int key = pinOrClaim(pageno.pid, true);
+		if (key == ELSEWHERE) {
+			return false;
+		}
+		int frameId = key & FRAME;
+		if ((key & CLAIMED) != 0) {
+			stats.misses.increment();
+			try {
+				Page target = framePage(frameId);
+				if (arena != null && arena.get(pageno.pid, target.getpage())) {
+					stats.offHeapHits.increment();
 				} else {
-					throw new BufferPoolExceededException("Queue has no head");
+					Minibase.DiskManager.read_page(pageno, target);
+				}
+			} catch (DiskMgrException e) {
+				abandonFrame(frameId, pageno.pid);
+				throw e;
+			}
+			finishLoad(frameId);
+		} else {
+			stats.hits.increment();
+		}
+		// finally call setPage on the frame's page
+		page.setPage(bufPool[frameId]);
+		// a miss, or the first use of a page read ahead, may be part of a scan
+		if (readAhead != null && (key & (CLAIMED | READ_AHEAD)) != 0) {
+			readAhead(pageno.pid);
+		}
+		return true;
+	}
+
+	/**
+	 * Pin a run of consecutive pages. Pages already in the pool are pinned as by
+	 * pinPage; every run of missing pages is read with a single DiskMgr call
+	 * instead of one read per page. On return out[i] is a view of page
+	 * firstpage + i (a new Page object is created where out[i] is null). If the
+	 * pool cannot hold the whole run, nothing stays pinned. With named pools,
+	 * the run is split where its pages are held by, or assigned to, another
+	 * pool, and each part is pinned in its own pool.
+	 *
+	 * @param firstpage
+	 *            the first page of the run
+	 * @param count
+	 *            the number of pages in the run
+	 * @param out
+	 *            receives the pinned pages, at least count long
+	 * @throws BufferPoolExceededException if there are not enough replacement candidates for the missing pages
+	 * @throws DiskMgrException if there is an error from the DiskMgr layer
+	 */
+	public void pinRange(PageId firstpage, int count, Page[] out)
+			throws BufferPoolExceededException, DiskMgrException {
+		BufferPools pools = this.pools;
+		if (pools != null) {
+			pinSplit(pools, firstpage, count, out);
+		} else if (!pinRun(firstpage.pid, count, out, 0, new int[count])) {
+			// another pool read a page of the run in meanwhile
+			router.pinSplit(router.pools, firstpage, count, out);
+		}
+		tracedRange(firstpage.pid, count);
+	}
+
+	/**
+	 * Pin a run of pages as pinRange does, in the pools holding them.
+	 */
+	private void pinSplit(BufferPools pools, PageId firstpage, int count, Page[] out)
+			throws BufferPoolExceededException, DiskMgrException {
+		// a page read into one pool must not be read into another, where it
+		// would be a second copy, so each part goes to the pool holding it
+		BufMgr[] held = new BufMgr[count];
+		int[] frames = new int[count];
+		int done = 0;
+		try {
+			BufMgr pool = pools.holder(firstpage);
+			while (done < count) {
+				int run = 1;
+				BufMgr next = null;
+				while (done + run < count && (next = pools.holder(new PageId(firstpage.pid + done + run))) == pool) {
+					run++;
+				}
+				if (!pool.pinRun(firstpage.pid + done, run, out, done, frames)) {
+					// another pool read a page of this part in meanwhile
+					pool = pools.holder(new PageId(firstpage.pid + done));
+					continue;
+				}
+				Arrays.fill(held, done, done + run, pool);
+				done += run;
+				pool = next;
+			}
+		} catch (BufferPoolExceededException | DiskMgrException e) {
+			// unpin the parts pinned before, so nothing stays pinned
+			for (int i = 0; i < done; i++) {
+				held[i].unpinFrame(frames[i]);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Pin the run of count pages from firstpage in this pool, as pinRange
+	 * does, putting the pages in out[at] on and their frames in pinned[at] on.
+	 *
+	 * @return false, with nothing pinned, if another of the named pools holds
+	 *         a page of the run
+	 */
+	private boolean pinRun(int firstpage, int count, Page[] out, int at, int[] pinned)
+			throws BufferPoolExceededException, DiskMgrException {
+		int[] frames = new int[count];
+		boolean[] claimed = new boolean[count];
+		for (int i = 0; i < count; i++) {
+			frames[i] = INVALID_PAGEID;
+		}
+		try {
+			// pin what is already resident first, so those pages can't be picked
+			// as victims while we make room for the rest
+			for (int i = 0; i < count; i++) {
+				int key = pinResident(firstpage + i, false, true);
+				if (key >= 0) {
+					frames[i] = key & FRAME;
+					stats.hits.increment();
+				}
+			}
+			// then claim frames for the missing pages, and read each run of them
+			// in one go
+			for (int i = 0; i < count; i++) {
+				if (frames[i] != INVALID_PAGEID) {
+					continue;
+				}
+				int key = pinOrClaim(firstpage + i, false);
+				if (key == LOADING) {
+					// another thread is reading this page; read ours before waiting
+					// for it, or two overlapping runs could wait for each other
+					readClaimed(firstpage, frames, claimed);
+					key = pinOrClaim(firstpage + i, true);
+				}
+				if (key == ELSEWHERE) {
+					undoRun(firstpage, frames, claimed);
+					return false;
+				}
+				claimed[i] = (key & CLAIMED) != 0;
+				frames[i] = key & FRAME;
+				(claimed[i] ? stats.misses : stats.hits).increment();
+			}
+			readClaimed(firstpage, frames, claimed);
+		} catch (BufferPoolExceededException | DiskMgrException e) {
+			undoRun(firstpage, frames, claimed);
+			throw e;
+		}
+		for (int i = 0; i < count; i++) {
+			if (out[at + i] == null) {
+				out[at + i] = new Page(bufPool[frames[i]].getpage());
+			} else {
+				out[at + i].setPage(bufPool[frames[i]]);
+			}
+		}
+		System.arraycopy(frames, 0, pinned, at, count);
+		return true;
+	}
+
+	/**
+	 * Undo the pins and claims taken by pinRun.
+	 */
+	private void undoRun(int firstpage, int[] frames, boolean[] claimed) {
+		for (int i = 0; i < frames.length; i++) {
+			if (claimed[i]) {
+				abandonFrame(frames[i], firstpage + i);
+			} else if (frames[i] != INVALID_PAGEID) {
+				unpinFrame(frames[i]);
+			}
+		}
+	}
+
+	/**
+	 * Read a page without pinning it. If the page is in the pool and not
+	 * pinned, reader is run on the frame's bytes with no latch held and no pin
+	 * taken, and its result is kept if the frame still holds the page,
+	 * unpinned and unchanged, when it returns; otherwise it is run again, and
+	 * after OPTIMISTIC_TRIES tries on the page pinned as by pinPage. A hit
+	 * writes nothing shared but a counter, so threads looking up the same hot
+	 * pages do not meet on a latch or a pin count.
+	 * <p>
+	 * The page is taken to be unchanged if its pin count is 0 when the read
+	 * ends and its frame's version did not move: whoever changes a page holds
+	 * a pin on it while it does, and unpins it dirty, which moves the version
+	 * before the pin is dropped. reader may therefore see a page halfway
+	 * through a change, on a try that then does not validate; it must not keep
+	 * the array, nor loop on what it reads, and what it throws on such a try
+	 * is dropped. The replacer hears of one read in ACCESS_SAMPLE as a use of
+	 * the page.
+	 *
+	 * @param pageno
+	 *            the page to read
+	 * @param reader
+	 *            reads what the caller wants from the page's bytes
+	 * @return what reader returned on the try that validated, or on the pinned page
+	 * @throws BufferPoolExceededException if the page had to be read in and every frame is pinned
+	 * @throws DiskMgrException if the page had to be read in and the read failed
+	 */
+	public <T> T readOptimistic(PageId pageno, PageReader<T> reader)
+			throws BufferPoolExceededException, DiskMgrException {
+		BufMgr pool = poolOf(pageno);
+		if (pool != this) {
+			T result = pool.readOptimistic(pageno, reader);
+			traced(TraceRecorder.PIN, pageno.pid);
+			traced(TraceRecorder.UNPIN, pageno.pid);
+			return result;
+		}
+		int pid = pageno.pid;
+		for (int tries = 0; tries < OPTIMISTIC_TRIES; tries++) {
+			// the per-frame arrays only grow, and their slots are never replaced
+			int frameId = pageMap.getOptimistic(pid);
+			FrameDescriptor[] descs = frmDescr;
+			if (frameId < 0 || frameId >= descs.length) {
+				// not in the pool, or its stripe was changing
+				break;
+			}
+			FrameDescriptor frame = descs[frameId];
+			int version = frame.version;
+			if (frame.pageno != pid || frame.loading || frame.pinCount != 0) {
+				stats.optimisticRetries.increment();
+				Thread.onSpinWait();
+				continue;
+			}
+			T result = null;
+			RuntimeException failure = null;
+			try {
+				result = reader.read(bufPool[frameId].getpage());
+			} catch (RuntimeException e) {
+				failure = e;
+			}
+			// the page's bytes are read before the checks below
+			VarHandle.acquireFence();
+			if (frame.pinCount == 0 && !frame.loading && frame.version == version && frame.pageno == pid) {
+				if (failure != null) {
+					throw failure;
+				}
+				stats.optimisticReads.increment();
+				if ((ThreadLocalRandom.current().nextInt() & (ACCESS_SAMPLE - 1)) == 0) {
+					post(frameId, PINNED);
+				}
+				traced(TraceRecorder.PIN, pid);
+				traced(TraceRecorder.UNPIN, pid);
+				return result;
+			}
+			stats.optimisticRetries.increment();
+		}
+		Page page = new Page(null);
+		BufMgr holder = this;
+		while (!holder.pinHere(pageno, page)) {
+			// another pool read the page in meanwhile
+			holder = router.poolOf(pageno);
+		}
+		traced(TraceRecorder.PIN, pid);
+		try {
+			return reader.read(page.getpage());
+		} finally {
+			try {
+				holder.unpinHere(pageno, false);
+			} catch (PageNotFoundException | PageUnpinnedException e) {
+				// the pin taken above keeps the page in the pool
+				throw new IllegalStateException(e);
+			}
+			traced(TraceRecorder.UNPIN, pid);
+		}
+	}
+
+	/**
+	 * Read every run of claimed pages of a pinRange with one DiskMgr call each,
+	 * and mark them loaded.
+	 */
+	private void readClaimed(int firstpage, int[] frames, boolean[] claimed) throws DiskMgrException {
+		if (arena != null) {
+			// the pages the off-heap cache holds need no read
+			for (int i = 0; i < claimed.length; i++) {
+				if (claimed[i] && arena.get(firstpage + i, framePage(frames[i]).getpage())) {
+					stats.offHeapHits.increment();
+					finishLoad(frames[i]);
+					claimed[i] = false;
+				}
+			}
+		}
+		for (int i = 0; i < claimed.length;) {
+			if (!claimed[i]) {
+				i++;
+				continue;
+			}
+			int run = 1;
+			while (i + run < claimed.length && claimed[i + run]) {
+				run++;
+			}
+			Page[] pages = new Page[run];
+			for (int j = 0; j < run; j++) {
+				pages[j] = framePage(frames[i + j]);
+			}
+			Minibase.DiskManager.read_pages(new PageId(firstpage + i), pages);
+			for (int j = 0; j < run; j++) {
+				finishLoad(frames[i + j]);
+				claimed[i + j] = false;
+			}
+			i += run;
+		}
+	}
+
+	/**
+	 * The Page of a frame claimed for a page, to read the page into. Frames
+	 * keep their buffer from page to page; a new one is only allocated when the
+	 * open database's page size differs from the buffer's (frames start out at
+	 * the default PAGE_SIZE until the first page is read).
+	 */
+	private Page framePage(int frameId) {
+		int pageSize = Minibase.DiskManager.db_page_size();
+		Page frame = bufPool[frameId];
+		if (frame.getpage().length != pageSize) {
+			// the slot keeps its Page, as resize may be copying the array
+			frame.setpage(new byte[pageSize]);
+		}
+		return frame;
+	}
+
+	/**
+	 * Pin page pageno if it is in the pool. A page that is still being read in
+	 * is waited for, or with wait unset reported as LOADING. With access unset
+	 * the pin is not a use of the page as far as the replacer is concerned.
+	 *
+	 * @return the frame holding the page, pinned, | READ_AHEAD if the page was
+	 *         read ahead and this is its first use; or -1 if it is not in the
+	 *         pool
+	 */
+	private int pinResident(int pageno, boolean wait, boolean access) {
+		StampedLock latch = pageMap.latch(pageno);
+		while (true) {
+			int frameId;
+			boolean loading;
+			long stamp = latch.readLock();
+			try {
+				frameId = pageMap.get(pageno);
+				if (frameId < 0) {
+					return -1;
+				}
+				loading = frmDescr[frameId].loading;
+				if (!loading && frmDescr[frameId].pin() == 0) {
+					startPin(frameId);
+				}
+			} finally {
+				latch.unlockRead(stamp);
+			}
+			if (!loading) {
+				// a pin that is not a use leaves the replacer alone; if it picks the
+				// frame meanwhile, evictFrame sees the pin
+				if (access) {
+					if (frmDescr[frameId].prefetched && frmDescr[frameId].clearPrefetched()) {
+						numPrefetched.decrementAndGet();
+						stats.readAheadUsed.increment();
+						post(frameId, FIRST_USE);
+						return frameId | READ_AHEAD;
+					}
+					post(frameId, PINNED);
+				}
+				return frameId;
+			}
+			if (!wait) {
+				return LOADING;
+			}
+			long start = System.nanoTime();
+			awaitLoad(frameId, pageno);
+			stats.pinWait.record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Pin page pageno, or claim a frame for it: the frame is entered in the
+	 * page table as loading the page, pinned once, and the caller must read the
+	 * page into it and call finishLoad, or abandonFrame if the read fails.
+	 *
+	 * @param wait
+	 *            wait for a page another thread is reading in, instead of
+	 *            returning LOADING
+	 * @return the frame holding the page, or the claimed frame | CLAIMED; or
+	 *         ELSEWHERE if another of the named pools holds the page
+	 */
+	private int pinOrClaim(int pageno, boolean wait) throws BufferPoolExceededException, DiskMgrException {
+		while (true) {
+			int key = pinResident(pageno, wait, true);
+			if (key != -1) {
+				return key;
+			}
+			int idx = victimFrame();
+			if (installFrame(idx, pageno, false)) {
+				return idx | CLAIMED;
+			}
+			// another thread read the page in meanwhile, into this pool or another
+			releaseFrame(idx);
+			BufMgr router = this.router;
+			if (router != null && router.heldElsewhere(this, pageno)) {
+				return ELSEWHERE;
+			}
+		}
+	}
+
+	/**
+	 * Enter an empty frame in the page table as loading page pageno, pinned
+	 * once, unless the page is in the pool already, or in another of the named
+	 * pools. A page read ahead is not pinned, and is marked prefetched until it
+	 * is first used. This ends the claim chooseFrame made on the frame.
+	 * <p>
+	 * A page is looked for in every pool before it is read into one, but an
+	 * assignment may change, or another pool may read the page in, after
+	 * that. So with named pools the page's routing latch, which every pool
+	 * takes for the page here, is held while the other pools are checked and
+	 * the frame is entered: of two pools missing on a page at once, the second
+	 * finds the first one's frame and backs off.
+	 */
+	private boolean installFrame(int frameId, int pageno, boolean prefetch) {
+		BufMgr router = this.router;
+		boolean installed;
+		if (router == null) {
+			installed = enterFrame(frameId, pageno, prefetch);
+		} else {
+			synchronized (router.routeLatches[pageno & (ROUTE_LATCHES - 1)]) {
+				if (router.heldElsewhere(this, pageno)) {
+					unclaim(frameId);
+					return false;
+				}
+				installed = enterFrame(frameId, pageno, prefetch);
+			}
+		}
+		if (installed) {
+			post(frameId, 0);
+		}
+		return installed;
+	}
+
+	/**
+	 * Enter the frame in the page table for installFrame, unless the page is
+	 * in this pool already, and end the claim on the frame.
+	 */
+	private boolean enterFrame(int frameId, int pageno, boolean prefetch) {
+		StampedLock latch = pageMap.latch(pageno);
+		long stamp = latch.writeLock();
+		try {
+			if (pageMap.get(pageno) >= 0) {
+				return false;
+			}
+			resetFrameDescriptor(frameId, pageno);
+			frmDescr[frameId].pinCount = prefetch ? 0 : 1;
+			if (!prefetch) {
+				startPin(frameId);
+			}
+			frmDescr[frameId].loading = true;
+			if (prefetch) {
+				frmDescr[frameId].prefetched = true;
+				numPrefetched.incrementAndGet();
+			}
+			pageMap.put(pageno, frameId);
+		} finally {
+			latch.unlockWrite(stamp);
+			unclaim(frameId);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if a pool other than pool, among the pools added to this
+	 * buffer manager, holds page pageno or is reading it in.
+	 */
+	private boolean heldElsewhere(BufMgr pool, int pageno) {
+		for (BufMgr other : pools.all()) {
+			if (other != pool && other.resident(pageno)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The page claimed by installFrame has been read in; wake up the threads
+	 * waiting for it.
+	 */
+	private void finishLoad(int frameId) {
+		FrameDescriptor frame = frmDescr[frameId];
+		frame.changed();
+		synchronized (frame) {
+			frame.loading = false;
+			frame.notifyAll();
+		}
+	}
+
+	/**
+	 * The page claimed by installFrame could not be read in; take it out of
+	 * the page table, wake up the threads waiting for it (they will try to
+	 * read it themselves) and free the frame.
+	 */
+	private void abandonFrame(int frameId, int pageno) {
+		StampedLock latch = pageMap.latch(pageno);
+		long stamp = latch.writeLock();
+		try {
+			pageMap.remove(pageno);
+			resetFrameDescriptor(frameId);
+		} finally {
+			latch.unlockWrite(stamp);
+		}
+		finishLoad(frameId);
+		releaseFrame(frameId);
+	}
+
+	/**
+	 * Wait until frame is no longer loading page pageno.
+	 */
+	private void awaitLoad(int frameId, int pageno) {
+		FrameDescriptor frame = frmDescr[frameId];
+		boolean interrupted = false;
+		synchronized (frame) {
+			while (frame.loading && frame.pageno == pageno) {
+				try {
+					frame.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
 				}
-				// check if dirtybit is true, if it is write old page into frame. USE FLUSHPAGE
-				if (frmDescr[idx].dirtyBit) {
-					try {
-						flushPage(new PageId(frmDescr[idx].pageno));
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Tell the stream finder about a pin of pageno that missed or used a page
+	 * read ahead, and queue async reads of the pages it says to read ahead.
+	 * Each goes into a free frame or the replacer's victim, unpinned and marked
+	 * prefetched until its first use. At most prefetchLimit such pages are in
+	 * the pool at a time, so pages read ahead for nothing cannot push out more
+	 * than that many others. Pages that are not allocated, or that are
+	 * assigned to another of the named pools, are skipped. Read-ahead is only
+	 * a hint: it stops, without an error, when there is no frame to spare or
+	 * the read cannot be queued.
+	 */
+	private void readAhead(int pageno) {
+		long range = readAhead.pinned(pageno);
+		int first = (int) (range >>> 32);
+		int end = Math.min(first + (int) range, Minibase.DiskManager.db_num_pages());
+		for (int p = first; p < end && numPrefetched.get() < prefetchLimit; p++) {
+			if (resident(p) || !assignedHere(p) || !Minibase.DiskManager.is_allocated(new PageId(p))) {
+				continue;
+			}
+			int idx;
+			try {
+				idx = chooseFrame();
+			} catch (BufferPoolExceededException | DiskMgrException e) {
+				return;
+			}
+			if (!installFrame(idx, p, true)) {
+				releaseFrame(idx);
+				continue;
+			}
+			stats.pagesReadAhead.increment();
+			if (arena != null && arena.get(p, framePage(idx).getpage())) {
+				finishLoad(idx);
+				continue;
+			}
+			int frameId = idx;
+			int prefetched = p;
+			try {
+				Minibase.DiskManager.readPageAsync(new PageId(p), framePage(idx)).whenComplete((v, e) -> {
+					if (e == null) {
+						finishLoad(frameId);
+					} else {
+						abandonFrame(frameId, prefetched);
 					}
-					catch (PageNotFoundException e) {
-						throw new DiskMgrException(e.getMessage());
+				});
+			} catch (DiskMgrException e) {
+				abandonFrame(idx, p);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns true if page pageno is assigned to this pool, which is always
+	 * the case if it has no pools; a scan reads ahead only the pages it
+	 * would pin into this pool.
+	 */
+	private boolean assignedHere(int pageno) {
+		BufMgr router = this.router;
+		return router == null || router.pools.assigned(new PageId(pageno)) == this;
+	}
+
+	/**
+	 * Returns true if page pageno is in this pool, or being read into it.
+	 */
+	boolean resident(int pageno) {
+		StampedLock latch = pageMap.latch(pageno);
+		long stamp = latch.readLock();
+		try {
+			return pageMap.get(pageno) >= 0;
+		} finally {
+			latch.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Drops one pin on a frame; a frame whose pin count reaches 0 becomes a
+	 * replacement candidate.
+	 */
+	private void unpinFrame(int frameId) {
+		if (frmDescr[frameId].unpin() == 0) {
+			unpinned(frameId);
+		}
+	}
+
+	/**
+	 * A frame's pin count has gone from 0 to 1. Reading the clock costs about
+	 * as much as the rest of a hit, so only one such pin in PIN_SAMPLE is
+	 * timed.
+	 */
+	private void startPin(int frameId) {
+		FrameDescriptor frame = frmDescr[frameId];
+		frame.pinnedAt = (++frame.pins & (PIN_SAMPLE - 1)) == 0 ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * A frame's pin count has dropped to 0: record how long it was pinned if
+	 * the pin was timed, and make it a replacement candidate.
+	 */
+	private void unpinned(int frameId) {
+		long pinnedAt = frmDescr[frameId].pinnedAt;
+		if (pinnedAt != 0) {
+			stats.pinDuration.record(System.nanoTime() - pinnedAt);
+		}
+		post(frameId, 0);
+	}
+
+	/**
+	 * Choose an empty frame for a page that is not in the pool: a free frame if
+	 * there is one, otherwise the replacer's victim, with its page evicted. If
+	 * the victim holds a dirty page, its write-back is queued with the DiskMgr's
+	 * async engine, so it overlaps with the read of the page that replaces it.
+	 *
+	 * @throws BufferPoolExceededException if every frame is pinned
+	 * @throws DiskMgrException if the dirty page could not be queued, or an
+	 *             earlier write-back failed
+	 */
+	private int victimFrame() throws BufferPoolExceededException, DiskMgrException {
+		reapWriteBacks(false);
+		return chooseFrame();
+	}
+
+	/**
+	 * victimFrame without looking at earlier write-backs.
+	 */
+	private int chooseFrame() throws BufferPoolExceededException, DiskMgrException {
+		while (true) {
+			int idx;
+			poolLatch.lock();
+			try {
+				drainEvents();
+				if (numFree > 0) {
+					return claim(freeFrames[--numFree]);
+				}
+				idx = replacer.victim();
+				if (idx < 0) {
+					// events still on their way to the ring could hold the last candidates
+					int n = numOfFrames;
+					for (int i = 0; i < n; i++) {
+						reconcile(i, 0);
 					}
+					idx = replacer.victim();
 				}
-				// finally read new page
-				Minibase.DiskManager.read_page(pageno, p);
-				// if a frame already exists, remove it from the ma
-				if (frmDescr[idx] != null) {
-					pageMap.remove(frmDescr[idx].pageno);
+				if (idx < 0) {
+					throw new BufferPoolExceededException("Every frame is pinned");
 				}
-				// add new page to the bufpool at the current index, create a frmdesc obj for it and increment pinCount
-				bufPool[idx] = p;
-				FrameDescriptor newFrame = new FrameDescriptor();
-				newFrame.pageno = pageno.pid;
-				newFrame.pinCount = 1;
-				frmDescr[idx] = newFrame;
-				pageMap.put(pageno.pid, idx);
-				// put new page into the map
-			}
-			// bfr is full, do same but with next ptr
-			else {
-				Minibase.DiskManager.read_page(pageno, p);
-				if (frmDescr[next] != null) {
-					pageMap.remove(frmDescr[next].pageno);
+				told[idx] = INVALID_PAGEID;
+				candidate[idx] = false;
+				claim(idx);
+			} finally {
+				poolLatch.unlock();
+			}
+			boolean evicted;
+			try {
+				evicted = evictFrame(idx);
+			} catch (DiskMgrException e) {
+				// keep the page; the replacer hears of it again below
+				unclaim(idx);
+				reconcileLocked(idx);
+				throw e;
+			}
+			if (evicted && idx < frameLimit) {
+				return idx;
+			}
+			unclaim(idx);
+			if (evicted) {
+				// retired by a resize since; it stays empty
+				continue;
+			}
+			// pinned or dropped by another thread since the replacer chose it, or
+			// still being read ahead
+			reconcileLocked(idx);
+			if (frmDescr[idx].pinCount == 0) {
+				awaitLoad(idx, frmDescr[idx].pageno);
+			}
+		}
+	}
+
+	/**
+	 * Count a frame handed out by chooseFrame as claimed in the current claim
+	 * epoch, until installFrame is done with it. The replacer does not hear of
+	 * a claimed frame, so no other thread chooses it meanwhile. Called with
+	 * poolLatch held.
+	 *
+	 * @return frameId
+	 */
+	private int claim(int frameId) {
+		frmDescr[frameId].claimedIn = claimEpoch & 1;
+		claims[claimEpoch & 1].incrementAndGet();
+		return frameId;
+	}
+
+	/**
+	 * End a claim; the caller then tells the replacer about the frame.
+	 */
+	private void unclaim(int frameId) {
+		FrameDescriptor frame = frmDescr[frameId];
+		int parity = frame.claimedIn;
+		frame.claimedIn = -1;
+		claims[parity].decrementAndGet();
+	}
+
+	/**
+	 * Evict the page in a frame the replacer chose, unless another thread
+	 * pinned or dropped it meanwhile; the frame is left empty.
+	 *
+	 * @return true if the frame is now empty and ours
+	 */
+	private boolean evictFrame(int frameId) throws DiskMgrException {
+		FrameDescriptor frame = frmDescr[frameId];
+		int pageno = frame.pageno;
+		if (pageno == INVALID_PAGEID) {
+			return false;
+		}
+		StampedLock latch = pageMap.latch(pageno);
+		long stamp = latch.writeLock();
+		try {
+			if (frame.pageno != pageno || frame.pinCount != 0 || frame.loading || pageMap.get(pageno) != frameId) {
+				return false;
+			}
+			// check if dirtybit is true, if it is hand the old page to the async writer.
+			// the data is copied, so the frame is free to take the new page right away.
+			// it is queued under the latch, so a miss on the old page can't read the
+			// disk before the write is queued
+			if (frame.dirtyBit) {
+				CompletableFuture<Void> done = Minibase.DiskManager.writePageAsync(new PageId(pageno), bufPool[frameId]);
+				synchronized (writeBacks) {
+					writeBacks.add(done);
 				}
-				bufPool[next] = p;
-				FrameDescriptor frame = new FrameDescriptor();
-				frame.pageno = pageno.pid;
-				frmDescr[next] = frame;
-				frame.pinCount++;
-				pageMap.put(pageno.pid, next);
-				// move forward in the fifo queue using global ptr, check we don't go over the queue limit
-				if (next < bufPool.length) {
-					next++;
+				stats.evictionWrites.increment();
+			}
+			// keep a copy off the heap, as it is on disk once the write-back is done
+			if (arena != null) {
+				arena.put(pageno, bufPool[frameId].getpage());
+			}
+			// the old page is no longer in the pool
+			pageMap.remove(pageno);
+			resetFrameDescriptor(frameId);
+			stats.evictions.increment();
+			return true;
+		} finally {
+			latch.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Drop the finished write-backs from the head of writeBacks, or with wait set
+	 * wait for all of them. A failed write-back is reported here, by whichever
+	 * call runs into it first.
+	 *
+	 * @throws DiskMgrException if a write-back failed
+	 */
+	private void reapWriteBacks(boolean wait) throws DiskMgrException {
+		while (true) {
+			CompletableFuture<Void> done;
+			synchronized (writeBacks) {
+				done = writeBacks.peek();
+				if (done == null || !(wait || done.isDone())) {
+					return;
 				}
-				// if going over limit, buffer is now full
-				if (next >= bufPool.length) {
-					isBfrEmpty = false;
+				writeBacks.poll();
+			}
+			try {
+				done.join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof DiskMgrException) {
+					throw (DiskMgrException) e.getCause();
 				}
+				throw new DiskMgrException(e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Hands an empty frame back to the free frames.
+	 */
+	private void releaseFrame(int frameId) {
+		poolLatch.lock();
+		try {
+			drainEvents();
+			reconcile(frameId, 0);
+			// a frame being retired is not handed out again
+			if (frameId < frameLimit) {
+				freeFrames[numFree++] = frameId;
+			}
+		} finally {
+			poolLatch.unlock();
+		}
+	}
+
+	/**
+	 * Record that something happened to a frame that the replacer should hear
+	 * of, and tell it right away if poolLatch is free; if it is not, whoever
+	 * holds it will.
+	 */
+	private void post(int frameId, int bits) {
+		if (poolLatch.tryLock()) {
+			// the common case: nobody else is telling the replacer anything
+			try {
+				drainEvents();
+				reconcile(frameId, bits);
+			} finally {
+				poolLatch.unlock();
+			}
+			return;
+		}
+		FrameEvents q = frameEvents;
+		int old;
+		do {
+			old = q.events.get(frameId);
+			if ((old | bits | QUEUED) == old) {
+				break;
+			}
+		} while (!q.events.compareAndSet(frameId, old, old | bits | QUEUED));
+		if ((old & QUEUED) == 0) {
+			long at = q.tail.getAndIncrement();
+			q.changed.set((int) at & (q.changed.length() - 1), frameId);
+		}
+		if (q.closed) {
+			// resize replaced the queue meanwhile, and may have drained it already
+			post(frameId, bits);
+			return;
+		}
+		if (poolLatch.tryLock()) {
+			try {
+				drainEvents();
+			} finally {
+				poolLatch.unlock();
 			}
-			// finally call setPage on new page p
-			page.setPage(p);
 		}
-		// remove the old page from the queue
-		fifo.remove(pageMap.get(pageno.pid));
-    }
+	}
+
+	/**
+	 * Tell the replacer about every queued frame. Called with poolLatch held.
+	 */
+	private void drainEvents() {
+		FrameEvents q = frameEvents;
+		int mask = q.changed.length() - 1;
+		while (q.head < q.tail.get()) {
+			int at = (int) q.head & mask;
+			int frameId = q.changed.get(at);
+			if (frameId < 0) {
+				// claimed, but not written yet
+				break;
+			}
+			q.changed.set(at, -1);
+			q.head++;
+			reconcile(frameId, q.events.getAndSet(frameId, 0));
+		}
+	}
+
+	/**
+	 * Give the pool a frame event queue for numFrames frames. Events posted to
+	 * the old queue before it was closed are drained here; those posted after
+	 * are posted again to the new one. Called with poolLatch held.
+	 */
+	private void replaceFrameEvents(int numFrames) {
+		FrameEvents q = frameEvents;
+		frameEvents = new FrameEvents(numFrames);
+		q.closed = true;
+		long end = q.tail.get();
+		int mask = q.changed.length() - 1;
+		while (q.head < end) {
+			int at = (int) q.head & mask;
+			int frameId = q.changed.get(at);
+			if (frameId < 0) {
+				// claimed before the queue was closed, so it is written soon
+				Thread.onSpinWait();
+				continue;
+			}
+			q.changed.set(at, -1);
+			q.head++;
+			reconcile(frameId, q.events.getAndSet(frameId, 0));
+		}
+	}
+
+	private void reconcileLocked(int frameId) {
+		poolLatch.lock();
+		try {
+			drainEvents();
+			reconcile(frameId, 0);
+		} finally {
+			poolLatch.unlock();
+		}
+	}
+
+	/**
+	 * Bring what the replacer knows of a frame up to date with the frame:
+	 * which page it holds, whether it was used, and whether it is a candidate.
+	 * The frame may change again right after; that change queues the frame
+	 * again. Called with poolLatch held.
+	 */
+	private void reconcile(int frameId, int bits) {
+		FrameDescriptor frame = frmDescr[frameId];
+		if (frame.claimedIn >= 0) {
+			// chosen for a page; whoever holds it tells us once it is done
+			return;
+		}
+		int pageno = frame.pageno;
+		if (told[frameId] != INVALID_PAGEID && told[frameId] != pageno) {
+			replacer.freed(frameId);
+			told[frameId] = INVALID_PAGEID;
+			candidate[frameId] = false;
+		}
+		if (pageno == INVALID_PAGEID) {
+			return;
+		}
+		if ((bits & FIRST_USE) != 0 && told[frameId] == pageno) {
+			// the replacer heard of a page read ahead as loaded; its first use is
+			// what a demand read would have been, so it hears of it as new again
+			replacer.freed(frameId);
+			told[frameId] = INVALID_PAGEID;
+			candidate[frameId] = false;
+		}
+		if (told[frameId] == INVALID_PAGEID) {
+			replacer.loaded(frameId, pageno);
+			told[frameId] = pageno;
+		} else if ((bits & PINNED) != 0 || (candidate[frameId] && frame.pinCount > 0)) {
+			replacer.pinned(frameId);
+			candidate[frameId] = false;
+		}
+		if (frame.pinCount == 0 && !candidate[frameId]) {
+			replacer.unpinned(frameId);
+			candidate[frameId] = true;
+		}
+	}
 
 	/**
 	 * Unpin a page specified by a pageId. This method should be called with
@@ -213,29 +1548,65 @@ public class BufMgr {
 	public void unpinPage(PageId pageno, boolean dirty)
 			throws PageNotFoundException, PageUnpinnedException {
         // YOUR CODE HERE
-		Integer key = pageMap.get(pageno.pid);
-		// if page does already exist in the map, get a frame for it
-		if (key != null) {
+		poolOf(pageno).unpinHere(pageno, dirty);
+		traced(TraceRecorder.UNPIN, pageno.pid);
+	}
+
+	/**
+	 * Unpin page pageno in this pool, as unpinPage does.
+	 */
+	private void unpinHere(PageId pageno, boolean dirty) throws PageNotFoundException, PageUnpinnedException {
+		StampedLock latch = pageMap.latch(pageno.pid);
+		int key;
+		int left;
+		boolean overLimit = false;
+		long stamp = latch.readLock();
+		try {
+			key = pageMap.get(pageno.pid);
+			// key -1, page not found in map
+			if (key < 0) {
+				throw new PageNotFoundException("Page Not Found with Page ID: " + pageno.pid);
+			}
 			FrameDescriptor frame = frmDescr[key];
-			// if dirty bit is set
+			// if dirty bit is set. it is set before the pin is dropped, so whoever
+			// evicts the page sees it, and the version is moved, so an optimistic
+			// read that overlapped the change does not validate
 			if (dirty) {
-				frame.dirtyBit = true;
+				overLimit = markDirty(key);
+				frame.changed();
 			}
 			// if pincount > 0, decrement it
-			// trick here, this will keep decrementing pincount till it is 0, at which point we unpin it
-			// if the pincount was 0 before decrementing even once, it was already unpinned so throw exception
-			if (frame.pinCount > 0) {
-				frame.pinCount--;
-				if (frame.pinCount == 0) {
-					// unpinning
-					fifo.offer(key);
-				}
-			} else {
+			// if the pincount was 0 before decrementing, it was already unpinned so throw exception
+			left = frame.unpin();
+			if (left < 0) {
 				throw new PageUnpinnedException("Page Unpinned");
 			}
-		} else {
-			// key null, page not found in map
-			throw new PageNotFoundException("Page Not Found with Page ID: " + pageno.pid);
+		} finally {
+			latch.unlockRead(stamp);
+		}
+		if (left == 0) {
+			unpinned(key);
+		}
+		if (overLimit) {
+			cleaner.wake();
+		}
+	}
+
+	/**
+	 * Set the dirty bit of a frame.
+	 *
+	 * @return true if this made the pool go over its dirty limit
+	 */
+	private boolean markDirty(int frameId) {
+		return frmDescr[frameId].markDirty() && numDirty.incrementAndGet() > dirtyLimit;
+	}
+
+	/**
+	 * Clear the dirty bit of a frame.
+	 */
+	private void markClean(int frameId) {
+		if (frmDescr[frameId].markClean()) {
+			numDirty.decrementAndGet();
 		}
 	}
 
@@ -257,13 +1628,36 @@ public class BufMgr {
 	 */
 	public PageId newPage(Page firstpage, int howmany) throws DiskMgrException, BufferPoolExceededException {
         // YOUR CODE HERE
+		return newPage(firstpage, howmany, null);
+	}
+
+	/**
+	 * Allocate new pages for the file entry called fname, as newPage(firstpage,
+	 * howmany) does. DiskMgr.file_of names fname for each of them, so they go
+	 * to the pool fname is assigned to, and count against fname in the
+	 * statistics, wherever the file's other pages are.
+	 *
+	 * @param firstpage
+	 *            the address of the first page.
+	 * @param howmany
+	 *            total number of allocated new pages.
+	 * @param fname
+	 *            the file entry the pages are for, which need not exist yet;
+	 *            null for none
+	 * @return the first page id of the new pages.
+	 * @throws DiskMgrException if there is an error from the DiskMgr layer
+	 * @throws BufferPoolExceededException if the first page cannot be pinned; the pages are deallocated again
+	 */
+	public PageId newPage(Page firstpage, int howmany, String fname)
+			throws DiskMgrException, BufferPoolExceededException {
 		PageId pageId = null; // set this to null so it returns null on error
 		try {
 			// see allocate page in dskmgr
-			pageId = Minibase.DiskManager.allocate_page(howmany);
+			pageId = Minibase.DiskManager.allocate_page(howmany, fname);
 		} catch (BufMgrException e) {
 			throw new DiskMgrException(e.getMessage());
 		}
+		traced(TraceRecorder.NEW, pageId.pid);
 		try {
 			// pin first page, use pinPage method already implemented
 			pinPage(pageId, firstpage, false);
@@ -278,7 +1672,7 @@ public class BufMgr {
 			throw new BufferPoolExceededException(e.getMessage());
 		}
 	}
-	
+
 	/**
 	 * This method should be called to delete a page that is on disk. This routine
 	 * must call the method in diskmgr package to deallocate the page.
@@ -290,46 +1684,50 @@ public class BufMgr {
 	 */
 	public void freePage(PageId pageno) throws PagePinnedException, DiskMgrException {
         // YOUR CODE HERE
-		Integer key = pageMap.get(pageno.pid);
-		// check if page is found in map, and if is already pinned
-		if (key != null && frmDescr[key].pinCount > 0) {
-			throw new PagePinnedException("Page with ID: " + pageno.pid + " is already pinned");
-		} else {
-			// page found, but pincount was 0. remove this
-			if (key != null) {
-				pageMap.remove(pageno.pid);
-				resetFrameDescriptor(key);
-			}
-			// also check if buffer is empty after removing the page. update the global var
-			if (!isBfrEmpty) {
-				isBfrEmpty = true;
-			}
-			// update the queue ptr accordingly, much work, check if after removing the page
-			// the previous page is affected or not. basically set all memory references to null
-			if (next > 0) {
-				int newPageID = next;
-				next--;
-				fifo.remove(pageMap.get(pageno.pid));
-				int oldPageID = pageMap.get(pageno.pid);
-				pageMap.remove(pageno.pid);
-				if (oldPageID == newPageID) {
-					bufPool[newPageID] = null;
-					frmDescr[newPageID] = null;
+		BufMgr pool = poolOf(pageno);
+		if (pool != this) {
+			pool.freePage(pageno);
+			traced(TraceRecorder.FREE, pageno.pid);
+			return;
+		}
+		StampedLock latch = pageMap.latch(pageno.pid);
+		int key;
+		while (true) {
+			long stamp = latch.writeLock();
+			try {
+				key = pageMap.get(pageno.pid);
+				// check if page is found in map, and if is already pinned
+				if (key >= 0 && frmDescr[key].pinCount > 0) {
+					throw new PagePinnedException("Page with ID: " + pageno.pid + " is already pinned");
 				}
-				else {
-					bufPool[oldPageID] = bufPool[newPageID];
-					frmDescr[oldPageID] = frmDescr[newPageID];
-					bufPool[newPageID] = null;
-					frmDescr[newPageID] = null;
-					pageMap.put(frmDescr[oldPageID].pageno, oldPageID);
+				// page found, but pincount was 0. drop it without writing it back,
+				// unless it is still being read ahead
+				if (key >= 0 && !frmDescr[key].loading) {
+					pageMap.remove(pageno.pid);
+					resetFrameDescriptor(key);
+					break;
 				}
+				if (key < 0) {
+					break;
+				}
+			} finally {
+				latch.unlockWrite(stamp);
 			}
-			try {
-				Minibase.DiskManager.deallocate_page(pageno);
-			} catch (BufMgrException e) {
-				throw new DiskMgrException(e.getMessage());
-			}
+			awaitLoad(key, pageno.pid);
 		}
+		// the frame is empty and goes to the free frames
+		if (key >= 0) {
+			releaseFrame(key);
+		}
+		if (arena != null) {
+			arena.remove(pageno.pid);
+		}
+		try {
+			Minibase.DiskManager.deallocate_page(pageno);
+		} catch (BufMgrException e) {
+			throw new DiskMgrException(e.getMessage());
+		}
+		traced(TraceRecorder.FREE, pageno.pid);
 	}
 
 	/**
@@ -342,28 +1740,548 @@ public class BufMgr {
 	 * @throws DiskMgrException if there is an error in the DiskMgr layer. This is likely caused by incorrect implementations in other methods of the Buffer Manager
 	 */
 	public void flushPage(PageId pageid) throws PageNotFoundException, DiskMgrException {
+		BufMgr pool = poolOf(pageid);
+		if (pool != this) {
+			pool.flushPage(pageid);
+			return;
+		}
 		// find the frame holding that page
-		Integer frameId = pageMap.get(pageid.pid);
-		if (frameId == null) {
+		if (!flushResident(pageid.pid)) {
 			throw new PageNotFoundException(
 					"BufMgr.flushPage: Page with id " + pageid.pid + " does not exist in the buffer bool.");
-		} else {
-			Minibase.DiskManager.write_page(pageid, bufPool[frameId]);
-			frmDescr[frameId].dirtyBit = false;
 		}
 	}
 
 	/**
-	 * Used to flush all dirty pages in the buffer pool to disk
+	 * Write page pageno to disk if it is in the pool, holding a pin meanwhile so
+	 * it is not evicted. The pin does not count as a use of the page.
+	 *
+	 * @return false if the page is not in the pool
+	 */
+	private boolean flushResident(int pageno) throws DiskMgrException {
+		int frameId = pinResident(pageno, true, false);
+		if (frameId < 0) {
+			return false;
+		}
+		try {
+			// cleared first, so a change made while the page is written dirties it again
+			markClean(frameId);
+			Minibase.DiskManager.write_page(new PageId(pageno), bufPool[frameId]);
+			stats.flushWrites.increment();
+		} catch (DiskMgrException e) {
+			markDirty(frameId);
+			throw e;
+		} finally {
+			unpinFrame(frameId);
+		}
+		return true;
+	}
+
+	/**
+	 * Used to flush all dirty pages in the buffer pool to disk. Once it returns
+	 * they survive a crash of the process (see DiskMgr.sync); DiskMgr.flush
+	 * forces them to the device as well.
 	 * @throws DiskMgrException if there is an error in the DiskMgr layer. This is likely caused by incorrect implementations in other methods of the Buffer Manager
 	 */
 	public void flushAllPages() throws DiskMgrException {
-		for (int i = 0; i < numOfFrames; i++) {
-			if (frmDescr[i].dirtyBit == true) {
-				Minibase.DiskManager.write_page(new PageId(frmDescr[i].pageno), bufPool[i]);
-				frmDescr[i].dirtyBit = false;
+		// bring the space map pages up to date first, so the flushed pool is a
+		// consistent image of the database
+		try {
+			Minibase.DiskManager.sync_space_map();
+		} catch (BufMgrException e) {
+			throw new DiskMgrException(e.getMessage());
+		}
+		// write the dirty pages in page order, so adjacent ones go out together
+		int n = numOfFrames;
+		FrameDescriptor[] descs = frmDescr;
+		int[] pagenos = new int[n];
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			int pageno = descs[i].pageno;
+			if (pageno != INVALID_PAGEID && descs[i].dirtyBit == true) {
+				pagenos[count++] = pageno;
+			}
+		}
+		Arrays.sort(pagenos, 0, count);
+		// a page evicted meanwhile was handed to the async writer
+		writeRuns(pagenos, count, stats.flushWrites);
+		// and wait for the write-backs of pages evicted earlier
+		reapWriteBacks(true);
+		BufferPools pools = this.pools;
+		if (pools != null) {
+			BufMgr[] all = pools.all();
+			for (int i = 1; i < all.length; i++) {
+				all[i].flushAllPages();
+			}
+		}
+		// the backend may keep where the pages went in memory, as the
+		// compressed one does; a crash of the process must find them
+		Minibase.DiskManager.sync();
+		if (Minibase.BufferManager == this) {
+			saveSnapshot();
+		}
+	}
+
+	/**
+	 * Write out those of the given pages, sorted by page number, that are in
+	 * the pool and dirty, every run of adjacent ones with one DiskMgr call.
+	 * Each page is pinned while it is written, without counting as a use. The
+	 * pages written are added to written.
+	 *
+	 * @throws DiskMgrException if a write failed; its pages stay dirty
+	 */
+	private void writeRuns(int[] pagenos, int count, LongAdder written) throws DiskMgrException {
+		int[] frames = new int[Math.max(1, Math.min(count, MAX_WRITE_RUN))];
+		int first = INVALID_PAGEID;
+		int run = 0;
+		for (int i = 0; i < count; i++) {
+			if (run > 0 && (run == frames.length || pagenos[i] != first + run)) {
+				writeRun(first, frames, run);
+				written.add(run);
+				run = 0;
+			}
+			int frameId = pinResident(pagenos[i], false, false);
+			if (frameId < 0) {
+				continue;
+			}
+			if (!frmDescr[frameId].dirtyBit) {
+				unpinFrame(frameId);
+				continue;
+			}
+			if (run == 0) {
+				first = pagenos[i];
+			}
+			frames[run++] = frameId;
+		}
+		if (run > 0) {
+			writeRun(first, frames, run);
+			written.add(run);
+		}
+	}
+
+	/**
+	 * Write the pinned frames holding pages first .. first + run - 1 with one
+	 * DiskMgr call, and unpin them.
+	 */
+	private void writeRun(int first, int[] frames, int run) throws DiskMgrException {
+		Page[] pages = new Page[run];
+		try {
+			// cleared first, so a change made while the pages are written dirties them again
+			for (int j = 0; j < run; j++) {
+				markClean(frames[j]);
+				pages[j] = bufPool[frames[j]];
+			}
+			Minibase.DiskManager.write_pages(new PageId(first), pages);
+		} catch (DiskMgrException | RuntimeException e) {
+			for (int j = 0; j < run; j++) {
+				markDirty(frames[j]);
+			}
+			throw e;
+		} finally {
+			for (int j = 0; j < run; j++) {
+				unpinFrame(frames[j]);
+			}
+		}
+	}
+
+	/**
+	 * One pass of the page cleaner: write the dirty unpinned pages the replacer
+	 * would evict first until half of dirtyLimit are left. A failed write
+	 * leaves its pages dirty, for eviction or flushAllPages to write and
+	 * report.
+	 */
+	private void cleanPass() {
+		int excess = numDirty.get() - dirtyLimit / 2;
+		if (excess <= 0) {
+			return;
+		}
+		int[] frames;
+		int count;
+		poolLatch.lock();
+		try {
+			drainEvents();
+			frames = new int[told.length];
+			count = replacer.upcoming(frames);
+		} finally {
+			poolLatch.unlock();
+		}
+		int[] pagenos = new int[count];
+		int n = 0;
+		for (int i = 0; i < count && n < excess; i++) {
+			FrameDescriptor frame = frmDescr[frames[i]];
+			int pageno = frame.pageno;
+			if (pageno != INVALID_PAGEID && frame.dirtyBit) {
+				pagenos[n++] = pageno;
+			}
+		}
+		Arrays.sort(pagenos, 0, n);
+		try {
+			writeRuns(pagenos, n, stats.cleanerWrites);
+		} catch (DiskMgrException | RuntimeException e) {
+			// the database may have been closed under the pool; the pages stay dirty
+		}
+	}
+
+	/**
+	 * Save the numbers of the pages in the pool, and in the pools added to it,
+	 * to the database's snapshot file (its name + SNAPSHOT_SUFFIX), so warmUp
+	 * can read them back in after a restart. Within each pool the pages go
+	 * hottest first: pinned pages, then the rest in the reverse of the order
+	 * the replacer would evict them. flushAllPages on Minibase's buffer
+	 * manager and DiskMgr.closeDB call it. The snapshot is only a hint, so a
+	 * failure to write it is not an error.
+	 *
+	 * @return true if the snapshot was written
+	 */
+	public boolean saveSnapshot() {
+		DiskMgr disk = Minibase.DiskManager;
+		if (disk == null || disk.db_name() == null) {
+			return false;
+		}
+		BufferPools pools = this.pools;
+		BufMgr[] all = pools == null ? new BufMgr[] { this } : pools.all();
+		int capacity = 0;
+		for (BufMgr pool : all) {
+			capacity += pool.getNumBuffers();
+		}
+		int[] pagenos = new int[capacity];
+		int count = 0;
+		for (BufMgr pool : all) {
+			count = pool.hotPages(pagenos, count);
+		}
+		try {
+			WarmSnapshot.write(new File(disk.db_name() + SNAPSHOT_SUFFIX), pagenos, count);
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Put the pages of this pool into out from at on, hottest first.
+	 *
+	 * @return the end of what was put
+	 */
+	private int hotPages(int[] out, int at) {
+		int[] frames;
+		int count;
+		poolLatch.lock();
+		try {
+			drainEvents();
+			frames = new int[told.length];
+			count = replacer.upcoming(frames);
+		} finally {
+			poolLatch.unlock();
+		}
+		int n = numOfFrames;
+		FrameDescriptor[] descs = frmDescr;
+		boolean[] listed = new boolean[descs.length];
+		for (int i = 0; i < count; i++) {
+			listed[frames[i]] = true;
+		}
+		// pages the replacer cannot evict yet are the hottest
+		for (int i = 0; i < n && at < out.length; i++) {
+			int pageno = descs[i].pageno;
+			if (!listed[i] && pageno != INVALID_PAGEID) {
+				out[at++] = pageno;
+			}
+		}
+		for (int i = count - 1; i >= 0 && at < out.length; i--) {
+			int pageno = descs[frames[i]].pageno;
+			if (pageno != INVALID_PAGEID) {
+				out[at++] = pageno;
+			}
+		}
+		return at;
+	}
+
+	/**
+	 * Read back the pages of the database's snapshot file on a background
+	 * thread, so a restarted pool does not fault its working set in one page
+	 * at a time. Each pool takes at most as many of the hottest pages as it
+	 * has frames; they are read in page order, every run of adjacent pages
+	 * with one DiskMgr call, and go into free frames only, so the warm-up
+	 * never evicts pages the workload has read in meanwhile. Within a run the
+	 * pages are unpinned coldest first, leaving the replacer close to the
+	 * order it had. DiskMgr.openDB calls it for Minibase's buffer manager.
+	 *
+	 * @return the number of pages read in, once the warm-up is done; 0 right
+	 *         away if there is no snapshot
+	 */
+	public CompletableFuture<Integer> warmUp() {
+		DiskMgr disk = Minibase.DiskManager;
+		int[] hottest = disk == null || disk.db_name() == null ? null
+				: WarmSnapshot.read(new File(disk.db_name() + SNAPSHOT_SUFFIX));
+		if (hottest == null || hottest.length == 0) {
+			return CompletableFuture.completedFuture(0);
+		}
+		CompletableFuture<Integer> done = new CompletableFuture<Integer>();
+		Thread worker = new Thread(() -> {
+			try {
+				done.complete(warm(disk, hottest));
+			} catch (Throwable e) {
+				done.completeExceptionally(e);
+			}
+		}, "minibase-warmup");
+		worker.setDaemon(true);
+		worker.start();
+		return done;
+	}
+
+	/**
+	 * Read in the pages of a snapshot, hottest first, as warmUp describes.
+	 *
+	 * @return the number of pages read in
+	 */
+	private int warm(DiskMgr disk, int[] hottest) throws DiskMgrException {
+		// page number and rank together, so sorting by page keeps the rank
+		long[] keys = new long[hottest.length];
+		int count = 0;
+		Map<BufMgr, Integer> taken = new HashMap<BufMgr, Integer>();
+		PageId pid = new PageId();
+		int numPages = disk.db_num_pages();
+		for (int rank = 0; rank < hottest.length; rank++) {
+			pid.pid = hottest[rank];
+			if (pid.pid < 0 || pid.pid >= numPages) {
+				continue;
+			}
+			BufMgr pool = poolOf(pid);
+			int n = taken.getOrDefault(pool, 0);
+			if (n < pool.getNumBuffers()) {
+				taken.put(pool, n + 1);
+				keys[count++] = (long) pid.pid << 32 | rank;
+			}
+		}
+		Arrays.sort(keys, 0, count);
+		int loaded = 0;
+		int[] ranks = new int[MAX_WARM_RUN];
+		for (int i = 0; i < count;) {
+			int first = (int) (keys[i] >>> 32);
+			BufMgr pool = poolOf(new PageId(first));
+			int run = 0;
+			while (i + run < count && run < MAX_WARM_RUN && (int) (keys[i + run] >>> 32) == first + run
+					&& (run == 0 || poolOf(new PageId(first + run)) == pool)) {
+				ranks[run] = (int) keys[i + run];
+				run++;
+			}
+			loaded += pool.warmRun(first, run, ranks);
+			i += run;
+		}
+		return loaded;
+	}
+
+	/**
+	 * Read pages first .. first + run - 1 into free frames of this pool,
+	 * skipping those already in it, and leave them unpinned, the one with the
+	 * highest rank first. Stops taking frames when none are free.
+	 *
+	 * @return the number of pages read in
+	 */
+	private int warmRun(int first, int run, int[] ranks) throws DiskMgrException {
+		int[] frames = new int[run];
+		boolean[] claimed = new boolean[run];
+		int loaded = 0;
+		for (int i = 0; i < run; i++) {
+			frames[i] = INVALID_PAGEID;
+			if (resident(first + i)) {
+				continue;
+			}
+			int idx = freeFrame();
+			if (idx < 0) {
+				break;
+			}
+			if (installFrame(idx, first + i, false)) {
+				frames[i] = idx;
+				claimed[i] = true;
+				loaded++;
+			} else {
+				releaseFrame(idx);
+			}
+		}
+		try {
+			readClaimed(first, frames, claimed);
+		} catch (DiskMgrException e) {
+			for (int i = 0; i < run; i++) {
+				if (claimed[i]) {
+					abandonFrame(frames[i], first + i);
+				} else if (frames[i] != INVALID_PAGEID) {
+					unpinFrame(frames[i]);
+				}
+			}
+			throw e;
+		}
+		// coldest first, so the replacer hears of the hottest page last
+		long[] order = new long[run];
+		for (int i = 0; i < run; i++) {
+			order[i] = (long) ranks[i] << 32 | i;
+		}
+		Arrays.sort(order);
+		for (int j = run - 1; j >= 0; j--) {
+			int i = (int) order[j];
+			if (frames[i] != INVALID_PAGEID) {
+				unpinFrame(frames[i]);
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * Claim a free frame, without evicting anything.
+	 *
+	 * @return the frame, or -1 if none is free
+	 */
+	private int freeFrame() {
+		poolLatch.lock();
+		try {
+			drainEvents();
+			return numFree > 0 ? claim(freeFrames[--numFree]) : -1;
+		} finally {
+			poolLatch.unlock();
+		}
+	}
+
+	/**
+	 * Returns the pool that holds page pageno, or is to hold it: this one
+	 * unless pools were added to it.
+	 */
+	private BufMgr poolOf(PageId pageno) {
+		BufferPools pools = this.pools;
+		return pools == null ? this : pools.holder(pageno);
+	}
+
+	/**
+	 * Returns true if page pageno is in the buffer pool, or in the pool it is
+	 * assigned to if there are named pools.
+	 */
+	public boolean contains(PageId pageno) {
+		return poolOf(pageno).resident(pageno.pid);
+	}
+
+	/**
+	 * The DiskMgr is writing pages firstpage .. firstpage + count - 1: the
+	 * off-heap caches forget their copies, which may be older. The pool's own
+	 * write-backs come here too, before an evicted page is put in the cache,
+	 * and with a page table latch held, so no latch is taken here: every
+	 * pool's cache is told, rather than the one of the pool holding the page.
+	 */
+	public void pagesWritten(int firstpage, int count) {
+		BufferPools pools = this.pools;
+		for (BufMgr pool : pools == null ? new BufMgr[] { this } : pools.all()) {
+			OffHeapArena cache = pool.arena;
+			if (cache != null) {
+				for (int i = 0; i < count; i++) {
+					cache.remove(firstpage + i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A database is being opened, created or destroyed: empty the off-heap
+	 * caches of this pool and its named pools, whose pages may be of another
+	 * database, or of an earlier one by the same name.
+	 */
+	public void clearOffHeap() {
+		BufferPools pools = this.pools;
+		for (BufMgr pool : pools == null ? new BufMgr[] { this } : pools.all()) {
+			if (pool.arena != null) {
+				pool.arena.clear();
+			}
+		}
+	}
+
+	/**
+	 * Add a buffer pool of its own, with numbufs frames and the given
+	 * replacement policy, for the files and page types assigned to it with
+	 * assignFile and assignDirectoryPages. This buffer manager is the pool
+	 * called DEFAULT_POOL and keeps every page assigned nowhere else. All
+	 * calls still go through this buffer manager, which passes each on to the
+	 * pool of its page; the returned BufMgr is for that pool's statistics and
+	 * size. A run pinned with pinRange is split into one part per pool.
+	 *
+	 * @param name
+	 *            the name of the pool
+	 * @param numbufs
+	 *            number of buffers in the pool
+	 * @param lookAheadSize
+	 *            number of pages to read ahead of a sequential scan, 0 for none
+	 * @param replacementPolicy
+	 *            Name of the replacement policy
+	 * @return the new pool
+	 * @throws IllegalArgumentException if there is a pool called name already,
+	 *             or the policy is unknown
+	 */
+	public synchronized BufMgr addPool(String name, int numbufs, int lookAheadSize, String replacementPolicy) {
+		BufferPools pools = this.pools == null ? new BufferPools(this) : this.pools;
+		if (pools.pool(name) != null) {
+			throw new IllegalArgumentException("There is a buffer pool called " + name + " already");
+		}
+		BufMgr pool = new BufMgr(numbufs, lookAheadSize, replacementPolicy, 0, name);
+		if (routeLatches == null) {
+			routeLatches = new Object[ROUTE_LATCHES];
+			for (int i = 0; i < ROUTE_LATCHES; i++) {
+				routeLatches[i] = new Object();
 			}
 		}
+		this.pools = pools.withPool(name, pool);
+		pool.router = this;
+		router = this;
+		return pool;
+	}
+
+	/**
+	 * Returns the pool called name, this buffer manager for DEFAULT_POOL.
+	 *
+	 * @throws IllegalArgumentException if there is no such pool
+	 */
+	public BufMgr getPool(String name) {
+		BufMgr pool = pools == null ? (DEFAULT_POOL.equals(name) ? this : null) : pools.pool(name);
+		if (pool == null) {
+			throw new IllegalArgumentException("There is no buffer pool called " + name);
+		}
+		return pool;
+	}
+
+	/**
+	 * Returns the names of the pools, DEFAULT_POOL first.
+	 */
+	public String[] getPoolNames() {
+		BufferPools pools = this.pools;
+		return pools == null ? new String[] { DEFAULT_POOL } : pools.names();
+	}
+
+	/**
+	 * Keep the pages of a file entry in the named pool. A page belongs to the
+	 * file entry it was allocated for with newPage(firstpage, howmany, fname)
+	 * or DiskMgr.allocate_page(run_size, fname), so a file's pages may be
+	 * interleaved with other files' on disk. A page allocated without a file
+	 * entry goes by DiskMgr.file_of, to the entry with the nearest start page
+	 * at or below it. Pages already in another pool stay there until they are
+	 * evicted or freed.
+	 *
+	 * @param fname
+	 *            the file entry name
+	 * @param pool
+	 *            the name of the pool, DEFAULT_POOL to undo an assignment
+	 * @throws IllegalArgumentException if there is no such pool
+	 */
+	public synchronized void assignFile(String fname, String pool) {
+		BufMgr target = getPool(pool);
+		pools = (pools == null ? new BufferPools(this) : pools).withFile(fname, target);
+	}
+
+	/**
+	 * Keep the disk manager's own pages, the first page, the space map and
+	 * the file-entry directory (see DiskMgr.is_directory_page), in the named
+	 * pool, so scans of large files do not push them out.
+	 *
+	 * @param pool
+	 *            the name of the pool, DEFAULT_POOL to undo the assignment
+	 * @throws IllegalArgumentException if there is no such pool
+	 */
+	public synchronized void assignDirectoryPages(String pool) {
+		BufMgr target = getPool(pool);
+		pools = (pools == null ? new BufferPools(this) : pools).withDirectory(target);
 	}
 
 	/**
@@ -378,14 +2296,123 @@ public class BufMgr {
 	 */
 	public int getNumUnpinned() {
 		int numUnpinned = 0;
-		for (int i = 0; i < numOfFrames; i++) {
-			if (frmDescr[i].pinCount <= 0) {
+		int n = numOfFrames;
+		FrameDescriptor[] descs = frmDescr;
+		for (int i = 0; i < n; i++) {
+			if (descs[i].pinCount <= 0) {
 				numUnpinned++;
 			}
 		}
 		return numUnpinned;
 	}
 
+	/**
+	 * Returns the number of dirty buffer frames.
+	 */
+	public int getNumDirty() {
+		return numDirty.get();
+	}
+
+	/**
+	 * Start recording the pins, unpins, new pages and freed pages that reach
+	 * this buffer manager, with the page's file entry and the time, to a trace
+	 * file that TraceSimulator replays; see TraceRecorder for the format. A
+	 * recording already running is stopped first. The calls of the pools added
+	 * to this buffer manager are recorded with its own.
+	 *
+	 * @throws IOException if the file cannot be created
+	 */
+	public synchronized void startTrace(File file) throws IOException {
+		stopTrace();
+		trace = new TraceRecorder(file);
+	}
+
+	/**
+	 * Stop the recording started by startTrace, if any, and write out the rest
+	 * of the trace.
+	 *
+	 * @throws IOException if writing the trace failed
+	 */
+	public synchronized void stopTrace() throws IOException {
+		TraceRecorder t = trace;
+		if (t != null) {
+			trace = null;
+			t.close();
+		}
+	}
+
+	/**
+	 * Record an event in the trace, if one is being recorded.
+	 */
+	private void traced(byte kind, int pageno) {
+		TraceRecorder t = trace;
+		if (t != null) {
+			t.record(kind, pageno);
+		}
+	}
+
+	private void tracedRange(int firstpage, int count) {
+		TraceRecorder t = trace;
+		if (t != null) {
+			for (int i = 0; i < count; i++) {
+				t.record(TraceRecorder.PIN, firstpage + i);
+			}
+		}
+	}
+
+	/**
+	 * Returns the statistics of this buffer manager; snapshot() on it gives
+	 * the counters since it was created, window() those since the last
+	 * resetWindow(). The buffer manager created last publishes them over JMX
+	 * as minibase:type=BufMgr.
+	 */
+	public PoolStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Returns the number of frames holding a page of each file entry, as
+	 * DiskMgr.file_of names them.
+	 */
+	Map<String, Integer> residency() {
+		Map<String, Integer> files = new HashMap<String, Integer>();
+		DiskMgr disk = Minibase.DiskManager;
+		PageId pid = new PageId();
+		int n = numOfFrames;
+		FrameDescriptor[] descs = frmDescr;
+		for (int i = 0; i < n; i++) {
+			pid.pid = descs[i].pageno;
+			if (pid.pid != INVALID_PAGEID) {
+				files.merge(disk == null ? IOStats.NO_FILE : disk.file_of(pid), 1, Integer::sum);
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * The frame events of a pool: what happened to each frame since the
+	 * replacer last heard of it. A frame with events is queued once on the
+	 * ring changed, between head (guarded by poolLatch) and tail; a slot reads
+	 * -1 until the thread that claimed it has written its frame. A queue
+	 * replaced by resize is closed.
+	 */
+	private static final class FrameEvents {
+		final AtomicIntegerArray events;
+		final AtomicIntegerArray changed;
+		final AtomicLong tail = new AtomicLong();
+		long head = 0;
+		volatile boolean closed;
+
+		FrameEvents(int numFrames) {
+			events = new AtomicIntegerArray(numFrames);
+			// every frame is queued at most once, so the ring never overflows
+			changed = new AtomicIntegerArray(Integer.highestOneBit(Math.max(1, numFrames) * 2 - 1));
+			for (int i = 0; i < changed.length(); i++) {
+				changed.set(i, -1);
+			}
+		}
+	}
+
 	//*** DO NOT CHANGE ANY EXISTING METHODS BELOW THIS LINE ***
 	// Accessor methods for use in test cases
 	public FrameDescriptor getFrameDesc(int frameNum) {
@@ -397,6 +2424,13 @@ public class BufMgr {
 	}
 
 	public Integer getFrameFromPage(PageId pid) {
-		return pageMap.get(pid.pid);
+		StampedLock latch = pageMap.latch(pid.pid);
+		long stamp = latch.readLock();
+		try {
+			int frameId = pageMap.get(pid.pid);
+			return frameId < 0 ? null : frameId;
+		} finally {
+			latch.unlockRead(stamp);
+		}
 	}
 }
@@ -0,0 +1,137 @@
+package bufmgr;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import diskmgr.DiskMgr;
+import global.Minibase;
+import global.PageId;
+
+/**
+ * The named pools of a BufMgr and which pages go to which. The BufMgr the
+ * application created is the default pool; every other pool is a BufMgr of
+ * its own, with its own frames, replacement policy and statistics. A page is
+ * assigned to the pool of its DiskMgr file entry (the one it was allocated
+ * for, see DiskMgr.file_of), or to the directory pool if it is one of the disk
+ * manager's own pages, or else to the default pool.
+ *
+ * A BufferPools is never changed; BufMgr replaces it as a whole when a pool
+ * is added or an assignment changes, so routing a page takes no lock.
+ * Assignments can change while pages are in the pool, and a file entry is
+ * often added after its first page was pinned, so a page is looked for in
+ * every pool before it is read into the one it is assigned to. That look is
+ * taken again, under a latch every pool takes for the page, when the pool
+ * enters the page in its page table (see BufMgr.installFrame), so a page is
+ * never read into two pools at once.
+ */
+class BufferPools {
+
+	private final BufMgr main;
+
+	/** named: the pools other than the default one, in the order they were added */
+	private final Map<String, BufMgr> named;
+
+	/** all: the default pool and then the named ones */
+	private final BufMgr[] all;
+
+	/** files: file entry name -> its pool; directory: the pool of directory pages, or null */
+	private final Map<String, BufMgr> files;
+	private final BufMgr directory;
+
+	BufferPools(BufMgr main) {
+		this(main, Collections.<String, BufMgr>emptyMap(), Collections.<String, BufMgr>emptyMap(), null);
+	}
+
+	private BufferPools(BufMgr main, Map<String, BufMgr> named, Map<String, BufMgr> files, BufMgr directory) {
+		this.main = main;
+		this.named = named;
+		this.files = files;
+		this.directory = directory;
+		all = new BufMgr[1 + named.size()];
+		all[0] = main;
+		int i = 1;
+		for (BufMgr pool : named.values()) {
+			all[i++] = pool;
+		}
+	}
+
+	/**
+	 * Returns the pool called name, or null.
+	 */
+	BufMgr pool(String name) {
+		return BufMgr.DEFAULT_POOL.equals(name) ? main : named.get(name);
+	}
+
+	/**
+	 * Returns the names of the pools, the default one first.
+	 */
+	String[] names() {
+		String[] names = new String[all.length];
+		names[0] = BufMgr.DEFAULT_POOL;
+		int i = 1;
+		for (String name : named.keySet()) {
+			names[i++] = name;
+		}
+		return names;
+	}
+
+	BufMgr[] all() {
+		return all;
+	}
+
+	BufferPools withPool(String name, BufMgr pool) {
+		Map<String, BufMgr> named = new LinkedHashMap<String, BufMgr>(this.named);
+		named.put(name, pool);
+		return new BufferPools(main, named, files, directory);
+	}
+
+	BufferPools withFile(String fname, BufMgr pool) {
+		Map<String, BufMgr> files = new LinkedHashMap<String, BufMgr>(this.files);
+		if (pool == main) {
+			files.remove(fname);
+		} else {
+			files.put(fname, pool);
+		}
+		return new BufferPools(main, named, files, directory);
+	}
+
+	BufferPools withDirectory(BufMgr pool) {
+		return new BufferPools(main, named, files, pool == main ? null : pool);
+	}
+
+	/**
+	 * Returns the pool page pageno is assigned to.
+	 */
+	BufMgr assigned(PageId pageno) {
+		DiskMgr disk = Minibase.DiskManager;
+		if (disk == null) {
+			return main;
+		}
+		if (directory != null && disk.is_directory_page(pageno)) {
+			return directory;
+		}
+		if (files.isEmpty()) {
+			return main;
+		}
+		BufMgr pool = files.get(disk.file_of(pageno));
+		return pool == null ? main : pool;
+	}
+
+	/**
+	 * Returns the pool that holds page pageno, or the one it is assigned to if
+	 * none does.
+	 */
+	BufMgr holder(PageId pageno) {
+		BufMgr assigned = assigned(pageno);
+		if (assigned.resident(pageno.pid)) {
+			return assigned;
+		}
+		for (BufMgr pool : all) {
+			if (pool != assigned && pool.resident(pageno.pid)) {
+				return pool;
+			}
+		}
+		return assigned;
+	}
+}
@@ -0,0 +1,133 @@
+package bufmgr;
+
+import java.util.Arrays;
+
+/**
+ * Clock (second chance) replacement. Every frame holding a page has a fixed
+ * place on a circle, from the time the page is loaded until it is evicted or
+ * freed. A pin only sets the frame's reference bit. The hand sweeps the circle,
+ * skipping pinned frames, clears the reference bits it passes, and evicts the
+ * first unpinned frame whose bit is already clear.
+ *
+ * A loaded frame goes right behind the hand, the place of the frame just
+ * evicted, with its bit clear: the pin that loads a page is not a second use,
+ * so a page read once, or read ahead and never used, goes at the first pass.
+ *
+ * The replacer counts the pinned frames on the circle, so it sees without a
+ * sweep when every frame is pinned. Otherwise a sweep ends within two turns,
+ * and each step either evicts, clears a bit set by a pin or passes a pinned
+ * frame: a victim costs O(1) amortized while a bounded share of the pool is
+ * pinned.
+ */
+class ClockReplacer implements Replacer {
+
+	private final FrameList circle;
+	private boolean[] referenced;
+	private boolean[] pinned;
+
+	/** numPinned: the frames on the circle that are pinned. */
+	private int numPinned;
+
+	/** hand: the next frame the sweep looks at, NIL for the first one. */
+	private int hand = FrameList.NIL;
+
+	ClockReplacer(int numFrames) {
+		circle = new FrameList(numFrames);
+		referenced = new boolean[numFrames];
+		pinned = new boolean[numFrames];
+	}
+
+	@Override
+	public void loaded(int frame, int pageno) {
+		if (!circle.contains(frame)) {
+			circle.insertBefore(frame, hand);
+		}
+		pin(frame);
+	}
+
+	@Override
+	public void pinned(int frame) {
+		referenced[frame] = true;
+		pin(frame);
+	}
+
+	@Override
+	public void unpinned(int frame) {
+		if (pinned[frame]) {
+			pinned[frame] = false;
+			numPinned--;
+		}
+	}
+
+	@Override
+	public int victim() {
+		if (circle.size() == numPinned) {
+			return FrameList.NIL;
+		}
+		while (true) {
+			int frame = hand == FrameList.NIL ? circle.first() : hand;
+			hand = circle.next(frame);
+			if (pinned[frame]) {
+				continue;
+			}
+			if (referenced[frame]) {
+				referenced[frame] = false;
+			} else {
+				circle.remove(frame);
+				return frame;
+			}
+		}
+	}
+
+	@Override
+	public void freed(int frame) {
+		referenced[frame] = false;
+		unpinned(frame);
+		if (hand == frame) {
+			hand = circle.next(frame);
+		}
+		circle.remove(frame);
+	}
+
+	@Override
+	public int upcoming(int[] out) {
+		if (circle.size() == numPinned) {
+			return 0;
+		}
+		// one sweep from the hand takes the clear frames, the next the rest
+		int count = 0;
+		int start = hand == FrameList.NIL ? circle.first() : hand;
+		for (int pass = 0; pass < 2; pass++) {
+			int frame = start;
+			do {
+				if (!pinned[frame] && referenced[frame] == (pass == 1)) {
+					out[count++] = frame;
+				}
+				frame = circle.next(frame);
+				if (frame == FrameList.NIL) {
+					frame = circle.first();
+				}
+			} while (frame != start);
+		}
+		return count;
+	}
+
+	@Override
+	public void resize(int numFrames) {
+		circle.grow(numFrames);
+		if (numFrames > referenced.length) {
+			referenced = Arrays.copyOf(referenced, numFrames);
+			pinned = Arrays.copyOf(pinned, numFrames);
+		}
+	}
+
+	/**
+	 * Mark frame, which is on the circle, pinned.
+	 */
+	private void pin(int frame) {
+		if (!pinned[frame]) {
+			pinned[frame] = true;
+			numPinned++;
+		}
+	}
+}
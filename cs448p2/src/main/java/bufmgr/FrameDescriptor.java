@@ -1,16 +1,120 @@
 package bufmgr;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 /**
  * A frame descriptor; contains info about each page in the buffer pool.
+ * The fields are volatile so every thread sees the latest values, and the pin
+ * count is changed atomically by pin and unpin.
  */
 public class FrameDescriptor 
 {
 	/** Identifies the frame's page. */
-	public int pageno = -1;
+	public volatile int pageno = -1;
 
 	/** The frame's pin count. */
-	public int pinCount;
+	public volatile int pinCount;
 
 	/** The frame's dirty status. */
-	public boolean dirtyBit;
+	public volatile boolean dirtyBit;
+
+	/** The frame's page is being read in; threads that want it wait on this descriptor. */
+	volatile boolean loading;
+
+	/** The frame's page was read ahead and has not been pinned since. */
+	volatile boolean prefetched;
+
+	/**
+	 * When the pin count last went from 0 to 1, or 0 if that pin is not timed,
+	 * and how many times it did; the pin count's updates publish them.
+	 */
+	long pinnedAt;
+	int pins;
+
+	/**
+	 * Moves whenever the frame's page may have changed under a reader that
+	 * holds no pin: when the frame is given another page or emptied, when a
+	 * page has been read into it, and when a pin of a changed page is dropped.
+	 * See BufMgr.readOptimistic.
+	 */
+	volatile int version;
+
+	/** The parity of the claim epoch the frame is claimed in, or -1 if it is not; see BufMgr.claim. */
+	volatile int claimedIn = -1;
+
+	private static final VarHandle PIN_COUNT;
+	private static final VarHandle DIRTY_BIT;
+	private static final VarHandle PREFETCHED;
+	private static final VarHandle VERSION;
+
+	static {
+		try {
+			PIN_COUNT = MethodHandles.lookup().findVarHandle(FrameDescriptor.class, "pinCount", int.class);
+			DIRTY_BIT = MethodHandles.lookup().findVarHandle(FrameDescriptor.class, "dirtyBit", boolean.class);
+			PREFETCHED = MethodHandles.lookup().findVarHandle(FrameDescriptor.class, "prefetched", boolean.class);
+			VERSION = MethodHandles.lookup().findVarHandle(FrameDescriptor.class, "version", int.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * Adds a pin.
+	 *
+	 * @return the pin count before
+	 */
+	int pin() {
+		return (int) PIN_COUNT.getAndAdd(this, 1);
+	}
+
+	/**
+	 * Drops a pin, unless there is none.
+	 *
+	 * @return the pin count left, or -1 if the frame was not pinned
+	 */
+	int unpin() {
+		int count;
+		do {
+			count = pinCount;
+			if (count == 0) {
+				return -1;
+			}
+		} while (!PIN_COUNT.compareAndSet(this, count, count - 1));
+		return count - 1;
+	}
+
+	/**
+	 * Sets the dirty bit.
+	 *
+	 * @return true if this call set it, false if it was set already
+	 */
+	boolean markDirty() {
+		return !dirtyBit && DIRTY_BIT.compareAndSet(this, false, true);
+	}
+
+	/**
+	 * Clears the dirty bit.
+	 *
+	 * @return true if this call cleared it, false if it was clear already
+	 */
+	boolean markClean() {
+		return dirtyBit && DIRTY_BIT.compareAndSet(this, true, false);
+	}
+
+	/**
+	 * Moves the version, as the frame's page has changed.
+	 */
+	void changed() {
+		VERSION.getAndAdd(this, 1);
+	}
+
+	/**
+	 * Clears the prefetched flag.
+	 *
+	 * @return true if this call cleared it, false if it was clear already
+	 */
+	boolean clearPrefetched() {
+		return prefetched && PREFETCHED.compareAndSet(this, true, false);
+	}
 }
@@ -0,0 +1,138 @@
+package bufmgr;
+
+import java.util.Arrays;
+
+/**
+ * A doubly linked list of frame numbers, linked through arrays indexed by
+ * frame, so adding, removing and testing a frame is O(1) and allocates
+ * nothing. A frame is in the list at most once.
+ */
+class FrameList {
+
+	/** NIL: the end of the list, and the link value of frames not in it. */
+	static final int NIL = -1;
+
+	private int[] prev;
+	private int[] next;
+	private boolean[] member;
+	private int head = NIL;
+	private int tail = NIL;
+	private int size;
+
+	FrameList(int numFrames) {
+		prev = new int[numFrames];
+		next = new int[numFrames];
+		member = new boolean[numFrames];
+		Arrays.fill(prev, NIL);
+		Arrays.fill(next, NIL);
+	}
+
+	/**
+	 * Make room for frames up to numFrames - 1; a list never gets smaller.
+	 */
+	void grow(int numFrames) {
+		int old = prev.length;
+		if (numFrames <= old) {
+			return;
+		}
+		prev = Arrays.copyOf(prev, numFrames);
+		next = Arrays.copyOf(next, numFrames);
+		member = Arrays.copyOf(member, numFrames);
+		Arrays.fill(prev, old, numFrames, NIL);
+		Arrays.fill(next, old, numFrames, NIL);
+	}
+
+	boolean contains(int frame) {
+		return member[frame];
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/** Returns the first frame, or NIL. */
+	int first() {
+		return head;
+	}
+
+	/** Returns the frame after frame, or NIL. */
+	int next(int frame) {
+		return next[frame];
+	}
+
+	void addLast(int frame) {
+		insertBefore(frame, NIL);
+	}
+
+	/**
+	 * Insert frame in front of at, or at the end if at is NIL.
+	 */
+	void insertBefore(int frame, int at) {
+		int before = at == NIL ? tail : prev[at];
+		prev[frame] = before;
+		next[frame] = at;
+		if (before == NIL) {
+			head = frame;
+		} else {
+			next[before] = frame;
+		}
+		if (at == NIL) {
+			tail = frame;
+		} else {
+			prev[at] = frame;
+		}
+		member[frame] = true;
+		size++;
+	}
+
+	/**
+	 * Remove frame if it is in the list.
+	 *
+	 * @return true if it was
+	 */
+	boolean remove(int frame) {
+		if (!member[frame]) {
+			return false;
+		}
+		if (prev[frame] == NIL) {
+			head = next[frame];
+		} else {
+			next[prev[frame]] = next[frame];
+		}
+		if (next[frame] == NIL) {
+			tail = prev[frame];
+		} else {
+			prev[next[frame]] = prev[frame];
+		}
+		prev[frame] = NIL;
+		next[frame] = NIL;
+		member[frame] = false;
+		size--;
+		return true;
+	}
+
+	/**
+	 * Copy the frames into out from index at on, first to last.
+	 *
+	 * @return at plus the number of frames copied
+	 */
+	int copyTo(int[] out, int at) {
+		for (int frame = head; frame != NIL; frame = next[frame]) {
+			out[at++] = frame;
+		}
+		return at;
+	}
+
+	/** Remove and return the first frame, or NIL if the list is empty. */
+	int removeFirst() {
+		int frame = head;
+		if (frame != NIL) {
+			remove(frame);
+		}
+		return frame;
+	}
+}
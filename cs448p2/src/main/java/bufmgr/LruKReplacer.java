@@ -0,0 +1,169 @@
+package bufmgr;
+
+import java.util.Arrays;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum): evict the candidate whose
+ * K-th most recent pin is furthest in the past. Candidates pinned fewer than K
+ * times count as infinitely far and go first, oldest first pin first, so a page
+ * touched once by a scan leaves before a page that is used again and again.
+ * Pin history is kept while a page is in the pool.
+ *
+ * The K-th most recent pin of a frame does not move to the newest end when the
+ * frame is pinned, so the candidates cannot be kept in a list; they are kept in
+ * a binary heap indexed by frame. The victim is at the top, and adding or
+ * removing a candidate is O(log n) without allocating.
+ */
+class LruKReplacer implements Replacer {
+
+	/** Keys of frames with fewer than K pins sort below every real time. */
+	private static final long INFINITE_DISTANCE = 1L << 62;
+
+	private final int k;
+
+	/** history: the last k pin times of each frame, a ring of k per frame. */
+	private long[] history;
+	private int[] pins;
+	private long clock;
+
+	/** heap: candidate frames, smallest key first; position: frame -> heap index or -1. */
+	private int[] heap;
+	private long[] keys;
+	private int[] position;
+	private int size;
+
+	LruKReplacer(int numFrames, int k) {
+		this.k = k;
+		history = new long[numFrames * k];
+		pins = new int[numFrames];
+		heap = new int[numFrames];
+		keys = new long[numFrames];
+		position = new int[numFrames];
+		Arrays.fill(position, -1);
+	}
+
+	@Override
+	public void loaded(int frame, int pageno) {
+		pins[frame] = 0;
+		access(frame);
+	}
+
+	@Override
+	public void pinned(int frame) {
+		remove(frame);
+		access(frame);
+	}
+
+	@Override
+	public void unpinned(int frame) {
+		int count = pins[frame];
+		if (count < k) {
+			keys[frame] = history[frame * k] - INFINITE_DISTANCE;
+		} else {
+			// the ring slot written next holds the k-th most recent pin
+			keys[frame] = history[frame * k + count % k];
+		}
+		position[frame] = size;
+		heap[size++] = frame;
+		siftUp(position[frame]);
+	}
+
+	@Override
+	public int victim() {
+		if (size == 0) {
+			return -1;
+		}
+		int frame = heap[0];
+		remove(frame);
+		return frame;
+	}
+
+	@Override
+	public void freed(int frame) {
+		remove(frame);
+		pins[frame] = 0;
+	}
+
+	@Override
+	public int upcoming(int[] out) {
+		// heap order: every frame comes after the frames above it in the heap
+		System.arraycopy(heap, 0, out, 0, size);
+		return size;
+	}
+
+	@Override
+	public void resize(int numFrames) {
+		int old = pins.length;
+		if (numFrames <= old) {
+			return;
+		}
+		history = Arrays.copyOf(history, numFrames * k);
+		pins = Arrays.copyOf(pins, numFrames);
+		heap = Arrays.copyOf(heap, numFrames);
+		keys = Arrays.copyOf(keys, numFrames);
+		position = Arrays.copyOf(position, numFrames);
+		Arrays.fill(position, old, numFrames, -1);
+	}
+
+	private void access(int frame) {
+		history[frame * k + pins[frame] % k] = ++clock;
+		pins[frame]++;
+		if (pins[frame] == 2 * k) {
+			// keep the count small; only count % k and count >= k matter
+			pins[frame] = k;
+		}
+	}
+
+	private void remove(int frame) {
+		int at = position[frame];
+		if (at < 0) {
+			return;
+		}
+		position[frame] = -1;
+		size--;
+		if (at == size) {
+			return;
+		}
+		int last = heap[size];
+		heap[at] = last;
+		position[last] = at;
+		siftDown(at);
+		siftUp(position[last]);
+	}
+
+	private void siftUp(int at) {
+		int frame = heap[at];
+		while (at > 0) {
+			int parent = (at - 1) / 2;
+			if (keys[heap[parent]] <= keys[frame]) {
+				break;
+			}
+			heap[at] = heap[parent];
+			position[heap[at]] = at;
+			at = parent;
+		}
+		heap[at] = frame;
+		position[frame] = at;
+	}
+
+	private void siftDown(int at) {
+		int frame = heap[at];
+		while (true) {
+			int child = 2 * at + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && keys[heap[child + 1]] < keys[heap[child]]) {
+				child++;
+			}
+			if (keys[frame] <= keys[heap[child]]) {
+				break;
+			}
+			heap[at] = heap[child];
+			position[heap[at]] = at;
+			at = child;
+		}
+		heap[at] = frame;
+		position[frame] = at;
+	}
+}
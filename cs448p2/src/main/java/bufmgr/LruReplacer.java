@@ -0,0 +1,51 @@
+package bufmgr;
+
+/**
+ * Least recently used replacement: the candidates are queued in the order they
+ * were unpinned, and the frame unpinned longest ago is evicted. A page's last
+ * use ends when it is unpinned, so this is LRU by end of use. It is also what
+ * this buffer manager has always called FIFO, so both names select it.
+ */
+class LruReplacer implements Replacer {
+
+	private final FrameList candidates;
+
+	LruReplacer(int numFrames) {
+		candidates = new FrameList(numFrames);
+	}
+
+	@Override
+	public void loaded(int frame, int pageno) {
+		// pinned, so not a candidate yet
+	}
+
+	@Override
+	public void pinned(int frame) {
+		candidates.remove(frame);
+	}
+
+	@Override
+	public void unpinned(int frame) {
+		candidates.addLast(frame);
+	}
+
+	@Override
+	public int victim() {
+		return candidates.removeFirst();
+	}
+
+	@Override
+	public void freed(int frame) {
+		candidates.remove(frame);
+	}
+
+	@Override
+	public int upcoming(int[] out) {
+		return candidates.copyTo(out, 0);
+	}
+
+	@Override
+	public void resize(int numFrames) {
+		candidates.grow(numFrames);
+	}
+}
@@ -0,0 +1,184 @@
+package bufmgr;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A page cache outside the Java heap, behind the buffer pool. Its memory is a
+ * few large direct ByteBuffers, allocated once and cut into page-sized slots,
+ * so however big it is the garbage collector sees a handful of objects and
+ * never copies or scans the pages. Pages the pool evicts are copied into a
+ * slot, and a miss in the pool copies its page from here before it goes to
+ * the disk.
+ *
+ * The arena only holds pages as they are, or are about to be, on disk: a page
+ * is put when the pool evicts it (a dirty page's write-back is queued with the
+ * same contents), and removed when it is freed or the DiskMgr writes it, and
+ * the arena is emptied when a database is opened, created or destroyed. While a page is in the pool,
+ * the pool's copy is the one that counts; the arena's is replaced when the
+ * page is evicted again.
+ *
+ * Slots are replaced by Clock. Every call takes the arena's lock and copies
+ * one page while holding it.
+ */
+class OffHeapArena {
+
+	/** CHUNK_BYTES: the size of each direct buffer; a ByteBuffer holds less than 2 GB. */
+	private static final int CHUNK_BYTES = 1 << 30;
+
+	private final long capacity;
+
+	/** chunks: the slots, made for pageSize on the first put and again if the page size changes */
+	private ByteBuffer[] chunks = null;
+	private int pageSize = 0;
+	private int slotsPerChunk;
+
+	/** slotPage: the page in each slot, or -1; referenced: Clock's bits; used: slots handed out so far */
+	private int[] slotPage;
+	private boolean[] referenced;
+	private int used;
+	private int hand;
+	private PageTable table;
+
+	/**
+	 * @param capacity
+	 *            bytes of memory for pages, rounded down to whole pages
+	 */
+	OffHeapArena(long capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the number of bytes of memory the arena may use for pages.
+	 */
+	long capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Copy page pageno into page, if the arena holds it.
+	 *
+	 * @return true if it did
+	 */
+	synchronized boolean get(int pageno, byte[] page) {
+		if (page.length != pageSize) {
+			return false;
+		}
+		int slot = table.get(pageno);
+		if (slot < 0) {
+			return false;
+		}
+		ByteBuffer chunk = seek(slot);
+		chunk.get(page, 0, pageSize);
+		referenced[slot] = true;
+		return true;
+	}
+
+	/**
+	 * Copy page into the slot of page pageno, making room for it if need be.
+	 */
+	synchronized void put(int pageno, byte[] page) {
+		if (page.length != pageSize && !allocate(page.length)) {
+			return;
+		}
+		int slot = table.get(pageno);
+		if (slot < 0) {
+			slot = freeSlot();
+			slotPage[slot] = pageno;
+			table.put(pageno, slot);
+		}
+		ByteBuffer chunk = seek(slot);
+		chunk.put(page, 0, pageSize);
+		referenced[slot] = true;
+	}
+
+	/**
+	 * Forget page pageno.
+	 */
+	synchronized void remove(int pageno) {
+		if (table == null) {
+			return;
+		}
+		int slot = table.get(pageno);
+		if (slot >= 0) {
+			table.remove(pageno);
+			slotPage[slot] = -1;
+			referenced[slot] = false;
+		}
+	}
+
+	/**
+	 * Forget every page, keeping the memory.
+	 */
+	synchronized void clear() {
+		if (table == null) {
+			return;
+		}
+		Arrays.fill(slotPage, -1);
+		Arrays.fill(referenced, false);
+		table = new PageTable(slotPage.length);
+		used = 0;
+		hand = 0;
+	}
+
+	/**
+	 * Make the slots for pages of pageSize bytes, dropping what the arena held.
+	 *
+	 * @return false if the capacity does not hold a single page
+	 */
+	private boolean allocate(int pageSize) {
+		long numSlots = Math.min(capacity / pageSize, Integer.MAX_VALUE - 8);
+		if (numSlots == 0) {
+			return false;
+		}
+		this.pageSize = pageSize;
+		slotsPerChunk = CHUNK_BYTES / pageSize;
+		// let go of the old buffers before making the new ones
+		chunks = null;
+		chunks = new ByteBuffer[(int) ((numSlots + slotsPerChunk - 1) / slotsPerChunk)];
+		for (int i = 0; i < chunks.length; i++) {
+			long slots = Math.min(slotsPerChunk, numSlots - (long) i * slotsPerChunk);
+			chunks[i] = ByteBuffer.allocateDirect((int) (slots * pageSize));
+		}
+		slotPage = new int[(int) numSlots];
+		Arrays.fill(slotPage, -1);
+		referenced = new boolean[(int) numSlots];
+		used = 0;
+		hand = 0;
+		table = new PageTable((int) numSlots);
+		return true;
+	}
+
+	/**
+	 * Returns an empty slot: one never used, one whose page was removed, or
+	 * Clock's victim, whose page is forgotten.
+	 */
+	private int freeSlot() {
+		if (used < slotPage.length) {
+			return used++;
+		}
+		while (true) {
+			int slot = hand;
+			hand = hand + 1 == slotPage.length ? 0 : hand + 1;
+			if (slotPage[slot] < 0) {
+				return slot;
+			}
+			if (referenced[slot]) {
+				referenced[slot] = false;
+			} else {
+				table.remove(slotPage[slot]);
+				slotPage[slot] = -1;
+				return slot;
+			}
+		}
+	}
+
+	/**
+	 * Returns the chunk holding slot, positioned at the slot.
+	 */
+	private ByteBuffer seek(int slot) {
+		ByteBuffer chunk = chunks[slot / slotsPerChunk];
+		chunk.position(slot % slotsPerChunk * pageSize);
+		return chunk;
+	}
+}
@@ -0,0 +1,64 @@
+package bufmgr;
+
+/**
+ * The thread behind the buffer manager's page cleaner. Every wake() asks for
+ * one cleaning pass, run on the cleaner thread; wake-ups that come while a
+ * pass is already wanted are merged into it. The thread is started by the
+ * first wake-up and ends after a second without one, so a buffer manager that
+ * is not being used keeps no thread alive.
+ */
+class PageCleaner {
+
+	/** IDLE_MILLIS: how long the thread waits for a wake-up before it ends. */
+	private static final long IDLE_MILLIS = 1000;
+
+	private final Runnable pass;
+
+	/** wanted: a pass was asked for and has not started yet. */
+	private volatile boolean wanted;
+
+	/** worker: the cleaner thread, or null while there is none; guarded by this. */
+	private Thread worker;
+
+	PageCleaner(Runnable pass) {
+		this.pass = pass;
+	}
+
+	/**
+	 * Ask for a cleaning pass. Cheap when one is already wanted.
+	 */
+	void wake() {
+		if (wanted) {
+			return;
+		}
+		synchronized (this) {
+			wanted = true;
+			if (worker == null) {
+				worker = new Thread(this::run, "minibase-cleaner");
+				worker.setDaemon(true);
+				worker.start();
+			}
+			notifyAll();
+		}
+	}
+
+	private void run() {
+		while (true) {
+			synchronized (this) {
+				if (!wanted) {
+					try {
+						wait(IDLE_MILLIS);
+					} catch (InterruptedException e) {
+						// the next wake-up starts a new thread
+					}
+				}
+				if (!wanted) {
+					worker = null;
+					return;
+				}
+				wanted = false;
+			}
+			pass.run();
+		}
+	}
+}
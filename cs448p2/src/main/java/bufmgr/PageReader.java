@@ -0,0 +1,14 @@
+package bufmgr;
+
+/**
+ * Reads something from a page's bytes, for BufMgr.readOptimistic. It may be
+ * run on a page that is being changed, and its result then thrown away, so
+ * it must not keep the array or loop on what it reads.
+ */
+public interface PageReader<T> {
+
+	/**
+	 * Returns what the caller wants from the page.
+	 */
+	T read(byte[] data);
+}
@@ -0,0 +1,150 @@
+package bufmgr;
+
+import java.util.Arrays;
+
+/**
+ * The buffer pool's page table: page number -> frame number, in an
+ * open-addressing hash table of ints. Lookups, inserts and removals are O(1)
+ * and allocate nothing. The table is kept at most half full; it starts out
+ * sized for the number of entries it is expected to hold, and doubles if it
+ * ever holds more, so a table that has grown to its working size never
+ * allocates again.
+ *
+ * Collisions are resolved by linear probing, and a removal shifts the entries
+ * that follow it back instead of leaving a tombstone, so a long run of pins and
+ * evictions does not slow down lookups.
+ */
+class PageTable {
+
+	/** EMPTY: the key of an unused slot; page numbers are never negative. */
+	private static final int EMPTY = -1;
+
+	private int[] keys;
+	private int[] values;
+	private int mask;
+	private int shift;
+	private int size;
+
+	PageTable(int expected) {
+		allocate(Integer.highestOneBit(Math.max(2, expected) * 2 - 1) << 1);
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		shift = 32 - Integer.numberOfTrailingZeros(capacity);
+		Arrays.fill(keys, EMPTY);
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the frame holding page pageno, or -1 if it is not in the pool.
+	 */
+	int get(int pageno) {
+		for (int at = slot(pageno);; at = (at + 1) & mask) {
+			int key = keys[at];
+			if (key == pageno) {
+				return values[at];
+			}
+			if (key == EMPTY) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * get for a reader that does not hold the stripe's latch, and validates
+	 * its stamp afterwards. It may see the table halfway through a change, so
+	 * it reads each array once, stays inside both, and gives up after one pass
+	 * instead of counting on an empty slot. Its answer means nothing unless
+	 * the stamp validates.
+	 */
+	int probe(int pageno) {
+		int[] k = keys;
+		int[] v = values;
+		// both lengths are powers of 2
+		int m = Math.min(k.length, v.length) - 1;
+		int at = (pageno * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(m + 1));
+		for (int n = 0; n <= m; n++, at = (at + 1) & m) {
+			int key = k[at];
+			if (key == pageno) {
+				return v[at];
+			}
+			if (key == EMPTY) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Record that page pageno is held by frame, replacing an earlier entry.
+	 */
+	void put(int pageno, int frame) {
+		int at = slot(pageno);
+		while (keys[at] != EMPTY && keys[at] != pageno) {
+			at = (at + 1) & mask;
+		}
+		if (keys[at] == EMPTY) {
+			keys[at] = pageno;
+			size++;
+		}
+		values[at] = frame;
+		if (2 * size > keys.length) {
+			grow();
+		}
+	}
+
+	private void grow() {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(2 * oldKeys.length);
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+
+	/**
+	 * Forget page pageno.
+	 *
+	 * @return the frame that held it, or -1 if it was not in the table
+	 */
+	int remove(int pageno) {
+		int at = slot(pageno);
+		while (keys[at] != pageno) {
+			if (keys[at] == EMPTY) {
+				return -1;
+			}
+			at = (at + 1) & mask;
+		}
+		int frame = values[at];
+		size--;
+		// move back every entry of the probe run that can no longer be
+		// reached across the hole
+		for (int next = (at + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+			int home = slot(keys[next]);
+			if (((next - home) & mask) >= ((next - at) & mask)) {
+				keys[at] = keys[next];
+				values[at] = values[next];
+				at = next;
+			}
+		}
+		keys[at] = EMPTY;
+		return frame;
+	}
+
+	/**
+	 * Fibonacci hashing: page numbers are mostly consecutive, the multiply
+	 * spreads them over the high bits.
+	 */
+	private int slot(int pageno) {
+		return (pageno * 0x9E3779B9) >>> shift;
+	}
+}
@@ -0,0 +1,337 @@
+package bufmgr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import diskmgr.LatencyHistogram;
+
+/**
+ * Statistics of one BufMgr: hits and misses, misses served by the off-heap
+ * cache, evictions, dirty pages written back (by eviction, by the page cleaner
+ * and by flushes), pages read ahead and whether they were used, how long pins
+ * waited for their page to be read, and how long pages stay pinned, plus how
+ * many frames each file entry holds at the time of a snapshot.
+ *
+ * A hit is a pin of a page found in the pool, a miss one that had to read the
+ * page in. A pin that waits for another thread, or read-ahead, to read the
+ * page counts as a hit, and its wait as pin wait time; a miss waits for its
+ * own read, which the DiskMgr's read latencies already time. Pin duration runs from the pin that
+ * takes a frame's pin count from 0 to the unpin that brings it back; a clock
+ * read costs about as much as a hit, so one such pin in 64 is timed, and the
+ * histogram is a sample. A read by readOptimistic that needs no pin is not a
+ * hit but an optimistic read; one that falls back to a pin counts as that
+ * pin's hit or miss, and each try that did not validate as a retry.
+ *
+ * Counters are LongAdders and the histograms are LatencyHistograms, so
+ * recording takes no lock and allocates nothing. snapshot() returns the
+ * counts since the buffer manager was created; window() the counts since the
+ * last resetWindow(), which is what the JMX view, PoolStatsMBean, publishes.
+ */
+public class PoolStats implements PoolStatsMBean {
+
+	private final BufMgr pool;
+
+	final LongAdder hits = new LongAdder();
+	final LongAdder misses = new LongAdder();
+	final LongAdder offHeapHits = new LongAdder();
+	final LongAdder evictions = new LongAdder();
+	final LongAdder evictionWrites = new LongAdder();
+	final LongAdder cleanerWrites = new LongAdder();
+	final LongAdder flushWrites = new LongAdder();
+	final LongAdder pagesReadAhead = new LongAdder();
+	final LongAdder readAheadUsed = new LongAdder();
+	final LongAdder readAheadUnused = new LongAdder();
+	final LongAdder optimisticReads = new LongAdder();
+	final LongAdder optimisticRetries = new LongAdder();
+
+	final LatencyHistogram pinWait = new LatencyHistogram();
+	final LatencyHistogram pinDuration = new LatencyHistogram();
+
+	/** created: when the buffer manager was created; windowStart: the counts at the last resetWindow */
+	private final long created = System.nanoTime();
+	private volatile Snapshot windowStart;
+
+	PoolStats(BufMgr pool) {
+		this.pool = pool;
+		resetWindow();
+	}
+
+	/**
+	 * Returns all counters as they are now, counted since the buffer manager
+	 * was created.
+	 */
+	public Snapshot snapshot() {
+		List<FileResidency> files = new ArrayList<FileResidency>();
+		for (Map.Entry<String, Integer> entry : pool.residency().entrySet()) {
+			files.add(new FileResidency(entry.getKey(), entry.getValue()));
+		}
+		files.sort((a, b) -> Integer.compare(b.frames, a.frames));
+		return new Snapshot(System.nanoTime() - created, hits.sum(), misses.sum(), offHeapHits.sum(),
+				evictions.sum(), evictionWrites.sum(), cleanerWrites.sum(), flushWrites.sum(), pagesReadAhead.sum(),
+				readAheadUsed.sum(), readAheadUnused.sum(), optimisticReads.sum(), optimisticRetries.sum(),
+				pinWait.snapshot(), pinDuration.snapshot(),
+				pool.getNumBuffers(), pool.getNumUnpinned(), pool.getNumDirty(), files);
+	}
+
+	/**
+	 * Returns the counters since the last resetWindow, or since the buffer
+	 * manager was created if there was none. Frame counts and residency are as
+	 * they are now.
+	 */
+	public Snapshot window() {
+		Snapshot start = windowStart;
+		return snapshot().since(start);
+	}
+
+	/**
+	 * Start a new window: window() counts from now on.
+	 */
+	@Override
+	public void resetWindow() {
+		windowStart = snapshot();
+	}
+
+	/**
+	 * The number of frames one file entry holds.
+	 */
+	public static class FileResidency {
+		public final String name;
+		public final int frames;
+
+		FileResidency(String name, int frames) {
+			this.name = name;
+			this.frames = frames;
+		}
+
+		@Override
+		public String toString() {
+			return name + ": " + frames + " frames";
+		}
+	}
+
+	/**
+	 * The counters of a BufMgr over some interval, and its frames at the end
+	 * of it.
+	 */
+	public static class Snapshot {
+
+		/** nanos: the length of the interval the counts are for. */
+		public final long nanos;
+
+		public final long hits;
+		public final long misses;
+
+		/** offHeapHits: misses served from the off-heap cache instead of the disk. */
+		public final long offHeapHits;
+
+		public final long evictions;
+
+		/** evictionWrites, cleanerWrites, flushWrites: dirty pages written back by each. */
+		public final long evictionWrites;
+		public final long cleanerWrites;
+		public final long flushWrites;
+
+		/** pagesReadAhead: pages read ahead; readAheadUsed and readAheadUnused: pinned, or dropped unpinned. */
+		public final long pagesReadAhead;
+		public final long readAheadUsed;
+		public final long readAheadUnused;
+
+		/** optimisticReads: reads by readOptimistic that needed no pin; optimisticRetries: their tries that did not validate. */
+		public final long optimisticReads;
+		public final long optimisticRetries;
+
+		/** pinWait: time pins waited for another thread, or read-ahead, to read their page in. */
+		public final LatencyHistogram.Snapshot pinWait;
+
+		/** pinDuration: time from a frame's first pin to its last unpin, for a sample of one in 64. */
+		public final LatencyHistogram.Snapshot pinDuration;
+
+		public final int numBuffers;
+		public final int numUnpinned;
+		public final int numDirty;
+
+		/** files: frames held per file entry, most frames first. */
+		public final List<FileResidency> files;
+
+		Snapshot(long nanos, long hits, long misses, long offHeapHits, long evictions, long evictionWrites,
+				long cleanerWrites, long flushWrites, long pagesReadAhead, long readAheadUsed, long readAheadUnused,
+				long optimisticReads, long optimisticRetries,
+				LatencyHistogram.Snapshot pinWait, LatencyHistogram.Snapshot pinDuration, int numBuffers,
+				int numUnpinned, int numDirty, List<FileResidency> files) {
+			this.nanos = nanos;
+			this.hits = hits;
+			this.misses = misses;
+			this.offHeapHits = offHeapHits;
+			this.evictions = evictions;
+			this.evictionWrites = evictionWrites;
+			this.cleanerWrites = cleanerWrites;
+			this.flushWrites = flushWrites;
+			this.pagesReadAhead = pagesReadAhead;
+			this.readAheadUsed = readAheadUsed;
+			this.readAheadUnused = readAheadUnused;
+			this.optimisticReads = optimisticReads;
+			this.optimisticRetries = optimisticRetries;
+			this.pinWait = pinWait;
+			this.pinDuration = pinDuration;
+			this.numBuffers = numBuffers;
+			this.numUnpinned = numUnpinned;
+			this.numDirty = numDirty;
+			this.files = Collections.unmodifiableList(files);
+		}
+
+		/**
+		 * Returns the counts after earlier was taken; frames and residency are
+		 * this snapshot's.
+		 */
+		Snapshot since(Snapshot earlier) {
+			return new Snapshot(nanos - earlier.nanos, hits - earlier.hits, misses - earlier.misses,
+					offHeapHits - earlier.offHeapHits, evictions - earlier.evictions,
+					evictionWrites - earlier.evictionWrites, cleanerWrites - earlier.cleanerWrites,
+					flushWrites - earlier.flushWrites, pagesReadAhead - earlier.pagesReadAhead,
+					readAheadUsed - earlier.readAheadUsed, readAheadUnused - earlier.readAheadUnused,
+					optimisticReads - earlier.optimisticReads, optimisticRetries - earlier.optimisticRetries,
+					pinWait.since(earlier.pinWait), pinDuration.since(earlier.pinDuration), numBuffers, numUnpinned,
+					numDirty, files);
+		}
+
+		/** Returns the fraction of pins that found their page in the pool. */
+		public double hitRatio() {
+			long pins = hits + misses;
+			return pins == 0 ? 0 : (double) hits / pins;
+		}
+
+		/** Returns the number of dirty pages written back, by any means. */
+		public long pagesWritten() {
+			return evictionWrites + cleanerWrites + flushWrites;
+		}
+
+		/** Returns the frames the named file entry holds, 0 if none. */
+		public int frames(String name) {
+			for (FileResidency file : files) {
+				if (file.name.equals(name)) {
+					return file.frames;
+				}
+			}
+			return 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("hits=%d misses=%d (%.1f%% hits, %d off-heap) evictions=%d written=%d pinWait: %s",
+					hits, misses, 100 * hitRatio(), offHeapHits, evictions, pagesWritten(), pinWait);
+		}
+	}
+
+	/*
+	 * PoolStatsMBean
+	 */
+
+	@Override
+	public double getWindowSeconds() {
+		return (System.nanoTime() - created - windowStart.nanos) / 1e9;
+	}
+
+	@Override
+	public long getHits() {
+		return hits.sum() - windowStart.hits;
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.sum() - windowStart.misses;
+	}
+
+	@Override
+	public double getHitRatio() {
+		long h = getHits();
+		long pins = h + getMisses();
+		return pins == 0 ? 0 : (double) h / pins;
+	}
+
+	@Override
+	public long getOffHeapHits() {
+		return offHeapHits.sum() - windowStart.offHeapHits;
+	}
+
+	@Override
+	public long getEvictions() {
+		return evictions.sum() - windowStart.evictions;
+	}
+
+	@Override
+	public long getEvictionWrites() {
+		return evictionWrites.sum() - windowStart.evictionWrites;
+	}
+
+	@Override
+	public long getCleanerWrites() {
+		return cleanerWrites.sum() - windowStart.cleanerWrites;
+	}
+
+	@Override
+	public long getFlushWrites() {
+		return flushWrites.sum() - windowStart.flushWrites;
+	}
+
+	@Override
+	public long getPagesReadAhead() {
+		return pagesReadAhead.sum() - windowStart.pagesReadAhead;
+	}
+
+	@Override
+	public long getReadAheadUsed() {
+		return readAheadUsed.sum() - windowStart.readAheadUsed;
+	}
+
+	@Override
+	public long getReadAheadUnused() {
+		return readAheadUnused.sum() - windowStart.readAheadUnused;
+	}
+
+	@Override
+	public long getOptimisticReads() {
+		return optimisticReads.sum() - windowStart.optimisticReads;
+	}
+
+	@Override
+	public long getOptimisticRetries() {
+		return optimisticRetries.sum() - windowStart.optimisticRetries;
+	}
+
+	@Override
+	public String getPinWait() {
+		return pinWait.snapshot().since(windowStart.pinWait).toString();
+	}
+
+	@Override
+	public String getPinDuration() {
+		return pinDuration.snapshot().since(windowStart.pinDuration).toString();
+	}
+
+	@Override
+	public int getNumBuffers() {
+		return pool.getNumBuffers();
+	}
+
+	@Override
+	public int getNumUnpinned() {
+		return pool.getNumUnpinned();
+	}
+
+	@Override
+	public int getNumDirty() {
+		return pool.getNumDirty();
+	}
+
+	@Override
+	public String[] getFiles() {
+		List<String> lines = new ArrayList<String>();
+		for (FileResidency file : snapshot().files) {
+			lines.add(file.toString());
+		}
+		return lines.toArray(new String[0]);
+	}
+}
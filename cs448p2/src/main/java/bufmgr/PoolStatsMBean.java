@@ -0,0 +1,64 @@
+package bufmgr;
+
+/**
+ * JMX view of a BufMgr's PoolStats, registered as minibase:type=BufMgr by the
+ * buffer manager created last. Counts are for the current window, since the
+ * last resetWindow; frame counts are as they are now.
+ */
+public interface PoolStatsMBean {
+
+	/** Length of the current window. */
+	double getWindowSeconds();
+
+	/** Start a new window. */
+	void resetWindow();
+
+	long getHits();
+
+	long getMisses();
+
+	double getHitRatio();
+
+	/** Misses served from the off-heap cache instead of the disk. */
+	long getOffHeapHits();
+
+	long getEvictions();
+
+	/** Dirty pages written back because they were evicted. */
+	long getEvictionWrites();
+
+	/** Dirty pages written back by the page cleaner. */
+	long getCleanerWrites();
+
+	/** Dirty pages written back by flushPage and flushAllPages. */
+	long getFlushWrites();
+
+	long getPagesReadAhead();
+
+	/** Pages read ahead that were then pinned. */
+	long getReadAheadUsed();
+
+	/** Pages read ahead that left the pool without being pinned. */
+	long getReadAheadUnused();
+
+	/** Reads by readOptimistic that needed no pin. */
+	long getOptimisticReads();
+
+	/** Tries of readOptimistic that did not validate and were run again, or fell back to a pin. */
+	long getOptimisticRetries();
+
+	/** Count, mean, median, 99th percentile and max of the time pins waited for another thread's read. */
+	String getPinWait();
+
+	/** Count, mean, median, 99th percentile and max of the time frames stayed pinned. */
+	String getPinDuration();
+
+	int getNumBuffers();
+
+	int getNumUnpinned();
+
+	int getNumDirty();
+
+	/** One line per file entry with the frames it holds, most first. */
+	String[] getFiles();
+}
@@ -0,0 +1,94 @@
+package bufmgr;
+
+/**
+ * Finds sequential streams of pins for read-ahead. The buffer manager reports
+ * every pin that missed, and every first pin of a page that was read ahead;
+ * a pin of the page a stream expects next extends the stream, any other page
+ * starts a new one. Up to STREAMS streams are followed at once, the one used
+ * longest ago giving way to a new one, so interleaved scans of different files
+ * each keep their own.
+ *
+ * Once a stream has TRIGGER pins in a row it is read window pages ahead.
+ * Reading ahead again waits until the stream has used half of that, so pages
+ * are asked for in batches of at least window / 2, which the async engine
+ * merges into a few large reads.
+ */
+class ReadAhead {
+
+	/** STREAMS: the most streams followed at once. */
+	private static final int STREAMS = 8;
+
+	/** TRIGGER: pins in a row that make a stream worth reading ahead. */
+	private static final int TRIGGER = 2;
+
+	private final int window;
+
+	/**
+	 * next: the page each stream expects; ahead: the first page not yet read
+	 * ahead for it; length: its pins in a row; used: when it was last extended.
+	 */
+	private final int[] next = new int[STREAMS];
+	private final int[] ahead = new int[STREAMS];
+	private final int[] length = new int[STREAMS];
+	private final long[] used = new long[STREAMS];
+	private long clock;
+
+	ReadAhead(int window) {
+		this.window = window;
+		for (int s = 0; s < STREAMS; s++) {
+			next[s] = -1;
+			ahead[s] = -1;
+		}
+	}
+
+	/**
+	 * Report a pin of page pageno that missed or used a page read ahead.
+	 *
+	 * @return the pages to read ahead now: the first page in the upper 32 bits
+	 *         and the number of pages in the lower, or 0 for none
+	 */
+	synchronized long pinned(int pageno) {
+		int s = find(pageno);
+		if (s < 0) {
+			s = oldest();
+			next[s] = pageno + 1;
+			ahead[s] = pageno + 1;
+			length[s] = 1;
+			used[s] = ++clock;
+			return 0;
+		}
+		next[s] = pageno + 1;
+		ahead[s] = Math.max(ahead[s], next[s]);
+		length[s]++;
+		used[s] = ++clock;
+		if (length[s] < TRIGGER || ahead[s] - next[s] > window / 2) {
+			return 0;
+		}
+		int first = ahead[s];
+		int count = next[s] + window - first;
+		ahead[s] = first + count;
+		return ((long) first << 32) | count;
+	}
+
+	/**
+	 * The stream pageno extends: the one expecting it, or one that read it ahead.
+	 */
+	private int find(int pageno) {
+		for (int s = 0; s < STREAMS; s++) {
+			if (pageno == next[s] || (pageno > next[s] && pageno < ahead[s])) {
+				return s;
+			}
+		}
+		return -1;
+	}
+
+	private int oldest() {
+		int oldest = 0;
+		for (int s = 1; s < STREAMS; s++) {
+			if (used[s] < used[oldest]) {
+				oldest = s;
+			}
+		}
+		return oldest;
+	}
+}
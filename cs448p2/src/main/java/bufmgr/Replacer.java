@@ -0,0 +1,98 @@
+package bufmgr;
+
+/**
+ * A buffer replacement policy. The buffer manager tells the replacer what
+ * happens to its frames, and asks it for a victim when a page has to be read
+ * into a full pool. Frames are numbered 0 .. numFrames - 1; a frame is a
+ * replacement candidate while its pin count is 0. Empty frames are kept by the
+ * buffer manager and never given to the replacer.
+ *
+ * Every call is O(1), or O(log n) where the policy's order needs it, and
+ * pinned() and unpinned(), which run on every pin and unpin of a resident page,
+ * allocate nothing.
+ *
+ * A replacer need not be thread-safe: the buffer manager makes every call with
+ * its pool latch held. Pins that race with each other may reach the replacer
+ * as one, and a frame the replacer chose may turn out to be pinned, in which
+ * case the buffer manager tells the replacer about its page again with
+ * loaded().
+ */
+public interface Replacer {
+
+	/**
+	 * Page pageno was read into frame, which now holds it with one pin.
+	 */
+	void loaded(int frame, int pageno);
+
+	/**
+	 * The page in frame was pinned again; if its pin count was 0 it is no
+	 * longer a candidate.
+	 */
+	void pinned(int frame);
+
+	/**
+	 * The pin count of frame dropped to 0, so it is a candidate.
+	 */
+	void unpinned(int frame);
+
+	/**
+	 * Choose a candidate to evict and forget it.
+	 *
+	 * @return the frame, or -1 if every frame is pinned
+	 */
+	int victim();
+
+	/**
+	 * The page in unpinned frame was dropped without being evicted; forget the
+	 * frame.
+	 */
+	void freed(int frame);
+
+	/**
+	 * List the candidates in about the order victim() would choose them, most
+	 * likely victim first, without changing anything. The page cleaner uses
+	 * this to write dirty pages before the replacer gets to them.
+	 *
+	 * @param out
+	 *            receives the frames, numFrames long
+	 * @return the number of frames listed
+	 */
+	int upcoming(int[] out);
+
+	/**
+	 * The pool now has numFrames frames. Frames added by growing it are
+	 * empty; when it shrank, the frames from numFrames on were emptied and
+	 * forgotten first, and are not used again. What the policy knows of the
+	 * other frames is kept, and shares of the pool are sized for the new one.
+	 */
+	void resize(int numFrames);
+
+	/**
+	 * Create the replacer named by policy: FIFO, LRU, Clock, LRU-K (LRU-2, or
+	 * LRU-k for another k) or 2Q, in any case.
+	 *
+	 * @param policy
+	 *            the policy name
+	 * @param numFrames
+	 *            the number of frames in the pool
+	 */
+	static Replacer create(String policy, int numFrames) {
+		String name = policy.toUpperCase();
+		if (name.equals("FIFO") || name.equals("LRU")) {
+			return new LruReplacer(numFrames);
+		}
+		if (name.equals("CLOCK")) {
+			return new ClockReplacer(numFrames);
+		}
+		if (name.equals("LRU-K") || name.equals("LRUK")) {
+			return new LruKReplacer(numFrames, 2);
+		}
+		if (name.matches("LRU-[1-9]")) {
+			return new LruKReplacer(numFrames, name.charAt(4) - '0');
+		}
+		if (name.equals("2Q")) {
+			return new TwoQueueReplacer(numFrames);
+		}
+		throw new IllegalArgumentException("Unknown replacement policy: " + policy);
+	}
+}
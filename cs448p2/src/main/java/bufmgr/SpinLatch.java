@@ -0,0 +1,48 @@
+package bufmgr;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A latch for short critical sections that never block inside: taking it is
+ * one compare-and-set and releasing it one ordered store, about a third of
+ * what a ReentrantLock costs when nobody else wants it. A thread that finds it
+ * taken spins for a while and then yields, so a holder that was descheduled
+ * gets the processor back. It is not reentrant.
+ */
+class SpinLatch {
+
+	/** SPINS: tries before a waiting thread starts yielding. */
+	private static final int SPINS = 64;
+
+	private static final VarHandle STATE;
+
+	static {
+		try {
+			STATE = MethodHandles.lookup().findVarHandle(SpinLatch.class, "state", int.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/** state: 1 while the latch is held. */
+	private volatile int state;
+
+	boolean tryLock() {
+		return state == 0 && STATE.compareAndSet(this, 0, 1);
+	}
+
+	void lock() {
+		for (int tries = 0; !tryLock(); tries++) {
+			if (tries < SPINS) {
+				Thread.onSpinWait();
+			} else {
+				Thread.yield();
+			}
+		}
+	}
+
+	void unlock() {
+		STATE.setRelease(this, 0);
+	}
+}
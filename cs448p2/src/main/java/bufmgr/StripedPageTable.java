@@ -0,0 +1,72 @@
+package bufmgr;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The page table of a buffer pool shared by many threads: pages are dealt out
+ * to stripes by page number, and each stripe is a PageTable with its own
+ * latch, so threads working on different pages rarely meet on a latch.
+ * Consecutive pages fall in different stripes, so neither does a scan.
+ *
+ * A stripe's latch is read-held to look a page up and to pin or unpin it, and
+ * write-held to add or drop a page. The caller holds the latch of a page's
+ * stripe around every get, put and remove of that page; latches are never
+ * held two at a time.
+ */
+class StripedPageTable {
+
+	/** MAX_STRIPES: the most stripes, enough to spread the threads of a big machine. */
+	static final int MAX_STRIPES = 64;
+
+	private final PageTable[] tables;
+	private final StampedLock[] latches;
+	private final int mask;
+
+	StripedPageTable(int numFrames) {
+		int stripes = Integer.highestOneBit(Math.max(1, Math.min(MAX_STRIPES, numFrames / 8)));
+		tables = new PageTable[stripes];
+		latches = new StampedLock[stripes];
+		for (int i = 0; i < stripes; i++) {
+			// room for twice a fair share, so an uneven spread rarely grows a table
+			tables[i] = new PageTable(2 * numFrames / stripes);
+			latches[i] = new StampedLock();
+		}
+		mask = stripes - 1;
+	}
+
+	/**
+	 * Returns the latch of the stripe holding page pageno.
+	 */
+	StampedLock latch(int pageno) {
+		return latches[pageno & mask];
+	}
+
+	/**
+	 * Returns the frame holding page pageno, or -1 if it is not in the pool.
+	 */
+	int get(int pageno) {
+		return tables[pageno & mask].get(pageno);
+	}
+
+	/**
+	 * get without the stripe's latch: the lookup is validated against the
+	 * latch's stamp, and -1 also means a writer had the stripe meanwhile.
+	 */
+	int getOptimistic(int pageno) {
+		StampedLock latch = latches[pageno & mask];
+		long stamp = latch.tryOptimisticRead();
+		if (stamp == 0) {
+			return -1;
+		}
+		int frame = tables[pageno & mask].probe(pageno);
+		return latch.validate(stamp) ? frame : -1;
+	}
+
+	void put(int pageno, int frame) {
+		tables[pageno & mask].put(pageno, frame);
+	}
+
+	int remove(int pageno) {
+		return tables[pageno & mask].remove(pageno);
+	}
+}
@@ -0,0 +1,212 @@
+package bufmgr;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import diskmgr.DiskMgr;
+import diskmgr.IOStats;
+import global.Minibase;
+import global.PageId;
+
+/**
+ * Records the pins, unpins, new pages and freed pages of a buffer manager to a
+ * trace file, for TraceSimulator. Events are appended to a buffer under a
+ * SpinLatch, in the order they happened; a full buffer is swapped for an empty
+ * one, given the next stretch of the file, and written there by the thread
+ * that filled it, after the latch is released. Recording an event costs a
+ * clock read, the file lookup and a few bytes of copying.
+ * <p>
+ * The file starts with MAGIC, VERSION and the wall-clock time the recording
+ * started, in milliseconds, as big-endian ints and a long. Then come records,
+ * each a kind byte followed by unsigned LEB128 varints:
+ * <ul>
+ * <li>PIN, UNPIN, NEW or FREE: the page number, the id of its file entry, and
+ * the nanoseconds since the record before (since the start for the first)
+ * <li>FILE: an id, the length of a name and the name in UTF-8; it comes before
+ * the first event of that file entry, as DiskMgr.file_of names it
+ * </ul>
+ * newPage records NEW for the first page of the run, and then PIN for it as
+ * pinPage does.
+ */
+class TraceRecorder {
+
+	/** MAGIC: the first int of a trace file, "MBTR". */
+	static final int MAGIC = 0x4d425452;
+
+	static final int VERSION = 1;
+
+	static final byte PIN = 0;
+	static final byte UNPIN = 1;
+	static final byte NEW = 2;
+	static final byte FREE = 3;
+	static final byte FILE = 4;
+
+	/** BUFFER_BYTES: the size of each buffer written to the file. */
+	private static final int BUFFER_BYTES = 64 * 1024;
+
+	/** MAX_EVENT: the most bytes an event record takes. */
+	private static final int MAX_EVENT = 1 + 5 + 5 + 10;
+
+	private final FileChannel channel;
+	private final SpinLatch latch = new SpinLatch();
+
+	/** The rest is guarded by latch. */
+	private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+	private long position;
+	private long last;
+	private final Map<String, Integer> fileIds = new HashMap<String, Integer>();
+	private String lastFile;
+	private int lastFileId;
+	private boolean closed;
+
+	/** writing: buffers handed out for writing and not written yet. */
+	private final AtomicInteger writing = new AtomicInteger();
+
+	/** failure: the first write that failed; no events are recorded after it. */
+	private volatile IOException failure;
+
+	/**
+	 * Start a trace in file, replacing what was there.
+	 */
+	TraceRecorder(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		last = System.nanoTime();
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putLong(System.currentTimeMillis());
+	}
+
+	/**
+	 * Record an event of the given kind for page pageno.
+	 */
+	void record(byte kind, int pageno) {
+		DiskMgr disk = Minibase.DiskManager;
+		String fname = disk == null ? IOStats.NO_FILE : disk.file_of(new PageId(pageno));
+		ByteBuffer full = null;
+		long at = 0;
+		latch.lock();
+		try {
+			if (closed || failure != null) {
+				return;
+			}
+			int file = fileId(fname);
+			if (buffer.remaining() < MAX_EVENT) {
+				full = buffer;
+				at = swap();
+			}
+			long now = System.nanoTime();
+			buffer.put(kind);
+			putVarint(buffer, pageno & 0xffffffffL);
+			putVarint(buffer, file);
+			putVarint(buffer, Math.max(0, now - last));
+			last = now;
+		} finally {
+			latch.unlock();
+		}
+		if (full != null) {
+			write(full, at);
+		}
+	}
+
+	/**
+	 * Stop recording, write what is buffered and close the file.
+	 *
+	 * @throws IOException if a write failed, now or while recording
+	 */
+	void close() throws IOException {
+		ByteBuffer full;
+		long at;
+		latch.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			full = buffer;
+			at = swap();
+		} finally {
+			latch.unlock();
+		}
+		write(full, at);
+		while (writing.get() > 0) {
+			Thread.yield();
+		}
+		channel.close();
+		IOException e = failure;
+		if (e != null) {
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the id of file entry fname, writing its FILE record the first
+	 * time; the caller holds latch.
+	 */
+	private int fileId(String fname) {
+		// pages of one file tend to come together, and the names are shared
+		if (fname == lastFile) {
+			return lastFileId;
+		}
+		Integer id = fileIds.get(fname);
+		if (id == null) {
+			id = fileIds.size();
+			fileIds.put(fname, id);
+			byte[] name = fname.getBytes(StandardCharsets.UTF_8);
+			if (buffer.remaining() < 1 + 10 + name.length) {
+				// rare enough to write it here, under the latch
+				ByteBuffer full = buffer;
+				write(full, swap());
+			}
+			buffer.put(FILE);
+			putVarint(buffer, id);
+			putVarint(buffer, name.length);
+			buffer.put(name);
+		}
+		lastFile = fname;
+		lastFileId = id;
+		return id;
+	}
+
+	/**
+	 * Give the buffer the next stretch of the file and start a new one; the
+	 * caller holds latch and writes the old buffer at the returned position.
+	 */
+	private long swap() {
+		long at = position;
+		position += buffer.position();
+		buffer = ByteBuffer.allocate(BUFFER_BYTES);
+		writing.incrementAndGet();
+		return at;
+	}
+
+	private void write(ByteBuffer full, long at) {
+		try {
+			full.flip();
+			while (full.hasRemaining()) {
+				at += channel.write(full, at);
+			}
+		} catch (IOException e) {
+			if (failure == null) {
+				failure = e;
+			}
+		} finally {
+			writing.decrementAndGet();
+		}
+	}
+
+	static void putVarint(ByteBuffer out, long value) {
+		while ((value & ~0x7fL) != 0) {
+			out.put((byte) (value & 0x7f | 0x80));
+			value >>>= 7;
+		}
+		out.put((byte) value);
+	}
+}
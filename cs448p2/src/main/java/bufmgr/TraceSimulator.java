@@ -0,0 +1,321 @@
+package bufmgr;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Replays a trace recorded by BufMgr.startTrace against replacement policies
+ * and pool sizes, and reports the hit ratio of each: the share of the pins that
+ * found their page in the pool. The trace is taken as the calls on a single
+ * pool.
+ * <p>
+ * For LRU (and FIFO, the same policy here) the whole curve comes from one pass
+ * over the trace, by Mattson's stack distances: every pin and unpin moves its
+ * page to the top of a stack, and a pin hits in a pool of n frames if fewer
+ * than n other pages were touched since its page last was. The distances are
+ * counted with a Fenwick tree over the touches, so the pass is O(e log e) for
+ * e events, whatever the number of sizes. This is exact while no page stays
+ * pinned as n other pages are used; a page held pinned longer stays in a real
+ * pool though it sinks in the stack. The other policies are not stack
+ * algorithms, so each size is replayed with the policy's own Replacer, as
+ * BufMgr drives it: freed pages go to the free frames, which are used before
+ * the replacer is asked for a victim, and a pin that finds every frame pinned
+ * counts as a miss.
+ * <p>
+ * Run it with
+ *
+ * <pre>
+ * java -cp target/classes bufmgr.TraceSimulator trace [policy,...] [frames,...]
+ * </pre>
+ *
+ * The policies default to LRU, Clock, LRU-K and 2Q, and the sizes to the
+ * powers of two from 16 up to the number of pages in the trace.
+ */
+public class TraceSimulator {
+
+	/** The events of the trace: their kinds, and their pages as indexes into pageNumbers. */
+	private byte[] kinds = new byte[1024];
+	private int[] pages = new int[1024];
+	private int events;
+
+	/** pageNumbers: the page numbers in the trace, in the order they first appear. */
+	private final int[] pageNumbers;
+
+	private int pins;
+	private long nanos;
+
+	/**
+	 * Read the trace in file.
+	 *
+	 * @throws IOException if it cannot be read or is not a trace
+	 */
+	public TraceSimulator(File file) throws IOException {
+		Map<Integer, Integer> index = new HashMap<Integer, Integer>();
+		int[] numbers = new int[1024];
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			if (in.readInt() != TraceRecorder.MAGIC || in.readInt() != TraceRecorder.VERSION) {
+				throw new IOException(file + " is not a buffer manager trace");
+			}
+			in.readLong();
+			while (true) {
+				int kind = in.read();
+				if (kind < 0) {
+					break;
+				}
+				if (kind == TraceRecorder.FILE) {
+					readVarint(in);
+					in.skipBytes((int) readVarint(in));
+					continue;
+				}
+				if (kind > TraceRecorder.FREE) {
+					throw new IOException("Bad record kind " + kind + " in " + file);
+				}
+				int pageno = (int) readVarint(in);
+				readVarint(in);
+				nanos += readVarint(in);
+				Integer page = index.get(pageno);
+				if (page == null) {
+					page = index.size();
+					index.put(pageno, page);
+					if (page == numbers.length) {
+						numbers = Arrays.copyOf(numbers, 2 * page);
+					}
+					numbers[page] = pageno;
+				}
+				if (events == kinds.length) {
+					kinds = Arrays.copyOf(kinds, 2 * events);
+					pages = Arrays.copyOf(pages, 2 * events);
+				}
+				kinds[events] = (byte) kind;
+				pages[events] = page;
+				events++;
+				if (kind == TraceRecorder.PIN) {
+					pins++;
+				}
+			}
+		} catch (EOFException e) {
+			// a record cut short, as by a crash while recording; keep the rest
+		}
+		pageNumbers = Arrays.copyOf(numbers, index.size());
+	}
+
+	/**
+	 * Returns the number of pins in the trace.
+	 */
+	public int getPins() {
+		return pins;
+	}
+
+	/**
+	 * Returns the number of different pages in the trace.
+	 */
+	public int getDistinctPages() {
+		return pageNumbers.length;
+	}
+
+	/**
+	 * Returns the time from the start of the recording to its last event, in
+	 * nanoseconds.
+	 */
+	public long getDurationNanos() {
+		return nanos;
+	}
+
+	/**
+	 * Returns the LRU hit ratio of the trace for each pool size, from stack
+	 * distances.
+	 */
+	public double[] lruCurve(int[] sizes) {
+		// distances[d]: pins that found d other pages touched since their
+		// page's last touch; pins of pages not seen before miss at any size
+		long[] distances = new long[pageNumbers.length + 1];
+		int touches = 0;
+		for (int i = 0; i < events; i++) {
+			if (kinds[i] == TraceRecorder.PIN || kinds[i] == TraceRecorder.UNPIN) {
+				touches++;
+			}
+		}
+		long[] tree = new long[touches + 1];
+		int[] lastTouch = new int[pageNumbers.length];
+		Arrays.fill(lastTouch, -1);
+		int now = 0;
+		for (int i = 0; i < events; i++) {
+			int page = pages[i];
+			int last = lastTouch[page];
+			if (kinds[i] == TraceRecorder.NEW || kinds[i] == TraceRecorder.FREE) {
+				if (last >= 0) {
+					add(tree, last, -1);
+					lastTouch[page] = -1;
+				}
+				continue;
+			}
+			if (last >= 0) {
+				if (kinds[i] == TraceRecorder.PIN) {
+					distances[(int) (sum(tree, now - 1) - sum(tree, last))]++;
+				}
+				add(tree, last, -1);
+			}
+			add(tree, now, 1);
+			lastTouch[page] = now++;
+		}
+		double[] ratios = new double[sizes.length];
+		for (int s = 0; s < sizes.length; s++) {
+			long hits = 0;
+			for (int d = 0; d < Math.min(sizes[s], distances.length); d++) {
+				hits += distances[d];
+			}
+			ratios[s] = pins == 0 ? 0 : (double) hits / pins;
+		}
+		return ratios;
+	}
+
+	/**
+	 * Returns the hit ratio of the trace for each pool size, replaying it
+	 * with the replacer of the given policy, as Replacer.create names it.
+	 */
+	public double[] replay(String policy, int[] sizes) {
+		double[] ratios = new double[sizes.length];
+		for (int s = 0; s < sizes.length; s++) {
+			ratios[s] = pins == 0 ? 0 : (double) replayHits(policy, sizes[s]) / pins;
+		}
+		return ratios;
+	}
+
+	private long replayHits(String policy, int numFrames) {
+		Replacer replacer = Replacer.create(policy, numFrames);
+		int[] frameOf = new int[pageNumbers.length];
+		Arrays.fill(frameOf, -1);
+		int[] pageIn = new int[numFrames];
+		Arrays.fill(pageIn, -1);
+		int[] pinCount = new int[numFrames];
+		int[] free = new int[numFrames];
+		for (int f = 0; f < numFrames; f++) {
+			free[f] = numFrames - 1 - f;
+		}
+		int numFree = numFrames;
+		long hits = 0;
+		for (int i = 0; i < events; i++) {
+			int page = pages[i];
+			int frame = frameOf[page];
+			switch (kinds[i]) {
+			case TraceRecorder.PIN:
+				if (frame >= 0) {
+					hits++;
+					pinCount[frame]++;
+					replacer.pinned(frame);
+					break;
+				}
+				frame = numFree > 0 ? free[--numFree] : replacer.victim();
+				if (frame < 0) {
+					// every frame pinned; BufMgr would throw
+					break;
+				}
+				if (pageIn[frame] >= 0) {
+					// evicted
+					frameOf[pageIn[frame]] = -1;
+				}
+				frameOf[page] = frame;
+				pageIn[frame] = page;
+				pinCount[frame] = 1;
+				replacer.loaded(frame, pageNumbers[page]);
+				break;
+			case TraceRecorder.UNPIN:
+				if (frame >= 0 && pinCount[frame] > 0 && --pinCount[frame] == 0) {
+					replacer.unpinned(frame);
+				}
+				break;
+			default:
+				// NEW or FREE: the page leaves the pool; BufMgr only frees
+				// unpinned pages
+				if (frame >= 0) {
+					if (pinCount[frame] == 0) {
+						replacer.freed(frame);
+					}
+					pinCount[frame] = 0;
+					frameOf[page] = -1;
+					pageIn[frame] = -1;
+					free[numFree++] = frame;
+				}
+				break;
+			}
+		}
+		return hits;
+	}
+
+	private static void add(long[] tree, int at, long delta) {
+		for (int i = at + 1; i < tree.length; i += i & -i) {
+			tree[i] += delta;
+		}
+	}
+
+	/**
+	 * Returns the sum of the entries 0 .. at.
+	 */
+	private static long sum(long[] tree, int at) {
+		long total = 0;
+		for (int i = at + 1; i > 0; i -= i & -i) {
+			total += tree[i];
+		}
+		return total;
+	}
+
+	private static long readVarint(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: TraceSimulator trace [policy,...] [frames,...]");
+			System.exit(2);
+		}
+		TraceSimulator sim = new TraceSimulator(new File(args[0]));
+		String[] policies = args.length > 1 ? args[1].split(",") : new String[] { "LRU", "Clock", "LRU-K", "2Q" };
+		int[] sizes;
+		if (args.length > 2) {
+			sizes = Arrays.stream(args[2].split(",")).mapToInt(Integer::parseInt).toArray();
+		} else {
+			int n = 0;
+			sizes = new int[32];
+			for (int size = 16; n < sizes.length; size *= 2) {
+				sizes[n++] = size;
+				if (size >= sim.getDistinctPages()) {
+					break;
+				}
+			}
+			sizes = Arrays.copyOf(sizes, n);
+		}
+
+		System.out.printf("%d pins of %d pages over %.3f s%n", sim.getPins(), sim.getDistinctPages(),
+				sim.getDurationNanos() / 1e9);
+		double[][] curves = new double[policies.length][];
+		StringBuilder header = new StringBuilder(String.format("%10s", "frames"));
+		for (int p = 0; p < policies.length; p++) {
+			String name = policies[p].toUpperCase();
+			boolean stack = name.equals("LRU") || name.equals("FIFO");
+			curves[p] = stack ? sim.lruCurve(sizes) : sim.replay(policies[p], sizes);
+			header.append(String.format("%10s", policies[p]));
+		}
+		System.out.println(header);
+		for (int s = 0; s < sizes.length; s++) {
+			StringBuilder line = new StringBuilder(String.format("%10d", sizes[s]));
+			for (int p = 0; p < policies.length; p++) {
+				line.append(String.format("%9.2f%%", 100 * curves[p][s]));
+			}
+			System.out.println(line);
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package bufmgr;
+
+import java.util.Arrays;
+
+/**
+ * 2Q replacement (Johnson and Shasha, full version). A page read into the pool
+ * goes on A1in, a FIFO that is allowed a quarter of the pool. When it is
+ * evicted from there, its page number is remembered on A1out, which holds no
+ * pages, only the numbers of the last half-a-pool of them. A page read again
+ * while it is on A1out has been used twice at a distance, and goes on Am, an
+ * LRU queue of the hot pages. Pins while a page is on A1in do not promote it,
+ * so a scan or a burst of pins on one page never flushes Am.
+ *
+ * Both queues hold candidates only: a pinned frame is taken off its queue and
+ * put back at the end when unpinned. Every operation is O(1).
+ */
+class TwoQueueReplacer implements Replacer {
+
+	private static final int EMPTY = -1;
+
+	private final FrameList a1in;
+	private final FrameList am;
+
+	/** hot: frames whose page is on Am, pinned or not. */
+	private boolean[] hot;
+	private int[] pageOf;
+
+	/** cold: frames whose page is on A1in, pinned or not; kin: the most there should be. */
+	private int cold;
+	private int kin;
+
+	/**
+	 * A1out: a ring of the last kout page numbers evicted from A1in, and a hash
+	 * table from those page numbers to their sequence number in the ring, so a
+	 * number that was put on A1out again is not dropped with its older entry.
+	 */
+	private int[] ghosts;
+	private long ghostFirst;
+	private int ghostCount;
+	private int[] ghostKeys;
+	private long[] ghostSeqs;
+	private int ghostShift;
+
+	TwoQueueReplacer(int numFrames) {
+		a1in = new FrameList(numFrames);
+		am = new FrameList(numFrames);
+		hot = new boolean[numFrames];
+		pageOf = new int[numFrames];
+		kin = Math.max(1, numFrames / 4);
+		allocateGhosts(Math.max(1, numFrames / 2));
+	}
+
+	private void allocateGhosts(int kout) {
+		ghosts = new int[kout];
+		ghostFirst = 0;
+		ghostCount = 0;
+		int tableSize = Integer.highestOneBit(kout) * 4;
+		ghostKeys = new int[tableSize];
+		ghostSeqs = new long[tableSize];
+		ghostShift = 32 - Integer.numberOfTrailingZeros(tableSize);
+		Arrays.fill(ghostKeys, EMPTY);
+	}
+
+	@Override
+	public void loaded(int frame, int pageno) {
+		pageOf[frame] = pageno;
+		hot[frame] = removeGhost(pageno, -1);
+		if (!hot[frame]) {
+			cold++;
+		}
+	}
+
+	@Override
+	public void pinned(int frame) {
+		if (!a1in.remove(frame)) {
+			am.remove(frame);
+		}
+	}
+
+	@Override
+	public void unpinned(int frame) {
+		(hot[frame] ? am : a1in).addLast(frame);
+	}
+
+	@Override
+	public int victim() {
+		int frame;
+		if ((cold > kin || am.isEmpty()) && !a1in.isEmpty()) {
+			frame = a1in.removeFirst();
+			cold--;
+			rememberGhost(pageOf[frame]);
+		} else {
+			frame = am.removeFirst();
+		}
+		return frame;
+	}
+
+	@Override
+	public void freed(int frame) {
+		if (!hot[frame]) {
+			cold--;
+		}
+		a1in.remove(frame);
+		am.remove(frame);
+		hot[frame] = false;
+	}
+
+	@Override
+	public int upcoming(int[] out) {
+		// victim() takes from A1in while it is over its share
+		if (cold > kin || am.isEmpty()) {
+			return am.copyTo(out, a1in.copyTo(out, 0));
+		}
+		return a1in.copyTo(out, am.copyTo(out, 0));
+	}
+
+	@Override
+	public void resize(int numFrames) {
+		a1in.grow(numFrames);
+		am.grow(numFrames);
+		if (numFrames > hot.length) {
+			hot = Arrays.copyOf(hot, numFrames);
+			pageOf = Arrays.copyOf(pageOf, numFrames);
+		}
+		kin = Math.max(1, numFrames / 4);
+		// A1out keeps its newest numbers that fit the new size
+		int[] kept = new int[ghostCount];
+		int n = 0;
+		for (long seq = ghostFirst; seq < ghostFirst + ghostCount; seq++) {
+			int pageno = ghosts[(int) (seq % ghosts.length)];
+			if (ghostSeq(pageno) == seq) {
+				kept[n++] = pageno;
+			}
+		}
+		allocateGhosts(Math.max(1, numFrames / 2));
+		for (int i = Math.max(0, n - ghosts.length); i < n; i++) {
+			rememberGhost(kept[i]);
+		}
+	}
+
+	/**
+	 * Put pageno on A1out, pushing out the oldest number if it is full.
+	 */
+	private void rememberGhost(int pageno) {
+		if (ghostCount == ghosts.length) {
+			removeGhost(ghosts[(int) (ghostFirst % ghosts.length)], ghostFirst);
+			ghostFirst++;
+			ghostCount--;
+		}
+		long seq = ghostFirst + ghostCount;
+		ghosts[(int) (seq % ghosts.length)] = pageno;
+		ghostCount++;
+
+		int mask = ghostKeys.length - 1;
+		int i = slot(pageno);
+		while (ghostKeys[i] != EMPTY && ghostKeys[i] != pageno) {
+			i = (i + 1) & mask;
+		}
+		ghostKeys[i] = pageno;
+		ghostSeqs[i] = seq;
+	}
+
+	/**
+	 * Take pageno off A1out, but only the entry with sequence number seq if seq
+	 * is not -1. Ring entries of numbers taken off stay until they are pushed
+	 * out; the table alone says what is on A1out.
+	 *
+	 * @return true if it was there
+	 */
+	private boolean removeGhost(int pageno, long seq) {
+		int mask = ghostKeys.length - 1;
+		int i = slot(pageno);
+		while (ghostKeys[i] != pageno) {
+			if (ghostKeys[i] == EMPTY) {
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+		if (seq != -1 && ghostSeqs[i] != seq) {
+			return false;
+		}
+		// close the gap by moving later entries of the probe run back
+		int gap = i;
+		for (int j = (gap + 1) & mask; ghostKeys[j] != EMPTY; j = (j + 1) & mask) {
+			int home = slot(ghostKeys[j]);
+			if (((j - home) & mask) >= ((j - gap) & mask)) {
+				ghostKeys[gap] = ghostKeys[j];
+				ghostSeqs[gap] = ghostSeqs[j];
+				gap = j;
+			}
+		}
+		ghostKeys[gap] = EMPTY;
+		return true;
+	}
+
+	/**
+	 * Returns the sequence number of pageno on A1out, or -1 if it is not there.
+	 */
+	private long ghostSeq(int pageno) {
+		int mask = ghostKeys.length - 1;
+		for (int i = slot(pageno); ghostKeys[i] != EMPTY; i = (i + 1) & mask) {
+			if (ghostKeys[i] == pageno) {
+				return ghostSeqs[i];
+			}
+		}
+		return -1;
+	}
+
+	private int slot(int pageno) {
+		return (pageno * 0x9E3779B9) >>> ghostShift;
+	}
+}
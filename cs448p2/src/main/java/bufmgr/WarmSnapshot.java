@@ -0,0 +1,67 @@
+package bufmgr;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The warm-restart snapshot of a buffer pool: the numbers of the pages it
+ * held, hottest first, in a small file next to the database. The file is
+ * written to a temporary name and renamed over the old one, so a crash while
+ * it is written leaves the previous snapshot. It is only a hint; a file that
+ * is missing or does not read back is taken as no snapshot at all.
+ */
+class WarmSnapshot {
+
+	/** MAGIC: the first int of a snapshot file, "MBWS". */
+	private static final int MAGIC = 0x4d425753;
+
+	private WarmSnapshot() {
+	}
+
+	/**
+	 * Write the first count page numbers of pagenos to file.
+	 */
+	static void write(File file, int[] pagenos, int count) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(count);
+			for (int i = 0; i < count; i++) {
+				out.writeInt(pagenos[i]);
+			}
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Returns the page numbers in file, hottest first, or null if there is no
+	 * snapshot there.
+	 */
+	static int[] read(File file) {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC) {
+				return null;
+			}
+			int count = in.readInt();
+			if (count < 0 || count > file.length() / 4) {
+				return null;
+			}
+			int[] pagenos = new int[count];
+			for (int i = 0; i < count; i++) {
+				pagenos[i] = in.readInt();
+			}
+			return pagenos;
+		} catch (IOException e) {
+			// missing, cut short or unreadable
+			return null;
+		}
+	}
+}
@@ -0,0 +1,286 @@
+package diskmgr;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Asynchronous page I/O on top of a PageFile. Requests are queued and served by
+ * a single I/O thread, which takes everything queued so far as one batch and
+ * issues it elevator-style: sorted by page number, sweeping upward from where
+ * the last batch ended and wrapping around once (C-SCAN). Requests for
+ * adjacent pages in a sweep are merged into one vectored read or write.
+ *
+ * Within a batch, a read of a page that is also being written is answered from
+ * the written data, and a later write of a page replaces an earlier one. Until
+ * a write reaches the file, its data is visible through pendingWrite, so
+ * synchronous reads never see an older copy of the page.
+ */
+class AsyncPageIO {
+
+	/** Most requests taken into one batch. */
+	private static final int MAX_BATCH = 512;
+
+	/** Most pages moved by one vectored read or write. */
+	private static final int MAX_RUN = 64;
+
+	/**
+	 * A queued read or write of one page.
+	 */
+	static class Request {
+		final int pageno;
+		final byte[] buffer;
+		final boolean write;
+		final CompletableFuture<Void> done = new CompletableFuture<Void>();
+
+		Request(int pageno, byte[] buffer, boolean write) {
+			this.pageno = pageno;
+			this.buffer = buffer;
+			this.write = write;
+		}
+	}
+
+	private final PageFile file;
+
+	/** queue: requests not yet taken into a batch, guarded by this. */
+	private final ArrayDeque<Request> queue = new ArrayDeque<Request>();
+
+	/** pending: the newest write of each page that is not on disk yet. */
+	private final Map<Integer, Request> pending = new ConcurrentHashMap<Integer, Request>();
+
+	/** worker: the I/O thread, started on the first request. */
+	private Thread worker;
+
+	private boolean closed;
+
+	/** head: the page where the last batch ended, touched only by the I/O thread. */
+	private int head;
+
+	AsyncPageIO(PageFile file) {
+		this.file = file;
+	}
+
+	/**
+	 * Queue a read of page pageno into buffer.
+	 */
+	CompletableFuture<Void> read(int pageno, byte[] buffer) {
+		return submit(new Request(pageno, buffer, false));
+	}
+
+	/**
+	 * Queue a write of page pageno. The data is copied, so the caller may reuse
+	 * buffer as soon as this returns.
+	 */
+	CompletableFuture<Void> write(int pageno, byte[] buffer) {
+		Request request = new Request(pageno, buffer.clone(), true);
+		pending.put(pageno, request);
+		return submit(request);
+	}
+
+	/**
+	 * Returns the data of a queued write of page pageno that has not reached the
+	 * file yet, or null.
+	 */
+	byte[] pendingWrite(int pageno) {
+		if (pending.isEmpty()) {
+			// the common case, and it spares boxing the page number
+			return null;
+		}
+		Request request = pending.get(pageno);
+		return request == null ? null : request.buffer;
+	}
+
+	/**
+	 * Wait until no queued write of page pageno is outstanding, so a
+	 * synchronous write cannot be overwritten by an older asynchronous one.
+	 */
+	void awaitWrite(int pageno) throws IOException {
+		Request request = pending.isEmpty() ? null : pending.get(pageno);
+		while (request != null) {
+			try {
+				request.done.join();
+			} catch (RuntimeException e) {
+				throw new IOException(e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+			}
+			request = pending.get(pageno);
+		}
+	}
+
+	/**
+	 * Wait until every write queued so far has reached the file.
+	 */
+	void awaitWrites() throws IOException {
+		for (Integer pageno : pending.keySet()) {
+			awaitWrite(pageno);
+		}
+	}
+
+	/**
+	 * Serve everything still queued, then stop the I/O thread.
+	 */
+	void close() {
+		Thread running;
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+			running = worker;
+		}
+		if (running != null) {
+			try {
+				running.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private synchronized CompletableFuture<Void> submit(Request request) {
+		if (closed) {
+			pending.remove(request.pageno, request);
+			request.done.completeExceptionally(new FileIOException("Database is closed"));
+			return request.done;
+		}
+		queue.add(request);
+		if (worker == null) {
+			worker = new Thread(this::run, "minibase-io");
+			worker.setDaemon(true);
+			worker.start();
+		}
+		notifyAll();
+		return request.done;
+	}
+
+	private void run() {
+		List<Request> batch;
+		while ((batch = nextBatch()) != null) {
+			serve(batch);
+		}
+	}
+
+	/**
+	 * Take the next batch off the queue, waiting for one if the queue is empty.
+	 * A read of a page already written in the batch is answered on the spot,
+	 * and a write of a page already read in the batch ends it, so the read
+	 * still sees the old contents.
+	 *
+	 * @return the batch, or null once the engine is closed and drained
+	 */
+	private synchronized List<Request> nextBatch() {
+		while (queue.isEmpty() && !closed) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+		if (queue.isEmpty()) {
+			return null;
+		}
+		List<Request> batch = new ArrayList<Request>();
+		Map<Integer, Request> writes = new HashMap<Integer, Request>();
+		Set<Integer> reads = new HashSet<Integer>();
+		while (!queue.isEmpty() && batch.size() < MAX_BATCH) {
+			Request request = queue.peek();
+			if (request.write) {
+				if (reads.contains(request.pageno)) {
+					break;
+				}
+				Request older = writes.put(request.pageno, request);
+				if (older != null) {
+					// the newer write replaces the older one
+					batch.remove(older);
+					request.done.whenComplete((v, e) -> complete(older, e));
+				}
+				batch.add(request);
+			} else {
+				Request written = writes.get(request.pageno);
+				if (written != null) {
+					System.arraycopy(written.buffer, 0, request.buffer, 0, written.buffer.length);
+					request.done.complete(null);
+				} else {
+					reads.add(request.pageno);
+					batch.add(request);
+				}
+			}
+			queue.poll();
+		}
+		return batch;
+	}
+
+	/**
+	 * Issue one batch: sort it into a single upward sweep starting at the
+	 * current head position, then merge neighbouring requests of the same kind
+	 * into runs.
+	 */
+	private void serve(List<Request> batch) {
+		Collections.sort(batch, (a, b) -> Integer.compare(a.pageno, b.pageno));
+		int split = 0;
+		while (split < batch.size() && batch.get(split).pageno < head) {
+			split++;
+		}
+		Collections.rotate(batch, -split);
+
+		int start = 0;
+		while (start < batch.size()) {
+			Request first = batch.get(start);
+			int end = start + 1;
+			while (end < batch.size() && end - start < MAX_RUN && batch.get(end).write == first.write
+					&& batch.get(end).pageno == first.pageno + (end - start)) {
+				end++;
+			}
+			List<Request> run = batch.subList(start, end);
+			Throwable failure = null;
+			try {
+				issue(run);
+			} catch (IOException | RuntimeException e) {
+				failure = new FileIOException(e.getMessage());
+			}
+			for (Request request : run) {
+				complete(request, failure);
+			}
+			head = batch.get(end - 1).pageno;
+			start = end;
+		}
+	}
+
+	private void issue(List<Request> run) throws IOException {
+		Request first = run.get(0);
+		if (run.size() == 1) {
+			if (first.write) {
+				file.write(first.pageno, first.buffer);
+			} else {
+				file.read(first.pageno, first.buffer);
+			}
+			return;
+		}
+		byte[][] buffers = new byte[run.size()][];
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i] = run.get(i).buffer;
+		}
+		if (first.write) {
+			file.writeRun(first.pageno, buffers);
+		} else {
+			file.readRun(first.pageno, buffers);
+		}
+	}
+
+	private void complete(Request request, Throwable failure) {
+		if (request.write) {
+			pending.remove(request.pageno, request);
+		}
+		if (failure == null) {
+			request.done.complete(null);
+		} else {
+			request.done.completeExceptionally(failure);
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package diskmgr;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The default PageFile: every page access is one positional read or write on
+ * the file channel. Positional I/O never touches the channel's file pointer,
+ * so any number of threads can read and write pages at the same time.
+ */
+class ChannelPageFile implements PageFile {
+
+	/** pageSize: the database page size in bytes. */
+	private final int pageSize;
+
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+
+	/**
+	 * scratch: each thread's direct transfer buffer of one page. The channel
+	 * copies heap buffers through a direct buffer of its own anyway; copying
+	 * through this one spares wrapping the caller's array on every access.
+	 */
+	private final ThreadLocal<ByteBuffer> scratch = new ThreadLocal<ByteBuffer>();
+
+	ChannelPageFile(File file, int pageSize) throws IOException {
+		this.pageSize = pageSize;
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+	}
+
+	@Override
+	public void read(int pageno, byte[] buffer) throws IOException {
+		ByteBuffer buf = scratch();
+		long pos = (long) pageno * pageSize;
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, pos + buf.position()) < 0) {
+				throw new EOFException("Page " + pageno + " is past the end of the file");
+			}
+		}
+		buf.flip();
+		buf.get(buffer, 0, pageSize);
+	}
+
+	@Override
+	public void write(int pageno, byte[] buffer) throws IOException {
+		ByteBuffer buf = scratch();
+		buf.put(buffer, 0, pageSize);
+		buf.flip();
+		long pos = (long) pageno * pageSize;
+		while (buf.hasRemaining()) {
+			channel.write(buf, pos + buf.position());
+		}
+	}
+
+	/**
+	 * Scattering reads have no positional form, so runs move the channel's file
+	 * pointer while holding the channel's lock. Single-page reads and writes are
+	 * positional and never wait for a run.
+	 */
+	@Override
+	public void readRun(int firstpage, byte[][] buffers) throws IOException {
+		ByteBuffer[] bufs = wrap(buffers);
+		long remaining = (long) buffers.length * pageSize;
+		synchronized (channel) {
+			channel.position((long) firstpage * pageSize);
+			while (remaining > 0) {
+				long n = channel.read(bufs);
+				if (n < 0) {
+					throw new EOFException("Run at page " + firstpage + " is past the end of the file");
+				}
+				remaining -= n;
+			}
+		}
+	}
+
+	@Override
+	public void writeRun(int firstpage, byte[][] buffers) throws IOException {
+		ByteBuffer[] bufs = wrap(buffers);
+		long remaining = (long) buffers.length * pageSize;
+		synchronized (channel) {
+			channel.position((long) firstpage * pageSize);
+			while (remaining > 0) {
+				remaining -= channel.write(bufs);
+			}
+		}
+	}
+
+	@Override
+	public void setLength(long length) throws IOException {
+		raf.setLength(length);
+	}
+
+	@Override
+	public void force() throws IOException {
+		channel.force(false);
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			channel.force(false);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Returns this thread's scratch buffer, cleared.
+	 */
+	private ByteBuffer scratch() {
+		ByteBuffer buf = scratch.get();
+		if (buf == null) {
+			buf = ByteBuffer.allocateDirect(pageSize);
+			scratch.set(buf);
+		}
+		buf.clear();
+		return buf;
+	}
+
+	/**
+	 * Returns one page-sized buffer over each of buffers.
+	 */
+	private ByteBuffer[] wrap(byte[][] buffers) {
+		ByteBuffer[] bufs = new ByteBuffer[buffers.length];
+		for (int i = 0; i < buffers.length; i++) {
+			bufs[i] = ByteBuffer.wrap(buffers[i], 0, pageSize);
+		}
+		return bufs;
+	}
+}
@@ -0,0 +1,374 @@
+package diskmgr;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A PageFile that stores every page deflated, in a slot just big enough for
+ * it. Slots are whole numbers of slot units (a sixteenth of a page); a page
+ * that does not shrink is stored as it is, in a full-page slot. A page->slot
+ * map says where each page lives and how long it is; slots given up by pages
+ * that were rewritten at another size go on a free list per slot size.
+ *
+ * Page 0 is always stored uncompressed at the start of the file, so the
+ * database's page size can be read before the map is loaded.
+ *
+ * The map is kept in memory and written to name + MAP_SUFFIX on sync(),
+ * force() and close(); DiskMgr.sync, which BufMgr.flushAllPages ends with,
+ * syncs, so a page flushed from the pool is found at its latest slot after a
+ * crash of the process. Each map is synced to the device before it replaces
+ * the old one, and force() syncs the directory as well before it reuses any
+ * slot. A slot given up after the last force() is not reused until the next
+ * one, so neither the map on disk nor one stored by a sync before that force
+ * ever points at a slot that now holds another page.
+ */
+class CompressedPageFile implements PageFile {
+
+	/** Suffix of the file holding the page->slot map. */
+	static final String MAP_SUFFIX = ".cmap";
+
+	/** Slot sizes are multiples of a page / UNITS_PER_PAGE. */
+	private static final int UNITS_PER_PAGE = 16;
+
+	/** Map entry of a page that was never written; it reads as zeroes. */
+	private static final long UNWRITTEN = -1;
+
+	private final int pageSize;
+	private final int unit;
+
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final File mapFile;
+
+	/** Guards the map and free lists; page reads share it, page writes own it. */
+	private final ReadWriteLock latch = new ReentrantReadWriteLock();
+
+	/** offsets: byte offset of each page's slot, or UNWRITTEN. */
+	private long[] offsets;
+
+	/** lengths: stored length of each page, pageSize if stored uncompressed. */
+	private int[] lengths;
+
+	/** free: free slot offsets, indexed by slot size in units. */
+	private final List<ArrayDeque<Long>> free = new ArrayList<ArrayDeque<Long>>();
+
+	/** released: slots given up since the last force(), as {offset, units}. */
+	private final ArrayDeque<long[]> released = new ArrayDeque<long[]>();
+
+	/** end: the end of the slot area, where slots are appended. */
+	private long end;
+
+	private final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+	private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+	private final ThreadLocal<byte[]> scratch;
+
+	CompressedPageFile(File file, int pageSize) throws IOException {
+		this.pageSize = pageSize;
+		this.unit = pageSize / UNITS_PER_PAGE;
+		this.scratch = ThreadLocal.withInitial(() -> new byte[pageSize + 64]);
+		for (int i = 0; i <= UNITS_PER_PAGE; i++) {
+			free.add(new ArrayDeque<Long>());
+		}
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		mapFile = new File(file.getPath() + MAP_SUFFIX);
+		offsets = new long[0];
+		lengths = new int[0];
+		end = pageSize;
+		if (mapFile.exists()) {
+			loadMap();
+		} else {
+			// a new database: the map marks it as compressed from the start
+			storeMap();
+		}
+	}
+
+	/**
+	 * Returns true if the database file was written by a CompressedPageFile.
+	 */
+	static boolean isCompressed(File file) {
+		return new File(file.getPath() + MAP_SUFFIX).exists();
+	}
+
+	@Override
+	public void read(int pageno, byte[] buffer) throws IOException {
+		if (pageno == 0) {
+			readFully(0, buffer, pageSize);
+			return;
+		}
+		byte[] stored = scratch.get();
+		int length;
+		latch.readLock().lock();
+		try {
+			if (pageno >= offsets.length) {
+				throw new EOFException("Page " + pageno + " is past the end of the file");
+			}
+			if (offsets[pageno] == UNWRITTEN) {
+				Arrays.fill(buffer, 0, pageSize, (byte) 0);
+				return;
+			}
+			length = lengths[pageno];
+			readFully(offsets[pageno], length == pageSize ? buffer : stored, length);
+		} finally {
+			latch.readLock().unlock();
+		}
+		if (length == pageSize) {
+			return;
+		}
+		Inflater inflater = inflaters.get();
+		inflater.reset();
+		inflater.setInput(stored, 0, length);
+		try {
+			int n = 0;
+			while (n < pageSize && !inflater.finished()) {
+				int got = inflater.inflate(buffer, n, pageSize - n);
+				if (got == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				n += got;
+			}
+			if (n != pageSize) {
+				throw new IOException("Page " + pageno + " is corrupt");
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Page " + pageno + " is corrupt: " + e.getMessage());
+		}
+	}
+
+	@Override
+	public void write(int pageno, byte[] buffer) throws IOException {
+		if (pageno == 0) {
+			writeFully(0, buffer, pageSize);
+			return;
+		}
+		// compress outside the latch
+		byte[] stored = scratch.get();
+		Deflater deflater = deflaters.get();
+		deflater.reset();
+		deflater.setInput(buffer, 0, pageSize);
+		deflater.finish();
+		int length = deflater.deflate(stored, 0, pageSize - unit);
+		if (!deflater.finished()) {
+			// does not shrink by a slot unit, keep it as it is
+			stored = buffer;
+			length = pageSize;
+		}
+
+		latch.writeLock().lock();
+		try {
+			if (pageno >= offsets.length) {
+				throw new EOFException("Page " + pageno + " is past the end of the file");
+			}
+			int units = units(length);
+			long offset = offsets[pageno];
+			if (offset == UNWRITTEN || units(lengths[pageno]) != units) {
+				if (offset != UNWRITTEN) {
+					released.add(new long[] { offset, units(lengths[pageno]) });
+				}
+				offset = free.get(units).isEmpty() ? claim(units) : free.get(units).pop();
+			}
+			writeFully(offset, stored, length);
+			offsets[pageno] = offset;
+			lengths[pageno] = length;
+		} finally {
+			latch.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Compressed pages are not contiguous on disk, so a run is read page by
+	 * page.
+	 */
+	@Override
+	public void readRun(int firstpage, byte[][] buffers) throws IOException {
+		for (int i = 0; i < buffers.length; i++) {
+			read(firstpage + i, buffers[i]);
+		}
+	}
+
+	@Override
+	public void writeRun(int firstpage, byte[][] buffers) throws IOException {
+		for (int i = 0; i < buffers.length; i++) {
+			write(firstpage + i, buffers[i]);
+		}
+	}
+
+	/**
+	 * Set the number of pages; pages added read as zeroes and take no space
+	 * until they are written.
+	 */
+	@Override
+	public void setLength(long length) throws IOException {
+		latch.writeLock().lock();
+		try {
+			int numPages = (int) (length / pageSize);
+			int old = offsets.length;
+			offsets = Arrays.copyOf(offsets, numPages);
+			lengths = Arrays.copyOf(lengths, numPages);
+			for (int i = old; i < numPages; i++) {
+				offsets[i] = UNWRITTEN;
+			}
+			if (raf.length() < pageSize) {
+				raf.setLength(pageSize);
+			}
+		} finally {
+			latch.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void force() throws IOException {
+		latch.writeLock().lock();
+		try {
+			channel.force(false);
+			storeMap();
+			// the rename of the map must be on the device before its old
+			// slots are handed out again
+			try (FileChannel dir = FileChannel.open(mapFile.getAbsoluteFile().getParentFile().toPath(),
+					StandardOpenOption.READ)) {
+				dir.force(true);
+			}
+			for (long[] slot : released) {
+				free.get((int) slot[1]).push(slot[0]);
+			}
+			released.clear();
+		} finally {
+			latch.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Store the map. The slots given up since the last force() stay out of
+	 * use: after a crash of the machine the map on disk may still be the one
+	 * that force() stored, which points at them.
+	 */
+	@Override
+	public void sync() throws IOException {
+		latch.writeLock().lock();
+		try {
+			storeMap();
+		} finally {
+			latch.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		force();
+		raf.close();
+	}
+
+	private int units(int length) {
+		return (length + unit - 1) / unit;
+	}
+
+	/**
+	 * Append a new slot of the given size to the slot area.
+	 */
+	private long claim(int units) {
+		long offset = end;
+		end += (long) units * unit;
+		return offset;
+	}
+
+	private void readFully(long pos, byte[] buffer, int length) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(buffer, 0, length);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, pos + buf.position()) < 0) {
+				throw new EOFException("Slot at " + pos + " is past the end of the file");
+			}
+		}
+	}
+
+	private void writeFully(long pos, byte[] buffer, int length) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(buffer, 0, length);
+		while (buf.hasRemaining()) {
+			channel.write(buf, pos + buf.position());
+		}
+	}
+
+	/**
+	 * Write the page->slot map: the number of pages, then each page's slot
+	 * offset and stored length. Written to a temporary file and synced first,
+	 * so a failed write or a crash leaves the old map or the new one in place.
+	 */
+	private void storeMap() throws IOException {
+		File tmp = new File(mapFile.getPath() + ".tmp");
+		FileOutputStream file = new FileOutputStream(tmp);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+			out.writeInt(offsets.length);
+			for (int i = 0; i < offsets.length; i++) {
+				out.writeLong(offsets[i]);
+				out.writeInt(lengths[i]);
+			}
+			out.flush();
+			file.getFD().sync();
+		}
+		Files.move(tmp.toPath(), mapFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Read the page->slot map and rebuild the free lists from the gaps between
+	 * the slots in use.
+	 */
+	private void loadMap() throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mapFile)))) {
+			int numPages = in.readInt();
+			offsets = new long[numPages];
+			lengths = new int[numPages];
+			for (int i = 0; i < numPages; i++) {
+				offsets[i] = in.readLong();
+				lengths[i] = in.readInt();
+			}
+		}
+		long[] used = new long[offsets.length];
+		int n = 0;
+		for (int i = 1; i < offsets.length; i++) {
+			if (offsets[i] != UNWRITTEN) {
+				used[n++] = (offsets[i] << 8) | units(lengths[i]);
+			}
+		}
+		Arrays.sort(used, 0, n);
+		long pos = pageSize;
+		for (int i = 0; i < n; i++) {
+			long offset = used[i] >>> 8;
+			freeGap(pos, offset);
+			pos = offset + (used[i] & 0xff) * unit;
+		}
+		end = pos;
+	}
+
+	/**
+	 * Put the gap [from, to) of the slot area on the free lists, in the
+	 * biggest slots that fit.
+	 */
+	private void freeGap(long from, long to) {
+		while (to - from >= unit) {
+			int units = (int) Math.min(UNITS_PER_PAGE, (to - from) / unit);
+			free.get(units).push(from);
+			from += (long) units * unit;
+		}
+	}
+}
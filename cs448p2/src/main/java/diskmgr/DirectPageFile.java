@@ -0,0 +1,219 @@
+package diskmgr;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+
+import com.sun.nio.file.ExtendedOpenOption;
+
+/**
+ * A PageFile that bypasses the OS page cache (O_DIRECT), so a page held by the
+ * buffer pool is not cached a second time by the OS. Direct I/O must move whole
+ * filesystem blocks between block-aligned file offsets and block-aligned
+ * memory, so every transfer goes through an aligned direct buffer of the
+ * thread, covering the blocks that hold the pages.
+ *
+ * Pages smaller than a block share it with their neighbours: writing one reads
+ * the block, changes the page and writes the block back. Those writes are
+ * serialized so two of them never lose each other's page. The file length is
+ * kept a whole number of blocks, so a block write never grows the file.
+ */
+class DirectPageFile implements PageFile {
+
+	/** Largest transfer through the aligned buffer; longer runs are split. */
+	private static final int MAX_TRANSFER = 1 << 20;
+
+	private static final OpenOption[] OPTIONS = { StandardOpenOption.CREATE, StandardOpenOption.READ,
+			StandardOpenOption.WRITE, ExtendedOpenOption.DIRECT };
+
+	/** pageSize: the database page size in bytes. */
+	private final int pageSize;
+
+	/** blockSize: the filesystem block size, the unit of every transfer. */
+	private final int blockSize;
+
+	/** channel: the O_DIRECT channel all pages move through. */
+	private final FileChannel channel;
+
+	/** raf: a buffered handle, only used to change the file length. */
+	private final RandomAccessFile raf;
+
+	/** Serializes the read-modify-write of blocks shared by several pages. */
+	private final Object blockLatch = new Object();
+
+	/** scratch: each thread's aligned transfer buffer, grown on demand. */
+	private final ThreadLocal<ByteBuffer> scratch = new ThreadLocal<ByteBuffer>();
+
+	DirectPageFile(File file, int pageSize) throws IOException {
+		this.pageSize = pageSize;
+		this.blockSize = blockSize(file);
+		channel = FileChannel.open(file.toPath(), OPTIONS);
+		raf = new RandomAccessFile(file, "rw");
+	}
+
+	/**
+	 * Returns true if the file can be opened for direct I/O: the filesystem
+	 * accepts O_DIRECT, reports a usable block size, and serves an aligned
+	 * read. The file is created if it does not exist.
+	 */
+	static boolean isSupported(File file) {
+		try (FileChannel probe = FileChannel.open(file.toPath(), OPTIONS)) {
+			int blockSize = blockSize(file);
+			ByteBuffer buf = ByteBuffer.allocateDirect(2 * blockSize).alignedSlice(blockSize);
+			buf.limit(blockSize);
+			probe.read(buf, 0);
+			return true;
+		} catch (IOException | UnsupportedOperationException e) {
+			return false;
+		}
+	}
+
+	private static int blockSize(File file) throws IOException {
+		long size = Files.getFileStore(file.toPath().toAbsolutePath().getParent()).getBlockSize();
+		if (size <= 0 || size > MAX_TRANSFER || Long.bitCount(size) != 1) {
+			throw new UnsupportedOperationException("Unusable block size " + size);
+		}
+		return (int) size;
+	}
+
+	@Override
+	public void read(int pageno, byte[] buffer) throws IOException {
+		transfer(pageno, new byte[][] { buffer }, false);
+	}
+
+	@Override
+	public void write(int pageno, byte[] buffer) throws IOException {
+		transfer(pageno, new byte[][] { buffer }, true);
+	}
+
+	@Override
+	public void readRun(int firstpage, byte[][] buffers) throws IOException {
+		transfer(firstpage, buffers, false);
+	}
+
+	@Override
+	public void writeRun(int firstpage, byte[][] buffers) throws IOException {
+		transfer(firstpage, buffers, true);
+	}
+
+	/**
+	 * Round the length up to a whole block; the pages past the end of the
+	 * database read as zeroes and are never used.
+	 */
+	@Override
+	public void setLength(long length) throws IOException {
+		raf.setLength(alignUp(length));
+	}
+
+	@Override
+	public void force() throws IOException {
+		// written pages are already on the device, this flushes its cache and
+		// the file's metadata
+		channel.force(true);
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			force();
+			channel.close();
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Move a run of pages in pieces of at most MAX_TRANSFER bytes.
+	 */
+	private void transfer(int firstpage, byte[][] buffers, boolean write) throws IOException {
+		int perTransfer = Math.max(1, MAX_TRANSFER / pageSize);
+		for (int i = 0; i < buffers.length; i += perTransfer) {
+			int n = Math.min(perTransfer, buffers.length - i);
+			if (!write) {
+				transfer(firstpage + i, buffers, i, n, false);
+			} else if (pageSize % blockSize != 0) {
+				synchronized (blockLatch) {
+					transfer(firstpage + i, buffers, i, n, true);
+				}
+			} else {
+				transfer(firstpage + i, buffers, i, n, true);
+			}
+		}
+	}
+
+	/**
+	 * Move pages firstpage .. firstpage + n - 1, held in buffers[from ..], through
+	 * the aligned buffer. A write whose blocks hold other pages as well reads
+	 * those blocks first.
+	 */
+	private void transfer(int firstpage, byte[][] buffers, int from, int n, boolean write) throws IOException {
+		long pos = (long) firstpage * pageSize;
+		long length = (long) n * pageSize;
+		long start = pos & -blockSize;
+		long end = alignUp(pos + length);
+		ByteBuffer buf = scratch((int) (end - start));
+		int skip = (int) (pos - start);
+
+		if (!write || start != pos || end != pos + length) {
+			int got = readBlocks(buf, start);
+			if (!write && got < skip + length) {
+				throw new EOFException("Run at page " + firstpage + " is past the end of the file");
+			}
+			while (buf.position() < buf.limit()) {
+				buf.put((byte) 0);
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			buf.position(skip + i * pageSize);
+			if (write) {
+				buf.put(buffers[from + i], 0, pageSize);
+			} else {
+				buf.get(buffers[from + i], 0, pageSize);
+			}
+		}
+		if (write) {
+			buf.clear().limit((int) (end - start));
+			while (buf.hasRemaining()) {
+				channel.write(buf, start + buf.position());
+			}
+		}
+	}
+
+	/**
+	 * Fill buf from the file starting at start, stopping early at the end of
+	 * the file; returns the number of bytes read and leaves buf positioned
+	 * after them.
+	 */
+	private int readBlocks(ByteBuffer buf, long start) throws IOException {
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, start + buf.position()) < 0) {
+				break;
+			}
+		}
+		return buf.position();
+	}
+
+	/**
+	 * Returns this thread's aligned buffer, cleared and limited to size bytes.
+	 */
+	private ByteBuffer scratch(int size) {
+		ByteBuffer buf = scratch.get();
+		if (buf == null || buf.capacity() < size) {
+			int capacity = Math.max(size, blockSize);
+			buf = ByteBuffer.allocateDirect(capacity + blockSize).alignedSlice(blockSize);
+			scratch.set(buf);
+		}
+		buf.clear().limit(size);
+		return buf;
+	}
+
+	private long alignUp(long pos) {
+		return (pos + blockSize - 1) & -blockSize;
+	}
+}
@@ -2,11 +2,33 @@
 
 package diskmgr;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import bufmgr.BufMgr;
 import bufmgr.BufMgrException;
 import chainexception.ChainException;
 import global.Convert;
@@ -17,7 +39,36 @@ import global.PageId;
 
 public class DiskMgr implements GlobalConst {
 
-	private static final int bits_per_page = PAGE_SIZE * 8;
+	/** I/O mode: one positional read or write on the file channel per page. */
+	public static final String IO_FILE = "File";
+
+	/** I/O mode: map the database file and copy pages in and out of the mapping. */
+	public static final String IO_MAPPED = "Mapped";
+
+	/**
+	 * I/O mode: bypass the OS page cache, so pages held by the buffer pool are
+	 * not cached twice. Falls back to IO_FILE on a filesystem without direct
+	 * I/O; db_io_mode() tells which one is in use.
+	 */
+	public static final String IO_DIRECT = "Direct";
+
+	/**
+	 * I/O mode: deflate every page into a slot of its compressed size. Chosen
+	 * when a database is created; openDB of an existing database always opens
+	 * a compressed database in this mode, and any other database in the mode
+	 * asked for.
+	 */
+	public static final String IO_COMPRESSED = "Compressed";
+
+	/**
+	 * Largest page size a database can be created with. Page sizes are powers
+	 * of two from PAGE_SIZE, the size of databases that do not record one, up
+	 * to this.
+	 */
+	public static final int MAX_PAGE_SIZE = 32 * 1024;
+
+	/** Largest number of pages a database can grow to. */
+	private static final int MAX_DB_PAGES = Integer.MAX_VALUE / 2;
 
 	/**
 	 * Open the database with the given name.
@@ -29,15 +80,40 @@ public class DiskMgr implements GlobalConst {
 	 * @throws FileIOException
 	 */
 	public void openDB(String fname) throws BufMgrException, FileIOException {
+		openDB(fname, defaultIOMode());
+	}
+
+	/**
+	 * Open the database with the given name, serving page I/O through the given
+	 * storage backend.
+	 *
+	 * @param fname
+	 *            DB_name
+	 * @param ioMode
+	 *            the storage backend, IO_FILE, IO_MAPPED, IO_DIRECT or
+	 *            IO_COMPRESSED
+	 * @throws BufMgrException
+	 * @throws FileIOException
+	 */
+	public void openDB(String fname, String ioMode) throws BufMgrException, FileIOException {
 
 		name = fname;
+		clear_cached_pages();
 
-		// Create a random access file
+		// Open the database file
 		try {
-			fp = new RandomAccessFile(fname, "rw");
+			set_page_size(read_page_size(new File(fname)));
+			read_stripes();
+			if (CompressedPageFile.isCompressed(new File(fname)))
+				ioMode = IO_COMPRESSED;
+			else if (IO_COMPRESSED.equalsIgnoreCase(ioMode))
+				ioMode = IO_FILE;
+			file = open_file(ioMode);
+			async = new AsyncPageIO(file);
+			register_stats();
 
 			PageId pageId = new PageId();
-			Page apage = new Page();
+			Page apage = newPage();
 			pageId.pid = 0;
 
 			num_pages = 1; // temporary num_page value for pinpage to work
@@ -47,11 +123,22 @@ public class DiskMgr implements GlobalConst {
 			DBFirstPage firstpg = new DBFirstPage();
 			firstpg.openPage(apage);
 			num_pages = firstpg.getNumDBPages();
+			first_map_pages = firstpg.getNumMapPages();
+			if (first_map_pages == 0) // the DB predates growth, the map was never moved
+				first_map_pages = (num_pages + bits_per_page - 1) / bits_per_page;
 
 			unpinPage(pageId, false /* undirty */);
+
+			load_space_map();
+			load_catalog();
+			read_owners();
 		} catch (IOException e) {
 			throw new FileIOException(e.getMessage());
 		}
+
+		// read back what the buffer pool held when the database was last flushed
+		if (Minibase.DiskManager == this && Minibase.BufferManager != null)
+			Minibase.BufferManager.warmUp();
 	}
 
 	/**
@@ -75,26 +162,125 @@ public class DiskMgr implements GlobalConst {
 	 *
 	 */
 	public void openDB(String fname, int num_pgs) throws BufMgrException, InvalidPageNumberException, FileIOException {
+		openDB(fname, num_pgs, defaultIOMode());
+	}
+
+	/**
+	 * Create a database with the specified number of pages, serving page I/O
+	 * through the given storage backend.
+	 *
+	 * @param fname
+	 *            DB name
+	 * @param num_pgs
+	 *            number of pages in DB
+	 * @param ioMode
+	 *            the storage backend, IO_FILE, IO_MAPPED, IO_DIRECT or
+	 *            IO_COMPRESSED
+	 * @throws BufMgrException
+	 * @throws InvalidPageNumberException
+	 * @throws FileIOException
+	 */
+	public void openDB(String fname, int num_pgs, String ioMode)
+			throws BufMgrException, InvalidPageNumberException, FileIOException {
+		openDB(fname, num_pgs, ioMode, defaultPageSize());
+	}
+
+	/**
+	 * Create a database with the specified number of pages of the given size,
+	 * serving page I/O through the given storage backend. The page size is
+	 * recorded in the first page, and every later openDB uses it.
+	 *
+	 * @param fname
+	 *            DB name
+	 * @param num_pgs
+	 *            number of pages in DB
+	 * @param ioMode
+	 *            the storage backend, IO_FILE, IO_MAPPED, IO_DIRECT or
+	 *            IO_COMPRESSED
+	 * @param pageSize
+	 *            the page size in bytes, a power of two from PAGE_SIZE to
+	 *            MAX_PAGE_SIZE
+	 * @throws BufMgrException
+	 * @throws InvalidPageNumberException
+	 * @throws FileIOException
+	 */
+	public void openDB(String fname, int num_pgs, String ioMode, int pageSize)
+			throws BufMgrException, InvalidPageNumberException, FileIOException {
+		openDB(fname, num_pgs, ioMode, pageSize, new String[0], 0);
+	}
+
+	/**
+	 * Create a database striped over several data files. fname is the first
+	 * data file and holds page 0; stripe_files are the others, possibly in
+	 * other directories or on other volumes. Pages are dealt out to the files
+	 * round-robin, stripe_pages consecutive pages at a time. The file list is
+	 * kept in fname + ".stripes", and openDB(fname) opens them all again.
+	 *
+	 * @param fname
+	 *            DB name, the first data file
+	 * @param num_pgs
+	 *            number of pages in DB
+	 * @param ioMode
+	 *            the storage backend, IO_FILE, IO_MAPPED, IO_DIRECT or
+	 *            IO_COMPRESSED
+	 * @param pageSize
+	 *            the page size in bytes, a power of two from PAGE_SIZE to
+	 *            MAX_PAGE_SIZE
+	 * @param stripe_files
+	 *            the other data files; none for a single-file database
+	 * @param stripe_pages
+	 *            pages per stripe unit
+	 * @throws BufMgrException
+	 * @throws InvalidPageNumberException
+	 * @throws FileIOException
+	 */
+	public void openDB(String fname, int num_pgs, String ioMode, int pageSize, String[] stripe_files,
+			int stripe_pages) throws BufMgrException, InvalidPageNumberException, FileIOException {
+
+		if (stripe_files.length > 0 && stripe_pages < 1)
+			throw new IllegalArgumentException("Invalid stripe size " + stripe_pages);
+		if (pageSize < PAGE_SIZE || pageSize > MAX_PAGE_SIZE || Integer.bitCount(pageSize) != 1)
+			throw new IllegalArgumentException("Invalid page size " + pageSize);
 
 		name = new String(fname);
+		clear_cached_pages();
+		set_page_size(pageSize);
 		num_pages = (num_pgs > 2) ? num_pgs : 2;
 
 		File DBfile = new File(name);
 
 		DBfile.delete();
+		new File(name + CompressedPageFile.MAP_SUFFIX).delete();
+		new File(name + BufMgr.SNAPSHOT_SUFFIX).delete();
+		new File(name + OWNERS_SUFFIX).delete();
+		this.stripe_files = stripe_files.clone();
+		this.stripe_pages = stripe_pages;
+		for (String stripe : stripe_files) {
+			new File(stripe).delete();
+			new File(stripe + CompressedPageFile.MAP_SUFFIX).delete();
+		}
 
 		try {
-			// Create a random access file
-			fp = new RandomAccessFile(fname, "rw");
+			write_stripes();
+
+			// Open the database file(s)
+			file = open_file(ioMode);
+			async = new AsyncPageIO(file);
+			register_stats();
 
 			// Make the file num_pages pages long, filled with zeroes.
-			fp.seek((long) (num_pages * PAGE_SIZE - 1));
-			fp.writeByte(0);
+			file.setLength((long) num_pages * page_size);
 
 			// Initialize space map and directory pages.
 
+			// Calculate how many pages are needed for the space map. Reserve pages
+			// 0 and 1 and as many additional pages for the space map as are needed.
+			spaceMap = new SpaceMap(num_pages, bits_per_page);
+			int num_map_pages = spaceMap.numMapPages();
+			first_map_pages = num_map_pages;
+
 			// Initialize the first DB page
-			Page apage = new Page();
+			Page apage = newPage();
 			PageId pageId = new PageId();
 			pageId.pid = 0;
 			pinPage(pageId, apage, true /* no diskIO */);
@@ -102,13 +288,22 @@ public class DiskMgr implements GlobalConst {
 			DBFirstPage firstpg = new DBFirstPage(apage);
 
 			firstpg.setNumDBPages(num_pages);
+			firstpg.setPageSize(page_size);
+			firstpg.setNumMapPages(first_map_pages);
+			catalog = new FileCatalog();
+			catalog.addHeaderPage(pageId.pid, firstpg.getNumOfEntries());
 			unpinPage(pageId, true /* dirty */);
 
-			// Calculate how many pages are needed for the space map. Reserve pages
-			// 0 and 1 and as many additional pages for the space map as are needed.
-			int num_map_pages = (num_pages + bits_per_page - 1) / bits_per_page;
+			// the first page goes to disk right away: openDB reads the page size
+			// from the file before the buffer pool is involved
+			try {
+				Minibase.BufferManager.flushPage(pageId);
+			} catch (DiskMgrException e) {
+				throw new FileIOException(e.getMessage());
+			}
 
 			set_bits(pageId, 1 + num_map_pages, 1);
+			sync_space_map();
 		} catch (IOException e) {
 			throw new FileIOException(e.getMessage());
 		}
@@ -121,10 +316,18 @@ public class DiskMgr implements GlobalConst {
 	 * @throws FileIOException
 	 */
 	public void closeDB() throws FileIOException {
+		// so the buffer pool can be warmed up when the database is opened again
+		if (Minibase.DiskManager == this && Minibase.BufferManager != null)
+			Minibase.BufferManager.saveSnapshot();
 		try {
-			fp.close();
+			sync_space_map();
+			async.close();
+			file.close();
+			unregister_stats();
 		} catch (IOException e) {
 			throw new FileIOException(e.getMessage());
+		} catch (BufMgrException e) {
+			throw new FileIOException(e.getMessage());
 		}
 	}
 
@@ -136,10 +339,21 @@ public class DiskMgr implements GlobalConst {
 	 */
 	public void DBDestroy() throws FileIOException {
 
+		clear_cached_pages();
 		try {
-			fp.close();
+			async.close();
+			file.close();
+			unregister_stats();
 			File DBfile = new File(name);
 			DBfile.delete();
+			new File(name + CompressedPageFile.MAP_SUFFIX).delete();
+			for (String stripe : stripe_files) {
+				new File(stripe).delete();
+				new File(stripe + CompressedPageFile.MAP_SUFFIX).delete();
+			}
+			new File(name + STRIPES_SUFFIX).delete();
+			new File(name + BufMgr.SNAPSHOT_SUFFIX).delete();
+			new File(name + OWNERS_SUFFIX).delete();
 		} catch (IOException e) {
 			throw new FileIOException(e.getMessage());
 		}
@@ -161,13 +375,15 @@ public class DiskMgr implements GlobalConst {
 		if ((pageno.pid < 0) || (pageno.pid >= num_pages))
 			throw new InvalidPageNumberException("BAD_PAGE_NUMBER");
 
+		long start = System.nanoTime();
 		try {
-			// Seek to the correct page
-			fp.seek((long) (pageno.pid * PAGE_SIZE));
-
-			// Read the appropriate number of bytes.
-			byte[] buffer = apage.getpage(); // new byte[PAGE_SIZE];
-			fp.read(buffer);
+			// a write still queued in the async engine is newer than the disk copy
+			byte[] pending = async.pendingWrite(pageno.pid);
+			if (pending != null)
+				System.arraycopy(pending, 0, apage.getpage(), 0, page_size);
+			else
+				file.read(pageno.pid, apage.getpage());
+			stats.read(file_of(pageno.pid), pageno.pid, 1, System.nanoTime() - start);
 		} catch (IOException e) {
 			throw new FileIOException(e.getMessage());
 		}
@@ -189,12 +405,13 @@ public class DiskMgr implements GlobalConst {
 		if ((pageno.pid < 0) || (pageno.pid >= num_pages))
 			throw new InvalidPageNumberException("INVALID_PAGEID_NUMBER");
 
+		long start = System.nanoTime();
 		try {
-			// Seek to the correct page
-			fp.seek((long) (pageno.pid * PAGE_SIZE));
-
-			// Write the appropriate number of bytes.
-			fp.write(apage.getpage());
+			// let a queued async write of this page land first, it is older
+			async.awaitWrite(pageno.pid);
+			pages_written(pageno.pid, 1);
+			file.write(pageno.pid, apage.getpage());
+			stats.write(file_of(pageno.pid), pageno.pid, 1, System.nanoTime() - start);
 		} catch (IOException e) {
 			throw new FileIOException(e.getMessage());
 		}
@@ -202,89 +419,233 @@ public class DiskMgr implements GlobalConst {
 	}
 
 	/**
-	 * Allocates a set of pages on disk, given the run size.
-	 * 
-	 * @return The new page's id
+	 * Read a run of consecutive pages with a single I/O. pages[i] receives the
+	 * contents of page firstpage + i.
+	 *
+	 * @param firstpage
+	 *            pageId of the first page in the run
+	 * @param pages
+	 *            page objects which hold the contents of the run
 	 * @throws InvalidPageNumberException
-	 * @throws BufMgrException
 	 * @throws FileIOException
 	 */
-	public PageId allocate_page(int run_size) throws InvalidPageNumberException, BufMgrException, FileIOException {
+	public void read_pages(PageId firstpage, Page[] pages) throws InvalidPageNumberException, FileIOException {
+
+		if ((firstpage.pid < 0) || (firstpage.pid + pages.length > num_pages))
+			throw new InvalidPageNumberException("BAD_PAGE_NUMBER");
 
-		// validate the run size
-		if ((run_size < 1) || (run_size > num_pages)) {
-			throw new IllegalArgumentException("Invalid run size; allocate aborted");
+		long start = System.nanoTime();
+		try {
+			// look for queued async writes before reading; see read_page
+			byte[][] pending = new byte[pages.length][];
+			for (int i = 0; i < pages.length; i++)
+				pending[i] = async.pendingWrite(firstpage.pid + i);
+			file.readRun(firstpage.pid, buffers(pages));
+			for (int i = 0; i < pages.length; i++)
+				if (pending[i] != null)
+					System.arraycopy(pending[i], 0, pages[i].getpage(), 0, page_size);
+			stats.read(file_of(firstpage.pid), firstpage.pid, pages.length, System.nanoTime() - start);
+		} catch (IOException e) {
+			throw new FileIOException(e.getMessage());
 		}
+	}
 
-		// calculate the run in the space map
-		int num_map_pages = (num_pages + bits_per_page - 1) / bits_per_page;
-		int current_run_start = 0;
-		int current_run_length = 0;
+	/**
+	 * Write a run of consecutive pages with a single I/O. pages[i] is written to
+	 * page firstpage + i.
+	 *
+	 * @param firstpage
+	 *            pageId of the first page in the run
+	 * @param pages
+	 *            the page objects to be written to disk
+	 * @throws FileIOException
+	 * @throws InvalidPageNumberException
+	 */
+	public void write_pages(PageId firstpage, Page[] pages) throws FileIOException, InvalidPageNumberException {
 
-		// this loop goes over each page in the space map
-		PageId pgid = new PageId();
-		Page apage = new Page();
-		try {
-			for (int i = 0; i < num_map_pages; ++i) {
+		if ((firstpage.pid < 0) || (firstpage.pid + pages.length > num_pages))
+			throw new InvalidPageNumberException("INVALID_PAGEID_NUMBER");
 
-				// pin the space-map page
-				pgid.pid = i + 1;
-				Minibase.BufferManager.pinPage(pgid, apage, PIN_DISKIO);
+		long start = System.nanoTime();
+		try {
+			for (int i = 0; i < pages.length; i++)
+				async.awaitWrite(firstpage.pid + i);
+			pages_written(firstpage.pid, pages.length);
+			file.writeRun(firstpage.pid, buffers(pages));
+			stats.write(file_of(firstpage.pid), firstpage.pid, pages.length, System.nanoTime() - start);
+		} catch (IOException e) {
+			throw new FileIOException(e.getMessage());
+		}
+	}
 
-				// get the num of bits on current page
-				int num_bits_this_page = num_pages - i * bits_per_page;
-				if (num_bits_this_page > bits_per_page)
-					num_bits_this_page = bits_per_page;
+	/**
+	 * Queue a read of the specified page into a Page object. The read is issued
+	 * by the I/O thread together with the other queued requests, sorted by page
+	 * number and merged with reads of neighbouring pages.
+	 *
+	 * @param pageno
+	 *            pageId which will be read
+	 * @param apage
+	 *            page object which receives the contents of the page; it must
+	 *            not be touched until the returned future completes
+	 * @return a future completed once the page is read, or completed
+	 *         exceptionally with a FileIOException
+	 * @throws InvalidPageNumberException
+	 */
+	public CompletableFuture<Void> readPageAsync(PageId pageno, Page apage) throws InvalidPageNumberException {
 
-				// Walk the page looking for a sequence of 0 bits of the appropriate
-				// length. The outer loop steps through the page's bytes, the inner
-				// one steps through each byte's bits.
-				byte[] pagebuf = apage.getData();
-				for (int byteptr = 0; num_bits_this_page > 0 && current_run_length < run_size; byteptr++) {
+		if ((pageno.pid < 0) || (pageno.pid >= num_pages))
+			throw new InvalidPageNumberException("BAD_PAGE_NUMBER");
 
-					// initialize bit mask
-					Byte mask = new Byte(new Integer(1).byteValue());
-					byte tmpmask = mask.byteValue();
+		long start = System.nanoTime();
+		int pid = pageno.pid;
+		CompletableFuture<Void> done = async.read(pid, apage.getpage());
+		done.thenRun(() -> stats.read(file_of(pid), pid, 1, System.nanoTime() - start));
+		return done;
+	}
 
-					// search the page for an empty run
-					while (mask.intValue() != 0 && (num_bits_this_page > 0) && (current_run_length < run_size)) {
+	/**
+	 * Queue a write of a page object to the specified page. The contents are
+	 * copied before this returns, so the page object may be reused right away;
+	 * read_page sees the new contents even before they reach the disk.
+	 *
+	 * @param pageno
+	 *            pageId will be wrote to disk
+	 * @param apage
+	 *            the page object will be wrote to disk
+	 * @return a future completed once the page is written, or completed
+	 *         exceptionally with a FileIOException
+	 * @throws InvalidPageNumberException
+	 */
+	public CompletableFuture<Void> writePageAsync(PageId pageno, Page apage) throws InvalidPageNumberException {
 
-						// if a non-empty page is found
-						if ((pagebuf[byteptr] & tmpmask) != 0) {
-							current_run_start += current_run_length + 1;
-							current_run_length = 0;
-						} else {
-							current_run_length++;
-						}
+		if ((pageno.pid < 0) || (pageno.pid >= num_pages))
+			throw new InvalidPageNumberException("INVALID_PAGEID_NUMBER");
 
-						// advance to the next page
-						tmpmask <<= 1;
-						mask = new Byte(tmpmask);
-						num_bits_this_page--;
+		long start = System.nanoTime();
+		int pid = pageno.pid;
+		pages_written(pid, 1);
+		CompletableFuture<Void> done = async.write(pid, apage.getpage());
+		done.thenRun(() -> stats.write(file_of(pid), pid, 1, System.nanoTime() - start));
+		return done;
+	}
 
-					} // while
+	/**
+	 * Pages are about to be written: the buffer manager's off-heap cache
+	 * forgets its copies of them, which would be older.
+	 */
+	private void pages_written(int firstpage, int count) {
+		if (Minibase.DiskManager == this && Minibase.BufferManager != null)
+			Minibase.BufferManager.pagesWritten(firstpage, count);
+	}
 
-				} // inner loop
+	/**
+	 * The buffer manager's off-heap cache may hold pages of the database open
+	 * before, or of an earlier one by this name; it is emptied.
+	 */
+	private void clear_cached_pages() {
+		if (Minibase.DiskManager == this && Minibase.BufferManager != null)
+			Minibase.BufferManager.clearOffHeap();
+	}
 
-				// unpin the current space-map page
-				Minibase.BufferManager.unpinPage(pgid, UNPIN_CLEAN);
+	private static byte[][] buffers(Page[] pages) {
+		byte[][] buffers = new byte[pages.length][];
+		for (int i = 0; i < pages.length; i++) {
+			buffers[i] = pages[i].getpage();
+		}
+		return buffers;
+	}
 
-			} // outer loop
-		} catch (DiskMgrException e) {
-			throw new BufMgrException(e.getMessage());
+	/**
+	 * Force every page written so far to the storage device. With the mapped
+	 * backend this is the only point at which written pages are guaranteed to
+	 * reach the disk.
+	 *
+	 * @throws FileIOException
+	 */
+	public void flush() throws FileIOException {
+		try {
+			sync_space_map();
+			async.awaitWrites();
+			file.force();
+		} catch (IOException e) {
+			throw new FileIOException(e.getMessage());
+		} catch (BufMgrException e) {
+			throw new FileIOException(e.getMessage());
 		}
+	}
 
-		// check for disk full exception
-		if (current_run_length < run_size) {
-			throw new IllegalStateException("Not enough space left; allocate aborted");
+	/**
+	 * Make every page written so far readable after a crash of this process,
+	 * without the cost of forcing it to the device: waits for the async writes
+	 * and syncs the backend (see PageFile.sync). BufMgr.flushAllPages ends
+	 * with it; only flush also survives a crash of the machine.
+	 *
+	 * @throws FileIOException
+	 */
+	public void sync() throws FileIOException {
+		try {
+			async.awaitWrites();
+			file.sync();
+		} catch (IOException e) {
+			throw new FileIOException(e.getMessage());
 		}
+	}
 
-		// update the space map and return the resulting page id
-		PageId firstpg = new PageId(current_run_start);
-		set_bits(firstpg, run_size, 1);
-		return firstpg;
+	/**
+	 * Allocates a set of pages on disk, given the run size.
+	 * 
+	 * @return The new page's id
+	 * @throws InvalidPageNumberException
+	 * @throws BufMgrException
+	 * @throws FileIOException
+	 */
+	public PageId allocate_page(int run_size) throws InvalidPageNumberException, BufMgrException, FileIOException {
+		return allocate_page(run_size, null);
+	}
+
+	/**
+	 * Allocates a set of pages on disk for the file entry called fname, which
+	 * need not exist yet. file_of names fname for each page of the run until
+	 * it is deallocated.
+	 *
+	 * @param run_size
+	 *            the number of pages to allocate
+	 * @param fname
+	 *            the file entry the pages are for, null for none
+	 * @return The new page's id
+	 * @throws InvalidPageNumberException
+	 * @throws BufMgrException
+	 * @throws FileIOException
+	 */
+	public PageId allocate_page(int run_size, String fname)
+			throws InvalidPageNumberException, BufMgrException, FileIOException {
+		long start = System.nanoTime();
+		synchronized (spaceMapLatch) {
+			// validate the run size
+			if ((run_size < 1) || (run_size > num_pages && growth_extent == 0)) {
+				throw new IllegalArgumentException("Invalid run size; allocate aborted");
+			}
 
-	} // public PageId allocate_page(int run_size)
+			// take the best-fitting free extent from the in-memory space map,
+			// growing the database if none fits
+			int first;
+			try {
+				first = allocate_run(run_size);
+			} catch (IOException e) {
+				throw new FileIOException(e.getMessage());
+			}
+
+			// check for disk full exception
+			if (first < 0) {
+				throw new IllegalStateException("Not enough space left; allocate aborted");
+			}
+			if (fname != null)
+				catalog.own(first, run_size, fname);
+			stats.allocated(run_size, System.nanoTime() - start);
+			return new PageId(first);
+		}
+	} // public PageId allocate_page(int run_size, String fname)
 
 	/**
 	 * Allocate a set of pages where the run size is taken to be 1 by default. Gives
@@ -318,75 +679,90 @@ public class DiskMgr implements GlobalConst {
 	 */
 	public void allocate_page(PageId start_page_num, int runsize)
 			throws InvalidRunSizeException, BufMgrException, InvalidPageNumberException, OutOfSpaceException {
+		long start = System.nanoTime();
+		synchronized (spaceMapLatch) {
+			if (runsize < 0)
+				throw new InvalidRunSizeException("Negative run_size");
+
+			int first;
+			try {
+				first = allocate_run(runsize);
+			} catch (IOException e) {
+				throw new OutOfSpaceException("Cannot grow the database: " + e.getMessage());
+			}
+			if (first < 0)
+				throw new OutOfSpaceException("No space left");
 
-		if (runsize < 0)
-			throw new InvalidRunSizeException("Negative run_size");
-
-		int run_size = runsize;
-		int num_map_pages = (num_pages + bits_per_page - 1) / bits_per_page;
-		int current_run_start = 0;
-		int current_run_length = 0;
-
-		// This loop goes over each page in the space map.
-		PageId pgid = new PageId();
-		byte[] pagebuf;
-		int byteptr;
-
-		for (int i = 0; i < num_map_pages; ++i) {// start forloop01
-
-			pgid.pid = 1 + i;
-			// Pin the space-map page.
-
-			Page apage = new Page();
-			pinPage(pgid, apage, false /* read disk */);
-
-			pagebuf = apage.getpage();
-			byteptr = 0;
-
-			// get the num of bits on current page
-			int num_bits_this_page = num_pages - i * bits_per_page;
-			if (num_bits_this_page > bits_per_page)
-				num_bits_this_page = bits_per_page;
-
-			// Walk the page looking for a sequence of 0 bits of the appropriate
-			// length. The outer loop steps through the page's bytes, the inner
-			// one steps through each byte's bits.
-
-			for (; num_bits_this_page > 0 && current_run_length < run_size; ++byteptr) {// start forloop02
-
-				Integer intmask = new Integer(1);
-				Byte mask = new Byte(intmask.byteValue());
-				byte tmpmask = mask.byteValue();
-
-				while (mask.intValue() != 0 && (num_bits_this_page > 0) && (current_run_length < run_size))
-
-				{
-					if ((pagebuf[byteptr] & tmpmask) != 0) {
-						current_run_start += current_run_length + 1;
-						current_run_length = 0;
-					} else
-						++current_run_length;
-
-					tmpmask <<= 1;
-					mask = new Byte(tmpmask);
-					--num_bits_this_page;
-				}
-
-			} // end of forloop02
-				// Unpin the space-map page.
-
-			unpinPage(pgid, false /* undirty */);
-
-		} // end of forloop01
+			start_page_num.pid = first;
+			stats.allocated(runsize, System.nanoTime() - start);
+		}
+	}
 
-		if (current_run_length >= run_size) {
-			start_page_num.pid = current_run_start;
-			set_bits(start_page_num, run_size, 1);
+	/**
+	 * Set how far the database file grows when an allocation does not fit:
+	 * at least num_pgs pages at a time. 0 keeps the database at its current
+	 * size, so allocations that do not fit fail as before. The default comes
+	 * from the "minibase.extent" system property, 1024 pages if unset.
+	 *
+	 * @param num_pgs
+	 *            growth extent in pages, 0 to turn growth off
+	 */
+	public void set_growth_extent(int num_pgs) {
+		if (num_pgs < 0)
+			throw new IllegalArgumentException("Negative growth extent");
+		growth_extent = num_pgs;
+	}
 
-			return;
-		}
+	/**
+	 * Claim a run from the space map, growing the database once if no free run
+	 * fits. The caller holds spaceMapLatch.
+	 *
+	 * @return the first page of the run, or -1 if it does not fit
+	 * @throws IOException
+	 *             if the file could not be extended
+	 */
+	private int allocate_run(int run_size) throws IOException {
+		int first = spaceMap.allocate(run_size);
+		if (first < 0 && grow(run_size))
+			first = spaceMap.allocate(run_size);
+		return first;
+	}
 
-		throw new OutOfSpaceException("No space left");
+	/**
+	 * Extend the database so that a run of run_size pages fits at its end. The
+	 * file grows by at least one growth extent, the space map is extended to
+	 * cover it, and the new size reaches the first page with the next sync.
+	 *
+	 * The space-map pages of the original size stay at pages 1..first_map_pages;
+	 * every map page added by growth is the first page of the pages it covers,
+	 * the way block groups are laid out. A run therefore never crosses into
+	 * grown space if it is longer than one map page covers.
+	 *
+	 * @return false if growth is off or the run can never fit
+	 * @throws IOException
+	 */
+	private boolean grow(int run_size) throws IOException {
+		if (growth_extent == 0 || run_size >= bits_per_page)
+			return false;
+
+		int start = spaceMap.freeTailStart();
+		// the run may not cover the map page heading a new group
+		int group = (start + bits_per_page - 1) / bits_per_page;
+		if (group >= first_map_pages && (long) group * bits_per_page < (long) start + run_size)
+			start = group * bits_per_page + 1;
+
+		long target = Math.max((long) num_pages + growth_extent, (long) start + run_size);
+		if (target > MAX_DB_PAGES)
+			return false;
+
+		file.setLength(target * page_size);
+		int old_map_pages = spaceMap.numMapPages();
+		spaceMap.grow((int) target);
+		for (int i = old_map_pages; i < spaceMap.numMapPages(); i++)
+			spaceMap.markAllocated(map_page_id(i), 1);
+		num_pages = (int) target;
+		size_dirty = true;
+		return true;
 	}
 
 	/**
@@ -407,7 +783,9 @@ public class DiskMgr implements GlobalConst {
 		if (run_size < 0)
 			throw new InvalidRunSizeException("Negative run_size");
 
+		long start = System.nanoTime();
 		set_bits(start_page_num, run_size, 0);
+		stats.deallocated(run_size, System.nanoTime() - start);
 	}
 
 	/**
@@ -423,11 +801,14 @@ public class DiskMgr implements GlobalConst {
 	 */
 	public void deallocate_page(PageId start_page_num) throws InvalidPageNumberException, BufMgrException {
 
+		long start = System.nanoTime();
 		set_bits(start_page_num, 1, 0);
+		stats.deallocated(1, System.nanoTime() - start);
 	}
 
 	/**
-	 * Adds a file entry to the header page(s).
+	 * Adds a file entry to the header page(s). The start page counts as
+	 * allocated for the entry, unless it was allocated for another one.
 	 *
 	 * @param fname
 	 *            file entry name
@@ -447,91 +828,65 @@ public class DiskMgr implements GlobalConst {
 		if ((start_page_num.pid < 0) || (start_page_num.pid >= num_pages))
 			throw new InvalidPageNumberException(" DB bad page number");
 
-		// Does the file already exist?
-
-		if (get_file_entry(fname) != null)
-			throw new DuplicateEntryException("DB fileentry already exists");
-
-		Page apage = new Page();
-
-		boolean found = false;
-		int free_slot = 0;
-		PageId hpid = new PageId();
-		PageId nexthpid = new PageId(0);
-		DBHeaderPage dp;
-		try {
-			do {// Start DO01
-				// System.out.println("start do01");
-				hpid.pid = nexthpid.pid;
-
-				// Pin the header page
-				pinPage(hpid, apage, false /* read disk */);
-
-				// This complication is because the first page has a different
-				// structure from that of subsequent pages.
-				if (hpid.pid == 0) {
-					dp = new DBFirstPage();
-					((DBFirstPage) dp).openPage(apage);
+		synchronized (directoryLatch) {
+			// Does the file already exist?
+
+			if (catalog.get(fname) != null)
+				throw new DuplicateEntryException("DB fileentry already exists");
+
+			Page apage = newPage();
+			PageId hpid = new PageId();
+			DBHeaderPage dp;
+			try {
+				int[] free_slot = catalog.firstFreeSlot();
+				if (free_slot != null) {
+					// Pin the header page with the free slot
+					hpid.pid = free_slot[0];
+					pinPage(hpid, apage, false /* read disk */);
+					dp = openHeaderPage(hpid, apage);
 				} else {
-					dp = new DBDirectoryPage();
-					((DBDirectoryPage) dp).openPage(apage);
+					// Have to add a new header page if possible.
+					PageId nexthpid = new PageId();
+					try {
+						allocate_page(nexthpid);
+					} catch (OutOfSpaceException e) {
+						throw new FileIOException("No space left for a directory page");
+					} catch (InvalidRunSizeException e) {
+						throw new FileIOException(e.getMessage());
+					}
+
+					// Set the next-page pointer on the last directory page.
+					hpid.pid = catalog.lastHeaderPage();
+					pinPage(hpid, apage, false /* read disk */);
+					openHeaderPage(hpid, apage).setNextPage(nexthpid);
+					unpinPage(hpid, true /* dirty */);
+
+					// Pin the newly-allocated directory page.
+					hpid.pid = nexthpid.pid;
+
+					pinPage(hpid, apage, true/* no diskIO */);
+					dp = new DBDirectoryPage(apage);
+					catalog.addHeaderPage(hpid.pid, dp.getNumOfEntries());
+
+					free_slot = new int[] { hpid.pid, 0 };
 				}
 
-				nexthpid = dp.getNextPage();
-				int entry = 0;
-
-				PageId tmppid = new PageId();
-				while (entry < dp.getNumOfEntries()) {
-					dp.getFileEntry(tmppid, entry);
-					if (tmppid.pid == INVALID_PAGEID)
-						break;
-					entry++;
-				}
+				// At this point, "hpid" has the page id of the header page with the free
+				// slot; "apage" is the pinned page; "dp" has the directory_page
+				// pointer; "free_slot" is the entry number in the directory where we're
+				// going to put the new file entry.
 
-				if (entry < dp.getNumOfEntries()) {
-					free_slot = entry;
-					found = true;
-				} else if (nexthpid.pid != INVALID_PAGEID) {
-					// We only unpin if we're going to continue looping.
-					unpinPage(hpid, false /* undirty */);
-				}
-
-			} while ((nexthpid.pid != INVALID_PAGEID) && (!found)); // End of DO01
-
-			// Have to add a new header page if possible.
-			if (!found) {
-				try {
-					allocate_page(nexthpid);
-				} catch (Exception e) { // need rethrow an exception!!!!
-					unpinPage(hpid, false /* undirty */);
-					e.printStackTrace();
-				}
+				dp.setFileEntry(start_page_num, fname, free_slot[1]);
 
-				// Set the next-page pointer on the previous directory page.
-				dp.setNextPage(nexthpid);
 				unpinPage(hpid, true /* dirty */);
-
-				// Pin the newly-allocated directory page.
-				hpid.pid = nexthpid.pid;
-
-				pinPage(hpid, apage, true/* no diskIO */);
-				dp = new DBDirectoryPage(apage);
-
-				free_slot = 0;
+				catalog.put(fname, start_page_num.pid, hpid.pid, free_slot[1]);
+				synchronized (spaceMapLatch) {
+					catalog.claim(start_page_num.pid, fname);
+				}
+			} catch (IOException e) {
+				throw new FileIOException(e.getMessage());
 			}
-
-			// At this point, "hpid" has the page id of the header page with the free
-			// slot; "pg" points to the pinned page; "dp" has the directory_page
-			// pointer; "free_slot" is the entry number in the directory where we're
-			// going to put the new file entry.
-
-			dp.setFileEntry(start_page_num, fname, free_slot);
-
-			unpinPage(hpid, true /* dirty */);
-		} catch (IOException e) {
-			throw new FileIOException(e.getMessage());
 		}
-
 	}
 
 	/**
@@ -545,64 +900,27 @@ public class DiskMgr implements GlobalConst {
 	 */
 	public void delete_file_entry(String fname) throws BufMgrException, FileEntryNotFoundException, FileIOException {
 
-		Page apage = new Page();
-		boolean found = false;
-		int slot = 0;
-		PageId hpid = new PageId();
-		PageId nexthpid = new PageId(0);
-		PageId tmppid = new PageId();
-		DBHeaderPage dp;
-
-		try {
-			do { // startDO01
-				hpid.pid = nexthpid.pid;
+		synchronized (directoryLatch) {
+			FileCatalog.Entry entry = catalog.get(fname);
+			if (entry == null) // Entry not found - nothing deleted
+				throw new FileEntryNotFoundException("DB file not found");
 
+			Page apage = newPage();
+			PageId hpid = new PageId(entry.headerPage);
+			try {
 				// Pin the header page.
 				pinPage(hpid, apage, false/* read disk */);
 
-				// This complication is because the first page has a different
-				// structure from that of subsequent pages.
-				if (hpid.pid == 0) {
-					dp = new DBFirstPage();
-					((DBFirstPage) dp).openPage(apage);
-				} else {
-					dp = new DBDirectoryPage();
-					((DBDirectoryPage) dp).openPage(apage);
-				}
-				nexthpid = dp.getNextPage();
+				// Have to delete record at hpnum:slot
+				DBHeaderPage dp = openHeaderPage(hpid, apage);
+				dp.setFileEntry(new PageId(INVALID_PAGEID), "\0", entry.slot);
 
-				int entry = 0;
-
-				String tmpname;
-				while (entry < dp.getNumOfEntries()) {
-					tmpname = dp.getFileEntry(tmppid, entry);
-
-					if ((tmppid.pid != INVALID_PAGEID) && (tmpname.compareTo(fname) == 0))
-						break;
-					entry++;
-				}
-
-				if (entry < dp.getNumOfEntries()) {
-					slot = entry;
-					found = true;
-				} else {
-					unpinPage(hpid, false /* undirty */);
-				}
-
-			} while ((nexthpid.pid != INVALID_PAGEID) && (!found)); // EndDO01
-
-			if (!found) // Entry not found - nothing deleted
-				throw new FileEntryNotFoundException("DB file not found");
-
-			// Have to delete record at hpnum:slot
-			tmppid.pid = INVALID_PAGEID;
-			dp.setFileEntry(tmppid, "\0", slot);
-
-			unpinPage(hpid, true /* dirty */);
-		} catch (IOException e) {
-			throw new FileIOException(e.getMessage());
+				unpinPage(hpid, true /* dirty */);
+				catalog.remove(fname);
+			} catch (IOException e) {
+				throw new FileIOException(e.getMessage());
+			}
 		}
-
 	}
 
 	/**
@@ -615,65 +933,63 @@ public class DiskMgr implements GlobalConst {
 	 */
 	public PageId get_file_entry(String name) throws BufMgrException, FileIOException {
 
-		Page apage = new Page();
-		boolean found = false;
-		int slot = 0;
-		PageId hpid = new PageId();
-		PageId nexthpid = new PageId(0);
-		DBHeaderPage dp;
+		// the catalog is safe to read without the directory latch
+		FileCatalog.Entry entry = catalog.get(name);
+		if (entry == null) // Entry not found - don't post error, just fail.
+			return null;
 
-		try {
-			do {// Start DO01
+		return new PageId(entry.startPage);
+	}
 
-				// System.out.println("get_file_entry do-loop01: "+name);
+	/**
+	 * Build the in-memory file catalog with one walk over the chain of header
+	 * pages.
+	 *
+	 * @throws BufMgrException
+	 * @throws IOException
+	 */
+	private void load_catalog() throws BufMgrException, IOException {
+		synchronized (directoryLatch) {
+			catalog = new FileCatalog();
+			Page apage = newPage();
+			PageId hpid = new PageId();
+			PageId nexthpid = new PageId(0);
+			PageId tmppid = new PageId();
+			do {
 				hpid.pid = nexthpid.pid;
 
 				// Pin the header page.
-				pinPage(hpid, apage, false /* no diskIO */);
+				pinPage(hpid, apage, false /* read disk */);
 
-				// This complication is because the first page has a different
-				// structure from that of subsequent pages.
-				if (hpid.pid == 0) {
-					dp = new DBFirstPage();
-					((DBFirstPage) dp).openPage(apage);
-				} else {
-					dp = new DBDirectoryPage();
-					((DBDirectoryPage) dp).openPage(apage);
-				}
+				DBHeaderPage dp = openHeaderPage(hpid, apage);
 				nexthpid = dp.getNextPage();
 
-				int entry = 0;
-				PageId tmppid = new PageId();
-				String tmpname;
-
-				while (entry < dp.getNumOfEntries()) {
-					tmpname = dp.getFileEntry(tmppid, entry);
-
-					if ((tmppid.pid != INVALID_PAGEID) && (tmpname.compareTo(name) == 0))
-						break;
-					entry++;
-				}
-				if (entry < dp.getNumOfEntries()) {
-					slot = entry;
-					found = true;
+				int num_entries = dp.getNumOfEntries();
+				catalog.addHeaderPage(hpid.pid, num_entries);
+				for (int entry = 0; entry < num_entries; entry++) {
+					String tmpname = dp.getFileEntry(tmppid, entry);
+					if (tmppid.pid != INVALID_PAGEID)
+						catalog.put(tmpname, tmppid.pid, hpid.pid, entry);
 				}
 
 				unpinPage(hpid, false /* undirty */);
+			} while (nexthpid.pid != INVALID_PAGEID);
+		}
+	}
 
-			} while ((nexthpid.pid != INVALID_PAGEID) && (!found));// End of DO01
-
-			if (!found) // Entry not found - don't post error, just fail.
-			{
-				// System.out.println("entry NOT found");
-				return null;
-			}
-
-			PageId startpid = new PageId();
-			dp.getFileEntry(startpid, slot);
-			return startpid;
-		} catch (IOException e) {
-			throw new FileIOException(e.getMessage());
+	/**
+	 * Open a pinned header page. This complication is because the first page
+	 * has a different structure from that of subsequent pages.
+	 */
+	private static DBHeaderPage openHeaderPage(PageId hpid, Page apage) {
+		if (hpid.pid == 0) {
+			DBFirstPage dp = new DBFirstPage();
+			dp.openPage(apage);
+			return dp;
 		}
+		DBDirectoryPage dp = new DBDirectoryPage();
+		dp.openPage(apage);
+		return dp;
 	}
 
 	/**
@@ -688,7 +1004,25 @@ public class DiskMgr implements GlobalConst {
 	}
 
 	public int db_page_size() {
-		return PAGE_SIZE;
+		return page_size;
+	}
+
+	/**
+	 * Returns the storage backend in use, which is IO_FILE when IO_DIRECT was
+	 * asked for on a filesystem that does not support it.
+	 */
+	public String db_io_mode() {
+		return io_mode;
+	}
+
+	/**
+	 * Returns the I/O statistics of this disk manager; snapshot() on it gives
+	 * the counters and latency histograms as they are now. They are also
+	 * published over JMX as minibase:type=DiskMgr,name="database file" while
+	 * the database is open.
+	 */
+	public IOStats io_stats() {
+		return stats;
 	}
 
 	/**
@@ -707,145 +1041,456 @@ public class DiskMgr implements GlobalConst {
 	 *                error caused by other layers
 	 */
 	public void dump_space_map() throws BufMgrException {
+		synchronized (spaceMapLatch) {
+			System.out.println("********  IN DUMP");
+			System.out.println("num_map_pages = " + spaceMap.numMapPages());
+			System.out.println("num_pages = " + num_pages);
+			for (int bit_number = 0; bit_number < num_pages; bit_number++) {
+				if ((bit_number % 10) == 0)
+					if ((bit_number % 50) == 0) {
+						if (bit_number > 0)
+							System.out.println("\n");
+						System.out.print("\t" + bit_number + ": ");
+					} else
+						System.out.print(' ');
 
-		System.out.println("********  IN DUMP");
-		int num_map_pages = (num_pages + bits_per_page - 1) / bits_per_page;
-		int bit_number = 0;
+				System.out.print(spaceMap.isAllocated(bit_number) ? "1" : "0");
+			}
 
-		// This loop goes over each page in the space map.
-		PageId pgid = new PageId();
-		System.out.println("num_map_pages = " + num_map_pages);
-		System.out.println("num_pages = " + num_pages);
-		for (int i = 0; i < num_map_pages; i++) {// start forloop01
+			System.out.println();
+		}
+	}
 
-			pgid.pid = 1 + i; // space map starts at page1
-			// Pin the space-map page.
-			Page apage = new Page();
-			pinPage(pgid, apage, false/* read disk */);
+	private PageFile file;
 
-			// How many bits should we examine on this page?
-			int num_bits_this_page = num_pages - i * bits_per_page;
-			System.out.println("num_bits_this_page = " + num_bits_this_page);
-			System.out.println("num_pages = " + num_pages);
-			if (num_bits_this_page > bits_per_page)
-				num_bits_this_page = bits_per_page;
+	/** io_mode: the storage backend file was opened with. */
+	private String io_mode;
 
-			// Walk the page looking for a sequence of 0 bits of the appropriate
-			// length. The outer loop steps through the page's bytes, the inner
-			// one steps through each byte's bits.
+	/** stats: I/O counters, and the JMX name they are published under. */
+	private final IOStats stats = new IOStats();
+	private ObjectName stats_name;
 
-			int pgptr = 0;
-			byte[] pagebuf = apage.getpage();
-			int mask;
-			for (; num_bits_this_page > 0; pgptr++) {// start forloop02
+	/** stripe_files: the data files after the first one, empty if there are none. */
+	private String[] stripe_files = new String[0];
+	private int stripe_pages;
 
-				for (mask = 1; mask < 256
-						&& num_bits_this_page > 0; mask = (mask << 1), --num_bits_this_page, ++bit_number) {// start
-																											// forloop03
+	/** Suffix of the file that records a database's stripe layout. */
+	private static final String STRIPES_SUFFIX = ".stripes";
 
-					int bit = pagebuf[pgptr] & mask;
-					if ((bit_number % 10) == 0)
-						if ((bit_number % 50) == 0) {
-							if (bit_number > 0)
-								System.out.println("\n");
-							System.out.print("\t" + bit_number + ": ");
-						} else
-							System.out.print(' ');
+	/** Suffix of the file that records the file entry each page was allocated for. */
+	private static final String OWNERS_SUFFIX = ".owners";
 
-					if (bit != 0)
-						System.out.print("1");
-					else
-						System.out.print("0");
+	private int page_size = PAGE_SIZE;
+	private int bits_per_page = PAGE_SIZE * 8;
 
-				} // end of forloop03
+	/** first_map_pages: the space-map pages of the original size, at pages 1 and on. */
+	private int first_map_pages;
 
-			} // end of forloop02
+	/** growth_extent: minimum number of pages the file grows by, 0 if it never grows. */
+	private int growth_extent = Integer.getInteger("minibase.extent", 1024);
 
-			unpinPage(pgid, false /* undirty */);
+	/** size_dirty: num_pages changed since the first page was last synced, guarded by spaceMapLatch. */
+	private boolean size_dirty;
 
-		} // end of forloop01
+	/** async: the queue and I/O thread behind readPageAsync and writePageAsync. */
+	private AsyncPageIO async;
+	private volatile int num_pages;
+	private String name;
 
-		System.out.println();
+	/** spaceMap: in-memory copy of the space map, guarded by spaceMapLatch. */
+	private SpaceMap spaceMap;
 
-	}
+	/** catalog: in-memory copy of the file-entry directory. */
+	private volatile FileCatalog catalog;
 
-	private RandomAccessFile fp;
-	private int num_pages;
-	private String name;
+	/** Space-map pages read per I/O when a database is opened. */
+	private static final int MAP_LOAD_RUN = 8;
 
 	/**
-	 * Set runsize bits starting from start to value specified
-	 * 
-	 * @throws InvalidPageNumberException
-	 * @throws BufMgrException
-	 * @throws DiskMgrException
+	 * spaceMapLatch: serializes every read-modify-write of the space map.
+	 * directoryLatch: serializes every walk of the file-entry directory. A thread
+	 * holding directoryLatch may take spaceMapLatch, never the other way round.
+	 * Page reads and writes take neither.
 	 */
-	private void set_bits(PageId start_page, int run_size, int bit) throws InvalidPageNumberException, BufMgrException {
+	private final Object spaceMapLatch = new Object();
+	private final Object directoryLatch = new Object();
 
-		if ((start_page.pid < 0) || (start_page.pid + run_size > num_pages))
-			throw new InvalidPageNumberException("Bad page number");
+	/**
+	 * The backend used by the openDB variants that do not name one; the
+	 * "minibase.io" system property can switch it to another mode.
+	 */
+	private static String defaultIOMode() {
+		return System.getProperty("minibase.io", IO_FILE);
+	}
 
-		// Locate the run within the space map.
-		int first_map_page = start_page.pid / bits_per_page + 1;
-		int last_map_page = (start_page.pid + run_size - 1) / bits_per_page + 1;
-		int first_bit_no = start_page.pid % bits_per_page;
+	/**
+	 * Open the data file(s) of the database: name alone, or name and the
+	 * stripe files.
+	 */
+	private PageFile open_file(String ioMode) throws IOException {
+		File[] files = new File[1 + stripe_files.length];
+		files[0] = new File(name);
+		for (int i = 0; i < stripe_files.length; i++)
+			files[1 + i] = new File(stripe_files[i]);
+
+		// direct I/O only if every data file supports it
+		if (IO_DIRECT.equalsIgnoreCase(ioMode))
+			for (File f : files)
+				if (!DirectPageFile.isSupported(f))
+					ioMode = IO_FILE;
+		io_mode = ioMode;
+
+		if (files.length == 1)
+			return new TimedPageFile(PageFile.open(files[0], ioMode, page_size), stats.device(files[0].getPath()));
+		return new StripedPageFile(files, stripe_pages, ioMode, page_size, stats);
+	}
 
-		// The outer loop goes over all space-map pages we need to touch.
+	/**
+	 * Record the stripe layout next to the first data file, or remove the
+	 * record of an earlier database if this one is not striped.
+	 */
+	private void write_stripes() throws IOException {
+		File sidecar = new File(name + STRIPES_SUFFIX);
+		if (stripe_files.length == 0) {
+			sidecar.delete();
+			return;
+		}
+		Properties stripes = new Properties();
+		stripes.setProperty("stripe.pages", Integer.toString(stripe_pages));
+		stripes.setProperty("stripe.files", String.join(File.pathSeparator, stripe_files));
+		try (Writer out = new FileWriter(sidecar)) {
+			stripes.store(out, "Minibase data files after " + name);
+		}
+	}
 
-		for (PageId pgid = new PageId(first_map_page); pgid.pid <= last_map_page; pgid.pid = pgid.pid
-				+ 1, first_bit_no = 0) {// Start forloop01
+	/**
+	 * Read the stripe layout of an existing database; a database without one
+	 * lives in a single file.
+	 */
+	private void read_stripes() throws IOException {
+		File sidecar = new File(name + STRIPES_SUFFIX);
+		stripe_files = new String[0];
+		stripe_pages = 0;
+		if (!sidecar.exists())
+			return;
+
+		Properties stripes = new Properties();
+		try (Reader in = new FileReader(sidecar)) {
+			stripes.load(in);
+		}
+		try {
+			stripe_pages = Integer.parseInt(stripes.getProperty("stripe.pages"));
+		} catch (NumberFormatException e) {
+			throw new IOException("Bad stripe size in " + sidecar);
+		}
+		stripe_files = stripes.getProperty("stripe.files", "").split(File.pathSeparator);
+	}
 
-			// Pin the space-map page.
-			Page pg = new Page();
+	/**
+	 * The page size used by the openDB variants that do not name one; the
+	 * "minibase.pagesize" system property can change it.
+	 */
+	private static int defaultPageSize() {
+		return Integer.getInteger("minibase.pagesize", PAGE_SIZE);
+	}
 
-			pinPage(pgid, pg, false/* no diskIO */);
+	private void set_page_size(int pageSize) {
+		page_size = pageSize;
+		bits_per_page = pageSize * 8;
+		stats.setPageSize(pageSize);
+	}
+
+	/**
+	 * Returns the name of the file entry page pageno belongs to: the entry it
+	 * was allocated for with allocate_page(run_size, fname), or the one it is
+	 * the start page of. A page allocated without a file entry goes by the
+	 * start pages, to the entry with the highest start page at or below it;
+	 * IOStats.NO_FILE if there is none. This is the file the page is counted
+	 * against in the I/O statistics.
+	 */
+	public String file_of(PageId pageno) {
+		return file_of(pageno.pid);
+	}
 
-			byte[] pgbuf = pg.getpage();
+	/**
+	 * Returns true if page pageno is one of the disk manager's own pages: the
+	 * first page, a space-map page or a page of the file-entry directory. A
+	 * directory page being added is counted from the moment add_file_entry
+	 * records it.
+	 */
+	public boolean is_directory_page(PageId pageno) {
+		int pid = pageno.pid;
+		if (pid <= first_map_pages) {
+			return pid >= 0;
+		}
+		if (pid % bits_per_page == 0 && pid / bits_per_page >= first_map_pages && pid < num_pages) {
+			// a space-map page added by growth heads the pages it covers
+			return true;
+		}
+		FileCatalog catalog = this.catalog;
+		return catalog != null && catalog.isHeaderPage(pid);
+	}
 
-			// Locate the piece of the run that fits on this page.
-			int first_byte_no = first_bit_no / 8;
-			int first_bit_offset = first_bit_no % 8;
-			int last_bit_no = first_bit_no + run_size - 1;
+	/**
+	 * Returns true if page pageno is allocated. No latch is taken, so an
+	 * allocation or deallocation running meanwhile may not be seen yet; the
+	 * buffer manager asks before it reads a page ahead.
+	 */
+	public boolean is_allocated(PageId pageno) {
+		SpaceMap map = spaceMap;
+		return map != null && map.isAllocated(pageno.pid);
+	}
 
-			if (last_bit_no >= bits_per_page)
-				last_bit_no = bits_per_page - 1;
+	/**
+	 * Returns the file entry page pid is counted against in the I/O
+	 * statistics.
+	 */
+	private String file_of(int pid) {
+		FileCatalog catalog = this.catalog;
+		String fname = catalog == null ? null : catalog.fileOf(pid);
+		return fname == null ? IOStats.NO_FILE : fname;
+	}
 
-			int last_byte_no = last_bit_no / 8;
+	/**
+	 * Publish the I/O statistics over JMX, taking the name over from a disk
+	 * manager of the same database that was never closed. Monitoring is
+	 * optional, so a failure leaves the statistics unpublished.
+	 */
+	private void register_stats() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			stats_name = new ObjectName("minibase:type=DiskMgr,name=" + ObjectName.quote(name));
+			try {
+				server.registerMBean(stats, stats_name);
+			} catch (InstanceAlreadyExistsException e) {
+				server.unregisterMBean(stats_name);
+				server.registerMBean(stats, stats_name);
+			}
+		} catch (JMException | SecurityException e) {
+			stats_name = null;
+		}
+	}
 
-			// This loop actually flips the bits on the current page.
-			int cur_posi = first_byte_no;
-			for (; cur_posi <= last_byte_no; ++cur_posi, first_bit_offset = 0) {// start forloop02
+	private void unregister_stats() {
+		if (stats_name == null)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(stats_name);
+		} catch (JMException | SecurityException e) {
+			// already taken over by another disk manager of this database
+		}
+		stats_name = null;
+	}
 
-				int max_bits_this_byte = 8 - first_bit_offset;
-				int num_bits_this_byte = (run_size > max_bits_this_byte ? max_bits_this_byte : run_size);
+	/**
+	 * Returns a Page object the size of this database's pages.
+	 */
+	private Page newPage() {
+		return new Page(new byte[page_size]);
+	}
 
-				int imask = 1;
-				int temp;
-				imask = ((imask << num_bits_this_byte) - 1) << first_bit_offset;
-				Integer intmask = new Integer(imask);
-				Byte mask = new Byte(intmask.byteValue());
-				byte bytemask = mask.byteValue();
+	/**
+	 * Find the page size of an existing database before any page of it is read.
+	 * The number of file entries on the first page depends only on the page
+	 * size, so it tells where the first page ends; the page size recorded there
+	 * confirms it. A first page that records no size is from a database created
+	 * before page sizes were configurable, and uses PAGE_SIZE.
+	 *
+	 * @throws IOException
+	 */
+	private static int read_page_size(File dbfile) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(dbfile, "r")) {
+			byte[] head = new byte[DBHeaderPage.START_FILE_ENTRIES];
+			raf.readFully(head);
+			int num_entries = Convert.getIntValue(DBHeaderPage.NUM_OF_ENTRIES, head);
+			for (int size = PAGE_SIZE; size <= MAX_PAGE_SIZE; size *= 2) {
+				if (DBFirstPage.numOfEntries(size) != num_entries || raf.length() < size)
+					continue;
+				byte[] tail = new byte[8];
+				raf.seek(size - tail.length);
+				raf.readFully(tail);
+				int recorded = Convert.getIntValue(0, tail);
+				if (recorded == size || (recorded == 0 && size == PAGE_SIZE))
+					return size;
+			}
+		}
+		throw new IOException("Cannot tell the page size of " + dbfile);
+	}
 
-				if (bit == 1) {
-					temp = (pgbuf[cur_posi] | bytemask);
-					intmask = new Integer(temp);
-					pgbuf[cur_posi] = intmask.byteValue();
-				} else {
+	/**
+	 * Set runsize bits starting from start to value specified
+	 * 
+	 * @throws InvalidPageNumberException
+	 * @throws BufMgrException
+	 * @throws DiskMgrException
+	 */
+	private void set_bits(PageId start_page, int run_size, int bit) throws InvalidPageNumberException, BufMgrException {
+		synchronized (spaceMapLatch) {
+			if ((start_page.pid < 0) || (start_page.pid + run_size > num_pages))
+				throw new InvalidPageNumberException("Bad page number");
+
+			if (run_size == 0)
+				return;
+
+			if (bit == 1) {
+				spaceMap.markAllocated(start_page.pid, run_size);
+			} else {
+				spaceMap.markFree(start_page.pid, run_size);
+				if (catalog != null)
+					catalog.disown(start_page.pid, run_size);
+			}
+		}
+	}
 
-					temp = pgbuf[cur_posi] & (255 ^ bytemask);
-					intmask = new Integer(temp);
-					pgbuf[cur_posi] = intmask.byteValue();
+	/**
+	 * Build the in-memory space map from the space-map pages on disk, reading
+	 * them in runs through the buffer pool.
+	 *
+	 * @throws BufMgrException
+	 */
+	private void load_space_map() throws BufMgrException {
+		synchronized (spaceMapLatch) {
+			spaceMap = new SpaceMap(num_pages, bits_per_page);
+			int num_map_pages = spaceMap.numMapPages();
+
+			// the map pages of the original size are contiguous, read them in runs
+			int contiguous = Math.min(num_map_pages, first_map_pages);
+			Page[] run = new Page[Math.max(1, Math.min(contiguous, MAP_LOAD_RUN))];
+			for (int i = 0; i < contiguous; i += run.length) {
+				int count = Math.min(run.length, contiguous - i);
+				PageId first = new PageId(1 + i); // space map starts at page1
+				try {
+					Minibase.BufferManager.pinRange(first, count, run);
+				} catch (DiskMgrException e) {
+					throw new BufMgrException(e.getMessage());
+				}
+				for (int j = 0; j < count; j++) {
+					spaceMap.loadMapPage(i + j, run[j].getpage());
+					unpinPage(new PageId(1 + i + j), false /* undirty */);
 				}
-				run_size -= num_bits_this_byte;
+			}
+			// the ones added by growth head their own groups
+			Page apage = newPage();
+			for (int i = contiguous; i < num_map_pages; i++) {
+				PageId pgid = new PageId(map_page_id(i));
+				pinPage(pgid, apage, false /* read disk */);
+				spaceMap.loadMapPage(i, apage.getpage());
+				unpinPage(pgid, false /* undirty */);
+			}
+			spaceMap.rebuildExtents();
+		}
+	}
+
+	/**
+	 * Returns the page holding space-map page i: the original map pages follow
+	 * the first page, the ones added by growth are the first page of the pages
+	 * they cover.
+	 */
+	private int map_page_id(int i) {
+		return (i < first_map_pages) ? 1 + i : i * bits_per_page;
+	}
+
+	/**
+	 * Write every space-map page changed since the last sync back to disk, and
+	 * the database size if the database grew. A page that is in the buffer pool
+	 * is updated there and flushed; one that is not is written straight to
+	 * disk, so syncing never needs a free frame. The file entries pages were
+	 * allocated for are written out too, if they changed. closeDB, flush and
+	 * BufMgr.flushAllPages sync; allocation alone does not.
+	 *
+	 * @throws BufMgrException
+	 */
+	public void sync_space_map() throws BufMgrException {
+		synchronized (spaceMapLatch) {
+			if (spaceMap == null)
+				return;
+
+			for (int i = 0; i < spaceMap.numMapPages(); i++) {
+				if (!spaceMap.isDirty(i))
+					continue;
 
-			} // end of forloop02
+				final int map_page = i;
+				sync_page(new PageId(map_page_id(i)), data -> spaceMap.storeMapPage(map_page, data));
+			}
+			if (size_dirty) {
+				final int size = num_pages;
+				sync_page(new PageId(0), data -> {
+					DBFirstPage firstpg = new DBFirstPage();
+					firstpg.openPage(new Page(data));
+					firstpg.setNumDBPages(size);
+				});
+				size_dirty = false;
+			}
+			if (catalog != null && catalog.ownersDirty()) {
+				try {
+					write_owners();
+				} catch (IOException e) {
+					throw new BufMgrException(e.getMessage());
+				}
+			}
+		}
+	}
 
-			// Unpin the space-map page.
+	/**
+	 * Record which file entry each page was allocated for next to the
+	 * database file. It is written to a temporary name and renamed into
+	 * place. The caller holds spaceMapLatch.
+	 */
+	private void write_owners() throws IOException {
+		File sidecar = new File(name + OWNERS_SUFFIX);
+		File temp = new File(sidecar.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			catalog.storeOwners(out);
+		}
+		Files.move(temp.toPath(), sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
 
-			unpinPage(pgid, true /* dirty */);
+	/**
+	 * Read back which file entry each page was allocated for. The owners only
+	 * tell file_of which file a page is in, so without the record, or with a
+	 * damaged one, file_of goes by the start pages.
+	 */
+	private void read_owners() {
+		File sidecar = new File(name + OWNERS_SUFFIX);
+		if (!sidecar.exists())
+			return;
+		synchronized (spaceMapLatch) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)))) {
+				catalog.loadOwners(in);
+			} catch (IOException e) {
+				// file_of falls back to the start pages
+			}
+		}
+	}
 
-		} // end of forloop01
+	/**
+	 * A change sync_space_map makes to the bytes of a page.
+	 */
+	private interface PageUpdate {
+		void apply(byte[] data) throws IOException;
+	}
 
+	/**
+	 * Apply update to the newest copy of a page and write it out.
+	 */
+	private void sync_page(PageId pgid, PageUpdate update) throws BufMgrException {
+		Page apage = newPage();
+		try {
+			if (Minibase.BufferManager.contains(pgid)) {
+				pinPage(pgid, apage, false /* read disk */);
+				update.apply(apage.getpage());
+				unpinPage(pgid, true /* dirty */);
+				Minibase.BufferManager.flushPage(pgid);
+			} else {
+				read_page(pgid, apage);
+				update.apply(apage.getpage());
+				write_page(pgid, apage);
+			}
+		} catch (DiskMgrException e) {
+			throw new BufMgrException(e.getMessage());
+		} catch (IOException e) {
+			throw new BufMgrException(e.getMessage());
+		}
 	}
 
 	/**
@@ -879,7 +1524,7 @@ public class DiskMgr implements GlobalConst {
  */
 interface PageUsedBytes {
 	int DIR_PAGE_USED_BYTES = 8 + 8;
-	int FIRST_PAGE_USED_BYTES = DIR_PAGE_USED_BYTES + 4;
+	int FIRST_PAGE_USED_BYTES = DIR_PAGE_USED_BYTES + 12;
 }
 
 /**
@@ -917,7 +1562,7 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
 
 		PageId temppid = getNextPage();
 
-		int num_entries = (PAGE_SIZE - pageusedbytes) / SIZE_OF_FILE_ENTRY;
+		int num_entries = (data.length - pageusedbytes) / SIZE_OF_FILE_ENTRY;
 		setNumOfEntries(num_entries);
 
 		for (int index = 0; index < num_entries; ++index)
@@ -1004,6 +1649,8 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
 
 		int position = START_FILE_ENTRIES + entryNo * SIZE_OF_FILE_ENTRY;
 		Convert.setIntValue(pageNo.pid, position, data);
+		// clear what is left of a longer name that used this slot before
+		Arrays.fill(data, position + 4, position + 4 + NAME_MAXLEN + 2, (byte) 0);
 		Convert.setStringValue(fname, position + 4, data);
 	}
 
@@ -1032,7 +1679,20 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
  */
 class DBFirstPage extends DBHeaderPage {
 
-	protected static final int NUM_DB_PAGE = PAGE_SIZE - 4;
+	/**
+	 * The last three ints of the first page: the number of space-map pages
+	 * following it, the page size, then the number of pages.
+	 */
+	protected static final int NUM_MAP_PAGES_FROM_END = 12;
+	protected static final int PAGE_SIZE_FROM_END = 8;
+	protected static final int NUM_DB_PAGE_FROM_END = 4;
+
+	/**
+	 * Returns the number of file entries on a first page of the given size.
+	 */
+	static int numOfEntries(int pageSize) {
+		return (pageSize - FIRST_PAGE_USED_BYTES) / SIZE_OF_FILE_ENTRY;
+	}
 
 	/**
 	 * Default construtor
@@ -1072,7 +1732,7 @@ class DBFirstPage extends DBHeaderPage {
 	 *                I/O errors
 	 */
 	public void setNumDBPages(int num) throws IOException {
-		Convert.setIntValue(num, NUM_DB_PAGE, data);
+		Convert.setIntValue(num, data.length - NUM_DB_PAGE_FROM_END, data);
 	}
 
 	/**
@@ -1084,7 +1744,53 @@ class DBFirstPage extends DBHeaderPage {
 	 */
 	public int getNumDBPages() throws IOException {
 
-		return (Convert.getIntValue(NUM_DB_PAGE, data));
+		return (Convert.getIntValue(data.length - NUM_DB_PAGE_FROM_END, data));
+	}
+
+	/**
+	 * set the page size of the DB
+	 *
+	 * @param size
+	 *            the page size in bytes
+	 * @exception IOException
+	 *                I/O errors
+	 */
+	public void setPageSize(int size) throws IOException {
+		Convert.setIntValue(size, data.length - PAGE_SIZE_FROM_END, data);
+	}
+
+	/**
+	 * return the page size of the DB
+	 *
+	 * @return page size in bytes, 0 if the DB predates configurable page sizes
+	 * @exception IOException
+	 *                I/O errors
+	 */
+	public int getPageSize() throws IOException {
+		return (Convert.getIntValue(data.length - PAGE_SIZE_FROM_END, data));
+	}
+
+	/**
+	 * set the number of space-map pages that follow the first page
+	 *
+	 * @param num
+	 *            the number of space-map pages at pages 1 to num
+	 * @exception IOException
+	 *                I/O errors
+	 */
+	public void setNumMapPages(int num) throws IOException {
+		Convert.setIntValue(num, data.length - NUM_MAP_PAGES_FROM_END, data);
+	}
+
+	/**
+	 * return the number of space-map pages that follow the first page
+	 *
+	 * @return number of space-map pages, 0 if the DB predates growth
+	 * @exception IOException
+	 *                I/O errors
+	 */
+	public int getNumMapPages() throws IOException {
+		return (Convert.getIntValue(data.length - NUM_MAP_PAGES_FROM_END, data));
 	}
 
 }
@@ -0,0 +1,337 @@
+package diskmgr;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory copy of the file-entry directory kept in the DBFirstPage and
+ * DBDirectoryPage chain. It maps every file entry name to its start page and
+ * to the header page slot that stores it, and remembers the free slots, so
+ * lookups, adds and deletes never walk the header pages. DiskMgr writes every
+ * change through to the header pages.
+ *
+ * It also records the file entry each page was allocated for, when the
+ * allocation named one, so the file a page is in does not have to be guessed
+ * from the start pages.
+ *
+ * Lookups may run concurrently with anything; changes are made under DiskMgr's
+ * directory latch, and changes to the page owners under its space-map latch.
+ */
+class FileCatalog {
+
+	/**
+	 * Where a file entry lives: its start page, and the header page and slot
+	 * that record it.
+	 */
+	static class Entry {
+		final int startPage;
+		final int headerPage;
+		final int slot;
+
+		Entry(int startPage, int headerPage, int slot) {
+			this.startPage = startPage;
+			this.headerPage = headerPage;
+			this.slot = slot;
+		}
+	}
+
+	/** entries: file entry name -> entry. */
+	private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	/** byStart: start page -> file entry name, to tell which file a page is in. */
+	private final TreeMap<Integer, String> byStart = new TreeMap<Integer, String>();
+
+	/**
+	 * starts: byStart as sorted arrays, replaced as a whole on every change, so
+	 * fileOf can search it without locking or allocating.
+	 */
+	private volatile Starts starts = new Starts(new int[0], new String[0]);
+
+	private static class Starts {
+		final int[] pages;
+		final String[] names;
+
+		Starts(int[] pages, String[] names) {
+			this.pages = pages;
+			this.names = names;
+		}
+	}
+
+	/**
+	 * freeSlots: the empty slots as (chain position << 32 | slot), so the
+	 * lowest slot on the earliest header page is reused first, as the walk over
+	 * the chain used to do.
+	 */
+	private final TreeSet<Long> freeSlots = new TreeSet<Long>();
+
+	/**
+	 * chain: the header page ids in chain order. It is replaced, never changed,
+	 * so isHeaderPage can search it without locking.
+	 */
+	private volatile int[] chain = new int[0];
+
+	/** positions: header page id -> its position in the chain. */
+	private final Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+
+	/**
+	 * owners: for each page, the id in ownerNames of the file entry it was
+	 * allocated for, 0 if none was named. It is replaced when it grows, so
+	 * fileOf can read it without locking.
+	 */
+	private volatile int[] owners = new int[0];
+
+	/** ownerNames: owner id -> file entry name; id 0 stands for no owner. */
+	private volatile String[] ownerNames = { null };
+
+	/** ownerIds: file entry name -> its owner id. */
+	private final Map<String, Integer> ownerIds = new HashMap<String, Integer>();
+
+	/** ownersDirty: the owners changed since they were last stored. */
+	private boolean ownersDirty;
+
+	/**
+	 * Returns the entry called name, or null.
+	 */
+	Entry get(String name) {
+		return entries.get(name);
+	}
+
+	/**
+	 * Append a header page to the chain, with all of its slots free.
+	 */
+	void addHeaderPage(int hpid, int numSlots) {
+		int position = chain.length;
+		int[] grown = new int[position + 1];
+		System.arraycopy(chain, 0, grown, 0, position);
+		grown[position] = hpid;
+		chain = grown;
+		positions.put(hpid, position);
+		for (int slot = 0; slot < numSlots; slot++) {
+			freeSlots.add(((long) position << 32) | slot);
+		}
+	}
+
+	/**
+	 * Returns true if page is a header page of the chain.
+	 */
+	boolean isHeaderPage(int page) {
+		for (int hpid : chain) {
+			if (hpid == page) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the last header page of the chain.
+	 */
+	int lastHeaderPage() {
+		return chain[chain.length - 1];
+	}
+
+	/**
+	 * Record a file entry stored in the given slot of header page hpid.
+	 */
+	void put(String name, int startPage, int hpid, int slot) {
+		freeSlots.remove(((long) position(hpid) << 32) | slot);
+		entries.put(name, new Entry(startPage, hpid, slot));
+		byStart.put(startPage, name);
+		publishStarts();
+	}
+
+	/**
+	 * Forget the entry called name and free its slot.
+	 *
+	 * @return the removed entry, or null if there is none
+	 */
+	Entry remove(String name) {
+		Entry entry = entries.remove(name);
+		if (entry != null) {
+			freeSlots.add(((long) position(entry.headerPage) << 32) | entry.slot);
+			byStart.remove(entry.startPage, name);
+			publishStarts();
+		}
+		return entry;
+	}
+
+	/**
+	 * Returns the name of the file entry page was allocated for, or for a page
+	 * allocated without one the entry with the highest start page at or below
+	 * it; null if there is none.
+	 */
+	String fileOf(int page) {
+		int[] owners = this.owners;
+		if (page >= 0 && page < owners.length && owners[page] != 0) {
+			String[] names = ownerNames;
+			int id = owners[page];
+			if (id < names.length) {
+				return names[id];
+			}
+		}
+		Starts starts = this.starts;
+		int at = Arrays.binarySearch(starts.pages, page);
+		if (at < 0) {
+			at = -at - 2;
+		}
+		return at < 0 ? null : starts.names[at];
+	}
+
+	private void publishStarts() {
+		int[] pages = new int[byStart.size()];
+		String[] names = new String[pages.length];
+		int i = 0;
+		for (Map.Entry<Integer, String> entry : byStart.entrySet()) {
+			pages[i] = entry.getKey();
+			names[i++] = entry.getValue();
+		}
+		starts = new Starts(pages, names);
+	}
+
+	/**
+	 * Record that the run of count pages from first was allocated for the file
+	 * entry called name.
+	 */
+	void own(int first, int count, String name) {
+		Integer id = ownerIds.get(name);
+		if (id == null) {
+			id = ownerNames.length;
+			String[] names = Arrays.copyOf(ownerNames, id + 1);
+			names[id] = name;
+			ownerNames = names;
+			ownerIds.put(name, id);
+		}
+		int[] owners = this.owners;
+		if (owners.length < first + count) {
+			owners = Arrays.copyOf(owners, Math.max(first + count, owners.length * 2));
+		}
+		Arrays.fill(owners, first, first + count, id);
+		this.owners = owners;
+		ownersDirty = true;
+	}
+
+	/**
+	 * Record page as allocated for the file entry called name, unless it was
+	 * allocated for another one.
+	 */
+	void claim(int page, String name) {
+		int[] owners = this.owners;
+		if (page >= owners.length || owners[page] == 0) {
+			own(page, 1, name);
+		}
+	}
+
+	/**
+	 * Forget the owners of the count pages from first, which were freed.
+	 */
+	void disown(int first, int count) {
+		int[] owners = this.owners;
+		for (int page = first; page < Math.min(first + count, owners.length); page++) {
+			if (owners[page] != 0) {
+				owners[page] = 0;
+				ownersDirty = true;
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the owners changed since storeOwners last wrote them.
+	 */
+	boolean ownersDirty() {
+		return ownersDirty;
+	}
+
+	/**
+	 * Write the page owners out: the owner names, then each run of pages with
+	 * the same owner as (first page, length, owner id).
+	 */
+	void storeOwners(DataOutputStream out) throws IOException {
+		String[] names = ownerNames;
+		out.writeInt(names.length - 1);
+		for (int id = 1; id < names.length; id++) {
+			out.writeUTF(names[id]);
+		}
+		int[] owners = this.owners;
+		List<int[]> runs = new ArrayList<int[]>();
+		for (int page = 0; page < owners.length;) {
+			int id = owners[page];
+			int end = page + 1;
+			while (end < owners.length && owners[end] == id) {
+				end++;
+			}
+			if (id != 0) {
+				runs.add(new int[] { page, end - page, id });
+			}
+			page = end;
+		}
+		out.writeInt(runs.size());
+		for (int[] run : runs) {
+			out.writeInt(run[0]);
+			out.writeInt(run[1]);
+			out.writeInt(run[2]);
+		}
+		ownersDirty = false;
+	}
+
+	/**
+	 * Read back the page owners written by storeOwners.
+	 *
+	 * @throws IOException if they cannot be read, or make no sense
+	 */
+	void loadOwners(DataInputStream in) throws IOException {
+		String[] names = new String[1 + in.readInt()];
+		for (int id = 1; id < names.length; id++) {
+			names[id] = in.readUTF();
+		}
+		int numRuns = in.readInt();
+		int[] owners = new int[0];
+		for (int i = 0; i < numRuns; i++) {
+			int first = in.readInt();
+			int count = in.readInt();
+			int id = in.readInt();
+			if (first < 0 || count < 1 || id < 1 || id >= names.length) {
+				throw new IOException("Bad page owner run");
+			}
+			if (owners.length < first + count) {
+				owners = Arrays.copyOf(owners, first + count);
+			}
+			Arrays.fill(owners, first, first + count, id);
+		}
+		ownerIds.clear();
+		for (int id = 1; id < names.length; id++) {
+			ownerIds.put(names[id], id);
+		}
+		ownerNames = names;
+		this.owners = owners;
+		ownersDirty = false;
+	}
+
+	/**
+	 * Returns the first free slot as {header page, slot}, or null if every
+	 * header page is full. The slot stays free until put is called for it.
+	 */
+	int[] firstFreeSlot() {
+		if (freeSlots.isEmpty()) {
+			return null;
+		}
+		long first = freeSlots.first();
+		return new int[] { chain[(int) (first >>> 32)], (int) first };
+	}
+
+	private int position(int hpid) {
+		Integer position = positions.get(hpid);
+		if (position == null) {
+			throw new IllegalArgumentException("Page " + hpid + " is not a header page");
+		}
+		return position;
+	}
+}
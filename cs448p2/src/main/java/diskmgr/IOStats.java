@@ -0,0 +1,398 @@
+package diskmgr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import global.GlobalConst;
+
+/**
+ * I/O statistics of one DiskMgr: pages read and written per file entry and how
+ * sequential those accesses are, pages allocated and freed, and latency
+ * histograms of reads, writes, allocations and deallocations, plus read, write
+ * and sync latencies of every data file, so a slow device shows up on its own.
+ *
+ * A page is counted against the file entry with the highest start page at or
+ * below it, which is exact for files allocated as one run. Pages below every
+ * entry, like the space map, count against NO_FILE. An access is sequential if
+ * it is to the page after the previous access of the same kind to that file.
+ *
+ * Counters are LongAdders, so recording takes no lock; snapshot() reads them
+ * all, and the same numbers are published over JMX through IOStatsMBean.
+ */
+public class IOStats implements IOStatsMBean {
+
+	/** Name that pages outside every file entry are counted under. */
+	public static final String NO_FILE = "(none)";
+
+	/** Counters of one file entry. */
+	private static class FileCounters {
+		final LongAdder pagesRead = new LongAdder();
+		final LongAdder pagesWritten = new LongAdder();
+		final LongAdder sequentialReads = new LongAdder();
+		final LongAdder sequentialWrites = new LongAdder();
+
+		/** The pages right after the last read and the last write. */
+		volatile int nextRead = -1;
+		volatile int nextWrite = -1;
+	}
+
+	/** Latencies of one data file. */
+	static class DeviceCounters {
+		final LatencyHistogram read = new LatencyHistogram();
+		final LatencyHistogram write = new LatencyHistogram();
+		final LatencyHistogram sync = new LatencyHistogram();
+	}
+
+	private final Map<String, FileCounters> files = new ConcurrentHashMap<String, FileCounters>();
+	private final Map<String, DeviceCounters> devices = new ConcurrentHashMap<String, DeviceCounters>();
+
+	private final LongAdder pagesAllocated = new LongAdder();
+	private final LongAdder pagesDeallocated = new LongAdder();
+
+	private final LatencyHistogram readLatency = new LatencyHistogram();
+	private final LatencyHistogram writeLatency = new LatencyHistogram();
+	private final LatencyHistogram allocateLatency = new LatencyHistogram();
+	private final LatencyHistogram deallocateLatency = new LatencyHistogram();
+
+	/** pageSize: bytes per page, for the byte counts. */
+	private volatile int pageSize = GlobalConst.PAGE_SIZE;
+
+	void setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Count a read of n pages from firstpage on, belonging to file, that took
+	 * nanos.
+	 */
+	void read(String file, int firstpage, int n, long nanos) {
+		FileCounters counters = counters(file);
+		counters.pagesRead.add(n);
+		int sequential = n - 1 + (counters.nextRead == firstpage ? 1 : 0);
+		if (sequential > 0) {
+			counters.sequentialReads.add(sequential);
+		}
+		counters.nextRead = firstpage + n;
+		readLatency.record(nanos);
+	}
+
+	/**
+	 * Count a write of n pages from firstpage on, belonging to file, that took
+	 * nanos.
+	 */
+	void write(String file, int firstpage, int n, long nanos) {
+		FileCounters counters = counters(file);
+		counters.pagesWritten.add(n);
+		int sequential = n - 1 + (counters.nextWrite == firstpage ? 1 : 0);
+		if (sequential > 0) {
+			counters.sequentialWrites.add(sequential);
+		}
+		counters.nextWrite = firstpage + n;
+		writeLatency.record(nanos);
+	}
+
+	void allocated(int n, long nanos) {
+		pagesAllocated.add(n);
+		allocateLatency.record(nanos);
+	}
+
+	void deallocated(int n, long nanos) {
+		pagesDeallocated.add(n);
+		deallocateLatency.record(nanos);
+	}
+
+	/**
+	 * Returns the latency counters of the data file at path.
+	 */
+	DeviceCounters device(String path) {
+		return devices.computeIfAbsent(path, p -> new DeviceCounters());
+	}
+
+	private FileCounters counters(String file) {
+		FileCounters counters = files.get(file);
+		return counters != null ? counters : files.computeIfAbsent(file, f -> new FileCounters());
+	}
+
+	/**
+	 * Returns all counters as they are now, file entries with the most pages
+	 * read and written first.
+	 */
+	public Snapshot snapshot() {
+		int pageSize = this.pageSize;
+		List<FileSnapshot> fileSnapshots = new ArrayList<FileSnapshot>();
+		for (Map.Entry<String, FileCounters> entry : files.entrySet()) {
+			FileCounters c = entry.getValue();
+			fileSnapshots.add(new FileSnapshot(entry.getKey(), pageSize, c.pagesRead.sum(), c.pagesWritten.sum(),
+					c.sequentialReads.sum(), c.sequentialWrites.sum()));
+		}
+		fileSnapshots.sort((a, b) -> Long.compare(b.pagesRead + b.pagesWritten, a.pagesRead + a.pagesWritten));
+
+		List<DeviceSnapshot> deviceSnapshots = new ArrayList<DeviceSnapshot>();
+		for (Map.Entry<String, DeviceCounters> entry : devices.entrySet()) {
+			DeviceCounters c = entry.getValue();
+			deviceSnapshots.add(new DeviceSnapshot(entry.getKey(), c.read.snapshot(), c.write.snapshot(),
+					c.sync.snapshot()));
+		}
+		deviceSnapshots.sort((a, b) -> a.path.compareTo(b.path));
+
+		return new Snapshot(pageSize, fileSnapshots, deviceSnapshots, pagesAllocated.sum(), pagesDeallocated.sum(),
+				readLatency.snapshot(), writeLatency.snapshot(), allocateLatency.snapshot(),
+				deallocateLatency.snapshot());
+	}
+
+	/**
+	 * The counters of one file entry at one point in time.
+	 */
+	public static class FileSnapshot {
+		public final String name;
+		public final long pagesRead;
+		public final long pagesWritten;
+		public final long bytesRead;
+		public final long bytesWritten;
+		public final long sequentialReads;
+		public final long sequentialWrites;
+
+		FileSnapshot(String name, int pageSize, long pagesRead, long pagesWritten, long sequentialReads,
+				long sequentialWrites) {
+			this.name = name;
+			this.pagesRead = pagesRead;
+			this.pagesWritten = pagesWritten;
+			this.bytesRead = pagesRead * pageSize;
+			this.bytesWritten = pagesWritten * pageSize;
+			this.sequentialReads = sequentialReads;
+			this.sequentialWrites = sequentialWrites;
+		}
+
+		/** Returns the fraction of page reads that were sequential. */
+		public double readSequentiality() {
+			return pagesRead == 0 ? 0 : (double) sequentialReads / pagesRead;
+		}
+
+		/** Returns the fraction of page writes that were sequential. */
+		public double writeSequentiality() {
+			return pagesWritten == 0 ? 0 : (double) sequentialWrites / pagesWritten;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: read %d pages (%.0f%% sequential), wrote %d pages (%.0f%% sequential)", name,
+					pagesRead, 100 * readSequentiality(), pagesWritten, 100 * writeSequentiality());
+		}
+	}
+
+	/**
+	 * The latencies of one data file at one point in time.
+	 */
+	public static class DeviceSnapshot {
+		public final String path;
+		public final LatencyHistogram.Snapshot readLatency;
+		public final LatencyHistogram.Snapshot writeLatency;
+		public final LatencyHistogram.Snapshot syncLatency;
+
+		DeviceSnapshot(String path, LatencyHistogram.Snapshot readLatency, LatencyHistogram.Snapshot writeLatency,
+				LatencyHistogram.Snapshot syncLatency) {
+			this.path = path;
+			this.readLatency = readLatency;
+			this.writeLatency = writeLatency;
+			this.syncLatency = syncLatency;
+		}
+
+		@Override
+		public String toString() {
+			return path + ": read " + readLatency + ", write " + writeLatency + ", sync " + syncLatency;
+		}
+	}
+
+	/**
+	 * All counters of a DiskMgr at one point in time.
+	 */
+	public static class Snapshot {
+		public final int pageSize;
+
+		/** files: per file entry counters, most pages moved first. */
+		public final List<FileSnapshot> files;
+
+		/** devices: per data file latencies, by path. */
+		public final List<DeviceSnapshot> devices;
+
+		public final long pagesAllocated;
+		public final long pagesDeallocated;
+		public final LatencyHistogram.Snapshot readLatency;
+		public final LatencyHistogram.Snapshot writeLatency;
+		public final LatencyHistogram.Snapshot allocateLatency;
+		public final LatencyHistogram.Snapshot deallocateLatency;
+
+		Snapshot(int pageSize, List<FileSnapshot> files, List<DeviceSnapshot> devices, long pagesAllocated,
+				long pagesDeallocated, LatencyHistogram.Snapshot readLatency, LatencyHistogram.Snapshot writeLatency,
+				LatencyHistogram.Snapshot allocateLatency, LatencyHistogram.Snapshot deallocateLatency) {
+			this.pageSize = pageSize;
+			this.files = Collections.unmodifiableList(files);
+			this.devices = Collections.unmodifiableList(devices);
+			this.pagesAllocated = pagesAllocated;
+			this.pagesDeallocated = pagesDeallocated;
+			this.readLatency = readLatency;
+			this.writeLatency = writeLatency;
+			this.allocateLatency = allocateLatency;
+			this.deallocateLatency = deallocateLatency;
+		}
+
+		/** Returns the counters of the named file entry, or null. */
+		public FileSnapshot file(String name) {
+			for (FileSnapshot file : files) {
+				if (file.name.equals(name)) {
+					return file;
+				}
+			}
+			return null;
+		}
+
+		public long pagesRead() {
+			long sum = 0;
+			for (FileSnapshot file : files) {
+				sum += file.pagesRead;
+			}
+			return sum;
+		}
+
+		public long pagesWritten() {
+			long sum = 0;
+			for (FileSnapshot file : files) {
+				sum += file.pagesWritten;
+			}
+			return sum;
+		}
+
+		public long sequentialReads() {
+			long sum = 0;
+			for (FileSnapshot file : files) {
+				sum += file.sequentialReads;
+			}
+			return sum;
+		}
+
+		public long sequentialWrites() {
+			long sum = 0;
+			for (FileSnapshot file : files) {
+				sum += file.sequentialWrites;
+			}
+			return sum;
+		}
+	}
+
+	/*
+	 * IOStatsMBean
+	 */
+
+	@Override
+	public long getPagesRead() {
+		return sum(c -> c.pagesRead);
+	}
+
+	@Override
+	public long getPagesWritten() {
+		return sum(c -> c.pagesWritten);
+	}
+
+	@Override
+	public long getBytesRead() {
+		return getPagesRead() * pageSize;
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return getPagesWritten() * pageSize;
+	}
+
+	@Override
+	public double getSequentialReadFraction() {
+		long pages = getPagesRead();
+		return pages == 0 ? 0 : (double) sum(c -> c.sequentialReads) / pages;
+	}
+
+	@Override
+	public double getSequentialWriteFraction() {
+		long pages = getPagesWritten();
+		return pages == 0 ? 0 : (double) sum(c -> c.sequentialWrites) / pages;
+	}
+
+	private long sum(Function<FileCounters, LongAdder> counter) {
+		long sum = 0;
+		for (FileCounters counters : files.values()) {
+			sum += counter.apply(counters).sum();
+		}
+		return sum;
+	}
+
+	@Override
+	public long getPagesAllocated() {
+		return pagesAllocated.sum();
+	}
+
+	@Override
+	public long getPagesDeallocated() {
+		return pagesDeallocated.sum();
+	}
+
+	@Override
+	public double getReadLatencyP50Micros() {
+		return readLatency.snapshot().percentile(50) / 1e3;
+	}
+
+	@Override
+	public double getReadLatencyP99Micros() {
+		return readLatency.snapshot().percentile(99) / 1e3;
+	}
+
+	@Override
+	public double getReadLatencyMaxMicros() {
+		return readLatency.snapshot().max() / 1e3;
+	}
+
+	@Override
+	public double getWriteLatencyP50Micros() {
+		return writeLatency.snapshot().percentile(50) / 1e3;
+	}
+
+	@Override
+	public double getWriteLatencyP99Micros() {
+		return writeLatency.snapshot().percentile(99) / 1e3;
+	}
+
+	@Override
+	public double getWriteLatencyMaxMicros() {
+		return writeLatency.snapshot().max() / 1e3;
+	}
+
+	@Override
+	public String getAllocateLatency() {
+		return allocateLatency.snapshot().toString();
+	}
+
+	@Override
+	public String getDeallocateLatency() {
+		return deallocateLatency.snapshot().toString();
+	}
+
+	@Override
+	public String[] getFiles() {
+		List<String> lines = new ArrayList<String>();
+		for (FileSnapshot file : snapshot().files) {
+			lines.add(file.toString());
+		}
+		return lines.toArray(new String[0]);
+	}
+
+	@Override
+	public String[] getDevices() {
+		List<String> lines = new ArrayList<String>();
+		for (DeviceSnapshot device : snapshot().devices) {
+			lines.add(device.toString());
+		}
+		return lines.toArray(new String[0]);
+	}
+}
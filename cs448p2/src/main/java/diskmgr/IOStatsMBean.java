@@ -0,0 +1,51 @@
+package diskmgr;
+
+/**
+ * JMX view of a DiskMgr's IOStats, registered as
+ * minibase:type=DiskMgr,name="database file" while the database is open.
+ * Latencies are in microseconds.
+ */
+public interface IOStatsMBean {
+
+	long getPagesRead();
+
+	long getPagesWritten();
+
+	long getBytesRead();
+
+	long getBytesWritten();
+
+	/** Fraction of page reads that followed the previous read of their file. */
+	double getSequentialReadFraction();
+
+	/** Fraction of page writes that followed the previous write of their file. */
+	double getSequentialWriteFraction();
+
+	long getPagesAllocated();
+
+	long getPagesDeallocated();
+
+	double getReadLatencyP50Micros();
+
+	double getReadLatencyP99Micros();
+
+	double getReadLatencyMaxMicros();
+
+	double getWriteLatencyP50Micros();
+
+	double getWriteLatencyP99Micros();
+
+	double getWriteLatencyMaxMicros();
+
+	/** Count, mean, median, 99th percentile and max of allocation latencies. */
+	String getAllocateLatency();
+
+	/** Count, mean, median, 99th percentile and max of deallocation latencies. */
+	String getDeallocateLatency();
+
+	/** One line per file entry, most pages moved first. */
+	String[] getFiles();
+
+	/** One line per data file with its read, write and sync latencies. */
+	String[] getDevices();
+}
@@ -0,0 +1,170 @@
+package diskmgr;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram laid out like HdrHistogram: every power of two is split
+ * into SUB_BUCKETS linear buckets, so a value is known to within 1/SUB_BUCKETS
+ * of itself anywhere in the range, from nanoseconds to minutes, in a few
+ * hundred buckets. Every bucket is a LongAdder, so threads recording at the
+ * same time do not fight over a cache line and never take a lock.
+ */
+public class LatencyHistogram {
+
+	/** Linear buckets per power of two; values are kept to within 1/16. */
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/** Values from 2^MAX_EXPONENT ns (about 18 minutes) on share the last bucket. */
+	private static final int MAX_EXPONENT = 40;
+	private static final int NUM_BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	private final LongAdder[] buckets = new LongAdder[NUM_BUCKETS];
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	public LatencyHistogram() {
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Record one latency.
+	 *
+	 * @param nanos
+	 *            the latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		buckets[bucket(nanos)].increment();
+		sum.add(nanos);
+		max.accumulate(nanos);
+	}
+
+	/**
+	 * Returns the counts recorded so far. Recording goes on meanwhile, so a
+	 * snapshot taken under load may miss the latest few values.
+	 */
+	public Snapshot snapshot() {
+		long[] counts = new long[NUM_BUCKETS];
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			counts[i] = buckets[i].sum();
+		}
+		return new Snapshot(counts, sum.sum(), max.get());
+	}
+
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT) {
+			return NUM_BUCKETS - 1;
+		}
+		int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Returns the largest value that falls in the given bucket.
+	 */
+	static long highestInBucket(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	/**
+	 * The counts of a LatencyHistogram at one point in time.
+	 */
+	public static class Snapshot {
+
+		private final long[] counts;
+		private final long count;
+		private final long sum;
+		private final long max;
+
+		Snapshot(long[] counts, long sum, long max) {
+			this.counts = counts;
+			long count = 0;
+			for (long c : counts) {
+				count += c;
+			}
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		/**
+		 * Returns the values recorded after earlier was taken, a snapshot of
+		 * the same histogram. The max is the largest value of the histogram
+		 * that can fall in that interval, to within the bucket precision.
+		 */
+		public Snapshot since(Snapshot earlier) {
+			long[] diff = new long[counts.length];
+			int highest = -1;
+			for (int i = 0; i < counts.length; i++) {
+				diff[i] = counts[i] - earlier.counts[i];
+				if (diff[i] > 0) {
+					highest = i;
+				}
+			}
+			long diffMax = highest < 0 ? 0 : Math.min(highestInBucket(highest), max);
+			return new Snapshot(diff, sum - earlier.sum, diffMax);
+		}
+
+		/** Returns the number of values recorded. */
+		public long count() {
+			return count;
+		}
+
+		/** Returns the mean latency in nanoseconds, 0 if nothing was recorded. */
+		public double mean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+
+		/** Returns the largest latency recorded, in nanoseconds. */
+		public long max() {
+			return max;
+		}
+
+		/**
+		 * Returns the latency, in nanoseconds, that the given percentage of the
+		 * recorded values are at or below, to within the bucket precision.
+		 *
+		 * @param percent
+		 *            from 0 to 100
+		 */
+		public long percentile(double percent) {
+			if (count == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(percent / 100 * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(highestInBucket(i), max);
+				}
+			}
+			return max;
+		}
+
+		/**
+		 * Returns count, mean, median, 99th percentile and max, in
+		 * microseconds.
+		 */
+		@Override
+		public String toString() {
+			return String.format("count=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus", count, mean() / 1e3,
+					percentile(50) / 1e3, percentile(99) / 1e3, max / 1e3);
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package diskmgr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A PageFile that maps the database file into memory in fixed-size segments.
+ * Page reads and writes are plain copies into and out of the mapped region, so
+ * a page access costs no system call. Written pages reach the disk when the OS
+ * decides to, or when force() is called.
+ */
+class MappedPageFile implements PageFile {
+
+	/** Segments are 1 MB; pages are at most 32 KB, so a page never straddles two segments. */
+	static final int SEGMENT_SHIFT = 20;
+	static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+
+	/** pageSize: the database page size in bytes. */
+	private final int pageSize;
+
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+
+	/**
+	 * segments: mapped views of the file, mapped on first use. Readers look
+	 * segments up without locking; only mapping and remapping are synchronized.
+	 */
+	private volatile AtomicReferenceArray<MappedByteBuffer> segments = new AtomicReferenceArray<>(0);
+
+	/** length: the file length in bytes, no segment maps past it. */
+	private long length;
+
+	/**
+	 * views: each thread's own duplicates of the segments it has used, so a
+	 * page access moves the position of a private view instead of duplicating
+	 * the shared segment every time.
+	 */
+	private final ThreadLocal<Views> views = ThreadLocal.withInitial(Views::new);
+
+	private static class Views {
+		/** of[i]: the segment view[i] duplicates; a remapped segment gets a new view. */
+		MappedByteBuffer[] of = new MappedByteBuffer[0];
+		ByteBuffer[] view = new ByteBuffer[0];
+	}
+
+	MappedPageFile(File file, int pageSize) throws IOException {
+		this.pageSize = pageSize;
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		length = channel.size();
+	}
+
+	@Override
+	public void read(int pageno, byte[] buffer) throws IOException {
+		long pos = (long) pageno * pageSize;
+		ByteBuffer view = view(pos);
+		view.position((int) (pos & (SEGMENT_SIZE - 1)));
+		view.get(buffer, 0, pageSize);
+	}
+
+	@Override
+	public void write(int pageno, byte[] buffer) throws IOException {
+		long pos = (long) pageno * pageSize;
+		ByteBuffer view = view(pos);
+		view.position((int) (pos & (SEGMENT_SIZE - 1)));
+		view.put(buffer, 0, pageSize);
+	}
+
+	/**
+	 * A run is already a single copy per page out of the mapping.
+	 */
+	@Override
+	public void readRun(int firstpage, byte[][] buffers) throws IOException {
+		for (int i = 0; i < buffers.length; i++) {
+			read(firstpage + i, buffers[i]);
+		}
+	}
+
+	@Override
+	public void writeRun(int firstpage, byte[][] buffers) throws IOException {
+		for (int i = 0; i < buffers.length; i++) {
+			write(firstpage + i, buffers[i]);
+		}
+	}
+
+	@Override
+	public synchronized void setLength(long newLength) throws IOException {
+		raf.setLength(newLength);
+		// the segment holding the old end of file was mapped short, drop it and
+		// everything after so they get mapped again at their new size
+		int first = (int) (Math.min(length, newLength) >>> SEGMENT_SHIFT);
+		for (int i = first; i < segments.length(); i++) {
+			MappedByteBuffer segment = segments.getAndSet(i, null);
+			if (segment != null) {
+				segment.force();
+			}
+		}
+		length = newLength;
+	}
+
+	@Override
+	public synchronized void force() throws IOException {
+		for (int i = 0; i < segments.length(); i++) {
+			MappedByteBuffer segment = segments.get(i);
+			if (segment != null) {
+				segment.force();
+			}
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		force();
+		segments = new AtomicReferenceArray<>(0);
+		raf.close();
+	}
+
+	/**
+	 * Returns the segment containing the page at byte offset pos, mapping it if
+	 * this is the first access.
+	 */
+	private MappedByteBuffer segment(long pos) throws IOException {
+		int idx = (int) (pos >>> SEGMENT_SHIFT);
+		AtomicReferenceArray<MappedByteBuffer> table = segments;
+		if (idx < table.length()) {
+			MappedByteBuffer segment = table.get(idx);
+			if (segment != null) {
+				return segment;
+			}
+		}
+		return map(pos);
+	}
+
+	/**
+	 * Returns this thread's view of the segment containing byte offset pos.
+	 */
+	private ByteBuffer view(long pos) throws IOException {
+		MappedByteBuffer segment = segment(pos);
+		int idx = (int) (pos >>> SEGMENT_SHIFT);
+		Views mine = views.get();
+		if (idx >= mine.of.length) {
+			int size = Math.max(idx + 1, 2 * mine.of.length);
+			mine.of = Arrays.copyOf(mine.of, size);
+			mine.view = Arrays.copyOf(mine.view, size);
+		}
+		if (mine.of[idx] != segment) {
+			mine.of[idx] = segment;
+			mine.view[idx] = segment.duplicate();
+		}
+		return mine.view[idx];
+	}
+
+	/**
+	 * Maps the segment containing byte offset pos.
+	 */
+	private synchronized MappedByteBuffer map(long pos) throws IOException {
+		int idx = (int) (pos >>> SEGMENT_SHIFT);
+		if (idx >= segments.length()) {
+			AtomicReferenceArray<MappedByteBuffer> grown = new AtomicReferenceArray<>(idx + 1);
+			for (int i = 0; i < segments.length(); i++) {
+				grown.set(i, segments.get(i));
+			}
+			segments = grown;
+		}
+		MappedByteBuffer segment = segments.get(idx);
+		if (segment == null) {
+			long start = (long) idx << SEGMENT_SHIFT;
+			long size = Math.min(SEGMENT_SIZE, length - start);
+			if ((pos & (SEGMENT_SIZE - 1)) + pageSize > size) {
+				throw new IOException("Page at offset " + pos + " is past the end of the file");
+			}
+			segment = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+			segments.set(idx, segment);
+		}
+		return segment;
+	}
+}
@@ -0,0 +1,119 @@
+package diskmgr;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Storage backend of the disk manager. A PageFile moves whole pages between
+ * the database file and a page buffer; the DiskMgr layer above it takes care
+ * of page numbers, the space map and the directory.
+ */
+interface PageFile {
+
+	/**
+	 * Read the page with the given number into buffer.
+	 *
+	 * @param pageno
+	 *            page number in the database
+	 * @param buffer
+	 *            page-sized buffer receiving the contents
+	 * @throws IOException
+	 */
+	void read(int pageno, byte[] buffer) throws IOException;
+
+	/**
+	 * Write buffer to the page with the given number.
+	 *
+	 * @param pageno
+	 *            page number in the database
+	 * @param buffer
+	 *            page-sized buffer holding the contents
+	 * @throws IOException
+	 */
+	void write(int pageno, byte[] buffer) throws IOException;
+
+	/**
+	 * Read a run of consecutive pages, starting at firstpage, with one
+	 * scattering read. buffers[i] receives page firstpage + i.
+	 *
+	 * @param firstpage
+	 *            number of the first page in the run
+	 * @param buffers
+	 *            one page-sized buffer per page in the run
+	 * @throws IOException
+	 */
+	void readRun(int firstpage, byte[][] buffers) throws IOException;
+
+	/**
+	 * Write a run of consecutive pages, starting at firstpage, with one
+	 * gathering write. buffers[i] is written to page firstpage + i.
+	 *
+	 * @param firstpage
+	 *            number of the first page in the run
+	 * @param buffers
+	 *            one page-sized buffer per page in the run
+	 * @throws IOException
+	 */
+	void writeRun(int firstpage, byte[][] buffers) throws IOException;
+
+	/**
+	 * Make the file the given number of bytes long. New bytes read as zeroes.
+	 *
+	 * @param length
+	 *            the new file length in bytes
+	 * @throws IOException
+	 */
+	void setLength(long length) throws IOException;
+
+	/**
+	 * Force all written pages to the storage device.
+	 *
+	 * @throws IOException
+	 */
+	void force() throws IOException;
+
+	/**
+	 * Make the pages written so far readable by the next open of the file
+	 * should this process die, without forcing them to the device. Backends
+	 * that write pages in place have nothing to do; the others store what
+	 * says where the pages are.
+	 *
+	 * @throws IOException
+	 */
+	default void sync() throws IOException {
+	}
+
+	/**
+	 * Force and close the file.
+	 *
+	 * @throws IOException
+	 */
+	void close() throws IOException;
+
+	/**
+	 * Open the database file with the backend named by ioMode.
+	 *
+	 * @param file
+	 *            the database file; created if it does not exist
+	 * @param ioMode
+	 *            one of the DiskMgr.IO_* constants
+	 * @param pageSize
+	 *            the database page size in bytes
+	 * @throws IOException
+	 */
+	static PageFile open(File file, String ioMode, int pageSize) throws IOException {
+		if (DiskMgr.IO_MAPPED.equalsIgnoreCase(ioMode)) {
+			return new MappedPageFile(file, pageSize);
+		}
+		if (DiskMgr.IO_FILE.equalsIgnoreCase(ioMode)) {
+			return new ChannelPageFile(file, pageSize);
+		}
+		if (DiskMgr.IO_DIRECT.equalsIgnoreCase(ioMode)) {
+			return new DirectPageFile(file, pageSize);
+		}
+		if (DiskMgr.IO_COMPRESSED.equalsIgnoreCase(ioMode)) {
+			return new CompressedPageFile(file, pageSize);
+		}
+		throw new IllegalArgumentException("Unknown I/O mode: " + ioMode);
+	}
+}
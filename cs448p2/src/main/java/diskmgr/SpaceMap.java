@@ -0,0 +1,298 @@
+package diskmgr;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * In-memory copy of the database's space map. The allocation bits are kept as
+ * 64-bit words, and the free pages as an index of free extents, so finding and
+ * claiming a run costs O(log n) instead of a walk over the bitmap. The map
+ * pages on disk are brought up to date lazily: every change only marks the map
+ * pages it touched as dirty, and DiskMgr writes those back when it syncs.
+ *
+ * A SpaceMap is not synchronized; DiskMgr guards it with its space map latch.
+ */
+class SpaceMap {
+
+	/** words: one bit per page, set if the page is allocated. */
+	private long[] words;
+
+	/** numPages: the number of pages the map covers. */
+	private int numPages;
+
+	/** bitsPerMapPage: the number of pages covered by one space-map page. */
+	private final int bitsPerMapPage;
+
+	/** byStart: the free extents, first page -> length. */
+	private final TreeMap<Integer, Integer> byStart = new TreeMap<Integer, Integer>();
+
+	/**
+	 * bySize: the same extents keyed by (length << 32 | first page), so the
+	 * smallest extent that fits a run, lowest address first, is a ceiling
+	 * lookup.
+	 */
+	private final TreeSet<Long> bySize = new TreeSet<Long>();
+
+	/** dirty: one flag per space-map page changed since the last sync. */
+	private boolean[] dirty;
+
+	/**
+	 * Create a map of numPages pages, all of them free.
+	 */
+	SpaceMap(int numPages, int bitsPerMapPage) {
+		this.numPages = numPages;
+		this.bitsPerMapPage = bitsPerMapPage;
+		words = new long[(numPages + 63) >>> 6];
+		dirty = new boolean[numMapPages()];
+		addExtent(0, numPages);
+	}
+
+	/**
+	 * Number of space-map pages needed on disk.
+	 */
+	int numMapPages() {
+		return (numPages + bitsPerMapPage - 1) / bitsPerMapPage;
+	}
+
+	/**
+	 * Load the bits of space-map page mapPage (the mapPage-th one, counting
+	 * from 0) from its on-disk image. Call once per map page after creating the
+	 * map; the free-extent index is rebuilt by rebuildExtents.
+	 */
+	void loadMapPage(int mapPage, byte[] pagebuf) {
+		int firstBit = mapPage * bitsPerMapPage;
+		int numBits = Math.min(bitsPerMapPage, numPages - firstBit);
+		// map pages cover a whole number of words, so this is a plain copy
+		int firstWord = firstBit >>> 6;
+		int numWords = (numBits + 63) >>> 6;
+		for (int w = 0; w < numWords; w++) {
+			long word = 0;
+			for (int b = 7; b >= 0; b--) {
+				int byteptr = w * 8 + b;
+				word = (word << 8) | (byteptr < pagebuf.length ? pagebuf[byteptr] & 0xff : 0);
+			}
+			words[firstWord + w] = word;
+		}
+		// ignore bits past the end of the database
+		int tail = numPages & 63;
+		if (tail != 0) {
+			words[words.length - 1] &= (1L << tail) - 1;
+		}
+	}
+
+	/**
+	 * Rebuild the free-extent index from the allocation bits, skipping whole
+	 * allocated or free words at a time.
+	 */
+	void rebuildExtents() {
+		byStart.clear();
+		bySize.clear();
+		int page = nextFree(0);
+		while (page < numPages) {
+			int end = nextAllocated(page);
+			addExtent(page, end - page);
+			page = nextFree(end);
+		}
+	}
+
+	/**
+	 * Claim the smallest free run of at least run pages, lowest address first.
+	 *
+	 * @return the first page of the run, or -1 if no free run is long enough
+	 */
+	int allocate(int run) {
+		Long fit = bySize.ceiling((long) run << 32);
+		if (fit == null) {
+			return -1;
+		}
+		int start = (int) (fit & 0xffffffffL);
+		int length = (int) (fit >>> 32);
+		removeExtent(start, length);
+		if (length > run) {
+			addExtent(start + run, length - run);
+		}
+		setBits(start, run, true);
+		return start;
+	}
+
+	/**
+	 * Mark the run [start, start + run) allocated.
+	 */
+	void markAllocated(int start, int run) {
+		int end = start + run;
+		// cut the run out of every free extent it overlaps
+		Map.Entry<Integer, Integer> e = byStart.floorEntry(start);
+		if (e == null || e.getKey() + e.getValue() <= start) {
+			e = byStart.higherEntry(start);
+		}
+		while (e != null && e.getKey() < end) {
+			int eStart = e.getKey();
+			int eEnd = eStart + e.getValue();
+			removeExtent(eStart, e.getValue());
+			if (eStart < start) {
+				addExtent(eStart, start - eStart);
+			}
+			if (eEnd > end) {
+				addExtent(end, eEnd - end);
+			}
+			e = byStart.higherEntry(eStart);
+		}
+		setBits(start, run, true);
+	}
+
+	/**
+	 * Mark the run [start, start + run) free, merging it with its free
+	 * neighbours.
+	 */
+	void markFree(int start, int run) {
+		int mergedStart = start;
+		int mergedEnd = start + run;
+		// swallow every free extent that overlaps or touches the run
+		Map.Entry<Integer, Integer> e = byStart.floorEntry(start);
+		if (e == null || e.getKey() + e.getValue() < start) {
+			e = byStart.higherEntry(start);
+		}
+		while (e != null && e.getKey() <= mergedEnd) {
+			int eStart = e.getKey();
+			int eEnd = eStart + e.getValue();
+			removeExtent(eStart, e.getValue());
+			mergedStart = Math.min(mergedStart, eStart);
+			mergedEnd = Math.max(mergedEnd, eEnd);
+			e = byStart.higherEntry(eStart);
+		}
+		addExtent(mergedStart, mergedEnd - mergedStart);
+		setBits(start, run, false);
+	}
+
+	/**
+	 * Extend the map to newNumPages pages. The added pages are free, and the
+	 * map pages covering them are dirty.
+	 */
+	void grow(int newNumPages) {
+		int oldNumPages = numPages;
+		numPages = newNumPages;
+		words = Arrays.copyOf(words, (newNumPages + 63) >>> 6);
+		dirty = Arrays.copyOf(dirty, numMapPages());
+		markFree(oldNumPages, newNumPages - oldNumPages);
+	}
+
+	/**
+	 * Returns the first page of the free extent that ends the map, or the
+	 * number of pages if the last page is allocated.
+	 */
+	int freeTailStart() {
+		Map.Entry<Integer, Integer> last = byStart.lastEntry();
+		if (last != null && last.getKey() + last.getValue() == numPages) {
+			return last.getKey();
+		}
+		return numPages;
+	}
+
+	/**
+	 * Returns true if the page is allocated. This one may be called without
+	 * the latch, and then may miss a change made meanwhile; a page past the
+	 * end of the map is not allocated.
+	 */
+	boolean isAllocated(int page) {
+		long[] words = this.words;
+		return page >= 0 && page >>> 6 < words.length && (words[page >>> 6] & (1L << page)) != 0;
+	}
+
+	/**
+	 * Returns true if space-map page mapPage changed since the last sync.
+	 */
+	boolean isDirty(int mapPage) {
+		return dirty[mapPage];
+	}
+
+	/**
+	 * Copy the bits of space-map page mapPage into its on-disk image and mark
+	 * it clean.
+	 */
+	void storeMapPage(int mapPage, byte[] pagebuf) {
+		int firstBit = mapPage * bitsPerMapPage;
+		int numBits = Math.min(bitsPerMapPage, numPages - firstBit);
+		int firstWord = firstBit >>> 6;
+		int numBytes = (numBits + 7) >>> 3;
+		for (int byteptr = 0; byteptr < numBytes; byteptr++) {
+			pagebuf[byteptr] = (byte) (words[firstWord + (byteptr >>> 3)] >>> ((byteptr & 7) * 8));
+		}
+		dirty[mapPage] = false;
+	}
+
+	/**
+	 * Flip the bits of the run and mark the map pages holding them dirty.
+	 */
+	private void setBits(int start, int run, boolean allocated) {
+		int end = start + run;
+		int w = start >>> 6;
+		int lastWord = (end - 1) >>> 6;
+		for (; w <= lastWord; w++) {
+			long mask = -1L;
+			if (w == start >>> 6) {
+				mask &= -1L << start;
+			}
+			if (w == lastWord && (end & 63) != 0) {
+				mask &= (1L << end) - 1;
+			}
+			if (allocated) {
+				words[w] |= mask;
+			} else {
+				words[w] &= ~mask;
+			}
+		}
+		for (int m = start / bitsPerMapPage; m <= (end - 1) / bitsPerMapPage; m++) {
+			dirty[m] = true;
+		}
+	}
+
+	/**
+	 * Returns the first free page at or after page, or numPages.
+	 */
+	private int nextFree(int page) {
+		int w = page >>> 6;
+		if (w >= words.length) {
+			return numPages;
+		}
+		long free = ~words[w] & (-1L << page);
+		while (free == 0) {
+			if (++w == words.length) {
+				return numPages;
+			}
+			free = ~words[w];
+		}
+		return Math.min(numPages, (w << 6) + Long.numberOfTrailingZeros(free));
+	}
+
+	/**
+	 * Returns the first allocated page at or after page, or numPages.
+	 */
+	private int nextAllocated(int page) {
+		int w = page >>> 6;
+		if (w >= words.length) {
+			return numPages;
+		}
+		long used = words[w] & (-1L << page);
+		while (used == 0) {
+			if (++w == words.length) {
+				return numPages;
+			}
+			used = words[w];
+		}
+		return Math.min(numPages, (w << 6) + Long.numberOfTrailingZeros(used));
+	}
+
+	private void addExtent(int start, int length) {
+		if (length > 0) {
+			byStart.put(start, length);
+			bySize.add(((long) length << 32) | start);
+		}
+	}
+
+	private void removeExtent(int start, int length) {
+		byStart.remove(start);
+		bySize.remove(((long) length << 32) | start);
+	}
+}
@@ -0,0 +1,206 @@
+package diskmgr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A PageFile that spreads the database over several data files, possibly on
+ * different volumes. Pages are striped round-robin in units of stripePages
+ * pages: unit u lives in file u % n, at unit position u / n of that file. Each
+ * data file is a PageFile of its own, so pages on different files are read and
+ * written in parallel, and a run that crosses files is split into one run per
+ * file, issued concurrently on threads of the striped file's own, so blocking
+ * file I/O stays off the common fork-join pool.
+ *
+ * Page 0 is always at the start of the first file, so a database can be opened
+ * by its first file alone. Every data file is timed on its own, so a slow
+ * volume shows in the I/O statistics.
+ */
+class StripedPageFile implements PageFile {
+
+	private final PageFile[] files;
+
+	/** stripePages: pages per stripe unit. */
+	private final int stripePages;
+
+	/** pageSize: the database page size in bytes. */
+	private final int pageSize;
+
+	/** io: runs the per-file parts of a run; a thread per data file at most, started as needed. */
+	private final ExecutorService io;
+
+	StripedPageFile(File[] files, int stripePages, String ioMode, int pageSize, IOStats stats) throws IOException {
+		if (stripePages < 1) {
+			throw new IllegalArgumentException("Invalid stripe size " + stripePages);
+		}
+		this.stripePages = stripePages;
+		this.pageSize = pageSize;
+		this.files = new PageFile[files.length];
+		try {
+			for (int i = 0; i < files.length; i++) {
+				this.files[i] = new TimedPageFile(PageFile.open(files[i], ioMode, pageSize),
+						stats.device(files[i].getPath()));
+			}
+		} catch (IOException | RuntimeException e) {
+			for (PageFile opened : this.files) {
+				if (opened != null) {
+					opened.close();
+				}
+			}
+			throw e;
+		}
+		io = Executors.newFixedThreadPool(files.length, task -> {
+			Thread thread = new Thread(task, "minibase-stripe-io");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public void read(int pageno, byte[] buffer) throws IOException {
+		files[fileOf(pageno)].read(pageInFile(pageno), buffer);
+	}
+
+	@Override
+	public void write(int pageno, byte[] buffer) throws IOException {
+		files[fileOf(pageno)].write(pageInFile(pageno), buffer);
+	}
+
+	@Override
+	public void readRun(int firstpage, byte[][] buffers) throws IOException {
+		run(firstpage, buffers, false);
+	}
+
+	@Override
+	public void writeRun(int firstpage, byte[][] buffers) throws IOException {
+		run(firstpage, buffers, true);
+	}
+
+	/**
+	 * Give every data file its share of a database of length bytes.
+	 */
+	@Override
+	public void setLength(long length) throws IOException {
+		long pages = length / pageSize;
+		for (int i = 0; i < files.length; i++) {
+			files[i].setLength(pagesInFile(pages, i) * pageSize);
+		}
+	}
+
+	@Override
+	public void force() throws IOException {
+		for (PageFile file : files) {
+			file.force();
+		}
+	}
+
+	@Override
+	public void sync() throws IOException {
+		for (PageFile file : files) {
+			file.sync();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		io.shutdown();
+		IOException failure = null;
+		for (PageFile file : files) {
+			try {
+				file.close();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private int fileOf(int pageno) {
+		return (pageno / stripePages) % files.length;
+	}
+
+	private int pageInFile(int pageno) {
+		int unit = pageno / stripePages;
+		return (unit / files.length) * stripePages + pageno % stripePages;
+	}
+
+	/**
+	 * Number of pages file i holds in a database of the given number of pages.
+	 */
+	private long pagesInFile(long pages, int i) {
+		long units = pages / stripePages;
+		long pagesInFile = (units / files.length) * stripePages;
+		if (i < units % files.length) {
+			pagesInFile += stripePages;
+		} else if (i == units % files.length) {
+			pagesInFile += pages % stripePages;
+		}
+		return pagesInFile;
+	}
+
+	/**
+	 * Split a run into its stripe units, group the units by data file, and move
+	 * each file's pages concurrently. Consecutive units of one file are at
+	 * consecutive positions in it, so each file gets a single run.
+	 */
+	private void run(int firstpage, byte[][] buffers, boolean write) throws IOException {
+		if (firstpage / stripePages == (firstpage + buffers.length - 1) / stripePages) {
+			// the whole run is inside one stripe unit
+			PageFile file = files[fileOf(firstpage)];
+			if (write) {
+				file.writeRun(pageInFile(firstpage), buffers);
+			} else {
+				file.readRun(pageInFile(firstpage), buffers);
+			}
+			return;
+		}
+
+		List<CompletableFuture<Void>> pending = new ArrayList<CompletableFuture<Void>>();
+		for (int f = 0; f < files.length; f++) {
+			List<byte[]> mine = new ArrayList<byte[]>();
+			int start = -1;
+			for (int i = 0; i < buffers.length; i++) {
+				if (fileOf(firstpage + i) == f) {
+					if (start < 0) {
+						start = pageInFile(firstpage + i);
+					}
+					mine.add(buffers[i]);
+				}
+			}
+			if (mine.isEmpty()) {
+				continue;
+			}
+			final PageFile file = files[f];
+			final int first = start;
+			final byte[][] part = mine.toArray(new byte[mine.size()][]);
+			pending.add(CompletableFuture.runAsync(() -> {
+				try {
+					if (write) {
+						file.writeRun(first, part);
+					} else {
+						file.readRun(first, part);
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, io));
+		}
+		try {
+			CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+}
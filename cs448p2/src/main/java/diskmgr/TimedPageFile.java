@@ -0,0 +1,68 @@
+package diskmgr;
+
+import java.io.IOException;
+
+/**
+ * A PageFile that times every read, write and force of the PageFile it wraps
+ * into the latency histograms of one data file.
+ */
+class TimedPageFile implements PageFile {
+
+	private final PageFile file;
+	private final IOStats.DeviceCounters device;
+
+	TimedPageFile(PageFile file, IOStats.DeviceCounters device) {
+		this.file = file;
+		this.device = device;
+	}
+
+	@Override
+	public void read(int pageno, byte[] buffer) throws IOException {
+		long start = System.nanoTime();
+		file.read(pageno, buffer);
+		device.read.record(System.nanoTime() - start);
+	}
+
+	@Override
+	public void write(int pageno, byte[] buffer) throws IOException {
+		long start = System.nanoTime();
+		file.write(pageno, buffer);
+		device.write.record(System.nanoTime() - start);
+	}
+
+	@Override
+	public void readRun(int firstpage, byte[][] buffers) throws IOException {
+		long start = System.nanoTime();
+		file.readRun(firstpage, buffers);
+		device.read.record(System.nanoTime() - start);
+	}
+
+	@Override
+	public void writeRun(int firstpage, byte[][] buffers) throws IOException {
+		long start = System.nanoTime();
+		file.writeRun(firstpage, buffers);
+		device.write.record(System.nanoTime() - start);
+	}
+
+	@Override
+	public void setLength(long length) throws IOException {
+		file.setLength(length);
+	}
+
+	@Override
+	public void force() throws IOException {
+		long start = System.nanoTime();
+		file.force();
+		device.sync.record(System.nanoTime() - start);
+	}
+
+	@Override
+	public void sync() throws IOException {
+		file.sync();
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+}
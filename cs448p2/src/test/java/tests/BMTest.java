@@ -12,6 +12,7 @@ import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
+import diskmgr.DiskMgr;
 import diskmgr.DiskMgrException;
 import diskmgr.OutOfSpaceException;
 import global.Convert;
@@ -35,6 +36,9 @@ public class BMTest implements GlobalConst {
 	/** Default number of pages to be looked ahead */
 	private final static int LAH_SIZE = 10;
 
+	/** No read-ahead, for tests that count on knowing which pages are in the pool */
+	private final static int NO_LAH = 0;
+
 	// Filepaths
 	private static String dbpath;
 	private static String logpath;
@@ -949,4 +953,1170 @@ public class BMTest implements GlobalConst {
 		}
 	}
 
+	@Test
+	public void testP_PinRange() {
+		int runSize = 20;
+		try {
+			first_pid = Minibase.BufferManager.newPage(pg, runSize);
+			Minibase.BufferManager.unpinPage(first_pid, false);
+		} catch (Exception e) {
+			assertTrue("Unexpected Failure: error with initial allocation", false);
+		} catch (BufMgrException e) {
+			assertTrue("Unexpected Failure: error with initial allocation", false);
+		}
+
+		// Write the rest of the run straight to disk, then bring one page of it
+		// into the pool
+		first_pid.pid = first_pid.pid + 1;
+		runSize--;
+		try {
+			Page data = new Page();
+			for (pid.pid = first_pid.pid; pid.pid < first_pid.pid + runSize; pid.pid = pid.pid + 1) {
+				Convert.setIntValue(pid.pid + 99999, 0, data.getpage());
+				Minibase.DiskManager.write_page(pid, data);
+			}
+			Minibase.BufferManager.pinPage(new PageId(first_pid.pid + 5), pg, false);
+		} catch (Exception e) {
+			assertTrue("Unexpected Failure: error writing the run", false);
+		} catch (BufMgrException e) {
+			assertTrue("Unexpected Failure: error writing the run", false);
+		}
+
+		Page[] pages = new Page[runSize];
+		try {
+			Minibase.BufferManager.pinRange(first_pid, runSize, pages);
+		} catch (BufferPoolExceededException e) {
+			assertTrue("Unexpected Failure: Buffer Pool Full pinning a run", false);
+		} catch (DiskMgrException e) {
+			assertTrue("Unexpected Failure: error with DiskMgr pinning a run", false);
+		}
+
+		// Every page of the run is pinned once, the one that was resident twice
+		try {
+			for (int i = 0; i < runSize; i++) {
+				pid.pid = first_pid.pid + i;
+				Integer fnum = Minibase.BufferManager.getFrameFromPage(pid);
+				if (fnum == null)
+					assertTrue("Failed: page " + pid.pid + " of the run not in hash table", false);
+				checkFDContents(Minibase.BufferManager.getFrameDesc(fnum), pid.pid, i == 5 ? 2 : 1, false);
+				assertTrue("Failed: wrong contents for page " + pid.pid,
+						Convert.getIntValue(0, pages[i].getpage()) == pid.pid + 99999);
+			}
+		} catch (IOException e) {
+			assertTrue("Unexpected Failure: " + e, false);
+		}
+	}
+
+	@Test
+	public void testQ_PinRangeBufferFull() {
+		try {
+			first_pid = Minibase.BufferManager.newPage(pg, numPages + 1);
+			Minibase.BufferManager.unpinPage(first_pid, false);
+		} catch (Exception e) {
+			assertTrue("Unexpected Failure: error with initial allocation", false);
+		} catch (BufMgrException e) {
+			assertTrue("Unexpected Failure: error with initial allocation", false);
+		}
+
+		// A run larger than the pool can't be pinned, and must leave nothing pinned
+		try {
+			Minibase.BufferManager.pinRange(first_pid, numPages + 1, new Page[numPages + 1]);
+			assertTrue("Failure: expected BufferPoolExceeded exception not thrown for an oversized run", false);
+		} catch (BufferPoolExceededException e) {
+			assertTrue(true);
+		} catch (DiskMgrException e) {
+			assertTrue("Unexpected Failure: error with DiskMgr pinning a run", false);
+		}
+		assertTrue("Failure: pages left pinned after a failed pinRange",
+				Minibase.BufferManager.getNumUnpinned() == numPages);
+	}
+
+	/**
+	 * Pin and unpin page pageno of bm once.
+	 */
+	private static void touch(BufMgr bm, int pageno) throws Throwable {
+		bm.pinPage(new PageId(pageno), new Page(), false);
+		bm.unpinPage(new PageId(pageno), false);
+	}
+
+	@Test
+	public void testR_ReplacementPolicies() throws Throwable {
+		int frames = 8;
+		int runSize = 64;
+		first_pid = Minibase.DiskManager.allocate_page(runSize);
+		Page data = new Page();
+		for (int i = 0; i < runSize; i++) {
+			Convert.setIntValue(first_pid.pid + i + 99999, 0, data.getpage());
+			Minibase.DiskManager.write_page(new PageId(first_pid.pid + i), data);
+		}
+		int base = first_pid.pid;
+
+		String[] policies = { "FIFO", "LRU", "Clock", "LRU-K", "LRU-3", "2Q" };
+		for (String policy : policies) {
+			BufMgr bm = new BufMgr(frames, NO_LAH, policy);
+
+			// Random pins and unpins: a pinned page never moves, and a pool full of
+			// pinned pages refuses another
+			java.util.Random random = new java.util.Random(42);
+			int[] pins = new int[runSize];
+			Integer[] frameOf = new Integer[runSize];
+			int pinnedPages = 0;
+			for (int step = 0; step < 2000; step++) {
+				int i = random.nextInt(runSize);
+				if (pins[i] > 0 && random.nextBoolean()) {
+					bm.unpinPage(new PageId(base + i), false);
+					if (--pins[i] == 0)
+						pinnedPages--;
+				} else if (pins[i] == 0 && pinnedPages == frames) {
+					try {
+						bm.pinPage(new PageId(base + i), new Page(), false);
+						assertTrue(policy + ": expected BufferPoolExceeded exception not thrown", false);
+					} catch (BufferPoolExceededException e) {
+						assertTrue(true);
+					}
+				} else {
+					Page page = new Page();
+					bm.pinPage(new PageId(base + i), page, false);
+					assertTrue(policy + ": wrong contents for page " + (base + i),
+							Convert.getIntValue(0, page.getpage()) == base + i + 99999);
+					if (pins[i]++ == 0) {
+						pinnedPages++;
+						frameOf[i] = bm.getFrameFromPage(new PageId(base + i));
+					}
+				}
+				for (int j = 0; j < runSize; j++) {
+					if (pins[j] > 0)
+						assertTrue(policy + ": pinned page " + (base + j) + " was evicted",
+								frameOf[j].equals(bm.getFrameFromPage(new PageId(base + j))));
+				}
+			}
+			for (int i = 0; i < runSize; i++) {
+				while (pins[i]-- > 0)
+					bm.unpinPage(new PageId(base + i), false);
+			}
+			assertTrue(policy + ": pages left pinned", bm.getNumUnpinned() == frames);
+		}
+
+		// FIFO and LRU evict the page unpinned longest ago
+		for (String policy : new String[] { "FIFO", "LRU" }) {
+			BufMgr bm = new BufMgr(frames, NO_LAH, policy);
+			for (int i = 0; i < frames; i++)
+				touch(bm, base + i);
+			touch(bm, base);
+			touch(bm, base + frames);
+			assertTrue(policy + ": page unpinned last was evicted", bm.getFrameFromPage(new PageId(base)) != null);
+			assertTrue(policy + ": page unpinned first was not evicted",
+					bm.getFrameFromPage(new PageId(base + 1)) == null);
+		}
+
+		// Clock keeps a frame in its place on the circle when its page is used
+		// again, and only that sets its bit. The misses evict the pages in the
+		// order they were loaded, passing over page 3 once, and the hand then
+		// comes round to page 8, loaded after page 3 was last used, before it
+		// gets back to page 3
+		{
+			BufMgr bm = new BufMgr(frames, NO_LAH, "Clock");
+			for (int i = 0; i < frames; i++)
+				touch(bm, base + i);
+			touch(bm, base + 3);
+			for (int i = frames; i < 2 * frames; i++)
+				touch(bm, base + i);
+			assertTrue("Clock: page used again was evicted on the first pass",
+					bm.getFrameFromPage(new PageId(base + 3)) != null);
+			assertTrue("Clock: page the hand reached first was not evicted",
+					bm.getFrameFromPage(new PageId(base + frames)) == null);
+		}
+
+		// LRU-K and 2Q keep pages that are used again through a long scan
+		for (String policy : new String[] { "LRU-K", "2Q" }) {
+			BufMgr bm = new BufMgr(frames, NO_LAH, policy);
+			int hot = frames / 4;
+			for (int i = 0; i < frames + hot; i++)
+				touch(bm, base + i);
+			for (int i = 0; i < hot; i++) {
+				touch(bm, base + i);
+				touch(bm, base + i);
+			}
+			for (int i = frames + hot; i < runSize; i++)
+				touch(bm, base + i);
+			for (int i = 0; i < hot; i++)
+				assertTrue(policy + ": hot page " + (base + i) + " was evicted by a scan",
+						bm.getFrameFromPage(new PageId(base + i)) != null);
+		}
+
+		try {
+			new BufMgr(frames, NO_LAH, "MRU");
+			assertTrue("Failure: unknown replacement policy accepted", false);
+		} catch (IllegalArgumentException e) {
+			assertTrue(true);
+		}
+	}
+
+	@Test
+	public void testS_PinWithoutAllocation() throws Throwable {
+		int frames = 16;
+		int runSize = 4 * frames;
+		first_pid = Minibase.DiskManager.allocate_page(runSize);
+		Page data = new Page();
+		for (int i = 0; i < runSize; i++) {
+			Convert.setIntValue(first_pid.pid + i + 99999, 0, data.getpage());
+			Minibase.DiskManager.write_page(new PageId(first_pid.pid + i), data);
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory
+				.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+
+		for (String policy : new String[] { "FIFO", "Clock", "LRU-K", "2Q" }) {
+			BufMgr bm = new BufMgr(frames, NO_LAH, policy);
+			Page page = new Page();
+			PageId id = new PageId();
+			// hits cycle over half the pool, misses over the whole run in order
+			for (int cycle : new int[] { frames / 2, runSize }) {
+				// the first round warms up. The JVM still allocates a few hundred
+				// bytes on this thread whenever it hands a method to C2, which
+				// resolves the string constants of the method's class first, so the
+				// measured round is long and may not allocate a byte per pin; a pin
+				// that allocates anything at all costs 16 bytes or more
+				for (int round = 0; round < 2; round++) {
+					int pins = (round == 0 ? 20 : 1000) * runSize;
+					long before = threads.getThreadAllocatedBytes(thread);
+					for (int i = 0; i < pins; i++) {
+						id.pid = first_pid.pid + i % cycle;
+						bm.pinPage(id, page, false);
+						bm.unpinPage(id, false);
+					}
+					long allocated = threads.getThreadAllocatedBytes(thread) - before;
+					if (round > 0)
+						assertTrue(policy + ": " + allocated + " bytes allocated by " + pins + " "
+								+ (cycle == runSize ? "misses" : "hits"), allocated < pins);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testT_ConcurrentPins() throws Throwable {
+		final int frames = 32;
+		final int numThreads = 8;
+		final int runSize = 4 * frames;
+		final int rounds = 20;
+		first_pid = Minibase.DiskManager.allocate_page(runSize + rounds);
+		final int base = first_pid.pid;
+		Page data = new Page();
+		for (int i = 0; i < runSize + rounds; i++) {
+			Convert.setIntValue(base + i + 99999, 0, data.getpage());
+			Minibase.DiskManager.write_page(new PageId(base + i), data);
+		}
+
+		for (String policy : new String[] { "FIFO", "Clock", "LRU-K", "2Q" }) {
+			final BufMgr bm = new BufMgr(frames, NO_LAH, policy);
+			final int[][] writes = new int[numThreads][runSize];
+			final java.util.concurrent.atomic.AtomicReference<Throwable> failure = new java.util.concurrent.atomic.AtomicReference<Throwable>();
+			final java.util.concurrent.CyclicBarrier barrier = new java.util.concurrent.CyclicBarrier(numThreads);
+			final long[] reads = new long[rounds];
+			Thread[] threads = new Thread[numThreads];
+			for (int t = 0; t < numThreads; t++) {
+				final int me = t;
+				threads[t] = new Thread(() -> {
+					try {
+						// random pins, unpins and runs; each thread writes only its own
+						// pages, and counts what it wrote in them
+						java.util.Random random = new java.util.Random(me);
+						Page page = new Page();
+						Page[] run = new Page[3];
+						for (int step = 0; step < 20000; step++) {
+							int i = random.nextInt(runSize);
+							if (random.nextInt(8) == 0 && i + run.length <= runSize) {
+								bm.pinRange(new PageId(base + i), run.length, run);
+								for (int j = 0; j < run.length; j++) {
+									if (Convert.getIntValue(0, run[j].getpage()) != base + i + j + 99999)
+										throw new AssertionError("wrong contents for page " + (base + i + j) + " in a run");
+									bm.unpinPage(new PageId(base + i + j), false);
+								}
+								continue;
+							}
+							PageId pid = new PageId(base + i);
+							bm.pinPage(pid, page, false);
+							if (Convert.getIntValue(0, page.getpage()) != base + i + 99999)
+								throw new AssertionError("wrong contents for page " + (base + i));
+							boolean mine = i % numThreads == me;
+							if (mine) {
+								Convert.setIntValue(Convert.getIntValue(4, page.getpage()) + 1, 4, page.getpage());
+								writes[me][i]++;
+							}
+							bm.unpinPage(pid, mine);
+						}
+
+						// every thread pins the same page at once; only one reads it
+						for (int round = 0; round < rounds; round++) {
+							PageId pid = new PageId(base + runSize + round);
+							if (barrier.await() == 0)
+								reads[round] = Minibase.DiskManager.io_stats().snapshot().pagesRead();
+							barrier.await();
+							bm.pinPage(pid, page, false);
+							if (barrier.await() == 0)
+								reads[round] = Minibase.DiskManager.io_stats().snapshot().pagesRead() - reads[round];
+							bm.unpinPage(pid, false);
+						}
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+						barrier.reset();
+					}
+				});
+				threads[t].start();
+			}
+			for (Thread thread : threads)
+				thread.join();
+			if (failure.get() != null)
+				throw new AssertionError(policy + ": " + failure.get(), failure.get());
+
+			assertTrue(policy + ": pages left pinned", bm.getNumUnpinned() == frames);
+			for (int round = 0; round < rounds; round++)
+				assertTrue(policy + ": a page pinned by " + numThreads + " threads at once was read " + reads[round]
+						+ " times", reads[round] == 1);
+			bm.flushAllPages();
+			for (int i = 0; i < runSize; i++) {
+				Minibase.DiskManager.read_page(new PageId(base + i), data);
+				assertTrue(policy + ": lost writes to page " + (base + i),
+						Convert.getIntValue(4, data.getpage()) == writes[i % numThreads][i]);
+				// start the next policy from zero
+				Convert.setIntValue(0, 4, data.getpage());
+				Minibase.DiskManager.write_page(new PageId(base + i), data);
+			}
+		}
+	}
+
+	@Test
+	public void testU_PageCleaner() throws Throwable {
+		int frames = 32;
+		first_pid = Minibase.DiskManager.allocate_page(frames);
+		int base = first_pid.pid;
+		Page data = new Page();
+
+		for (String policy : new String[] { "FIFO", "Clock", "LRU-K", "2Q" }) {
+			int stamp = policy.hashCode();
+			BufMgr bm = new BufMgr(frames, NO_LAH, policy);
+			bm.setDirtyRatio(0.25);
+			Page page = new Page();
+			diskmgr.IOStats.Snapshot before = Minibase.DiskManager.io_stats().snapshot();
+			for (int i = 0; i < frames; i++) {
+				PageId pid = new PageId(base + i);
+				bm.pinPage(pid, page, false);
+				Convert.setIntValue(stamp + i, 0, page.getpage());
+				bm.unpinPage(pid, true);
+			}
+			// the cleaner brings the pool back under a quarter dirty
+			long deadline = System.currentTimeMillis() + 10000;
+			while (bm.getNumDirty() > frames / 4 && System.currentTimeMillis() < deadline)
+				Thread.sleep(10);
+			assertTrue(policy + ": " + bm.getNumDirty() + " frames still dirty", bm.getNumDirty() <= frames / 4);
+			diskmgr.IOStats.Snapshot after = Minibase.DiskManager.io_stats().snapshot();
+			long written = after.pagesWritten() - before.pagesWritten();
+			long calls = after.writeLatency.count() - before.writeLatency.count();
+			assertTrue(policy + ": the cleaner wrote " + written + " pages with " + calls + " writes",
+					written >= frames / 2 && calls < written);
+			for (int i = 0; i < frames; i++) {
+				FrameDescriptor fd = bm.getFrameDesc(bm.getFrameFromPage(new PageId(base + i)));
+				if (!fd.dirtyBit) {
+					Minibase.DiskManager.read_page(new PageId(base + i), data);
+					assertTrue(policy + ": page " + (base + i) + " is clean but not on disk",
+							Convert.getIntValue(0, data.getpage()) == stamp + i);
+				}
+			}
+
+			// flushAllPages writes the adjacent dirty pages together as well
+			bm.setDirtyRatio(1);
+			for (int i = 0; i < frames; i++) {
+				PageId pid = new PageId(base + i);
+				bm.pinPage(pid, page, false);
+				Convert.setIntValue(stamp - i, 0, page.getpage());
+				bm.unpinPage(pid, true);
+			}
+			assertTrue(policy + ": dirty frames miscounted", bm.getNumDirty() == frames);
+			before = Minibase.DiskManager.io_stats().snapshot();
+			bm.flushAllPages();
+			after = Minibase.DiskManager.io_stats().snapshot();
+			calls = after.writeLatency.count() - before.writeLatency.count();
+			assertTrue(policy + ": flushAllPages used " + calls + " writes for " + frames + " adjacent pages", calls <= 4);
+			assertTrue(policy + ": dirty frames left after flushAllPages", bm.getNumDirty() == 0);
+			for (int i = 0; i < frames; i++) {
+				Minibase.DiskManager.read_page(new PageId(base + i), data);
+				assertTrue(policy + ": page " + (base + i) + " was not flushed", Convert.getIntValue(0, data.getpage()) == stamp - i);
+			}
+		}
+	}
+
+	@Test
+	public void testV_ReadAhead() throws Throwable {
+		int frames = 64;
+		int lookAhead = 8;
+		int runSize = 512;
+		first_pid = Minibase.DiskManager.allocate_page(runSize);
+		int base = first_pid.pid;
+		Page data = new Page();
+		for (int i = 0; i < runSize; i++) {
+			Convert.setIntValue(base + i + 99999, 0, data.getpage());
+			Minibase.DiskManager.write_page(new PageId(base + i), data);
+		}
+
+		for (String policy : new String[] { "FIFO", "Clock", "LRU-K", "2Q" }) {
+			// two interleaved scans each get their own stream, and nearly every pin
+			// finds its page read ahead
+			BufMgr bm = new BufMgr(frames, lookAhead, policy);
+			Page page = new Page();
+			int misses = 0;
+			for (int i = 0; i < runSize / 2; i++) {
+				for (int scan : new int[] { base + i, base + runSize / 2 + i }) {
+					PageId pid = new PageId(scan);
+					if (bm.getFrameFromPage(pid) == null)
+						misses++;
+					bm.pinPage(pid, page, false);
+					assertTrue(policy + ": wrong contents for page " + pid.pid,
+							Convert.getIntValue(0, page.getpage()) == pid.pid + 99999);
+					bm.unpinPage(pid, false);
+				}
+			}
+			assertTrue(policy + ": " + misses + " of " + runSize + " scan pins missed", misses <= runSize / 16);
+
+			// short runs read pages ahead that are never used; a hot set touched
+			// between them stays in the pool all the same
+			bm = new BufMgr(frames, lookAhead, policy);
+			int hot = frames / 4;
+			for (int round = 0; round < 20; round++) {
+				for (int i = 0; i < hot; i++) {
+					PageId pid = new PageId(base + i);
+					assertTrue(policy + ": hot page " + pid.pid + " pushed out in round " + round,
+							round == 0 || bm.getFrameFromPage(pid) != null);
+					bm.pinPage(pid, page, false);
+					bm.unpinPage(pid, false);
+				}
+				for (int jump = 0; jump < 6; jump++) {
+					int start = base + hot + ((round * 6 + jump) * 13) % (runSize - hot - 2);
+					for (int j = 0; j < 2; j++) {
+						PageId pid = new PageId(start + j);
+						bm.pinPage(pid, page, false);
+						assertTrue(policy + ": wrong contents for page " + pid.pid,
+								Convert.getIntValue(0, page.getpage()) == pid.pid + 99999);
+						bm.unpinPage(pid, false);
+					}
+				}
+			}
+			assertTrue(policy + ": pages left pinned", bm.getNumUnpinned() == frames);
+		}
+	}
+
+	@Test
+	public void testW_OffHeapCache() throws Throwable {
+		int frames = 8;
+		int runSize = 32;
+		int pageSize = Minibase.DiskManager.db_page_size();
+		first_pid = Minibase.DiskManager.allocate_page(runSize);
+		int base = first_pid.pid;
+		Page data = new Page(new byte[pageSize]);
+		for (int i = 0; i < runSize; i++) {
+			Convert.setIntValue(base + i + 99999, 0, data.getpage());
+			Minibase.DiskManager.write_page(new PageId(base + i), data);
+		}
+
+		// a cache that holds the whole run serves the second pass without a read,
+		// dirty pages included
+		BufMgr bm = new BufMgr(frames, NO_LAH, "FIFO", 2L * runSize * pageSize);
+		// the DiskMgr tells Minibase's buffer manager of the pages it writes
+		Minibase.BufferManager = bm;
+		Page page = new Page();
+		for (int i = 0; i < runSize; i++) {
+			PageId pid = new PageId(base + i);
+			bm.pinPage(pid, page, false);
+			if (i % 2 == 0)
+				Convert.setIntValue(base + i, 4, page.getpage());
+			bm.unpinPage(pid, i % 2 == 0);
+		}
+		long reads = Minibase.DiskManager.io_stats().snapshot().pagesRead();
+		for (int i = 0; i < runSize; i++) {
+			PageId pid = new PageId(base + i);
+			bm.pinPage(pid, page, false);
+			assertTrue("Failure: wrong contents for page " + pid.pid + " from the off-heap cache",
+					Convert.getIntValue(0, page.getpage()) == base + i + 99999
+							&& Convert.getIntValue(4, page.getpage()) == (i % 2 == 0 ? base + i : 0));
+			bm.unpinPage(pid, false);
+		}
+		reads = Minibase.DiskManager.io_stats().snapshot().pagesRead() - reads;
+		assertTrue("Failure: " + reads + " pages read from disk with every page cached off the heap", reads == 0);
+
+		// a freed page is dropped from the cache
+		PageId freed = new PageId(base);
+		bm.freePage(freed);
+		Minibase.DiskManager.allocate_page(freed);
+		Convert.setIntValue(-1, 0, data.getpage());
+		Minibase.DiskManager.write_page(freed, data);
+		bm.pinPage(freed, page, false);
+		assertTrue("Failure: a freed page was served from the off-heap cache", Convert.getIntValue(0, page.getpage()) == -1);
+		bm.unpinPage(freed, false);
+
+		// so are pages the DiskMgr writes itself, one at a time or in a run,
+		// while the cache holds them
+		for (int i = 0; i < runSize; i++) {
+			bm.pinPage(new PageId(base + i), page, false);
+			bm.unpinPage(new PageId(base + i), false);
+		}
+		Convert.setIntValue(-2, 0, data.getpage());
+		Minibase.DiskManager.write_page(new PageId(base + 1), data);
+		Page[] run = { new Page(new byte[pageSize]), new Page(new byte[pageSize]) };
+		Convert.setIntValue(-3, 0, run[0].getpage());
+		Convert.setIntValue(-4, 0, run[1].getpage());
+		Minibase.DiskManager.write_pages(new PageId(base + 2), run);
+		for (int i = 1; i <= 3; i++) {
+			bm.pinPage(new PageId(base + i), page, false);
+			assertTrue("Failure: page " + (base + i) + " written by the DiskMgr was served from the off-heap cache",
+					Convert.getIntValue(0, page.getpage()) == -1 - i);
+			bm.unpinPage(new PageId(base + i), false);
+		}
+		bm.flushAllPages();
+
+		// a cache smaller than the run keeps what fits and reads the rest
+		bm = new BufMgr(frames, NO_LAH, "Clock", (runSize / 2) * pageSize);
+		for (int pass = 0; pass < 3; pass++) {
+			for (int i = 4; i < runSize; i++) {
+				PageId pid = new PageId(base + i);
+				bm.pinPage(pid, page, false);
+				assertTrue("Failure: wrong contents for page " + pid.pid + " with a small off-heap cache",
+						Convert.getIntValue(0, page.getpage()) == base + i + 99999);
+				bm.unpinPage(pid, false);
+			}
+		}
+	}
+
+	@Test
+	public void testX_PoolStats() throws Throwable {
+		int frames = 16;
+		PageId hot = Minibase.DiskManager.allocate_page(8);
+		PageId cold = Minibase.DiskManager.allocate_page(20);
+		Minibase.DiskManager.add_file_entry("hot", hot);
+		Minibase.DiskManager.add_file_entry("cold", cold);
+		BufMgr bm = new BufMgr(frames, NO_LAH, "FIFO");
+		Page page = new Page();
+
+		// 8 misses and 8 hits on hot; 8 dirty misses on cold fill the pool
+		for (int round = 0; round < 2; round++) {
+			for (int i = 0; i < 8; i++) {
+				bm.pinPage(new PageId(hot.pid + i), page, false);
+				bm.unpinPage(new PageId(hot.pid + i), false);
+			}
+		}
+		for (int i = 0; i < 8; i++) {
+			bm.pinPage(new PageId(cold.pid + i), page, false);
+			bm.unpinPage(new PageId(cold.pid + i), true);
+		}
+		// 12 more cold pages evict the 8 clean hot pages, then 4 dirty cold ones
+		for (int i = 8; i < 20; i++) {
+			bm.pinPage(new PageId(cold.pid + i), page, false);
+			bm.unpinPage(new PageId(cold.pid + i), false);
+		}
+		bm.flushAllPages();
+
+		PoolStats.Snapshot stats = bm.getStats().snapshot();
+		assertTrue("Failure: hits " + stats.hits + " misses " + stats.misses, stats.hits == 8 && stats.misses == 28);
+		assertTrue("Failure: hit ratio " + stats.hitRatio(), Math.abs(stats.hitRatio() - 8.0 / 36) < 1e-9);
+		assertTrue("Failure: " + stats.evictions + " evictions", stats.evictions == 12);
+		assertTrue("Failure: " + stats.evictionWrites + " pages written by eviction", stats.evictionWrites == 4);
+		assertTrue("Failure: " + stats.flushWrites + " pages written by flushAllPages", stats.flushWrites == 4);
+		assertTrue("Failure: residency " + stats.files, stats.frames("cold") == 16 && stats.frames("hot") == 0);
+		assertTrue("Failure: " + stats.pinDuration.count() + " pin durations sampled of 36 pins",
+				stats.pinDuration.count() <= 36);
+		assertTrue("Failure: " + stats.numDirty + " dirty frames after a flush", stats.numDirty == 0);
+
+		// a window counts from its reset on, and is what JMX shows
+		bm.getStats().resetWindow();
+		bm.pinPage(new PageId(cold.pid + 19), page, false);
+		bm.unpinPage(new PageId(cold.pid + 19), false);
+		PoolStats.Snapshot window = bm.getStats().window();
+		assertTrue("Failure: window of one hit has hits " + window.hits + " misses " + window.misses,
+				window.hits == 1 && window.misses == 0 && window.evictions == 0);
+		assertTrue("Failure: the window is longer than the life of the pool", window.nanos <= bm.getStats().snapshot().nanos);
+		assertTrue("Failure: snapshot lost the hits before the window", bm.getStats().snapshot().hits == 9);
+		javax.management.MBeanServer server = java.lang.management.ManagementFactory.getPlatformMBeanServer();
+		javax.management.ObjectName name = new javax.management.ObjectName("minibase:type=BufMgr");
+		assertTrue("Failure: JMX hits", server.getAttribute(name, "Hits").equals(1L));
+		server.invoke(name, "resetWindow", null, null);
+		assertTrue("Failure: JMX hits after resetWindow", server.getAttribute(name, "Hits").equals(0L));
+
+		// read-ahead of a scan is counted, and its pages are used
+		bm = new BufMgr(frames, 4, "FIFO");
+		for (int i = 0; i < 20; i++) {
+			bm.pinPage(new PageId(cold.pid + i), page, false);
+			bm.unpinPage(new PageId(cold.pid + i), false);
+		}
+		bm.flushAllPages();
+		stats = bm.getStats().snapshot();
+		assertTrue("Failure: read ahead " + stats.pagesReadAhead + " used " + stats.readAheadUsed,
+				stats.pagesReadAhead > 0 && stats.readAheadUsed > 0
+						&& stats.readAheadUsed + stats.readAheadUnused <= stats.pagesReadAhead);
+		assertTrue("Failure: " + (stats.hits + stats.misses) + " pins counted for 20", stats.hits + stats.misses == 20);
+	}
+
+	@Test
+	public void testY_NamedPools() throws Throwable {
+		BufMgr bm = Minibase.BufferManager;
+		BufMgr index = bm.addPool("index", 8, NO_LAH, "LRU-K");
+		BufMgr dir = bm.addPool("dir", 4, NO_LAH, "FIFO");
+		bm.assignFile("index", "index");
+		bm.assignFile("late", "index");
+		bm.assignDirectoryPages("dir");
+		assertTrue("Failure: pool names", java.util.Arrays.equals(bm.getPoolNames(), new String[] { BufMgr.DEFAULT_POOL, "index", "dir" }));
+		boolean thrown = false;
+		try {
+			bm.addPool("index", 8, NO_LAH, "FIFO");
+		} catch (IllegalArgumentException e) {
+			thrown = true;
+		}
+		assertTrue("Failure: a second pool called index was added", thrown);
+		thrown = false;
+		try {
+			bm.assignFile("data", "nowhere");
+		} catch (IllegalArgumentException e) {
+			thrown = true;
+		}
+		assertTrue("Failure: a file was assigned to a pool that does not exist", thrown);
+
+		int numData = 3 * bm.getNumBuffers();
+		PageId indexPages = Minibase.DiskManager.allocate_page(8);
+		PageId dataPages = Minibase.DiskManager.allocate_page(numData);
+		Minibase.DiskManager.add_file_entry("index", indexPages);
+		Minibase.DiskManager.add_file_entry("data", dataPages);
+
+		// the index working set, then a scan of three times the default pool
+		Page page = new Page();
+		for (int i = 0; i < 8; i++) {
+			PageId pid = new PageId(indexPages.pid + i);
+			bm.pinPage(pid, page, false);
+			Convert.setIntValue(pid.pid, 0, page.getpage());
+			bm.unpinPage(pid, true);
+		}
+		for (int i = 0; i < numData; i++) {
+			PageId pid = new PageId(dataPages.pid + i);
+			bm.pinPage(pid, page, false);
+			bm.unpinPage(pid, false);
+		}
+		for (int i = 0; i < 8; i++) {
+			PageId pid = new PageId(indexPages.pid + i);
+			assertTrue("Failure: index page " + pid.pid + " is not in the index pool", index.getFrameFromPage(pid) != null);
+			assertTrue("Failure: index page " + pid.pid + " is in the default pool", bm.getFrameFromPage(pid) == null);
+			bm.pinPage(pid, page, false);
+			bm.unpinPage(pid, false);
+		}
+		PoolStats.Snapshot indexStats = index.getStats().snapshot();
+		assertTrue("Failure: index pool hits " + indexStats.hits + " misses " + indexStats.misses,
+				indexStats.hits == 8 && indexStats.misses == 8);
+		assertTrue("Failure: the scan went through the index pool", index.getStats().snapshot().frames("data") == 0);
+
+		// directory pages land in their own pool once the scan pushed them out of the default one
+		Minibase.DiskManager.add_file_entry("other", new PageId(dataPages.pid + 1));
+		assertTrue("Failure: the first page is not in the directory pool", dir.getFrameFromPage(new PageId(0)) != null);
+		assertTrue("Failure: the first page is in the default pool", bm.getFrameFromPage(new PageId(0)) == null);
+
+		// a page pinned before its file entry exists is unpinned where it is
+		PageId late = bm.newPage(page, 1);
+		Minibase.DiskManager.add_file_entry("late", late);
+		bm.unpinPage(late, true);
+		assertTrue("Failure: the late page moved pools while pinned", bm.getFrameFromPage(late) != null);
+		bm.freePage(late);
+		assertTrue("Failure: the late page was not freed", !bm.contains(late));
+
+		// flushAllPages writes every pool
+		bm.flushAllPages();
+		assertTrue("Failure: dirty pages left in the index pool", index.getNumDirty() == 0);
+		Page data = new Page();
+		for (int i = 0; i < 8; i++) {
+			PageId pid = new PageId(indexPages.pid + i);
+			Minibase.DiskManager.read_page(pid, data);
+			assertTrue("Failure: index page " + pid.pid + " was not written", Convert.getIntValue(0, data.getpage()) == pid.pid);
+		}
+	}
+
+	/**
+	 * Test named pools with the pages of an index and a data file allocated
+	 * in turns, as a table and its index grow together: each page goes to the
+	 * pool of the file it was allocated for, not of the nearest start page.
+	 */
+	@Test
+	public void testY_NamedPoolsInterleaved() throws Throwable {
+		BufMgr bm = Minibase.BufferManager;
+		BufMgr index = bm.addPool("index", 8, NO_LAH, "LRU");
+		bm.assignFile("index", "index");
+
+		int numData = 3 * bm.getNumBuffers();
+		PageId[] indexPages = new PageId[8];
+		PageId[] dataPages = new PageId[numData];
+		Page page = new Page();
+		for (int i = 0; i < numData; i++) {
+			dataPages[i] = bm.newPage(page, 1, "data");
+			bm.unpinPage(dataPages[i], true);
+			if (i % 3 == 0 && i / 3 < indexPages.length) {
+				PageId pid = bm.newPage(page, 1, "index");
+				Convert.setIntValue(pid.pid, 0, page.getpage());
+				bm.unpinPage(pid, true);
+				indexPages[i / 3] = pid;
+			}
+		}
+		Minibase.DiskManager.add_file_entry("data", dataPages[0]);
+		Minibase.DiskManager.add_file_entry("index", indexPages[0]);
+		for (int i = 0; i < indexPages.length; i++) {
+			assertTrue("Failure: index page " + indexPages[i].pid + " is in the default pool", bm.getFrameFromPage(indexPages[i]) == null);
+		}
+
+		// a scan of the data file between the index pages leaves them alone
+		for (int i = 0; i < numData; i++) {
+			bm.pinPage(dataPages[i], page, false);
+			bm.unpinPage(dataPages[i], false);
+			assertTrue("Failure: data page " + dataPages[i].pid + " went to the index pool", index.getFrameFromPage(dataPages[i]) == null);
+		}
+		for (int i = 0; i < indexPages.length; i++) {
+			PageId pid = indexPages[i];
+			assertTrue("Failure: index page " + pid.pid + " is not in the index pool", index.getFrameFromPage(pid) != null);
+			bm.pinPage(pid, page, false);
+			assertTrue("Failure: index page " + pid.pid + " lost its contents", Convert.getIntValue(0, page.getpage()) == pid.pid);
+			bm.unpinPage(pid, false);
+		}
+		PoolStats.Snapshot indexStats = index.getStats().snapshot();
+		assertTrue("Failure: index pool evictions " + indexStats.evictions, indexStats.evictions == 0);
+		assertTrue("Failure: data frames in the index pool", indexStats.frames("data") == 0 && indexStats.frames("index") == 8);
+
+		// a run across both files pins each page in its own pool, where a
+		// changed index page is, rather than reading a stale copy of it
+		bm.pinPage(indexPages[1], page, false);
+		Convert.setIntValue(-1, 0, page.getpage());
+		bm.unpinPage(indexPages[1], true);
+		int first = dataPages[0].pid;
+		int count = indexPages[1].pid - first + 1;
+		Page[] run = new Page[count];
+		bm.pinRange(dataPages[0], count, run);
+		for (int i = 0; i < count; i++) {
+			PageId pid = new PageId(first + i);
+			boolean isIndex = "index".equals(Minibase.DiskManager.file_of(pid));
+			assertTrue("Failure: page " + pid.pid + " pinned in the wrong pool",
+					(isIndex ? index : bm).getFrameFromPage(pid) != null && (isIndex ? bm : index).getFrameFromPage(pid) == null);
+		}
+		assertTrue("Failure: the run read a stale index page", Convert.getIntValue(0, run[count - 1].getpage()) == -1);
+		for (int i = 0; i < count; i++) {
+			bm.unpinPage(new PageId(first + i), false);
+		}
+		assertTrue("Failure: pages left pinned", index.getNumUnpinned() == index.getNumBuffers());
+	}
+
+	/**
+	 * Test named pools while the assignment of the file being pinned moves
+	 * back and forth between them: each page stays in one pool at a time, so
+	 * no write to it is lost to a second copy.
+	 */
+	@Test
+	public void testY_NamedPoolsReassigned() throws Throwable {
+		final BufMgr bm = Minibase.BufferManager;
+		final BufMgr index = bm.addPool("index", 16, NO_LAH, "Clock");
+		final int numThreads = 4;
+		final int numPages = 64;
+		final int base = Minibase.DiskManager.allocate_page(numPages, "data").pid;
+		Minibase.DiskManager.add_file_entry("data", new PageId(base));
+		Page data = new Page();
+		for (int i = 0; i < numPages; i++) {
+			Minibase.DiskManager.write_page(new PageId(base + i), data);
+		}
+
+		final int[][] writes = new int[numThreads][numPages];
+		final java.util.concurrent.atomic.AtomicReference<Throwable> failure = new java.util.concurrent.atomic.AtomicReference<Throwable>();
+		final java.util.concurrent.atomic.AtomicBoolean done = new java.util.concurrent.atomic.AtomicBoolean();
+		Thread flipper = new Thread(() -> {
+			for (int flips = 0; !done.get(); flips++) {
+				bm.assignFile("data", flips % 2 == 0 ? "index" : BufMgr.DEFAULT_POOL);
+				Thread.yield();
+			}
+		});
+		flipper.start();
+		Thread[] threads = new Thread[numThreads];
+		for (int t = 0; t < numThreads; t++) {
+			final int me = t;
+			threads[t] = new Thread(() -> {
+				try {
+					// each thread writes only its own pages, and counts what it wrote
+					java.util.Random random = new java.util.Random(me);
+					Page page = new Page();
+					Page[] run = new Page[3];
+					for (int step = 0; step < 20000; step++) {
+						int i = random.nextInt(numPages);
+						if (random.nextInt(8) == 0 && i + run.length <= numPages) {
+							bm.pinRange(new PageId(base + i), run.length, run);
+							for (int j = 0; j < run.length; j++) {
+								bm.unpinPage(new PageId(base + i + j), false);
+							}
+							continue;
+						}
+						PageId pid = new PageId(base + i);
+						bm.pinPage(pid, page, false);
+						boolean mine = i % numThreads == me;
+						if (mine) {
+							Convert.setIntValue(Convert.getIntValue(4, page.getpage()) + 1, 4, page.getpage());
+							writes[me][i]++;
+						}
+						bm.unpinPage(pid, mine);
+					}
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		done.set(true);
+		flipper.join();
+		if (failure.get() != null)
+			throw new AssertionError(failure.get());
+
+		for (int i = 0; i < numPages; i++) {
+			PageId pid = new PageId(base + i);
+			assertTrue("Failure: page " + pid.pid + " is in both pools", bm.getFrameFromPage(pid) == null || index.getFrameFromPage(pid) == null);
+		}
+		assertTrue("Failure: pages left pinned", bm.getNumUnpinned() == bm.getNumBuffers() && index.getNumUnpinned() == index.getNumBuffers());
+		bm.flushAllPages();
+		for (int i = 0; i < numPages; i++) {
+			Minibase.DiskManager.read_page(new PageId(base + i), data);
+			assertTrue("Failure: lost writes to page " + (base + i), Convert.getIntValue(4, data.getpage()) == writes[i % numThreads][i]);
+		}
+	}
+
+	/**
+	 * Test the pool growing and shrinking while in use: growing keeps the
+	 * pages, shrinking evicts the pages past the new size, writing the dirty
+	 * ones, and waits for a pinned one without holding up other pins.
+	 */
+	@Test
+	public void testZ_Resize() throws Throwable {
+		int runSize = 32;
+		first_pid = Minibase.DiskManager.allocate_page(runSize);
+		int base = first_pid.pid;
+		Page data = new Page();
+		for (int i = 0; i < runSize; i++) {
+			Convert.setIntValue(base + i, 0, data.getpage());
+			Minibase.DiskManager.write_page(new PageId(base + i), data);
+		}
+
+		String[] policies = { "FIFO", "LRU", "Clock", "LRU-K", "2Q" };
+		for (String policy : policies) {
+			BufMgr bm = new BufMgr(16, NO_LAH, policy);
+			Page page = new Page();
+			// the first 16 pages dirty, with new contents
+			for (int i = 0; i < 16; i++) {
+				PageId pid = new PageId(base + i);
+				bm.pinPage(pid, page, false);
+				Convert.setIntValue(base + i + 99999, 0, page.getpage());
+				bm.unpinPage(pid, true);
+			}
+
+			// growing makes room for the rest without evicting any
+			bm.resize(32);
+			assertTrue(policy + ": pool did not grow", bm.getNumBuffers() == 32);
+			for (int i = 16; i < runSize; i++) {
+				PageId pid = new PageId(base + i);
+				bm.pinPage(pid, page, false);
+				assertTrue(policy + ": wrong contents for page " + pid.pid, Convert.getIntValue(0, page.getpage()) == pid.pid);
+				bm.unpinPage(pid, false);
+			}
+			assertTrue(policy + ": pages evicted while growing", bm.getStats().snapshot().evictions == 0);
+			for (int i = 0; i < 16; i++) {
+				PageId pid = new PageId(base + i);
+				bm.pinPage(pid, page, false);
+				assertTrue(policy + ": page " + pid.pid + " lost its contents", Convert.getIntValue(0, page.getpage()) == pid.pid + 99999);
+				bm.unpinPage(pid, false);
+			}
+
+			// shrinking waits for a pinned page past the new size, and meanwhile
+			// the frames that stay keep working
+			PageId held = new PageId(base + runSize - 1);
+			assertTrue(policy + ": page " + held.pid + " is not in a retiring frame", bm.getFrameFromPage(held) >= 8);
+			bm.pinPage(held, page, false);
+			Throwable[] failure = new Throwable[1];
+			Thread shrink = new Thread(() -> {
+				try {
+					bm.resize(8);
+				} catch (Throwable e) {
+					failure[0] = e;
+				}
+			});
+			shrink.start();
+			Thread.sleep(50);
+			for (int i = 0; i < runSize - 1; i++) {
+				PageId pid = new PageId(base + i);
+				bm.pinPage(pid, new Page(), false);
+				Integer frame = bm.getFrameFromPage(pid);
+				assertTrue(policy + ": page " + pid.pid + " was read into retiring frame " + frame, frame < 8);
+				bm.unpinPage(pid, false);
+			}
+			assertTrue(policy + ": shrink did not wait for the pinned page", shrink.isAlive());
+			bm.unpinPage(held, false);
+			shrink.join();
+			if (failure[0] != null) {
+				throw failure[0];
+			}
+			assertTrue(policy + ": pool did not shrink", bm.getNumBuffers() == 8);
+			for (int i = 0; i < runSize; i++) {
+				Integer frame = bm.getFrameFromPage(new PageId(base + i));
+				assertTrue(policy + ": page " + (base + i) + " left in retired frame " + frame, frame == null || frame < 8);
+			}
+
+			// the dirty pages evicted on the way were written back
+			bm.flushAllPages();
+			for (int i = 0; i < 16; i++) {
+				PageId pid = new PageId(base + i);
+				Minibase.DiskManager.read_page(pid, data);
+				assertTrue(policy + ": page " + pid.pid + " was not written", Convert.getIntValue(0, data.getpage()) == pid.pid + 99999);
+			}
+
+			// eight frames hold eight pinned pages, and no more
+			for (int i = 0; i < 8; i++) {
+				bm.pinPage(new PageId(base + i), new Page(), false);
+			}
+			try {
+				bm.pinPage(new PageId(base + 8), new Page(), false);
+				assertTrue(policy + ": expected BufferPoolExceeded exception not thrown", false);
+			} catch (BufferPoolExceededException e) {
+				assertTrue(true);
+			}
+			for (int i = 0; i < 8; i++) {
+				bm.unpinPage(new PageId(base + i), false);
+			}
+
+			// growing again reuses the retired frames
+			bm.resize(12);
+			for (int i = 0; i < 12; i++) {
+				PageId pid = new PageId(base + 16 + i);
+				bm.pinPage(pid, page, false);
+				assertTrue(policy + ": wrong contents for page " + pid.pid, Convert.getIntValue(0, page.getpage()) == pid.pid);
+			}
+			for (int i = 0; i < 12; i++) {
+				bm.unpinPage(new PageId(base + 16 + i), false);
+			}
+		}
+
+		boolean thrown = false;
+		try {
+			Minibase.BufferManager.resize(0);
+		} catch (IllegalArgumentException e) {
+			thrown = true;
+		}
+		assertTrue("Failure: a pool was resized to no frames", thrown);
+	}
+
+	/**
+	 * Test the warm-restart snapshot: flushAllPages saves the pages in the
+	 * pool, hottest first, and they are read back into a new pool, as many of
+	 * the hottest as fit, or all of them when the database is opened again.
+	 */
+	@Test
+	public void testZA_WarmRestart() throws Throwable {
+		// a database of its own, which the asynchronous clean-up of the
+		// previous test cannot remove between closing and opening it
+		String warmpath = dbpath + "-warm";
+		Minibase.DiskManager.closeDB();
+		Minibase.DiskManager = new DiskMgr();
+		Minibase.DiskManager.openDB(warmpath, DB_SIZE);
+		int runSize = 40;
+		first_pid = Minibase.DiskManager.allocate_page(runSize);
+		int base = first_pid.pid;
+		Page data = new Page();
+		for (int i = 0; i < runSize; i++) {
+			Convert.setIntValue(base + i + 77, 0, data.getpage());
+			Minibase.DiskManager.write_page(new PageId(base + i), data);
+		}
+		BufMgr bm = Minibase.BufferManager;
+		Page page = new Page();
+		for (int i = 0; i < runSize; i++) {
+			bm.pinPage(new PageId(base + i), page, false);
+			bm.unpinPage(new PageId(base + i), false);
+		}
+		bm.flushAllPages();
+		assertTrue("Failure: no snapshot was written", new java.io.File(warmpath + BufMgr.SNAPSHOT_SUFFIX).exists());
+
+		// a small pool takes the hottest pages
+		BufMgr small = new BufMgr(8, NO_LAH, "LRU");
+		Minibase.BufferManager = small;
+		int loaded = small.warmUp().get();
+		assertTrue("Failure: " + loaded + " pages read into a pool of 8", loaded == 8);
+		for (int i = runSize - 4; i < runSize; i++) {
+			assertTrue("Failure: hot page " + (base + i) + " was not read back", small.getFrameFromPage(new PageId(base + i)) != null);
+		}
+		assertTrue("Failure: cold page " + base + " was read back", small.getFrameFromPage(first_pid) == null);
+		small.pinPage(new PageId(base + runSize - 1), page, false);
+		assertTrue("Failure: wrong contents read back", Convert.getIntValue(0, page.getpage()) == base + runSize - 1 + 77);
+		small.unpinPage(new PageId(base + runSize - 1), false);
+		assertTrue("Failure: a page read back missed", small.getStats().snapshot().misses == 0);
+
+		// closing the database saves the snapshot, and opening it reads it back
+		Minibase.BufferManager = bm;
+		Minibase.DiskManager.closeDB();
+		BufMgr restarted = new BufMgr(BUF_SIZE, NO_LAH, "Clock");
+		Minibase.BufferManager = restarted;
+		Minibase.DiskManager.openDB(warmpath);
+		long deadline = System.currentTimeMillis() + 10000;
+		int resident = 0;
+		while (resident < runSize && System.currentTimeMillis() < deadline) {
+			resident = 0;
+			for (int i = 0; i < runSize; i++) {
+				if (restarted.getFrameFromPage(new PageId(base + i)) != null) {
+					resident++;
+				}
+			}
+			Thread.sleep(1);
+		}
+		assertTrue("Failure: " + resident + " of " + runSize + " pages read back on open", resident == runSize);
+		long missed = restarted.getStats().snapshot().misses;
+		for (int i = 0; i < runSize; i++) {
+			restarted.pinPage(new PageId(base + i), page, false);
+			assertTrue("Failure: wrong contents for page " + (base + i), Convert.getIntValue(0, page.getpage()) == base + i + 77);
+			restarted.unpinPage(new PageId(base + i), false);
+		}
+		missed = restarted.getStats().snapshot().misses - missed;
+		assertTrue("Failure: " + missed + " misses after the warm-up", missed == 0);
+		Minibase.DiskManager.DBDestroy();
+	}
+
+	/**
+	 * Test the trace recorder and simulator: the pins of a recorded run give
+	 * the same LRU curve by stack distance as by replaying the LRU replacer,
+	 * and every policy hits on all but the first pin of each page once the
+	 * pool holds them all.
+	 */
+	@Test
+	public void testZB_TraceSimulator() throws Throwable {
+		java.io.File file = new java.io.File(logpath + ".trace");
+		BufMgr bm = Minibase.BufferManager;
+		first_pid = Minibase.DiskManager.allocate_page(30);
+		java.util.Random random = new java.util.Random(7);
+		bm.startTrace(file);
+		int pins = 0;
+		java.util.Set<Integer> pages = new java.util.HashSet<Integer>();
+		for (int i = 0; i < 600; i++) {
+			// a hot set of 5 pages and a cold one of 25
+			int pageno = first_pid.pid + (random.nextInt(4) > 0 ? random.nextInt(5) : 5 + random.nextInt(25));
+			bm.pinPage(new PageId(pageno), pg, false);
+			bm.unpinPage(new PageId(pageno), false);
+			pins++;
+			pages.add(pageno);
+		}
+		PageId fresh = bm.newPage(pg, 1);
+		pages.add(fresh.pid);
+		bm.unpinPage(fresh, true);
+		bm.freePage(fresh);
+		pins++;
+		bm.stopTrace();
+
+		TraceSimulator sim = new TraceSimulator(file);
+		file.delete();
+		assertTrue("Failure: " + sim.getPins() + " pins in the trace, not " + pins, sim.getPins() == pins);
+		assertTrue("Failure: " + sim.getDistinctPages() + " pages in the trace", sim.getDistinctPages() == pages.size());
+		int[] sizes = { 1, 2, 4, 8, 16, 32, 64 };
+		double[] stack = sim.lruCurve(sizes);
+		double[] replayed = sim.replay("LRU", sizes);
+		for (int i = 0; i < sizes.length; i++) {
+			assertTrue("Failure: LRU hit ratio at " + sizes[i] + " frames is " + stack[i] + " by stack distance, "
+					+ replayed[i] + " by replay", Math.abs(stack[i] - replayed[i]) < 1e-9);
+			assertTrue("Failure: the LRU curve falls at " + sizes[i] + " frames", i == 0 || stack[i] >= stack[i - 1]);
+		}
+		double all = (double) (pins - pages.size()) / pins;
+		for (String policy : new String[] { "LRU", "Clock", "LRU-K", "2Q" }) {
+			double ratio = sim.replay(policy, new int[] { 64 })[0];
+			assertTrue("Failure: " + policy + " hit ratio " + ratio + " with room for every page", Math.abs(ratio - all) < 1e-9);
+		}
+	}
+
+	@Test
+	public void testZC_OptimisticRead() throws Throwable {
+		BufMgr bm = Minibase.BufferManager;
+		first_pid = Minibase.DiskManager.allocate_page(3);
+		final int base = first_pid.pid;
+		Page data = new Page();
+		for (int i = 0; i < 3; i++) {
+			Convert.setIntValue(base + i + 99999, 0, data.getpage());
+			Minibase.DiskManager.write_page(new PageId(base + i), data);
+		}
+		// Convert's getters throw IOException, which a PageReader may not
+		PageReader<Integer> first = bytes -> java.nio.ByteBuffer.wrap(bytes).getInt(0);
+
+		// a page not in the pool is pinned and read in
+		PoolStats.Snapshot before = bm.getStats().snapshot();
+		int value = bm.readOptimistic(new PageId(base), first);
+		PoolStats.Snapshot after = bm.getStats().snapshot();
+		assertTrue("Failure: read " + value + " from a page read in", value == base + 99999);
+		assertTrue("Failure: a page not in the pool did not miss", after.misses - before.misses == 1);
+		assertTrue("Failure: a read left its page pinned", bm.getNumUnpinned() == bm.getNumBuffers());
+
+		// once it is, it is read without a pin
+		for (int i = 0; i < 10; i++) {
+			value = bm.readOptimistic(new PageId(base), first);
+			assertTrue("Failure: read " + value + " from a page in the pool", value == base + 99999);
+		}
+		before = after;
+		after = bm.getStats().snapshot();
+		assertTrue("Failure: " + (after.optimisticReads - before.optimisticReads) + " of 10 reads without a pin",
+				after.optimisticReads - before.optimisticReads == 10);
+		assertTrue("Failure: reads without a pin counted as pins", after.hits == before.hits && after.misses == before.misses);
+
+		// a pinned page may be changing, so it is read pinned
+		bm.pinPage(new PageId(base + 1), pg, false);
+		value = bm.readOptimistic(new PageId(base + 1), first);
+		before = after;
+		after = bm.getStats().snapshot();
+		assertTrue("Failure: read " + value + " from a pinned page", value == base + 1 + 99999);
+		assertTrue("Failure: a pinned page was read without a pin", after.optimisticReads == before.optimisticReads
+				&& after.optimisticRetries > before.optimisticRetries && after.hits - before.hits == 1);
+		bm.unpinPage(new PageId(base + 1), false);
+		assertTrue("Failure: a read left its page pinned", bm.getNumUnpinned() == bm.getNumBuffers());
+
+		// a page changed while it is read: that try does not validate, and the
+		// next one reads the page as changed
+		final PageId shared = new PageId(base + 2);
+		final int[] tries = new int[1];
+		PageReader<Integer> changing = bytes -> {
+			int read = java.nio.ByteBuffer.wrap(bytes).getInt(0);
+			if (tries[0]++ == 0) {
+				try {
+					Page page = new Page();
+					bm.pinPage(shared, page, false);
+					Convert.setIntValue(read + 1, 0, page.getpage());
+					bm.unpinPage(shared, true);
+				} catch (Throwable e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return read;
+		};
+		bm.pinPage(shared, pg, false);
+		bm.unpinPage(shared, false);
+		before = bm.getStats().snapshot();
+		value = bm.readOptimistic(shared, changing);
+		after = bm.getStats().snapshot();
+		assertTrue("Failure: read " + value + " from a page changed while it was read", value == base + 2 + 99999 + 1);
+		assertTrue("Failure: " + tries[0] + " tries to read a page changed while it was read", tries[0] == 2
+				&& after.optimisticRetries - before.optimisticRetries == 1 && after.optimisticReads - before.optimisticReads == 1);
+
+		// a page pinned while it is read may be changing: that try does not
+		// validate either
+		tries[0] = 0;
+		PageReader<Integer> pinning = bytes -> {
+			if (tries[0]++ == 0) {
+				try {
+					bm.pinPage(shared, new Page(), false);
+				} catch (Throwable e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return java.nio.ByteBuffer.wrap(bytes).getInt(0);
+		};
+		before = after;
+		value = bm.readOptimistic(shared, pinning);
+		after = bm.getStats().snapshot();
+		assertTrue("Failure: read " + value + " from a page pinned while it was read", value == base + 2 + 99999 + 1);
+		assertTrue("Failure: a page pinned while it was read was read without a pin",
+				after.optimisticReads == before.optimisticReads && after.hits - before.hits == 2);
+		bm.unpinPage(shared, false);
+		assertTrue("Failure: a read left its page pinned", bm.getNumUnpinned() == bm.getNumBuffers());
+	}
 }
@@ -0,0 +1,112 @@
+package tests;
+
+import java.io.File;
+import java.util.Random;
+
+import bufmgr.BufMgr;
+import diskmgr.DiskMgr;
+import diskmgr.IOStats;
+import diskmgr.LatencyHistogram;
+import global.Convert;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+/**
+ * Measures what the page cleaner does for misses on two update-heavy
+ * workloads: random pins over four times the pool, where the pages of every
+ * other run of eight are unpinned dirty, and a scan that updates every page in
+ * order. Without the cleaner half or all of the victims have to be written
+ * back. For each dirty ratio it reports the latency of the pins that missed,
+ * pins per second, how many pages each write call carried, and how long the
+ * final flushAllPages took. Not a unit test; run it with
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:lib/bufmgrAssign.jar tests.CleanerBenchmark [pool pages] [pins] [policy] [io mode]
+ * </pre>
+ */
+public class CleanerBenchmark implements GlobalConst {
+
+	private static final String dbpath = "/tmp/" + System.getProperty("user.name") + ".minibase-bench";
+
+	public static void main(String[] args) throws Throwable {
+		int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+		int numPins = args.length > 1 ? Integer.parseInt(args[1]) : 400000;
+		String policy = args.length > 2 ? args[2] : "FIFO";
+		String mode = args.length > 3 ? args[3] : DiskMgr.IO_FILE;
+
+		System.out.println("pool=" + poolPages + " pins=" + numPins + " policy=" + policy + " io=" + mode);
+		for (String workload : new String[] { "random", "scan" }) {
+			for (double ratio : new double[] { 1, 0.5, 0.25, 0.1 }) {
+				measure(poolPages, numPins, policy, mode, workload.equals("scan"), ratio);
+			}
+		}
+	}
+
+	private static void measure(int poolPages, int numPins, String policy, String mode, boolean scan, double ratio)
+			throws Throwable {
+		int numPages = 4 * poolPages;
+		new File(dbpath).delete();
+		BufMgr bm = new BufMgr(poolPages, 0, policy);
+		bm.setDirtyRatio(ratio);
+		Minibase.BufferManager = bm;
+		Minibase.DiskManager = new DiskMgr();
+		Minibase.DiskManager.openDB(dbpath, numPages + 64, mode, PAGE_SIZE);
+		int first = Minibase.DiskManager.allocate_page(numPages).pid;
+		Page data = new Page();
+		for (int i = 0; i < numPages; i++) {
+			Convert.setIntValue(first + i, 0, data.getpage());
+			Minibase.DiskManager.write_page(new PageId(first + i), data);
+		}
+
+		// warm up, then measure
+		run(bm, first, numPages, numPins / 4, scan, new LatencyHistogram());
+		bm.flushAllPages();
+		LatencyHistogram misses = new LatencyHistogram();
+		IOStats.Snapshot before = Minibase.DiskManager.io_stats().snapshot();
+		long start = System.nanoTime();
+		run(bm, first, numPages, numPins, scan, misses);
+		long nanos = System.nanoTime() - start;
+		IOStats.Snapshot after = Minibase.DiskManager.io_stats().snapshot();
+		long dirty = bm.getNumDirty();
+		long flushStart = System.nanoTime();
+		bm.flushAllPages();
+		long flushNanos = System.nanoTime() - flushStart;
+
+		long written = after.pagesWritten() - before.pagesWritten();
+		long calls = after.writeLatency.count() - before.writeLatency.count();
+		LatencyHistogram.Snapshot miss = misses.snapshot();
+		System.out.printf(
+				"%-6s ratio=%.2f  %7.0f pins/s  miss p50=%6.1fus p99=%7.1fus p99.9=%7.1fus  %6.2f pages/write  flush %d pages %6.1fms%n",
+				scan ? "scan" : "random", ratio, numPins * 1e9 / nanos, miss.percentile(50) / 1e3,
+				miss.percentile(99) / 1e3, miss.percentile(99.9) / 1e3, calls == 0 ? 0.0 : (double) written / calls,
+				dirty, flushNanos / 1e6);
+		Minibase.DiskManager.DBDestroy();
+	}
+
+	private static void run(BufMgr bm, int first, int numPages, int numPins, boolean scan,
+			LatencyHistogram misses) throws Throwable {
+		Random random = new Random(42);
+		Page page = new Page();
+		PageId pid = new PageId();
+		for (int i = 0; i < numPins; i++) {
+			pid.pid = first + (scan ? i % numPages : random.nextInt(numPages));
+			boolean resident = bm.getFrameFromPage(pid) != null;
+			long start = System.nanoTime();
+			bm.pinPage(pid, page, false);
+			long nanos = System.nanoTime() - start;
+			if (!resident) {
+				misses.record(nanos);
+			}
+			if (Convert.getIntValue(0, page.getpage()) != pid.pid) {
+				throw new IllegalStateException("pinned the wrong page");
+			}
+			boolean dirty = scan || (pid.pid / 8 & 1) == 0;
+			if (dirty) {
+				Convert.setIntValue(i, 4, page.getpage());
+			}
+			bm.unpinPage(pid, dirty);
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package tests;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import bufmgr.BufMgr;
+import diskmgr.DiskMgr;
+import global.Convert;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+/**
+ * Compares plain and compressed page storage on the ridesBig and driversBig
+ * tables of project 3. Rows are laid out the way heap files store them:
+ * fixed-width fields with zero-padded strings, in slotted pages filled from
+ * the end. The tables are repeated until each has the requested number of
+ * rows. Reports the bytes stored, the compression ratio, and load and scan
+ * throughput. Scans read through the OS page cache, so they show the CPU cost
+ * of inflating; the I/O saved on a cold cache is the bytes stored. Not a unit
+ * test; run it with
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:lib/bufmgrAssign.jar tests.CompressionBenchmark [rows per table] [data dir]
+ * </pre>
+ */
+public class CompressionBenchmark implements GlobalConst {
+
+	private static final String dbpath = "/tmp/" + System.getProperty("user.name") + ".minibase-bench";
+
+	/** Slotted page header and slot entry sizes, as in HFPage. */
+	private static final int HEADER_SIZE = 20;
+	private static final int SLOT_SIZE = 4;
+
+	public static void main(String[] args) throws Throwable {
+		int numRows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		String dataDir = args.length > 1 ? args[1] : "../cs448p3/src/test/resources";
+
+		// DriverId int, FirstName string(20), LastName string(20), Age float, NumSeats int
+		List<byte[]> drivers = load(new File(dataDir, "driversBig.csv"), new int[] { 0, 20, 20, -1, 0 }, numRows);
+		// DriverId int, GroupId int, FromDate string(10), ToDate string(10)
+		List<byte[]> rides = load(new File(dataDir, "ridesBig.csv"), new int[] { 0, 0, 10, 10 }, numRows);
+
+		for (String table : new String[] { "driversBig", "ridesBig" }) {
+			List<Page> pages = pack(table.equals("driversBig") ? drivers : rides);
+			for (String mode : new String[] { DiskMgr.IO_FILE, DiskMgr.IO_COMPRESSED }) {
+				run(table, mode, pages);
+				run(table, mode, pages); // the first run warms the JIT
+			}
+		}
+	}
+
+	private static void run(String table, String mode, List<Page> pages) throws Throwable {
+		new File(dbpath).delete();
+		Minibase.BufferManager = new BufMgr(100, 0, "FIFO");
+		Minibase.DiskManager = new DiskMgr();
+		Minibase.DiskManager.openDB(dbpath, pages.size() + 16, mode);
+		PageId first = Minibase.DiskManager.allocate_page(pages.size());
+
+		long start = System.nanoTime();
+		for (int i = 0; i < pages.size(); i++) {
+			Minibase.DiskManager.write_page(new PageId(first.pid + i), pages.get(i));
+		}
+		Minibase.DiskManager.flush();
+		long loadNanos = System.nanoTime() - start;
+
+		Page page = new Page();
+		PageId pid = new PageId();
+		start = System.nanoTime();
+		for (int i = 0; i < pages.size(); i++) {
+			pid.pid = first.pid + i;
+			Minibase.DiskManager.read_page(pid, page);
+		}
+		long scanNanos = System.nanoTime() - start;
+
+		long logical = (long) pages.size() * PAGE_SIZE;
+		long stored = new File(dbpath).length();
+		System.out.printf("%-10s %-10s %6d pages %9d bytes stored  ratio %5.2f  load %7.1f MB/s  scan %7.1f MB/s%n",
+				table, mode, pages.size(), stored, (double) logical / stored, logical / (1 << 20) / (loadNanos / 1e9),
+				logical / (1 << 20) / (scanNanos / 1e9));
+		Minibase.DiskManager.DBDestroy();
+	}
+
+	/**
+	 * Read a CSV table and encode each row as a fixed-width tuple; widths are
+	 * 0 for an int, -1 for a float and the field length for a string. The
+	 * rows are repeated, with fresh keys, until there are numRows of them.
+	 */
+	private static List<byte[]> load(File csv, int[] widths, int numRows) throws Throwable {
+		List<String[]> rows = new ArrayList<String[]>();
+		for (String line : Files.readAllLines(csv.toPath())) {
+			if (!line.trim().isEmpty()) {
+				rows.add(line.split(","));
+			}
+		}
+		int length = 0;
+		for (int width : widths) {
+			length += width > 0 ? width : 4;
+		}
+		List<byte[]> tuples = new ArrayList<byte[]>();
+		for (int n = 0; n < numRows; n++) {
+			String[] row = rows.get(n % rows.size());
+			byte[] tuple = new byte[length];
+			int off = 0;
+			for (int f = 0; f < widths.length; f++) {
+				String value = row[f].replace("\"", "").trim();
+				if (widths[f] == 0) {
+					Convert.setIntValue(Integer.parseInt(value) + (f == 0 ? n / rows.size() * rows.size() : 0), off, tuple);
+					off += 4;
+				} else if (widths[f] < 0) {
+					Convert.setFloatValue(Float.parseFloat(value), off, tuple);
+					off += 4;
+				} else {
+					byte[] chars = value.getBytes();
+					System.arraycopy(chars, 0, tuple, off, Math.min(chars.length, widths[f]));
+					off += widths[f];
+				}
+			}
+			tuples.add(tuple);
+		}
+		return tuples;
+	}
+
+	/**
+	 * Fill slotted pages: a header, one slot per record growing from the
+	 * front, the records growing from the back.
+	 */
+	private static List<Page> pack(List<byte[]> tuples) throws Throwable {
+		List<Page> pages = new ArrayList<Page>();
+		Page page = null;
+		int slots = 0;
+		int freePtr = 0;
+		for (byte[] tuple : tuples) {
+			if (page == null || freePtr - tuple.length < HEADER_SIZE + (slots + 1) * SLOT_SIZE) {
+				page = new Page();
+				pages.add(page);
+				slots = 0;
+				freePtr = PAGE_SIZE;
+			}
+			freePtr -= tuple.length;
+			System.arraycopy(tuple, 0, page.getpage(), freePtr, tuple.length);
+			Convert.setShortValue((short) freePtr, HEADER_SIZE + slots * SLOT_SIZE, page.getpage());
+			Convert.setShortValue((short) tuple.length, HEADER_SIZE + slots * SLOT_SIZE + 2, page.getpage());
+			slots++;
+			Convert.setShortValue((short) slots, 0, page.getpage());
+			Convert.setShortValue((short) freePtr, 2, page.getpage());
+		}
+		return pages;
+	}
+}
@@ -0,0 +1,100 @@
+package tests;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import bufmgr.BufMgr;
+import diskmgr.DiskMgr;
+import global.Convert;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+/**
+ * Measures how pin/unpin throughput scales with the number of threads sharing
+ * one buffer pool, from 1 to 32 threads, on uniform random lookups over a
+ * working set that fits in the pool (every pin a hit) and over one twice the
+ * size of the pool (about half the pins miss and read a page). Not a unit test;
+ * run it with
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:lib/bufmgrAssign.jar tests.ConcurrencyBenchmark [pool pages] [pins] [policy] [io mode]
+ * </pre>
+ */
+public class ConcurrencyBenchmark implements GlobalConst {
+
+	private static final String dbpath = "/tmp/" + System.getProperty("user.name") + ".minibase-bench";
+
+	private static final int[] THREADS = { 1, 2, 4, 8, 16, 32 };
+
+	public static void main(String[] args) throws Throwable {
+		int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+		int numPins = args.length > 1 ? Integer.parseInt(args[1]) : 4000000;
+		String policy = args.length > 2 ? args[2] : "FIFO";
+		String mode = args.length > 3 ? args[3] : DiskMgr.IO_MAPPED;
+		int numPages = 2 * poolPages;
+
+		new File(dbpath).delete();
+		Minibase.BufferManager = new BufMgr(16, 0, policy);
+		Minibase.DiskManager = new DiskMgr();
+		Minibase.DiskManager.openDB(dbpath, numPages + 64, mode, PAGE_SIZE);
+		int first = Minibase.DiskManager.allocate_page(numPages).pid;
+		Page data = new Page();
+		for (int i = 0; i < numPages; i++) {
+			Convert.setIntValue(first + i, 0, data.getpage());
+			Minibase.DiskManager.write_page(new PageId(first + i), data);
+		}
+
+		System.out.println("pool=" + poolPages + " pins=" + numPins + " policy=" + policy + " io="
+				+ Minibase.DiskManager.db_io_mode() + " cpus=" + Runtime.getRuntime().availableProcessors());
+		for (String workload : new String[] { "hit", "mixed" }) {
+			int workingSet = workload.equals("hit") ? poolPages / 2 : numPages;
+			for (int numThreads : THREADS) {
+				Minibase.BufferManager = new BufMgr(poolPages, 0, policy);
+				run(first, workingSet, numPins, numThreads); // warm up
+				long nanos = run(first, workingSet, numPins, numThreads);
+				System.out.printf("%-5s %2d threads  %10.0f pins/s%n", workload, numThreads, numPins / (nanos / 1e9));
+			}
+		}
+		Minibase.DiskManager.DBDestroy();
+	}
+
+	private static long run(int first, int workingSet, int numPins, int numThreads) throws Throwable {
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] threads = new Thread[numThreads];
+		for (int t = 0; t < numThreads; t++) {
+			long seed = t;
+			threads[t] = new Thread(() -> {
+				try {
+					Random rand = new Random(seed);
+					Page page = new Page();
+					PageId pid = new PageId();
+					for (int i = 0; i < numPins / numThreads; i++) {
+						pid.pid = first + rand.nextInt(workingSet);
+						Minibase.BufferManager.pinPage(pid, page, false);
+						if (Convert.getIntValue(0, page.getpage()) != pid.pid) {
+							throw new IllegalStateException("pinned the wrong page");
+						}
+						Minibase.BufferManager.unpinPage(pid, false);
+					}
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			});
+		}
+		long start = System.nanoTime();
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		long nanos = System.nanoTime() - start;
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+		return nanos;
+	}
+}
@@ -0,0 +1,718 @@
+package tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import bufmgr.BufMgr;
+import diskmgr.DiskMgr;
+import diskmgr.DuplicateEntryException;
+import diskmgr.FileEntryNotFoundException;
+import diskmgr.IOStats;
+import diskmgr.OutOfSpaceException;
+import global.Convert;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class DMTest implements GlobalConst {
+
+	/** Default database size (in pages). */
+	private final static int DB_SIZE = 10000;
+
+	/** Default buffer pool size (in pages) */
+	private final static int BUF_SIZE = 100;
+
+	/** Default number of pages to be looked ahead */
+	private final static int LAH_SIZE = 10;
+
+	private static final String dbpath = "/tmp/" + System.getProperty("user.name") + ".minibase-dmtest";
+
+	/** The other data files of a striped database, in their own directories. */
+	private static final String[] stripes = { dbpath + ".d1/data", dbpath + ".d2/data" };
+
+	/**
+	 * Start a fresh Minibase whose database is created with the given I/O mode.
+	 */
+	private static void createDB(String ioMode) throws Throwable {
+		Minibase.BufferManager = new BufMgr(BUF_SIZE, LAH_SIZE, "FIFO");
+		Minibase.DiskManager = new DiskMgr();
+		Minibase.DiskManager.openDB(dbpath, DB_SIZE, ioMode);
+	}
+
+	/**
+	 * Reopen the existing database with the given I/O mode and an empty pool.
+	 */
+	private static void reopenDB(String ioMode) throws Throwable {
+		Minibase.BufferManager.flushAllPages();
+		Minibase.DiskManager.closeDB();
+		Minibase.BufferManager = new BufMgr(BUF_SIZE, LAH_SIZE, "FIFO");
+		Minibase.DiskManager = new DiskMgr();
+		Minibase.DiskManager.openDB(dbpath, ioMode);
+	}
+
+	@After
+	public void tearDown() throws Throwable {
+		Minibase.DiskManager.closeDB();
+		new File(dbpath).delete();
+		new File(dbpath + ".stripes").delete();
+		new File(dbpath + ".cmap").delete();
+		new File(dbpath + ".owners").delete();
+		for (String stripe : stripes) {
+			new File(stripe).delete();
+			new File(stripe).getParentFile().delete();
+		}
+	}
+
+	@Test
+	public void testA_MappedReadWrite() throws Throwable {
+		createDB(DiskMgr.IO_MAPPED);
+		PageId pid = Minibase.DiskManager.allocate_page(50);
+		Page page = new Page();
+		for (int i = 0; i < 50; i++) {
+			Convert.setIntValue(pid.pid + i + 99999, 0, page.getpage());
+			Minibase.DiskManager.write_page(new PageId(pid.pid + i), page);
+		}
+		for (int i = 49; i >= 0; i--) {
+			Minibase.DiskManager.read_page(new PageId(pid.pid + i), page);
+			assertEquals(pid.pid + i + 99999, Convert.getIntValue(0, page.getpage()));
+		}
+	}
+
+	@Test
+	public void testB_MappedPagesPersist() throws Throwable {
+		createDB(DiskMgr.IO_MAPPED);
+		PageId pid = Minibase.DiskManager.allocate_page(DB_SIZE / 2);
+		Page page = new Page();
+		// touch pages in several 1 MB segments
+		for (int i = 0; i < DB_SIZE / 2; i += 97) {
+			Convert.setIntValue(i, 0, page.getpage());
+			Minibase.DiskManager.write_page(new PageId(pid.pid + i), page);
+		}
+		Minibase.DiskManager.add_file_entry("mapped", pid);
+
+		// the same bytes must be visible through the plain file backend
+		reopenDB(DiskMgr.IO_FILE);
+		assertEquals(pid.pid, Minibase.DiskManager.get_file_entry("mapped").pid);
+		assertEquals(DB_SIZE, Minibase.DiskManager.db_num_pages());
+		for (int i = 0; i < DB_SIZE / 2; i += 97) {
+			Minibase.DiskManager.read_page(new PageId(pid.pid + i), page);
+			assertEquals(i, Convert.getIntValue(0, page.getpage()));
+		}
+	}
+
+	@Test
+	public void testE_VectoredReadWrite() throws Throwable {
+		for (String ioMode : new String[] { DiskMgr.IO_FILE, DiskMgr.IO_MAPPED }) {
+			createDB(ioMode);
+			PageId first = Minibase.DiskManager.allocate_page(64);
+			Page[] run = new Page[64];
+			for (int i = 0; i < run.length; i++) {
+				run[i] = new Page();
+				Convert.setIntValue(first.pid + i, 0, run[i].getpage());
+				Convert.setIntValue(first.pid + i, PAGE_SIZE - 4, run[i].getpage());
+			}
+			Minibase.DiskManager.write_pages(first, run);
+
+			// single-page reads see the gathered write, a scattered read sees both
+			Page page = new Page();
+			Minibase.DiskManager.read_page(new PageId(first.pid + 63), page);
+			assertEquals(first.pid + 63, Convert.getIntValue(PAGE_SIZE - 4, page.getpage()));
+			Page[] back = new Page[62];
+			for (int i = 0; i < back.length; i++) {
+				back[i] = new Page();
+			}
+			Minibase.DiskManager.read_pages(new PageId(first.pid + 1), back);
+			for (int i = 0; i < back.length; i++) {
+				assertEquals(first.pid + 1 + i, Convert.getIntValue(0, back[i].getpage()));
+				assertEquals(first.pid + 1 + i, Convert.getIntValue(PAGE_SIZE - 4, back[i].getpage()));
+			}
+			Minibase.DiskManager.closeDB();
+		}
+		Minibase.DiskManager.openDB(dbpath);
+	}
+
+	@Test
+	public void testF_SpaceMapSurvivesReopen() throws Throwable {
+		createDB(DiskMgr.IO_FILE);
+		PageId a = Minibase.DiskManager.allocate_page(100);
+		PageId b = Minibase.DiskManager.allocate_page(9000);
+		PageId c = Minibase.DiskManager.allocate_page(100);
+		assertEquals(a.pid + 100, b.pid);
+		assertEquals(b.pid + 9000, c.pid);
+		// free a hole spanning both space-map pages, and punch a smaller one
+		Minibase.DiskManager.deallocate_page(new PageId(b.pid + 10), 8980);
+		Minibase.DiskManager.deallocate_page(a, 50);
+
+		reopenDB(DiskMgr.IO_FILE);
+		// the smallest hole that fits is used first
+		assertEquals(a.pid, Minibase.DiskManager.allocate_page(40).pid);
+		assertEquals(c.pid + 100, Minibase.DiskManager.allocate_page(51).pid);
+		assertEquals(b.pid + 10, Minibase.DiskManager.allocate_page(1000).pid);
+		// freed runs merge with their free neighbours
+		Minibase.DiskManager.deallocate_page(new PageId(b.pid + 10), 1000);
+		Minibase.DiskManager.deallocate_page(new PageId(b.pid), 10);
+		assertEquals(b.pid, Minibase.DiskManager.allocate_page(8990).pid);
+		try {
+			Minibase.DiskManager.allocate_page(new PageId(), DB_SIZE);
+			fail("allocated more pages than the database has");
+		} catch (OutOfSpaceException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testG_FileEntriesAcrossDirectoryPages() throws Throwable {
+		createDB(DiskMgr.IO_FILE);
+		// enough entries to spill over the first page into directory pages
+		int numFiles = 100;
+		for (int i = 0; i < numFiles; i++) {
+			Minibase.DiskManager.add_file_entry("temp_table_" + i, new PageId(1000 + i));
+		}
+		try {
+			Minibase.DiskManager.add_file_entry("temp_table_42", new PageId(5000));
+			fail("added a duplicate file entry");
+		} catch (DuplicateEntryException e) {
+			// expected
+		}
+		for (int i = 0; i < numFiles; i += 3) {
+			Minibase.DiskManager.delete_file_entry("temp_table_" + i);
+		}
+		// reuse freed slots with shorter names
+		Minibase.DiskManager.add_file_entry("t0", new PageId(7000));
+		Minibase.DiskManager.add_file_entry("t1", new PageId(7001));
+
+		reopenDB(DiskMgr.IO_FILE);
+		for (int i = 0; i < numFiles; i++) {
+			PageId pid = Minibase.DiskManager.get_file_entry("temp_table_" + i);
+			if (i % 3 == 0) {
+				assertNull(pid);
+			} else {
+				assertEquals(1000 + i, pid.pid);
+			}
+		}
+		assertEquals(7000, Minibase.DiskManager.get_file_entry("t0").pid);
+		assertEquals(7001, Minibase.DiskManager.get_file_entry("t1").pid);
+		try {
+			Minibase.DiskManager.delete_file_entry("temp_table_0");
+			fail("deleted a missing file entry");
+		} catch (FileEntryNotFoundException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testH_AsyncReadsAndWrites() throws Throwable {
+		createDB(DiskMgr.IO_FILE);
+		PageId first = Minibase.DiskManager.allocate_page(200);
+		// queue the writes in shuffled order, reusing one page object
+		List<CompletableFuture<Void>> pending = new ArrayList<CompletableFuture<Void>>();
+		Random rand = new Random(7);
+		int[] order = new int[200];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		for (int i = order.length - 1; i > 0; i--) {
+			int j = rand.nextInt(i + 1);
+			int tmp = order[i];
+			order[i] = order[j];
+			order[j] = tmp;
+		}
+		Page page = new Page();
+		for (int i : order) {
+			Convert.setIntValue(first.pid + i, 0, page.getpage());
+			pending.add(Minibase.DiskManager.writePageAsync(new PageId(first.pid + i), page));
+		}
+		// a newer write of the same page wins, and a plain read sees it at once
+		Convert.setIntValue(-1, 0, page.getpage());
+		pending.add(Minibase.DiskManager.writePageAsync(new PageId(first.pid + 5), page));
+		Page check = new Page();
+		Minibase.DiskManager.read_page(new PageId(first.pid + 5), check);
+		assertEquals(-1, Convert.getIntValue(0, check.getpage()));
+
+		Page[] pages = new Page[200];
+		for (int i = 0; i < pages.length; i++) {
+			pages[i] = new Page();
+			pending.add(Minibase.DiskManager.readPageAsync(new PageId(first.pid + i), pages[i]));
+		}
+		CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).join();
+		for (int i = 0; i < pages.length; i++) {
+			assertEquals(i == 5 ? -1 : first.pid + i, Convert.getIntValue(0, pages[i].getpage()));
+		}
+
+		// and the writes are on disk after a reopen
+		reopenDB(DiskMgr.IO_FILE);
+		Minibase.DiskManager.read_page(new PageId(first.pid + 199), check);
+		assertEquals(first.pid + 199, Convert.getIntValue(0, check.getpage()));
+	}
+
+	@Test
+	public void testI_PageSizes() throws Throwable {
+		for (int pageSize = 4096; pageSize <= DiskMgr.MAX_PAGE_SIZE; pageSize *= 2) {
+			Minibase.BufferManager = new BufMgr(BUF_SIZE, LAH_SIZE, "FIFO");
+			Minibase.DiskManager = new DiskMgr();
+			Minibase.DiskManager.openDB(dbpath, 500, DiskMgr.IO_FILE, pageSize);
+			assertEquals(pageSize, new File(dbpath).length() / 500);
+
+			// fill the first and last int of some pages through the buffer pool
+			Page page = new Page();
+			PageId first = Minibase.BufferManager.newPage(page, 300);
+			Minibase.BufferManager.unpinPage(first, false);
+			for (int i = 0; i < 300; i++) {
+				PageId pid = new PageId(first.pid + i);
+				Minibase.BufferManager.pinPage(pid, page, false);
+				assertEquals(pageSize, page.getpage().length);
+				Convert.setIntValue(pid.pid, 0, page.getpage());
+				Convert.setIntValue(-pid.pid, pageSize - 4, page.getpage());
+				Minibase.BufferManager.unpinPage(pid, true);
+			}
+			Minibase.DiskManager.add_file_entry("sized_" + pageSize, first);
+
+			reopenDB(DiskMgr.IO_FILE);
+			assertEquals(pageSize, Minibase.DiskManager.db_page_size());
+			assertEquals(500, Minibase.DiskManager.db_num_pages());
+			assertEquals(first.pid, Minibase.DiskManager.get_file_entry("sized_" + pageSize).pid);
+			for (int i = 0; i < 300; i++) {
+				PageId pid = new PageId(first.pid + i);
+				Minibase.BufferManager.pinPage(pid, page, false);
+				assertEquals(pid.pid, Convert.getIntValue(0, page.getpage()));
+				assertEquals(-pid.pid, Convert.getIntValue(pageSize - 4, page.getpage()));
+				Minibase.BufferManager.unpinPage(pid, false);
+			}
+			// the space map still covers exactly 500 pages
+			Minibase.DiskManager.set_growth_extent(0);
+			try {
+				Minibase.DiskManager.allocate_page(new PageId(), 200);
+				fail("allocated past the end of the database");
+			} catch (OutOfSpaceException e) {
+				// expected
+			}
+			Minibase.DiskManager.closeDB();
+		}
+		// the default page size is unchanged
+		createDB(DiskMgr.IO_FILE);
+		assertEquals(PAGE_SIZE, Minibase.DiskManager.db_page_size());
+		reopenDB(DiskMgr.IO_FILE);
+		assertEquals(PAGE_SIZE, Minibase.DiskManager.db_page_size());
+	}
+
+	@Test
+	public void testJ_GrowOnDemand() throws Throwable {
+		Minibase.BufferManager = new BufMgr(BUF_SIZE, LAH_SIZE, "FIFO");
+		Minibase.DiskManager = new DiskMgr();
+		Minibase.DiskManager.openDB(dbpath, 10, DiskMgr.IO_FILE);
+		Minibase.DiskManager.set_growth_extent(500);
+		assertEquals(10 * PAGE_SIZE, new File(dbpath).length());
+
+		// grow well past the first map page's 8192 pages, one extent at a time
+		Set<Integer> allocated = new HashSet<Integer>();
+		List<Integer> marked = new ArrayList<Integer>();
+		Page page = new Page();
+		for (int i = 0; i < 20000; i++) {
+			PageId pid = Minibase.DiskManager.allocate_page(1);
+			assertTrue("page " + pid.pid + " handed out twice", allocated.add(pid.pid));
+			if (i % 1000 == 0) {
+				Convert.setIntValue(pid.pid, 0, page.getpage());
+				Minibase.DiskManager.write_page(pid, page);
+				marked.add(pid.pid);
+			}
+		}
+		int size = Minibase.DiskManager.db_num_pages();
+		assertTrue(size >= 20000 && size < 20000 + 500 + 10);
+		assertEquals((long) size * PAGE_SIZE, new File(dbpath).length());
+		// the map pages heading the grown groups are never handed out
+		assertFalse(allocated.contains(8192));
+		assertFalse(allocated.contains(16384));
+		// runs fit around them, runs longer than a map page covers never do
+		PageId run = Minibase.DiskManager.allocate_page(3000);
+		assertTrue(run.pid + 3000 <= Minibase.DiskManager.db_num_pages());
+		try {
+			Minibase.DiskManager.allocate_page(new PageId(), 9000);
+			fail("allocated a run across a space-map page");
+		} catch (OutOfSpaceException e) {
+			// expected
+		}
+
+		// the grown size and space map survive a reopen
+		size = Minibase.DiskManager.db_num_pages();
+		reopenDB(DiskMgr.IO_FILE);
+		assertEquals(size, Minibase.DiskManager.db_num_pages());
+		for (int pid : marked) {
+			Minibase.DiskManager.read_page(new PageId(pid), page);
+			assertEquals(pid, Convert.getIntValue(0, page.getpage()));
+		}
+		PageId next = Minibase.DiskManager.allocate_page(1);
+		assertFalse(allocated.contains(next.pid));
+		assertTrue(next.pid < run.pid || next.pid >= run.pid + 3000);
+	}
+
+	@Test
+	public void testK_StripedTablespace() throws Throwable {
+		for (String stripe : stripes) {
+			new File(stripe).getParentFile().mkdirs();
+		}
+		Minibase.BufferManager = new BufMgr(BUF_SIZE, LAH_SIZE, "FIFO");
+		Minibase.DiskManager = new DiskMgr();
+		Minibase.DiskManager.openDB(dbpath, 3000, DiskMgr.IO_FILE, PAGE_SIZE, stripes, 16);
+		// 3000 pages = 187 full units of 16 and 8 pages: files get 63, 62 and 62 units
+		assertEquals((63 * 16) * PAGE_SIZE, new File(dbpath).length());
+		assertEquals((62 * 16 + 8) * PAGE_SIZE, new File(stripes[0]).length());
+		assertEquals((62 * 16) * PAGE_SIZE, new File(stripes[1]).length());
+
+		// single pages, and runs crossing several stripe units
+		PageId first = Minibase.DiskManager.allocate_page(1000);
+		Page page = new Page();
+		for (int i = 0; i < 500; i++) {
+			Convert.setIntValue(first.pid + i, 0, page.getpage());
+			Minibase.DiskManager.write_page(new PageId(first.pid + i), page);
+		}
+		Page[] run = new Page[500];
+		for (int i = 0; i < run.length; i++) {
+			run[i] = new Page();
+			Convert.setIntValue(first.pid + 500 + i, 0, run[i].getpage());
+		}
+		Minibase.DiskManager.write_pages(new PageId(first.pid + 500), run);
+
+		reopenDB(DiskMgr.IO_FILE);
+		Page[] back = new Page[997];
+		for (int i = 0; i < back.length; i++) {
+			back[i] = new Page();
+		}
+		Minibase.DiskManager.read_pages(new PageId(first.pid + 3), back);
+		for (int i = 0; i < back.length; i++) {
+			assertEquals(first.pid + 3 + i, Convert.getIntValue(0, back[i].getpage()));
+		}
+		Minibase.DiskManager.read_page(new PageId(first.pid + 999), page);
+		assertEquals(first.pid + 999, Convert.getIntValue(0, page.getpage()));
+
+		// growth spreads over every file
+		long before = new File(stripes[1]).length();
+		Minibase.DiskManager.allocate_page(2500);
+		assertTrue(new File(stripes[1]).length() > before);
+	}
+
+	@Test
+	public void testL_CompressedPages() throws Throwable {
+		createDB(DiskMgr.IO_COMPRESSED);
+		PageId first = Minibase.DiskManager.allocate_page(2000);
+		Random rand = new Random(10);
+		byte[][] expected = new byte[2000][];
+		for (int i = 0; i < 2000; i++) {
+			expected[i] = testPage(first.pid + i, rand).getpage();
+			Minibase.DiskManager.write_page(new PageId(first.pid + i), new Page(expected[i]));
+		}
+		Minibase.DiskManager.flush();
+		long stored = new File(dbpath).length();
+		assertTrue("stored " + stored + " bytes", stored < 2000L * PAGE_SIZE / 3);
+
+		// rewrite pages at other sizes, then reopen asking for plain file I/O
+		for (int i = 0; i < 2000; i += 7) {
+			expected[i] = testPage(first.pid + i + 1, rand).getpage();
+			Minibase.DiskManager.write_page(new PageId(first.pid + i), new Page(expected[i]));
+		}
+		reopenDB(DiskMgr.IO_FILE);
+		Page page = new Page();
+		for (int i = 0; i < 2000; i++) {
+			Minibase.DiskManager.read_page(new PageId(first.pid + i), page);
+			assertArrayEquals(expected[i], page.getpage());
+		}
+		// never written pages read as zeroes
+		Minibase.DiskManager.read_page(new PageId(first.pid + 2000), page);
+		assertArrayEquals(new byte[PAGE_SIZE], page.getpage());
+	}
+
+	@Test
+	public void testL_CompressedMapSurvivesCrash() throws Throwable {
+		createDB(DiskMgr.IO_COMPRESSED);
+		Page page = new Page();
+		PageId first = Minibase.BufferManager.newPage(page, 50);
+		Minibase.BufferManager.unpinPage(first, false);
+		Random rand = new Random(11);
+		for (int i = 0; i < 50; i++) {
+			Minibase.DiskManager.write_page(new PageId(first.pid + i), testPage(first.pid + i, rand));
+		}
+		Minibase.DiskManager.flush();
+
+		// rewrite the pages through the pool as noise, which goes to full-page
+		// slots, flush the pool and die without closing the database
+		byte[][] expected = new byte[50][];
+		for (int i = 0; i < 50; i++) {
+			PageId pid = new PageId(first.pid + i);
+			Minibase.BufferManager.pinPage(pid, page, false);
+			rand.nextBytes(page.getpage());
+			expected[i] = page.getpage().clone();
+			Minibase.BufferManager.unpinPage(pid, true);
+		}
+		Minibase.BufferManager.flushAllPages();
+		Minibase.BufferManager = new BufMgr(BUF_SIZE, LAH_SIZE, "FIFO");
+		Minibase.DiskManager = new DiskMgr();
+		Minibase.DiskManager.openDB(dbpath, DiskMgr.IO_COMPRESSED);
+		for (int i = 0; i < 50; i++) {
+			Minibase.DiskManager.read_page(new PageId(first.pid + i), page);
+			assertArrayEquals("page " + (first.pid + i) + " after a crash", expected[i], page.getpage());
+		}
+	}
+
+	@Test
+	public void testM_DirectIO() throws Throwable {
+		createDB(DiskMgr.IO_DIRECT);
+		String mode = Minibase.DiskManager.db_io_mode();
+		final PageId first = Minibase.DiskManager.allocate_page(2100);
+
+		// neighbouring 1 KB pages share a block; write them from different threads
+		final int numThreads = 4;
+		final AtomicInteger failed = new AtomicInteger();
+		Thread[] writers = new Thread[numThreads];
+		for (int t = 0; t < numThreads; t++) {
+			final int mine = t;
+			writers[t] = new Thread(() -> {
+				try {
+					for (int i = mine; i < 2000; i += numThreads) {
+						Minibase.DiskManager.write_page(new PageId(first.pid + i), testPage(first.pid + i, new Random(i)));
+					}
+				} catch (Throwable e) {
+					failed.incrementAndGet();
+				}
+			});
+			writers[t].start();
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		assertEquals(0, failed.get());
+
+		// a run that starts and ends inside a block
+		Page[] run = new Page[37];
+		for (int i = 0; i < run.length; i++) {
+			run[i] = testPage(first.pid + 2001 + i, new Random(2001 + i));
+		}
+		Minibase.DiskManager.write_pages(new PageId(first.pid + 2001), run);
+
+		reopenDB(DiskMgr.IO_DIRECT);
+		Page page = new Page();
+		for (int i = 0; i < 2000; i++) {
+			Minibase.DiskManager.read_page(new PageId(first.pid + i), page);
+			assertArrayEquals(mode, testPage(first.pid + i, new Random(i)).getpage(), page.getpage());
+		}
+		Page[] read = new Page[39];
+		for (int i = 0; i < read.length; i++) {
+			read[i] = new Page();
+		}
+		Minibase.DiskManager.read_pages(new PageId(first.pid + 2000), read);
+		assertArrayEquals(mode, new byte[PAGE_SIZE], read[0].getpage());
+		for (int i = 0; i < run.length; i++) {
+			assertArrayEquals(mode, run[i].getpage(), read[1 + i].getpage());
+		}
+		assertArrayEquals(mode, new byte[PAGE_SIZE], read[38].getpage());
+		Minibase.DiskManager.closeDB();
+
+		// pages bigger than a block, read back without direct I/O
+		Minibase.BufferManager = new BufMgr(BUF_SIZE, LAH_SIZE, "FIFO");
+		Minibase.DiskManager = new DiskMgr();
+		Minibase.DiskManager.openDB(dbpath, 300, DiskMgr.IO_DIRECT, 8192);
+		PageId big = Minibase.DiskManager.allocate_page(200);
+		Page bigPage = new Page(new byte[8192]);
+		for (int i = 0; i < 200; i++) {
+			Convert.setIntValue(big.pid + i, 0, bigPage.getpage());
+			Convert.setIntValue(-big.pid - i, 8192 - 4, bigPage.getpage());
+			Minibase.DiskManager.write_page(new PageId(big.pid + i), bigPage);
+		}
+		reopenDB(DiskMgr.IO_FILE);
+		for (int i = 0; i < 200; i++) {
+			Minibase.DiskManager.read_page(new PageId(big.pid + i), bigPage);
+			assertEquals(big.pid + i, Convert.getIntValue(0, bigPage.getpage()));
+			assertEquals(-big.pid - i, Convert.getIntValue(8192 - 4, bigPage.getpage()));
+		}
+	}
+
+	@Test
+	public void testN_IOStats() throws Throwable {
+		createDB(DiskMgr.IO_FILE);
+		PageId scanned = Minibase.DiskManager.allocate_page(100);
+		PageId probed = Minibase.DiskManager.allocate_page(100);
+		Minibase.DiskManager.add_file_entry("scanned", scanned);
+		Minibase.DiskManager.add_file_entry("probed", probed);
+		IOStats.Snapshot before = Minibase.DiskManager.io_stats().snapshot();
+
+		// one file written as a run and read front to back, the other read at random
+		Page[] run = new Page[100];
+		for (int i = 0; i < run.length; i++) {
+			run[i] = new Page();
+		}
+		Minibase.DiskManager.write_pages(scanned, run);
+		Page page = new Page();
+		for (int i = 0; i < 100; i++) {
+			Minibase.DiskManager.read_page(new PageId(scanned.pid + i), page);
+		}
+		Random rand = new Random(12);
+		for (int i = 0; i < 50; i++) {
+			Minibase.DiskManager.read_page(new PageId(probed.pid + 2 * rand.nextInt(50)), page);
+		}
+		Minibase.DiskManager.deallocate_page(new PageId(probed.pid + 90), 10);
+
+		IOStats.Snapshot after = Minibase.DiskManager.io_stats().snapshot();
+		IOStats.FileSnapshot scan = after.file("scanned");
+		assertEquals(100, scan.pagesRead);
+		assertEquals(100, scan.pagesWritten);
+		assertEquals(99, scan.sequentialReads);
+		assertEquals(99, scan.sequentialWrites);
+		assertEquals(100L * PAGE_SIZE, scan.bytesRead);
+		IOStats.FileSnapshot probe = after.file("probed");
+		assertEquals(50, probe.pagesRead);
+		assertEquals(0, probe.sequentialReads);
+		assertEquals("scanned", after.files.get(0).name);
+		assertEquals(before.pagesRead() + 150, after.pagesRead());
+		assertEquals(before.readLatency.count() + 150, after.readLatency.count());
+		assertEquals(before.pagesDeallocated + 10, after.pagesDeallocated);
+		assertEquals(200, after.pagesAllocated);
+		assertTrue(after.readLatency.percentile(50) <= after.readLatency.percentile(99));
+		assertTrue(after.readLatency.percentile(99) <= after.readLatency.max());
+		assertEquals(1, after.devices.size());
+		assertTrue(after.devices.get(0).readLatency.count() >= 150);
+
+		// the same numbers over JMX
+		ObjectName name = new ObjectName("minibase:type=DiskMgr,name=" + ObjectName.quote(dbpath));
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		assertEquals(after.pagesRead(), server.getAttribute(name, "PagesRead"));
+		assertEquals(after.pagesDeallocated, server.getAttribute(name, "PagesDeallocated"));
+		Minibase.DiskManager.closeDB();
+		assertFalse(server.isRegistered(name));
+		Minibase.DiskManager.openDB(dbpath);
+	}
+
+	@Test
+	public void testO_PageOwners() throws Throwable {
+		createDB(DiskMgr.IO_FILE);
+		// two files allocated a page at a time, taking turns
+		PageId[] index = new PageId[10];
+		PageId[] data = new PageId[10];
+		for (int i = 0; i < 10; i++) {
+			index[i] = Minibase.DiskManager.allocate_page(1, "index");
+			data[i] = Minibase.DiskManager.allocate_page(2, "data");
+		}
+		PageId unnamed = Minibase.DiskManager.allocate_page(1);
+		Minibase.DiskManager.add_file_entry("index", index[0]);
+		Minibase.DiskManager.add_file_entry("data", data[0]);
+		Minibase.DiskManager.add_file_entry("heap", unnamed);
+		for (int i = 0; i < 10; i++) {
+			assertEquals("index", Minibase.DiskManager.file_of(index[i]));
+			assertEquals("data", Minibase.DiskManager.file_of(new PageId(data[i].pid + 1)));
+		}
+		assertEquals("heap", Minibase.DiskManager.file_of(unnamed));
+		// a freed page no longer belongs to its file
+		Minibase.DiskManager.deallocate_page(index[9]);
+		assertEquals("data", Minibase.DiskManager.file_of(index[9]));
+
+		reopenDB(DiskMgr.IO_FILE);
+		for (int i = 0; i < 9; i++) {
+			assertEquals("index", Minibase.DiskManager.file_of(index[i]));
+			assertEquals("data", Minibase.DiskManager.file_of(data[i]));
+		}
+		assertEquals("heap", Minibase.DiskManager.file_of(unnamed));
+		assertEquals("data", Minibase.DiskManager.file_of(index[9]));
+		// reads count against the file the page was allocated for
+		Page page = new Page();
+		for (int i = 0; i < 9; i++) {
+			Minibase.DiskManager.read_page(index[i], page);
+		}
+		assertEquals(9, Minibase.DiskManager.io_stats().snapshot().file("index").pagesRead);
+	}
+
+	/**
+	 * A page of zero-padded name fields, as heap files store them, or every
+	 * tenth page noise that does not compress.
+	 */
+	private static Page testPage(int pid, Random rand) throws Throwable {
+		Page page = new Page();
+		if (pid % 10 == 0) {
+			rand.nextBytes(page.getpage());
+		} else {
+			for (int off = 0; off + 44 <= PAGE_SIZE; off += 44) {
+				Convert.setIntValue(pid, off, page.getpage());
+				Convert.setStringValue("name" + (off % 7), off + 4, page.getpage());
+			}
+		}
+		Convert.setIntValue(pid, PAGE_SIZE - 4, page.getpage());
+		return page;
+	}
+
+	@Test
+	public void testC_ConcurrentReads() throws Throwable {
+		concurrentReads(DiskMgr.IO_FILE);
+	}
+
+	@Test
+	public void testD_ConcurrentMappedReads() throws Throwable {
+		concurrentReads(DiskMgr.IO_MAPPED);
+	}
+
+	/**
+	 * Read random pages from several threads at once and check that every
+	 * thread got the page it asked for, from the first byte to the last.
+	 */
+	private void concurrentReads(String ioMode) throws Throwable {
+		createDB(ioMode);
+		Page page = new Page();
+		for (int pid = 0; pid < DB_SIZE; pid++) {
+			Convert.setIntValue(pid, 0, page.getpage());
+			Convert.setIntValue(pid, PAGE_SIZE - 4, page.getpage());
+			Minibase.DiskManager.write_page(new PageId(pid), page);
+		}
+
+		final int numThreads = 8;
+		final int readsPerThread = 20000;
+		final AtomicInteger torn = new AtomicInteger();
+		final AtomicInteger done = new AtomicInteger();
+		Thread[] readers = new Thread[numThreads];
+		for (int t = 0; t < numThreads; t++) {
+			final long seed = t;
+			readers[t] = new Thread(() -> {
+				Random rand = new Random(seed);
+				Page mine = new Page();
+				PageId pid = new PageId();
+				try {
+					for (int i = 0; i < readsPerThread; i++) {
+						pid.pid = rand.nextInt(DB_SIZE);
+						Minibase.DiskManager.read_page(pid, mine);
+						if (Convert.getIntValue(0, mine.getpage()) != pid.pid
+								|| Convert.getIntValue(PAGE_SIZE - 4, mine.getpage()) != pid.pid) {
+							torn.incrementAndGet();
+						}
+						done.incrementAndGet();
+					}
+				} catch (Exception e) {
+					torn.incrementAndGet();
+				}
+			});
+			readers[t].start();
+		}
+		for (Thread reader : readers) {
+			reader.join();
+		}
+		assertEquals("torn or failed reads with " + ioMode, 0, torn.get());
+		assertEquals("reads done with " + ioMode, numThreads * readsPerThread, done.get());
+	}
+}
@@ -0,0 +1,141 @@
+package tests;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+import bufmgr.BufMgr;
+import diskmgr.DiskMgr;
+import global.Convert;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+/**
+ * Compares buffered and direct I/O at several buffer pool sizes on random,
+ * skewed page lookups through the buffer pool. For each run the database is
+ * written again with direct I/O, so none of it is in the OS page cache when
+ * the run starts; the growth of the page cache during the run (Cached in
+ * /proc/meminfo) is then the memory the OS spent caching pages a second time.
+ * Buffered I/O gets a second-level cache for that memory, direct I/O gets it
+ * back for the buffer pool. Not a unit test; run it with
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:lib/bufmgrAssign.jar tests.DirectIOBenchmark [MB of data] [lookups] [page size]
+ * </pre>
+ */
+public class DirectIOBenchmark implements GlobalConst {
+
+	private static final String dbpath = "/tmp/" + System.getProperty("user.name") + ".minibase-bench";
+
+	/** Buffer pool sizes, in MB. */
+	private static final int[] POOL_MB = { 4, 16, 64 };
+
+	/** Pages written per call while loading the database. */
+	private static final int LOAD_RUN = 64;
+
+	public static void main(String[] args) throws Throwable {
+		int dataMB = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+		int numLookups = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		int pageSize = args.length > 2 ? Integer.parseInt(args[2]) : 4096;
+		int numPages = (int) ((long) dataMB * (1 << 20) / pageSize);
+
+		System.out.println("data=" + dataMB + " MB pages=" + numPages + " lookups=" + numLookups + " page size="
+				+ pageSize);
+		for (int poolMB : POOL_MB) {
+			for (String mode : new String[] { DiskMgr.IO_FILE, DiskMgr.IO_DIRECT }) {
+				int first = setUp(pageSize, numPages);
+				int poolPages = (int) ((long) poolMB * (1 << 20) / pageSize);
+				Minibase.BufferManager = new BufMgr(poolPages, 0, "FIFO");
+				Minibase.DiskManager = new DiskMgr();
+				Minibase.DiskManager.openDB(dbpath, mode);
+
+				long cachedBefore = cachedKB();
+				lookups(first, numPages, poolPages, numLookups, 1); // warm the pool
+				long nanos = lookups(first, numPages, poolPages, numLookups, 2);
+				long cachedAfter = cachedKB();
+
+				System.out.printf("pool %3d MB  %-6s  %9.0f lookups/s  page cache +%6s MB  pool + cache %6s MB%n",
+						poolMB, Minibase.DiskManager.db_io_mode(), numLookups / (nanos / 1e9),
+						mb(cachedAfter - cachedBefore, cachedBefore), mb(cachedAfter - cachedBefore + poolMB * 1024,
+								cachedBefore));
+				Minibase.BufferManager.flushAllPages();
+				Minibase.DiskManager.DBDestroy();
+			}
+		}
+	}
+
+	/**
+	 * Create the database with direct I/O, so its pages do not enter the page
+	 * cache, write every page and close it; returns the first data page.
+	 */
+	private static int setUp(int pageSize, int numPages) throws Throwable {
+		new File(dbpath).delete();
+		Minibase.BufferManager = new BufMgr(16, 0, "FIFO");
+		Minibase.DiskManager = new DiskMgr();
+		Minibase.DiskManager.openDB(dbpath, numPages + 64, DiskMgr.IO_DIRECT, pageSize);
+		PageId first = Minibase.DiskManager.allocate_page(numPages);
+
+		Page[] run = new Page[LOAD_RUN];
+		for (int i = 0; i < run.length; i++) {
+			run[i] = new Page(new byte[pageSize]);
+		}
+		for (int i = 0; i < numPages; i += LOAD_RUN) {
+			int n = Math.min(LOAD_RUN, numPages - i);
+			Page[] pages = n == LOAD_RUN ? run : Arrays.copyOf(run, n);
+			for (int j = 0; j < n; j++) {
+				Convert.setIntValue(first.pid + i + j, 0, pages[j].getpage());
+			}
+			Minibase.DiskManager.write_pages(new PageId(first.pid + i), pages);
+		}
+		Minibase.BufferManager.flushAllPages();
+		Minibase.DiskManager.closeDB();
+		return first.pid;
+	}
+
+	/**
+	 * Pin random pages: nine lookups in ten go to a hot set twice the size of
+	 * the pool, the rest anywhere in the database.
+	 */
+	private static long lookups(int first, int numPages, int poolPages, int numLookups, long seed)
+			throws Throwable {
+		Random rand = new Random(seed);
+		int hot = Math.min(numPages, 2 * poolPages);
+		Page page = new Page();
+		PageId pid = new PageId();
+		long start = System.nanoTime();
+		for (int i = 0; i < numLookups; i++) {
+			pid.pid = first + (rand.nextInt(10) < 9 ? rand.nextInt(hot) : rand.nextInt(numPages));
+			Minibase.BufferManager.pinPage(pid, page, false);
+			if (Convert.getIntValue(0, page.getpage()) != pid.pid) {
+				throw new IllegalStateException("lookup read the wrong page");
+			}
+			Minibase.BufferManager.unpinPage(pid, false);
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Returns the size of the OS page cache in KB, or -1 where /proc/meminfo
+	 * is not available.
+	 */
+	private static long cachedKB() {
+		try {
+			for (String line : Files.readAllLines(Paths.get("/proc/meminfo"))) {
+				if (line.startsWith("Cached:")) {
+					return Long.parseLong(line.replaceAll("[^0-9]", ""));
+				}
+			}
+		} catch (Exception e) {
+			// not Linux
+		}
+		return -1;
+	}
+
+	private static String mb(long kb, long cachedBefore) {
+		return cachedBefore < 0 ? "n/a" : String.valueOf(kb / 1024);
+	}
+}
@@ -0,0 +1,121 @@
+package tests;
+
+import java.io.File;
+import java.util.Random;
+
+import bufmgr.BufMgr;
+import diskmgr.DiskMgr;
+import global.Convert;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+/**
+ * Compares the DiskMgr storage backends on sequential and random page reads,
+ * the random ones also split over 1 to 16 threads.
+ * Not a unit test; run it with
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:lib/bufmgrAssign.jar tests.DiskMgrBenchmark [pages] [reads]
+ * </pre>
+ */
+public class DiskMgrBenchmark implements GlobalConst {
+
+	private static final String dbpath = "/tmp/" + System.getProperty("user.name") + ".minibase-bench";
+
+	public static void main(String[] args) throws Throwable {
+		int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+		int numReads = args.length > 1 ? Integer.parseInt(args[1]) : 500000;
+
+		System.out.println("pages=" + numPages + " reads=" + numReads + " page size=" + PAGE_SIZE);
+		for (String mode : new String[] { DiskMgr.IO_FILE, DiskMgr.IO_MAPPED }) {
+			setUp(mode, numPages);
+			// one untimed pass of each to warm the JIT and the OS page cache
+			sequential(numPages, numReads);
+			random(numPages, numReads);
+			report(mode, "sequential", numReads, sequential(numPages, numReads));
+			report(mode, "random", numReads, random(numPages, numReads));
+			for (int threads = 1; threads <= 16; threads *= 2) {
+				report(mode, "random x" + threads, numReads, concurrent(numPages, numReads, threads));
+			}
+			Minibase.DiskManager.DBDestroy();
+		}
+	}
+
+	/**
+	 * Create a database of numPages pages with the given backend and write
+	 * every page once.
+	 */
+	private static void setUp(String ioMode, int numPages) throws Throwable {
+		new File(dbpath).delete();
+		Minibase.BufferManager = new BufMgr(100, 0, "FIFO");
+		Minibase.DiskManager = new DiskMgr();
+		Minibase.DiskManager.openDB(dbpath, numPages, ioMode);
+
+		Page page = new Page();
+		for (int pid = 0; pid < numPages; pid++) {
+			Convert.setIntValue(pid, 0, page.getpage());
+			Minibase.DiskManager.write_page(new PageId(pid), page);
+		}
+		Minibase.DiskManager.flush();
+	}
+
+	private static long sequential(int numPages, int numReads) throws Throwable {
+		Page page = new Page();
+		PageId pid = new PageId();
+		long start = System.nanoTime();
+		for (int i = 0; i < numReads; i++) {
+			pid.pid = i % numPages;
+			Minibase.DiskManager.read_page(pid, page);
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static long random(int numPages, int numReads) throws Throwable {
+		Random rand = new Random(448);
+		Page page = new Page();
+		PageId pid = new PageId();
+		long start = System.nanoTime();
+		for (int i = 0; i < numReads; i++) {
+			pid.pid = rand.nextInt(numPages);
+			Minibase.DiskManager.read_page(pid, page);
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * numReads random page reads split over the given number of threads.
+	 */
+	private static long concurrent(int numPages, int numReads, int numThreads) throws Throwable {
+		Thread[] readers = new Thread[numThreads];
+		long start = System.nanoTime();
+		for (int t = 0; t < numThreads; t++) {
+			final long seed = t;
+			readers[t] = new Thread(() -> {
+				Random rand = new Random(seed);
+				Page page = new Page();
+				PageId pid = new PageId();
+				try {
+					for (int i = 0; i < numReads / numThreads; i++) {
+						pid.pid = rand.nextInt(numPages);
+						Minibase.DiskManager.read_page(pid, page);
+					}
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			});
+			readers[t].start();
+		}
+		for (Thread reader : readers) {
+			reader.join();
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static void report(String mode, String pattern, int numReads, long nanos) {
+		double pagesPerSec = numReads / (nanos / 1e9);
+		System.out.printf("%-8s %-11s %8.1f ns/page %10.0f pages/s %9.1f MB/s%n", mode, pattern,
+				(double) nanos / numReads, pagesPerSec, pagesPerSec * PAGE_SIZE / (1 << 20));
+	}
+}
@@ -0,0 +1,128 @@
+package tests;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import bufmgr.BufMgr;
+import diskmgr.DiskMgr;
+import global.Convert;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+/**
+ * Compares a large buffer pool on the Java heap with a small one in front of
+ * an off-heap page cache of the same size, on random pins over a working set
+ * that fits either, while the application allocates short-lived objects and
+ * keeps some of them for a while, as a query engine does. Reports pins per
+ * second, the time spent in garbage collection and the longest collection,
+ * and the heap in use at the end. Not a unit test.
+ *
+ * The working set defaults to 4 GB. A pool that size needs a heap to match,
+ * and the cache as much direct memory, so each pool is best measured in a JVM
+ * of its own, the off-heap one with a small heap:
+ *
+ * <pre>
+ * java -Xmx6g -cp target/classes:target/test-classes:lib/bufmgrAssign.jar tests.OffHeapBenchmark 4096 8000000 Clock on-heap
+ * java -Xmx1g -XX:MaxDirectMemorySize=5g -cp target/classes:target/test-classes:lib/bufmgrAssign.jar tests.OffHeapBenchmark 4096 8000000 Clock off-heap
+ * </pre>
+ *
+ * The arguments are the working set in MB, the number of pins, the policy and
+ * the pool to measure (on-heap, off-heap or both, the default).
+ */
+public class OffHeapBenchmark implements GlobalConst {
+
+	private static final String dbpath = "/tmp/" + System.getProperty("user.name") + ".minibase-bench";
+
+	/** the small pool's share of the working set */
+	private static final int SMALL_POOL_DIVISOR = 64;
+
+	public static void main(String[] args) throws Throwable {
+		long workingSetMB = args.length > 0 ? Long.parseLong(args[0]) : 4096;
+		int pins = args.length > 1 ? Integer.parseInt(args[1]) : 8_000_000;
+		String policy = args.length > 2 ? args[2] : "Clock";
+		String pool = args.length > 3 ? args[3] : "both";
+		int numPages = (int) ((workingSetMB << 20) / PAGE_SIZE);
+
+		System.out.println("working set=" + workingSetMB + " MB (" + numPages + " pages) pins=" + pins + " policy="
+				+ policy);
+		new File(dbpath).delete();
+		// a small pool for the space map pages while the database is built
+		Minibase.BufferManager = new BufMgr(64, 0, policy, 0);
+		Minibase.DiskManager = new DiskMgr();
+		Minibase.DiskManager.openDB(dbpath, numPages + numPages / 1024 + 64, DiskMgr.IO_FILE, PAGE_SIZE);
+		int first = Minibase.DiskManager.allocate_page(numPages).pid;
+		Page data = new Page();
+		for (int i = 0; i < numPages; i++) {
+			Convert.setIntValue(first + i, 0, data.getpage());
+			Minibase.DiskManager.write_page(new PageId(first + i), data);
+		}
+		Minibase.BufferManager.flushAllPages();
+
+		if (!pool.equals("off-heap")) {
+			measure("on-heap", new BufMgr(numPages, 0, policy, 0), numPages, first, pins);
+		}
+		if (!pool.equals("on-heap")) {
+			measure("off-heap", new BufMgr(numPages / SMALL_POOL_DIVISOR, 0, policy, (long) numPages * PAGE_SIZE),
+					numPages, first, pins);
+		}
+		Minibase.DiskManager.DBDestroy();
+	}
+
+	private static void measure(String name, BufMgr bm, int numPages, int first, int pins) throws Throwable {
+		Minibase.BufferManager = bm;
+		Random random = new Random(42);
+		Page page = new Page();
+		PageId pid = new PageId();
+		// objects the application keeps for a while, replaced at random
+		Object[] kept = new Object[64 * 1024];
+		// the first pass over the working set fills the pool and the cache
+		for (int i = 0; i < numPages; i++) {
+			pid.pid = first + i;
+			bm.pinPage(pid, page, false);
+			bm.unpinPage(pid, false);
+		}
+		System.gc();
+
+		long gcCount = 0;
+		long gcMillis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcCount -= gc.getCollectionCount();
+			gcMillis -= gc.getCollectionTime();
+		}
+		long longest = 0;
+		long start = System.nanoTime();
+		long last = start;
+		for (int i = 0; i < pins; i++) {
+			pid.pid = first + random.nextInt(numPages);
+			bm.pinPage(pid, page, false);
+			if (Convert.getIntValue(0, page.getpage()) != pid.pid) {
+				throw new IllegalStateException("pinned the wrong page");
+			}
+			// work on the page: copy out a row, and keep one now and then
+			byte[] row = new byte[64];
+			System.arraycopy(page.getpage(), 0, row, 0, row.length);
+			kept[random.nextInt(kept.length)] = i % 4 == 0 ? row : null;
+			bm.unpinPage(pid, false);
+			if ((i & 1023) == 0) {
+				// a stall far longer than a thousand pins take is a collection
+				long now = System.nanoTime();
+				longest = Math.max(longest, now - last);
+				last = now;
+			}
+		}
+		long nanos = System.nanoTime() - start;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcCount += gc.getCollectionCount();
+			gcMillis += gc.getCollectionTime();
+		}
+		Runtime runtime = Runtime.getRuntime();
+		long heapMB = (runtime.totalMemory() - runtime.freeMemory()) >> 20;
+		System.out.printf("%-8s pool=%-8d %9.0f pins/s  gc %4d runs %6d ms  longest 1k pins %7.1f ms  heap used %5d MB%n",
+				name, bm.getNumBuffers(), pins * 1e9 / nanos, gcCount, gcMillis, longest / 1e6, heapMB);
+		bm.flushAllPages();
+	}
+}
@@ -0,0 +1,126 @@
+package tests;
+
+import java.io.File;
+import java.util.Random;
+
+import bufmgr.BufMgr;
+import diskmgr.DiskMgr;
+import global.Convert;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+/**
+ * Compares database page sizes on a full scan and on random point lookups of
+ * fixed-size records through the buffer pool. Every size holds the same data
+ * and gets a buffer pool of the same number of bytes, so the difference is the
+ * number of pages touched and I/Os issued. Not a unit test; run it with
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:lib/bufmgrAssign.jar tests.PageSizeBenchmark [MB of records] [lookups]
+ * </pre>
+ */
+public class PageSizeBenchmark implements GlobalConst {
+
+	private static final String dbpath = "/tmp/" + System.getProperty("user.name") + ".minibase-bench";
+
+	/** Record length in bytes; each page holds a record count and then records. */
+	private static final int RECORD_SIZE = 100;
+
+	/** Buffer pool size in bytes, the same for every page size. */
+	private static final int POOL_BYTES = 4 << 20;
+
+	public static void main(String[] args) throws Throwable {
+		int dataMB = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int numLookups = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+		int numRecords = (int) ((long) dataMB * (1 << 20) / RECORD_SIZE);
+
+		System.out.println("records=" + numRecords + " lookups=" + numLookups + " pool=" + (POOL_BYTES >> 20) + " MB");
+		for (int pageSize = PAGE_SIZE; pageSize <= DiskMgr.MAX_PAGE_SIZE; pageSize *= 2) {
+			int first = setUp(pageSize, numRecords);
+			// one untimed pass of each to warm the JIT and the OS page cache
+			scan(first, pageSize, numRecords);
+			lookups(first, pageSize, numRecords, numLookups);
+			long scanNanos = scan(first, pageSize, numRecords);
+			long lookupNanos = lookups(first, pageSize, numRecords, numLookups);
+			System.out.printf("%6d B pages %7d pages  scan %10.0f records/s  lookup %9.0f lookups/s%n", pageSize,
+					numDataPages(pageSize, numRecords), numRecords / (scanNanos / 1e9),
+					numLookups / (lookupNanos / 1e9));
+			Minibase.DiskManager.DBDestroy();
+		}
+	}
+
+	private static int recordsPerPage(int pageSize) {
+		return (pageSize - 4) / RECORD_SIZE;
+	}
+
+	private static int numDataPages(int pageSize, int numRecords) {
+		return (numRecords + recordsPerPage(pageSize) - 1) / recordsPerPage(pageSize);
+	}
+
+	/**
+	 * Create a database with the given page size, fill it with numRecords
+	 * records and return the first data page.
+	 */
+	private static int setUp(int pageSize, int numRecords) throws Throwable {
+		new File(dbpath).delete();
+		int numPages = numDataPages(pageSize, numRecords);
+		Minibase.BufferManager = new BufMgr(POOL_BYTES / pageSize, 0, "FIFO");
+		Minibase.DiskManager = new DiskMgr();
+		Minibase.DiskManager.openDB(dbpath, numPages + 16, DiskMgr.IO_FILE, pageSize);
+		PageId first = Minibase.DiskManager.allocate_page(numPages);
+
+		int perPage = recordsPerPage(pageSize);
+		Page page = new Page(new byte[pageSize]);
+		for (int i = 0; i < numPages; i++) {
+			int count = Math.min(perPage, numRecords - i * perPage);
+			Convert.setIntValue(count, 0, page.getpage());
+			for (int r = 0; r < count; r++) {
+				Convert.setIntValue(i * perPage + r, 4 + r * RECORD_SIZE, page.getpage());
+			}
+			Minibase.DiskManager.write_page(new PageId(first.pid + i), page);
+		}
+		Minibase.DiskManager.flush();
+		return first.pid;
+	}
+
+	private static long scan(int first, int pageSize, int numRecords) throws Throwable {
+		Page page = new Page();
+		PageId pid = new PageId();
+		long sum = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < numDataPages(pageSize, numRecords); i++) {
+			pid.pid = first + i;
+			Minibase.BufferManager.pinPage(pid, page, false);
+			int count = Convert.getIntValue(0, page.getpage());
+			for (int r = 0; r < count; r++) {
+				sum += Convert.getIntValue(4 + r * RECORD_SIZE, page.getpage());
+			}
+			Minibase.BufferManager.unpinPage(pid, false);
+		}
+		long nanos = System.nanoTime() - start;
+		if (sum != (long) numRecords * (numRecords - 1) / 2) {
+			throw new IllegalStateException("scan read wrong records");
+		}
+		return nanos;
+	}
+
+	private static long lookups(int first, int pageSize, int numRecords, int numLookups) throws Throwable {
+		Random rand = new Random(448);
+		int perPage = recordsPerPage(pageSize);
+		Page page = new Page();
+		PageId pid = new PageId();
+		long start = System.nanoTime();
+		for (int i = 0; i < numLookups; i++) {
+			int rid = rand.nextInt(numRecords);
+			pid.pid = first + rid / perPage;
+			Minibase.BufferManager.pinPage(pid, page, false);
+			if (Convert.getIntValue(4 + (rid % perPage) * RECORD_SIZE, page.getpage()) != rid) {
+				throw new IllegalStateException("lookup read the wrong record");
+			}
+			Minibase.BufferManager.unpinPage(pid, false);
+		}
+		return System.nanoTime() - start;
+	}
+}
@@ -0,0 +1,91 @@
+package tests;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import bufmgr.BufMgr;
+import diskmgr.DiskMgr;
+import global.Convert;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+/**
+ * Measures the cost of pinPage/unpinPage, in time and in bytes allocated by
+ * the calling thread, for hits (a page already in the pool) and misses (every
+ * pin evicts a clean page and reads another), with each storage backend that
+ * reads without copying through a temporary buffer. Bytes are counted with the
+ * JVM's per-thread allocation counter. Not a unit test; run it with
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:lib/bufmgrAssign.jar tests.PinBenchmark [pool pages] [pins] [policy]
+ * </pre>
+ */
+public class PinBenchmark implements GlobalConst {
+
+	private static final String dbpath = "/tmp/" + System.getProperty("user.name") + ".minibase-bench";
+
+	/** Measured rounds; the first is thrown away as warm-up. */
+	private static final int ROUNDS = 5;
+
+	private static final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	public static void main(String[] args) throws Throwable {
+		int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+		int numPins = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+		String policy = args.length > 2 ? args[2] : "FIFO";
+		int numPages = 4 * poolPages;
+
+		System.out.println("pool=" + poolPages + " pins=" + numPins + " policy=" + policy);
+		for (String mode : new String[] { DiskMgr.IO_FILE, DiskMgr.IO_MAPPED }) {
+			new File(dbpath).delete();
+			Minibase.BufferManager = new BufMgr(poolPages, 0, policy);
+			Minibase.DiskManager = new DiskMgr();
+			Minibase.DiskManager.openDB(dbpath, numPages + 64, mode, PAGE_SIZE);
+			int first = Minibase.DiskManager.allocate_page(numPages).pid;
+			Page data = new Page();
+			for (int i = 0; i < numPages; i++) {
+				Convert.setIntValue(first + i, 0, data.getpage());
+				Minibase.DiskManager.write_page(new PageId(first + i), data);
+			}
+
+			// hits cycle over half the pool, misses over the whole database in
+			// order, so the page unpinned longest ago is never the next one wanted
+			report(mode, "hit", first, poolPages / 2, numPins);
+			report(mode, "miss", first, numPages, numPins / 4);
+			Minibase.DiskManager.DBDestroy();
+		}
+	}
+
+	private static void report(String mode, String what, int first, int cycle, int numPins) throws Throwable {
+		Page page = new Page();
+		PageId pid = new PageId();
+		long best = Long.MAX_VALUE;
+		long bytes = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+			long start = System.nanoTime();
+			pins(first, cycle, numPins, pid, page);
+			long nanos = System.nanoTime() - start;
+			if (round > 0) {
+				best = Math.min(best, nanos);
+				bytes += threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated;
+			}
+		}
+		System.out.printf("%-6s %-4s  %7.1f ns/pin  %6.2f bytes/pin%n", mode, what, (double) best / numPins,
+				(double) bytes / ((ROUNDS - 1) * (long) numPins));
+	}
+
+	private static void pins(int first, int cycle, int numPins, PageId pid, Page page) throws Throwable {
+		for (int i = 0; i < numPins; i++) {
+			pid.pid = first + i % cycle;
+			Minibase.BufferManager.pinPage(pid, page, false);
+			if (Convert.getIntValue(0, page.getpage()) != pid.pid) {
+				throw new IllegalStateException("pinned the wrong page");
+			}
+			Minibase.BufferManager.unpinPage(pid, false);
+		}
+	}
+}
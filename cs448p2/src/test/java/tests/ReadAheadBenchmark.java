@@ -0,0 +1,107 @@
+package tests;
+
+import java.io.File;
+import java.util.Random;
+
+import bufmgr.BufMgr;
+import diskmgr.DiskMgr;
+import global.Convert;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+/**
+ * Measures read-ahead for several lookAheadSize values on two workloads: a
+ * plain sequential scan of eight times the pool, and the same scan with a
+ * lookup in a hot set of a quarter of the pool after every page, where read
+ * ahead must not cost the hot set its place. Reports pins per second, the
+ * share of scan pins that found their page in the pool or already being read
+ * ahead, and the hot set's hit ratio. Read-ahead pays off when reads reach the
+ * device, as with the Direct backend; when they are served from the OS page
+ * cache on a single processor, handing them to the I/O thread costs more
+ * than it hides. Not a unit test; run it with
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:lib/bufmgrAssign.jar tests.ReadAheadBenchmark [pool pages] [scans] [policy] [io mode]
+ * </pre>
+ */
+public class ReadAheadBenchmark implements GlobalConst {
+
+	private static final String dbpath = "/tmp/" + System.getProperty("user.name") + ".minibase-bench";
+
+	public static void main(String[] args) throws Throwable {
+		int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+		int scans = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		String policy = args.length > 2 ? args[2] : "FIFO";
+		String mode = args.length > 3 ? args[3] : DiskMgr.IO_FILE;
+
+		System.out.println("pool=" + poolPages + " scans=" + scans + " policy=" + policy + " io=" + mode);
+		for (boolean lookups : new boolean[] { false, true }) {
+			for (int lookAhead : new int[] { 0, 8, 32, 128 }) {
+				measure(poolPages, scans, policy, mode, lookups, lookAhead);
+			}
+		}
+	}
+
+	private static void measure(int poolPages, int scans, String policy, String mode, boolean lookups,
+			int lookAhead) throws Throwable {
+		int numPages = 8 * poolPages;
+		int hot = poolPages / 4;
+		new File(dbpath).delete();
+		BufMgr bm = new BufMgr(poolPages, lookAhead, policy);
+		Minibase.BufferManager = bm;
+		Minibase.DiskManager = new DiskMgr();
+		Minibase.DiskManager.openDB(dbpath, numPages + hot + 64, mode, PAGE_SIZE);
+		int first = Minibase.DiskManager.allocate_page(numPages + hot).pid;
+		Page data = new Page();
+		for (int i = 0; i < numPages + hot; i++) {
+			Convert.setIntValue(first + i, 0, data.getpage());
+			Minibase.DiskManager.write_page(new PageId(first + i), data);
+		}
+
+		Random random = new Random(42);
+		Page page = new Page();
+		PageId pid = new PageId();
+		long scanHits = 0;
+		long hotHits = 0;
+		long start = 0;
+		// the first scan warms up
+		for (int scan = 0; scan <= scans; scan++) {
+			if (scan == 1) {
+				scanHits = hotHits = 0;
+				start = System.nanoTime();
+			}
+			for (int i = 0; i < numPages; i++) {
+				pid.pid = first + hot + i;
+				scanHits += pin(bm, pid, page);
+				if (lookups) {
+					pid.pid = first + random.nextInt(hot);
+					hotHits += pin(bm, pid, page);
+				}
+			}
+		}
+		long nanos = System.nanoTime() - start;
+		long scanPins = (long) scans * numPages;
+		long pins = lookups ? 2 * scanPins : scanPins;
+		System.out.printf("%-7s lookahead=%-3d  %8.0f pins/s  scan in pool %5.1f%%  hot hits %5.1f%%%n",
+				lookups ? "lookups" : "scan", lookAhead, pins * 1e9 / nanos, 100.0 * scanHits / scanPins,
+				lookups ? 100.0 * hotHits / scanPins : 0.0);
+		Minibase.DiskManager.DBDestroy();
+	}
+
+	/**
+	 * Pin and unpin a page.
+	 *
+	 * @return 1 if it was in the pool, 0 if not
+	 */
+	private static int pin(BufMgr bm, PageId pid, Page page) throws Throwable {
+		int hit = bm.getFrameFromPage(pid) != null ? 1 : 0;
+		bm.pinPage(pid, page, false);
+		if (Convert.getIntValue(0, page.getpage()) != pid.pid) {
+			throw new IllegalStateException("pinned the wrong page");
+		}
+		bm.unpinPage(pid, false);
+		return hit;
+	}
+}
@@ -0,0 +1,135 @@
+package tests;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import bufmgr.BufMgr;
+import diskmgr.DiskMgr;
+import global.Convert;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+/**
+ * Compares the replacement policies on two workloads through the buffer pool:
+ * <ul>
+ * <li>scan: point lookups on a hot set half the size of the pool, interrupted
+ * every few thousand lookups by a sequential scan twice the size of the pool
+ * <li>zipf: point lookups drawn from a Zipf distribution (s = 0.99) over the
+ * whole database, with the ranks dealt to pages at random
+ * </ul>
+ * The hit ratio is one minus the pages DiskMgr read over the pins; pins/s
+ * includes the reads of the misses. Not a unit test; run it with
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:lib/bufmgrAssign.jar tests.ReplacerBenchmark [pages] [pool pages] [pins]
+ * </pre>
+ */
+public class ReplacerBenchmark implements GlobalConst {
+
+	private static final String dbpath = "/tmp/" + System.getProperty("user.name") + ".minibase-bench";
+
+	private static final String[] POLICIES = { "FIFO", "Clock", "LRU-K", "2Q" };
+
+	/** Point lookups between two scans of the scan workload. */
+	private static final int SCAN_EVERY = 5000;
+
+	public static void main(String[] args) throws Throwable {
+		int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 16384;
+		int poolPages = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+		int numPins = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+
+		new File(dbpath).delete();
+		Minibase.BufferManager = new BufMgr(16, 0, "FIFO");
+		Minibase.DiskManager = new DiskMgr();
+		Minibase.DiskManager.openDB(dbpath, numPages + 64, DiskMgr.IO_FILE, PAGE_SIZE);
+		int first = Minibase.DiskManager.allocate_page(numPages).pid;
+		Page data = new Page();
+		for (int i = 0; i < numPages; i++) {
+			Convert.setIntValue(first + i, 0, data.getpage());
+			Minibase.DiskManager.write_page(new PageId(first + i), data);
+		}
+
+		System.out.println("pages=" + numPages + " pool=" + poolPages + " pins=" + numPins);
+		int[] scan = scanWorkload(first, numPages, poolPages, numPins);
+		int[] zipf = zipfWorkload(first, numPages, numPins);
+		for (String policy : POLICIES) {
+			run(policy, "scan", scan, poolPages);
+			run(policy, "zipf", zipf, poolPages);
+		}
+		Minibase.DiskManager.DBDestroy();
+	}
+
+	private static void run(String policy, String workload, int[] pages, int poolPages) throws Throwable {
+		Minibase.BufferManager = new BufMgr(poolPages, 0, policy);
+		Page page = new Page();
+		PageId pid = new PageId();
+		// the first half warms the pool, the second half is measured
+		int half = pages.length / 2;
+		long readsBefore = 0;
+		long start = 0;
+		for (int i = 0; i < pages.length; i++) {
+			if (i == half) {
+				readsBefore = Minibase.DiskManager.io_stats().snapshot().pagesRead();
+				start = System.nanoTime();
+			}
+			pid.pid = pages[i];
+			Minibase.BufferManager.pinPage(pid, page, false);
+			if (Convert.getIntValue(0, page.getpage()) != pid.pid) {
+				throw new IllegalStateException("pinned the wrong page");
+			}
+			Minibase.BufferManager.unpinPage(pid, false);
+		}
+		long nanos = System.nanoTime() - start;
+		long reads = Minibase.DiskManager.io_stats().snapshot().pagesRead() - readsBefore;
+		int measured = pages.length - half;
+		System.out.printf("%-6s %-5s  hit ratio %6.2f%%  %10.0f pins/s%n", policy, workload,
+				100.0 * (measured - reads) / measured, measured / (nanos / 1e9));
+	}
+
+	private static int[] scanWorkload(int first, int numPages, int poolPages, int numPins) {
+		Random rand = new Random(1);
+		int hot = poolPages / 2;
+		int scanLength = 2 * poolPages;
+		int[] pages = new int[numPins];
+		int next = hot;
+		int i = 0;
+		while (i < numPins) {
+			for (int j = 0; j < SCAN_EVERY && i < numPins; j++) {
+				pages[i++] = first + rand.nextInt(hot);
+			}
+			for (int j = 0; j < scanLength && i < numPins; j++) {
+				pages[i++] = first + next;
+				next = next + 1 < numPages ? next + 1 : hot;
+			}
+		}
+		return pages;
+	}
+
+	private static int[] zipfWorkload(int first, int numPages, int numPins) {
+		Random rand = new Random(2);
+		double[] cdf = new double[numPages];
+		double sum = 0;
+		for (int i = 0; i < numPages; i++) {
+			sum += 1 / Math.pow(i + 1, 0.99);
+			cdf[i] = sum;
+		}
+		int[] pageOfRank = new int[numPages];
+		for (int i = 0; i < numPages; i++) {
+			int j = rand.nextInt(i + 1);
+			pageOfRank[i] = pageOfRank[j];
+			pageOfRank[j] = i;
+		}
+		int[] pages = new int[numPins];
+		for (int i = 0; i < numPins; i++) {
+			int rank = Arrays.binarySearch(cdf, rand.nextDouble() * sum);
+			if (rank < 0) {
+				rank = Math.min(-rank - 1, numPages - 1);
+			}
+			pages[i] = first + pageOfRank[rank];
+		}
+		return pages;
+	}
+}
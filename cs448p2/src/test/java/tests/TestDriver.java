@@ -6,7 +6,7 @@ import org.junit.runner.notification.Failure;
 
 public class TestDriver {
 	public static void main(String[] args) {
-		Result result = JUnitCore.runClasses(tests.BMTest.class);
+		Result result = JUnitCore.runClasses(tests.BMTest.class, tests.DMTest.class);
 
 		for (Failure failure : result.getFailures()) {
 			System.out.println(failure.toString());
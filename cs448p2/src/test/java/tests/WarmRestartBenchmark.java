@@ -0,0 +1,172 @@
+package tests;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import bufmgr.BufMgr;
+import diskmgr.DiskMgr;
+import global.Convert;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+/**
+ * Measures how long a restarted buffer pool takes to get back to its
+ * steady-state hit ratio, with and without the warm-restart snapshot. A pool
+ * runs Zipf point lookups (s = 0.99) until its hit ratio settles, and the
+ * database is closed, which saves the snapshot. It is then opened again with
+ * an empty pool three times: reading the snapshot back on the warm-up thread
+ * while the lookups run, reading it back before they start, and with the
+ * snapshot removed. Each time the same lookups run in windows of WINDOW
+ * pins until a window's hit ratio is within 95% of the steady state. Reports
+ * the first window's hit ratio, and the pins, misses and time it took to get
+ * there, from the start of openDB. With the file backend both restarts read
+ * from the OS page cache, where a miss is cheap and the warm-up thread mostly
+ * competes with the lookups for the processor; the Direct backend shows what
+ * the snapshot's large sorted reads save over single page misses. Not a unit
+ * test; run it with
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:lib/bufmgrAssign.jar tests.WarmRestartBenchmark [pages] [pool pages] [policy] [io mode]
+ * </pre>
+ */
+public class WarmRestartBenchmark implements GlobalConst {
+
+	private static final String dbpath = "/tmp/" + System.getProperty("user.name") + ".minibase-bench";
+
+	/** Pins per window of the hit ratio. */
+	private static final int WINDOW = 500;
+
+	public static void main(String[] args) throws Throwable {
+		int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 16384;
+		int poolPages = args.length > 1 ? Integer.parseInt(args[1]) : 2048;
+		String policy = args.length > 2 ? args[2] : "LRU";
+		String mode = args.length > 3 ? args[3] : DiskMgr.IO_FILE;
+
+		new File(dbpath).delete();
+		BufMgr bm = new BufMgr(poolPages, 0, policy);
+		Minibase.BufferManager = bm;
+		Minibase.DiskManager = new DiskMgr();
+		Minibase.DiskManager.openDB(dbpath, numPages + 64, mode, PAGE_SIZE);
+		int first = Minibase.DiskManager.allocate_page(numPages).pid;
+		Page data = new Page();
+		for (int i = 0; i < numPages; i++) {
+			Convert.setIntValue(first + i, 0, data.getpage());
+			Minibase.DiskManager.write_page(new PageId(first + i), data);
+		}
+
+		System.out.println("pages=" + numPages + " pool=" + poolPages + " policy=" + policy + " io=" + mode);
+		int[] pages = zipfWorkload(first, numPages, 40 * poolPages);
+		// the first half warms the pool, the second half gives the steady state
+		int half = pages.length / 2;
+		long hits = 0;
+		for (int i = 0; i < pages.length; i++) {
+			int hit = pin(bm, pages[i]);
+			if (i >= half) {
+				hits += hit;
+			}
+		}
+		double steady = (double) hits / (pages.length - half);
+		System.out.printf("steady state hit ratio %5.1f%%%n", 100 * steady);
+		bm.flushAllPages();
+		Minibase.DiskManager.closeDB();
+
+		File snapshot = new File(dbpath + BufMgr.SNAPSHOT_SUFFIX);
+		File saved = new File(dbpath + ".saved");
+		java.nio.file.Files.copy(snapshot.toPath(), saved.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+		restart("snapshot", pages, poolPages, policy, mode, steady, null);
+		restart("waited", pages, poolPages, policy, mode, steady, saved);
+		restart("cold", pages, poolPages, policy, mode, steady, null);
+		Minibase.DiskManager.DBDestroy();
+	}
+
+	/**
+	 * Open the database with an empty pool and run the lookups until a window
+	 * reaches 95% of the steady-state hit ratio. If saved is not null, it is
+	 * the snapshot, read back before the lookups start; otherwise openDB reads
+	 * back whatever snapshot there is. Each restart leaves no snapshot.
+	 */
+	private static void restart(String name, int[] pages, int poolPages, String policy, String mode,
+			double steady, File saved) throws Throwable {
+		File snapshot = new File(dbpath + BufMgr.SNAPSHOT_SUFFIX);
+		BufMgr bm = new BufMgr(poolPages, 0, policy);
+		Minibase.BufferManager = bm;
+		Minibase.DiskManager = new DiskMgr();
+		long start = System.nanoTime();
+		Minibase.DiskManager.openDB(dbpath, mode);
+		if (saved != null) {
+			saved.renameTo(snapshot);
+			bm.warmUp().get();
+		}
+		snapshot.delete();
+		int pins = 0;
+		int misses = 0;
+		double firstRatio = -1;
+		double ratio = 0;
+		while (pins + WINDOW <= pages.length) {
+			int hits = 0;
+			for (int i = 0; i < WINDOW; i++) {
+				hits += pin(bm, pages[pins++]);
+			}
+			misses += WINDOW - hits;
+			ratio = (double) hits / WINDOW;
+			if (firstRatio < 0) {
+				firstRatio = ratio;
+			}
+			if (ratio >= 0.95 * steady) {
+				break;
+			}
+		}
+		long nanos = System.nanoTime() - start;
+		System.out.printf("%-8s  first window %5.1f%%  %6d pins  %6d misses  %8.1f ms to %5.1f%% hits%n", name,
+				100 * firstRatio, pins, misses, nanos / 1e6, 100 * ratio);
+		if (!name.equals("cold")) {
+			Minibase.DiskManager.closeDB();
+			snapshot.delete();
+		}
+	}
+
+	/**
+	 * Pin and unpin a page.
+	 *
+	 * @return 1 if it was in the pool, 0 if not
+	 */
+	private static int pin(BufMgr bm, int pageno) throws Throwable {
+		PageId pid = new PageId(pageno);
+		Page page = new Page();
+		int hit = bm.getFrameFromPage(pid) != null ? 1 : 0;
+		bm.pinPage(pid, page, false);
+		if (Convert.getIntValue(0, page.getpage()) != pageno) {
+			throw new IllegalStateException("pinned the wrong page");
+		}
+		bm.unpinPage(pid, false);
+		return hit;
+	}
+
+	private static int[] zipfWorkload(int first, int numPages, int numPins) {
+		Random rand = new Random(2);
+		double[] cdf = new double[numPages];
+		double sum = 0;
+		for (int i = 0; i < numPages; i++) {
+			sum += 1 / Math.pow(i + 1, 0.99);
+			cdf[i] = sum;
+		}
+		int[] pageOfRank = new int[numPages];
+		for (int i = 0; i < numPages; i++) {
+			int j = rand.nextInt(i + 1);
+			pageOfRank[i] = pageOfRank[j];
+			pageOfRank[j] = i;
+		}
+		int[] pages = new int[numPins];
+		for (int i = 0; i < numPins; i++) {
+			int rank = Arrays.binarySearch(cdf, rand.nextDouble() * sum);
+			if (rank < 0) {
+				rank = Math.min(-rank - 1, numPages - 1);
+			}
+			pages[i] = first + pageOfRank[rank];
+		}
+		return pages;
+	}
+}